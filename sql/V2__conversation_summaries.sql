@@ -0,0 +1,12 @@
+-- Rolling summaries of conversation turns that fell out of the prompt token budget
+-- conversation_key is the sha-256 of the chat memory id ("<userId>:<chatId>" or "anon:<chatId>");
+-- the chat id comes from the client and has no length limit, so the raw id is never used as the key
+
+CREATE TABLE IF NOT EXISTS conversation_summaries (
+  conversation_key CHAR(64) PRIMARY KEY COMMENT 'sha-256 of the chat memory id',
+  summary TEXT NOT NULL COMMENT 'rolling summary of compacted turns',
+  summarized_seq BIGINT NULL COMMENT 'sequence (messages row id or in-process counter) of the last message folded into the summary',
+  summarized_count INT NOT NULL DEFAULT 0 COMMENT 'number of messages folded so far',
+  created_at DATETIME DEFAULT CURRENT_TIMESTAMP,
+  updated_at DATETIME DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COMMENT='Conversation rolling summaries';
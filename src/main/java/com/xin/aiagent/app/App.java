@@ -1,21 +1,35 @@
 package com.xin.aiagent.app;
 
+import com.xin.aiagent.cache.ResponseCacheAdvisor;
+import com.xin.aiagent.cache.SemanticCacheAdvisor;
+import com.xin.aiagent.config.UpstreamCallProperties;
+import com.xin.aiagent.memory.PersistentChatMemory;
+import com.xin.aiagent.memory.TokenBudgetMemoryAdvisor;
+import com.xin.aiagent.security.UserPrincipal;
+import com.xin.aiagent.sse.StreamCancellation;
+import com.xin.aiagent.tools.CancellableToolCallback;
+import com.xin.aiagent.upstream.Deadline;
+import com.xin.aiagent.upstream.HedgingChatModel;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
-import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
 import org.springframework.ai.chat.client.advisor.QuestionAnswerAdvisor;
 import org.springframework.ai.chat.client.advisor.api.Advisor;
-import org.springframework.ai.chat.memory.ChatMemory;
-import org.springframework.ai.chat.memory.InMemoryChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.tool.ToolCallback;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.Map;
+import java.util.function.Consumer;
 
 import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_CONVERSATION_ID_KEY;
-import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_RETRIEVE_SIZE_KEY;
 
 @Component
 @Slf4j
@@ -23,6 +37,8 @@ public class App {
 
         private final ChatClient chatClient;
 
+        private final UpstreamCallProperties callProperties;
+
         @Resource
         private VectorStore appVectorStore;
 
@@ -32,55 +48,179 @@ public class App {
         @Resource
         private ToolCallback[] allTools;
 
+        @Resource
+        private ResponseCacheAdvisor responseCacheAdvisor;
+
+        @Resource
+        private SemanticCacheAdvisor semanticCacheAdvisor;
+
+        @Resource
+        private MyLoggerAdvisor myLoggerAdvisor;
+
+        /**
+         * 当前请求的用户，作为语义缓存的租户隔离键；必须在请求线程上调用
+         *
+         * @return "user:" + 用户 ID，未登录时为 null
+         */
+        public String currentTenant() {
+                Long userId = currentUserId();
+                return userId == null ? null : "user:" + userId;
+        }
+
+        /**
+         * 当前请求的用户 ID；必须在请求线程上调用
+         *
+         * @return 用户 ID，未登录时为 null
+         */
+        public Long currentUserId() {
+                Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+                if (auth != null && auth.getPrincipal() instanceof UserPrincipal principal) {
+                        return principal.getUserId();
+                }
+                return null;
+        }
+
+        /**
+         * 对话记忆 ID：客户端会话 ID 加上当前用户，只有属于该用户的会话才会读写 messages 表；必须在请求线程上调用
+         *
+         * @param chatId 客户端会话 ID，或 conversations.id
+         */
+        public String memoryId(String chatId) {
+                return PersistentChatMemory.conversationId(currentUserId(), chatId);
+        }
+
+        /**
+         * 按模式的预算创建请求截止时间；应在请求入口（控制器/服务）调用，使排队时间也计入预算
+         *
+         * @return 截止时间，预算 <= 0 时为 null（不限制）
+         */
+        public Deadline newDeadline(ChatMode mode) {
+                UpstreamCallProperties.Budget budget = callProperties.getDeadline();
+                return Deadline.after(mode == ChatMode.TOOLS ? budget.getToolsMs() : budget.getRagMs());
+        }
+
         public String doChatWithRagLocal(String message, String chatId) {
-                ChatResponse chatResponse = chatClient
+                String memoryId = memoryId(chatId);
+                Deadline deadline = newDeadline(ChatMode.RAG_LOCAL);
+                ChatResponse chatResponse = Deadline.callWithin(deadline, () -> chatClient
                                 .prompt()
                                 .user(message)
-                                .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
-                                                .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10))
-                                // 开启日志，便于观察效果
-                                .advisors(new MyLoggerAdvisor())
-                                // 应用知识库问答
-                                .advisors(new QuestionAnswerAdvisor(appVectorStore))
+                                .advisors(ragParams(memoryId, currentTenant(), ChatMode.RAG_LOCAL))
+                                // 计时与用量指标、采样日志
+                                .advisors(myLoggerAdvisor)
+                                // 语义缓存（检索之前，命中时跳过检索与生成）
+                                .advisors(semanticCacheAdvisor)
+                                // 应用知识库问答（前后两个标记用于统计检索耗时）
+                                .advisors(MyLoggerAdvisor.RETRIEVAL_START, new QuestionAnswerAdvisor(appVectorStore),
+                                                MyLoggerAdvisor.RETRIEVAL_END)
+                                // 回答缓存（检索之后、模型调用之前）
+                                .advisors(responseCacheAdvisor)
                                 .call()
-                                .chatResponse();
-                String content = chatResponse.getResult().getOutput().getText();
-                log.info("content: {}", content);
-                return content;
+                                .chatResponse());
+                return chatResponse.getResult().getOutput().getText();
         }
 
         public String doChatWithRagCloud(String message, String chatId) {
-                ChatResponse chatResponse = chatClient
+                String memoryId = memoryId(chatId);
+                Deadline deadline = newDeadline(ChatMode.RAG_CLOUD);
+                ChatResponse chatResponse = Deadline.callWithin(deadline, () -> chatClient
                                 .prompt()
                                 .user(message)
-                                .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
-                                                .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10))
-                                // 开启日志，便于观察效果
-                                .advisors(new MyLoggerAdvisor())
-                                // 应用 RAG 知识库问答
-                                .advisors(appRagCloudAdvisor)
+                                .advisors(ragParams(memoryId, currentTenant(), ChatMode.RAG_CLOUD))
+                                // 计时与用量指标、采样日志
+                                .advisors(myLoggerAdvisor)
+                                // 语义缓存（检索之前，命中时跳过检索与生成）
+                                .advisors(semanticCacheAdvisor)
+                                // 应用 RAG 知识库问答（前后两个标记用于统计检索耗时）
+                                .advisors(MyLoggerAdvisor.RETRIEVAL_START, appRagCloudAdvisor, MyLoggerAdvisor.RETRIEVAL_END)
+                                // 回答缓存（检索之后、模型调用之前）
+                                .advisors(responseCacheAdvisor)
                                 .call()
-                                .chatResponse();
-                String content = chatResponse.getResult().getOutput().getText();
-                log.info("content: {}", content);
-                return content;
+                                .chatResponse());
+                return chatResponse.getResult().getOutput().getText();
         }
 
-        // 使用工具
+        // 使用工具（按工具模式的预算创建截止时间）
         public String doChatWithTools(String message, String chatId){
-                ChatResponse response = chatClient
+                return doChatWithTools(message, memoryId(chatId), newDeadline(ChatMode.TOOLS)).getText();
+        }
+
+        /**
+         * 使用工具
+         *
+         * @param memoryId 对话记忆 ID，见 {@link #memoryId(String)}
+         * @param deadline 请求截止时间，见 {@link #newDeadline(ChatMode)}；可为 null
+         * @return AI 回答；持久会话中元数据 {@link PersistentChatMemory#MESSAGE_ID} 为写入 messages 表的行 ID
+         */
+        public AssistantMessage doChatWithTools(String message, String memoryId, Deadline deadline){
+                ChatResponse response = Deadline.callWithin(deadline, () -> chatClient
                         .prompt()
                         .user(message)
-                        .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
-                                .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, 10))
-                        // 开启日志，便于观察效果
-                        .advisors(new MyLoggerAdvisor())
+                        .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, memoryId)
+                                .param(MyLoggerAdvisor.MODE_KEY, ChatMode.TOOLS.tag()))
+                        // 计时与用量指标、采样日志
+                        .advisors(myLoggerAdvisor)
                         .tools(allTools)
                         .call()
-                        .chatResponse();
-                String content = response.getResult().getOutput().getText();
-                log.info("content: {}", content);
-                return content;
+                        .chatResponse());
+                return response.getResult().getOutput();
+        }
+
+        /**
+         * RAG（云端）流式对话：按模型增量逐段返回，供 SSE 端实时推送
+         * 流在舱壁线程中订阅，拿不到请求线程的安全上下文，租户需由调用方在请求线程上解析后传入
+         *
+         * @param memoryId 对话记忆 ID，见 {@link #memoryId(String)}
+         * @param tenant 语义缓存租户，见 {@link #currentTenant()}；为 null 时不使用语义缓存
+         * @param deadline 请求截止时间，见 {@link #newDeadline(ChatMode)}；可为 null
+         */
+        public Flux<String> doChatWithRagCloudStream(String message, String memoryId, String tenant, Deadline deadline) {
+                return chatClient
+                                .prompt()
+                                .user(message)
+                                .advisors(ragParams(memoryId, tenant, ChatMode.RAG_CLOUD))
+                                .advisors(myLoggerAdvisor)
+                                .advisors(semanticCacheAdvisor)
+                                .advisors(MyLoggerAdvisor.RETRIEVAL_START, appRagCloudAdvisor, MyLoggerAdvisor.RETRIEVAL_END)
+                                .advisors(responseCacheAdvisor)
+                                .stream()
+                                .content()
+                                .contextWrite(Deadline.writeTo(deadline));
+        }
+
+        /**
+         * 工具模式流式对话：工具调用在模型流内部完成，最终回答按增量返回
+         * 取消令牌经 ToolContext 传给工具，客户端断开后不再执行新的工具调用
+         *
+         * @param memoryId 对话记忆 ID，见 {@link #memoryId(String)}
+         * @param deadline 请求截止时间，见 {@link #newDeadline(ChatMode)}；可为 null
+         */
+        public Flux<String> doChatWithToolsStream(String message, String memoryId, StreamCancellation cancellation,
+                                                  Deadline deadline) {
+                return chatClient
+                        .prompt()
+                        .user(message)
+                        .advisors(spec -> spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, memoryId)
+                                .param(MyLoggerAdvisor.MODE_KEY, ChatMode.TOOLS.tag()))
+                        .advisors(myLoggerAdvisor)
+                        .tools(CancellableToolCallback.wrapAll(allTools))
+                        .toolContext(Map.of(StreamCancellation.TOOL_CONTEXT_KEY, cancellation))
+                        .stream()
+                        .content()
+                        .contextWrite(Deadline.writeTo(deadline));
+        }
+
+        /**
+         * RAG 请求的 advise 参数：对话记忆 ID + 语义缓存租户 + 指标模式
+         */
+        private static Consumer<ChatClient.AdvisorSpec> ragParams(String memoryId, String tenant, ChatMode mode) {
+                return spec -> {
+                        spec.param(CHAT_MEMORY_CONVERSATION_ID_KEY, memoryId);
+                        spec.param(MyLoggerAdvisor.MODE_KEY, mode.tag());
+                        if (tenant != null) {
+                                spec.param(SemanticCacheAdvisor.TENANT_KEY, tenant);
+                        }
+                };
         }
 
         private static final String SYSTEM_PROMPT = "你是一个专业的 AI 助手，基于 DeepSeek 模型。" +
@@ -92,12 +232,15 @@ public class App {
          * 说明：原项目依赖阿里 DashScope 的 ChatModel，这里切换为基于 OpenAI 兼容协议的 ChatModel。
          * DeepSeek 提供 OpenAI 兼容 API（通过 base-url+api-key 配置），因此此处仅依赖 {@link ChatModel} 类型注入即可。
          */
-        public App(ChatModel chatModel) {
-                // 初始化基于内存的对话记忆
-                ChatMemory chatMemory = new InMemoryChatMemory();
-                chatClient = ChatClient.builder(chatModel)
+        public App(ChatModel chatModel, TokenBudgetMemoryAdvisor chatMemoryAdvisor,
+                   UpstreamCallProperties callProperties, MeterRegistry meterRegistry) {
+                this.callProperties = callProperties;
+                // 对话记忆：messages 表持久化 + 有界热层，按 token 预算注入历史并折叠旧轮次（见 ChatMemoryConfig）
+                // 模型调用执行截止时间与对冲（工具模式不对冲），见 HedgingChatModel
+                chatClient = ChatClient.builder(new HedgingChatModel(chatModel, callProperties.getHedge(),
+                                callProperties.getDeadline(), meterRegistry))
                                 .defaultSystem(SYSTEM_PROMPT)
-                                .defaultAdvisors(new MessageChatMemoryAdvisor(chatMemory))
+                                .defaultAdvisors(chatMemoryAdvisor)
                                 .build();
         }
 }
@@ -0,0 +1,19 @@
+package com.xin.aiagent.app;
+
+/**
+ * 对话模式：决定 App 走哪条链路（云端 RAG / 本地 RAG / 工具调用）。
+ * tag 用作指标标签与配置键，保持短横线风格。
+ */
+public enum ChatMode {
+    RAG_CLOUD("rag-cloud"),
+    RAG_LOCAL("rag-local"),
+    TOOLS("tools");
+
+    private final String tag;
+
+    ChatMode(String tag) {
+        this.tag = tag;
+    }
+
+    public String tag() { return tag; }
+}
@@ -1,13 +1,70 @@
 package com.xin.aiagent.app;
 
+import com.xin.aiagent.cache.ResponseCacheAdvisor;
+import com.xin.aiagent.common.TokenEstimator;
+import com.xin.aiagent.config.ChatLoggingProperties;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.advisor.api.AdvisedRequest;
+import org.springframework.ai.chat.client.advisor.api.AdvisedResponse;
 import org.springframework.ai.chat.client.advisor.api.Advisor;
+import org.springframework.ai.chat.client.advisor.api.CallAroundAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAroundAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAroundAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAroundAdvisorChain;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.core.Ordered;
-import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
 
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对话计时与用量统计（Advisor，位于链路最外层，缓存命中也会被统计）。
+ * 指标（标签 mode = rag-cloud/rag-local/tools，model = 响应中的模型名）：
+ * - chat.latency：总耗时，附加 outcome（success/error/cancelled）与 cached 标签；
+ * - chat.ttft：流式首包时间；
+ * - chat.tokens：prompt/completion token 数，响应不带 usage 时按 {@link TokenEstimator} 估算（source 标签区分）；
+ * - chat.tokens.per_second：completion token / 生成耗时（流式从首包起算）；
+ * - chat.retrieval：检索耗时，由 {@link #RETRIEVAL_START} / {@link #RETRIEVAL_END} 两个标记 Advisor 夹住检索 Advisor 测得。
+ * 日志按 sample-rate 采样，问题与回答按 max-chars 截断，避免每次请求把完整回答写入 INFO 日志。
+ */
 @Slf4j
-@Component
-public class MyLoggerAdvisor implements Advisor {
+public class MyLoggerAdvisor implements CallAroundAdvisor, StreamAroundAdvisor {
+
+    /** advise 参数：对话模式（{@link ChatMode#tag()}） */
+    public static final String MODE_KEY = "chat_mode";
+
+    private static final String TIMING_KEY = "chat_timing";
+    private static final String UNKNOWN = "unknown";
+
+    /** 检索 Advisor（order 0）之前的计时标记 */
+    public static final Advisor RETRIEVAL_START = new RetrievalMark("RetrievalStartMark", -1, true);
+
+    /** 检索 Advisor（order 0）之后、回答缓存（order 100）之前的计时标记 */
+    public static final Advisor RETRIEVAL_END = new RetrievalMark("RetrievalEndMark", 1, false);
+
+    private final MeterRegistry meterRegistry;
+    private final ChatLoggingProperties properties;
+
+    /** 一次请求的计时点，随 advise 上下文传给标记 Advisor */
+    static final class Timing {
+        final long startNanos = System.nanoTime();
+        volatile long retrievalStartNanos;
+        volatile long retrievalEndNanos;
+    }
+
+    public MyLoggerAdvisor(MeterRegistry meterRegistry, ChatLoggingProperties properties) {
+        this.meterRegistry = meterRegistry;
+        this.properties = properties;
+    }
 
     @Override
     public String getName() {
@@ -16,6 +73,250 @@ public class MyLoggerAdvisor implements Advisor {
 
     @Override
     public int getOrder() {
-        return Ordered.LOWEST_PRECEDENCE;
+        return Ordered.HIGHEST_PRECEDENCE;
+    }
+
+    @Override
+    public AdvisedResponse aroundCall(AdvisedRequest advisedRequest, CallAroundAdvisorChain chain) {
+        Timing timing = new Timing();
+        try {
+            AdvisedResponse advisedResponse = chain.nextAroundCall(withTiming(advisedRequest, timing));
+            ChatResponse response = advisedResponse.response();
+            String text = textOf(response);
+            record(advisedRequest, timing, response, "success", -1, text == null ? "" : text);
+            return advisedResponse;
+        } catch (RuntimeException e) {
+            record(advisedRequest, timing, null, "error", -1, "");
+            throw e;
+        }
+    }
+
+    @Override
+    public Flux<AdvisedResponse> aroundStream(AdvisedRequest advisedRequest, StreamAroundAdvisorChain chain) {
+        return Flux.defer(() -> {
+            Timing timing = new Timing();
+            long[] firstChunkNanos = {-1};
+            ChatResponse[] last = new ChatResponse[1];
+            StringBuilder answer = new StringBuilder();
+            return chain.nextAroundStream(withTiming(advisedRequest, timing))
+                    .doOnNext(advised -> {
+                        if (firstChunkNanos[0] < 0) {
+                            firstChunkNanos[0] = System.nanoTime();
+                        }
+                        ChatResponse response = advised.response();
+                        if (response != null) {
+                            last[0] = merge(last[0], response);
+                            String text = textOf(response);
+                            if (text != null) {
+                                answer.append(text);
+                            }
+                        }
+                    })
+                    .doFinally(signal -> record(advisedRequest, timing, last[0], outcomeOf(signal),
+                            firstChunkNanos[0], answer));
+        });
+    }
+
+    /**
+     * 流式响应只保留统计所需的信息：最后一个带 usage 的分片的 usage 与任一分片的模型名/缓存标记
+     */
+    private static ChatResponse merge(ChatResponse previous, ChatResponse current) {
+        if (previous == null || hasUsage(current)) {
+            return current;
+        }
+        return previous;
+    }
+
+    private void record(AdvisedRequest request, Timing timing, ChatResponse response, String outcome,
+                        long firstChunkNanos, CharSequence answer) {
+        try {
+            long end = System.nanoTime();
+            String mode = modeOf(request);
+            String model = modelOf(request, response);
+            boolean cached = response != null && response.getMetadata() != null
+                    && response.getMetadata().containsKey(ResponseCacheAdvisor.CACHE_HIT_METADATA);
+            Timer.builder("chat.latency")
+                    .tags("mode", mode, "model", model, "outcome", outcome, "cached", String.valueOf(cached))
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(end - timing.startNanos, TimeUnit.NANOSECONDS);
+            if (firstChunkNanos > 0) {
+                Timer.builder("chat.ttft")
+                        .tags("mode", mode, "model", model)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry)
+                        .record(firstChunkNanos - timing.startNanos, TimeUnit.NANOSECONDS);
+            }
+            if (timing.retrievalStartNanos > 0 && timing.retrievalEndNanos >= timing.retrievalStartNanos) {
+                Timer.builder("chat.retrieval")
+                        .tags("mode", mode)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry)
+                        .record(timing.retrievalEndNanos - timing.retrievalStartNanos, TimeUnit.NANOSECONDS);
+            }
+            if (!"success".equals(outcome) || cached) {
+                logSampled(request, mode, model, outcome, end - timing.startNanos, -1, -1, answer);
+                return;
+            }
+            Usage usage = response == null || response.getMetadata() == null ? null : response.getMetadata().getUsage();
+            boolean reported = usage != null && hasUsage(usage);
+            long promptTokens = reported ? nullToZero(usage.getPromptTokens()) : TokenEstimator.estimate(promptOf(request));
+            long completionTokens = reported ? nullToZero(usage.getCompletionTokens()) : TokenEstimator.estimate(answer);
+            String source = reported ? "usage" : "estimate";
+            tokens(mode, model, "prompt", source).record(promptTokens);
+            tokens(mode, model, "completion", source).record(completionTokens);
+            long generationNanos = end - (firstChunkNanos > 0 ? firstChunkNanos : timing.startNanos);
+            if (completionTokens > 0 && generationNanos > 0) {
+                DistributionSummary.builder("chat.tokens.per_second")
+                        .tags("mode", mode, "model", model)
+                        .register(meterRegistry)
+                        .record(completionTokens / (generationNanos / 1e9));
+            }
+            logSampled(request, mode, model, outcome, end - timing.startNanos, promptTokens, completionTokens, answer);
+        } catch (RuntimeException e) {
+            log.debug("对话指标记录失败：{}", e.getMessage());
+        }
+    }
+
+    private DistributionSummary tokens(String mode, String model, String type, String source) {
+        return DistributionSummary.builder("chat.tokens")
+                .tags("mode", mode, "model", model, "type", type, "source", source)
+                .register(meterRegistry);
+    }
+
+    private void logSampled(AdvisedRequest request, String mode, String model, String outcome, long latencyNanos,
+                            long promptTokens, long completionTokens, CharSequence answer) {
+        if (!log.isInfoEnabled() || ThreadLocalRandom.current().nextDouble() >= properties.getSampleRate()) {
+            return;
+        }
+        log.info("chat sample: mode={}, model={}, outcome={}, latency={}ms, promptTokens={}, completionTokens={}, "
+                        + "prompt={}, answer={}",
+                mode, model, outcome, Duration.ofNanos(latencyNanos).toMillis(), promptTokens, completionTokens,
+                cap(request.userText()), cap(answer));
+    }
+
+    private String cap(CharSequence text) {
+        if (text == null) {
+            return "";
+        }
+        int max = properties.getMaxChars();
+        return text.length() <= max ? text.toString() : text.subSequence(0, max) + "…(" + text.length() + " chars)";
+    }
+
+    private static AdvisedRequest withTiming(AdvisedRequest request, Timing timing) {
+        Map<String, Object> context = new HashMap<>(request.adviseContext());
+        context.put(TIMING_KEY, timing);
+        return AdvisedRequest.from(request).adviseContext(context).build();
+    }
+
+    private static String modeOf(AdvisedRequest request) {
+        Object mode = request.adviseContext().get(MODE_KEY);
+        return mode == null ? UNKNOWN : mode.toString();
+    }
+
+    private static String modelOf(AdvisedRequest request, ChatResponse response) {
+        if (response != null && response.getMetadata() != null) {
+            String model = response.getMetadata().getModel();
+            if (model != null && !model.isBlank()) {
+                return model;
+            }
+        }
+        if (request.chatOptions() != null && request.chatOptions().getModel() != null) {
+            return request.chatOptions().getModel();
+        }
+        return UNKNOWN;
+    }
+
+    private static String promptOf(AdvisedRequest request) {
+        StringBuilder prompt = new StringBuilder();
+        if (request.systemText() != null) {
+            prompt.append(request.systemText());
+        }
+        request.messages().forEach(message -> {
+            if (message.getText() != null) {
+                prompt.append(message.getText());
+            }
+        });
+        if (request.userText() != null) {
+            prompt.append(request.userText());
+        }
+        return prompt.toString();
+    }
+
+    private static String textOf(ChatResponse response) {
+        if (response == null || response.getResult() == null || response.getResult().getOutput() == null) {
+            return null;
+        }
+        return response.getResult().getOutput().getText();
+    }
+
+    private static boolean hasUsage(ChatResponse response) {
+        return response.getMetadata() != null && response.getMetadata().getUsage() != null
+                && hasUsage(response.getMetadata().getUsage());
+    }
+
+    private static boolean hasUsage(Usage usage) {
+        return nullToZero(usage.getPromptTokens()) + nullToZero(usage.getCompletionTokens()) > 0;
+    }
+
+    private static long nullToZero(Integer value) {
+        return value == null ? 0 : value;
+    }
+
+    private static String outcomeOf(SignalType signal) {
+        return switch (signal) {
+            case ON_COMPLETE -> "success";
+            case CANCEL -> "cancelled";
+            default -> "error";
+        };
+    }
+
+    /**
+     * 检索计时标记：只在订阅时（检索真正执行的时刻）记录时间，其余透传
+     */
+    private static final class RetrievalMark implements CallAroundAdvisor, StreamAroundAdvisor {
+        private final String name;
+        private final int order;
+        private final boolean start;
+
+        RetrievalMark(String name, int order, boolean start) {
+            this.name = name;
+            this.order = order;
+            this.start = start;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public int getOrder() {
+            return order;
+        }
+
+        @Override
+        public AdvisedResponse aroundCall(AdvisedRequest advisedRequest, CallAroundAdvisorChain chain) {
+            mark(advisedRequest);
+            return chain.nextAroundCall(advisedRequest);
+        }
+
+        @Override
+        public Flux<AdvisedResponse> aroundStream(AdvisedRequest advisedRequest, StreamAroundAdvisorChain chain) {
+            return Flux.defer(() -> {
+                mark(advisedRequest);
+                return chain.nextAroundStream(advisedRequest);
+            });
+        }
+
+        private void mark(AdvisedRequest request) {
+            if (request.adviseContext().get(TIMING_KEY) instanceof Timing timing) {
+                if (start) {
+                    timing.retrievalStartNanos = System.nanoTime();
+                } else {
+                    timing.retrievalEndNanos = System.nanoTime();
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,128 @@
+package com.xin.aiagent.cache;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import org.springframework.ai.chat.client.advisor.api.AdvisedRequest;
+import org.springframework.ai.chat.client.advisor.api.AdvisedResponse;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.metadata.ChatGenerationMetadata;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 缓存回答的公共处理：判断回答是否可缓存、把缓存回答还原为模型响应（整段或流式分片）。
+ */
+final class CachedAnswers {
+
+    /** 响应元数据中标记命中缓存的键，值为缓存名称 */
+    static final String CACHE_HIT_METADATA = "response_cache_hit";
+
+    private CachedAnswers() {
+    }
+
+    /**
+     * 影响回答内容的请求范围：系统提示词 + 模型与生成参数；不同范围的缓存互不命中
+     */
+    static String scopeOf(AdvisedRequest request) {
+        StringBuilder scope = new StringBuilder("system:").append(request.systemText() == null ? "" : request.systemText());
+        ChatOptions options = request.chatOptions() != null ? request.chatOptions() : request.chatModel().getDefaultOptions();
+        if (options != null) {
+            scope.append("\u0000model:").append(options.getModel())
+                    .append('|').append(options.getTemperature())
+                    .append('|').append(options.getTopP())
+                    .append('|').append(options.getMaxTokens());
+        }
+        return DigestUtil.sha256Hex(scope.toString());
+    }
+
+    /**
+     * 请求中已注入的历史消息（对话记忆窗口、会话摘要）的摘要；同一个简短追问在不同历史下的回答不同，不能互相命中
+     *
+     * @return 无历史时为空串
+     */
+    static String historyOf(AdvisedRequest request) {
+        List<Message> messages = request.messages();
+        if (messages == null || messages.isEmpty()) {
+            return "";
+        }
+        StringBuilder history = new StringBuilder();
+        for (Message message : messages) {
+            history.append(message.getMessageType()).append(':')
+                    .append(message.getText() == null ? "" : message.getText()).append('\u0000');
+        }
+        return DigestUtil.sha256Hex(history.toString());
+    }
+
+    /**
+     * 带工具回调的请求不缓存（工具结果随时间变化）
+     */
+    static boolean usesTools(AdvisedRequest request) {
+        return !request.functionCallbacks().isEmpty() || !request.functionNames().isEmpty();
+    }
+
+    /**
+     * 可缓存的回答文本：非空且正常结束（finishReason 为空或 stop）
+     *
+     * @return 回答文本，不可缓存时为 null
+     */
+    static String cacheableText(ChatResponse response) {
+        if (response == null || response.getResult() == null) {
+            return null;
+        }
+        Generation generation = response.getResult();
+        String text = generation.getOutput().getText();
+        String finishReason = generation.getMetadata() == null ? null : generation.getMetadata().getFinishReason();
+        if (text == null || text.isBlank() || (finishReason != null && !"stop".equalsIgnoreCase(finishReason))) {
+            return null;
+        }
+        return text;
+    }
+
+    /**
+     * 同步调用命中：整段回答
+     */
+    static AdvisedResponse whole(String text, String cacheName, Map<String, Object> context) {
+        return new AdvisedResponse(response(text, true, cacheName), context);
+    }
+
+    /**
+     * 流式调用命中：按固定字符数切片，使 SSE 端与正常生成一样逐段推送，最后一片带 finishReason=STOP
+     */
+    static Flux<AdvisedResponse> replay(String text, int chunkChars, String cacheName, Map<String, Object> context) {
+        List<String> chunks = chunk(text, chunkChars);
+        return Flux.range(0, chunks.size())
+                .map(i -> new AdvisedResponse(response(chunks.get(i), i == chunks.size() - 1, cacheName), context));
+    }
+
+    private static ChatResponse response(String text, boolean last, String cacheName) {
+        ChatGenerationMetadata metadata = last
+                ? ChatGenerationMetadata.builder().finishReason("STOP").build()
+                : ChatGenerationMetadata.NULL;
+        return ChatResponse.builder()
+                .generations(List.of(new Generation(new AssistantMessage(text), metadata)))
+                .metadata(CACHE_HIT_METADATA, cacheName)
+                .build();
+    }
+
+    private static List<String> chunk(String text, int size) {
+        int step = Math.max(1, size);
+        List<String> chunks = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = Math.min(text.length(), start + step);
+            // 不在代理对中间切分
+            if (end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) {
+                end++;
+            }
+            chunks.add(text.substring(start, end));
+            start = end;
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,166 @@
+package com.xin.aiagent.cache;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.crypto.digest.DigestUtil;
+import com.xin.aiagent.config.ResponseCacheProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.client.advisor.QuestionAnswerAdvisor;
+import org.springframework.ai.chat.client.advisor.RetrievalAugmentationAdvisor;
+import org.springframework.ai.chat.client.advisor.api.AdvisedRequest;
+import org.springframework.ai.chat.client.advisor.api.AdvisedResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAroundAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAroundAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAroundAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAroundAdvisorChain;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.MessageAggregator;
+import org.springframework.ai.document.Document;
+import reactor.core.publisher.Flux;
+
+import java.text.Normalizer;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * RAG 回答精确匹配缓存（Advisor，排在检索 Advisor 之后、模型调用之前）。
+ * 缓存键 = 规范化问题 + 检索到的文档 ID（按检索顺序）+ 系统提示词 + 模型与生成参数 + 租户 + 已注入的历史消息，
+ * 因此知识库内容或检索结果变化时自然失效；同一追问在不同用户、不同会话的历史下互不命中。带工具回调的请求不缓存；只缓存正常结束（finishReason=stop）的完整回答。
+ * 命中时流式请求按固定字符数切片返回，SSE 端与正常生成走同一条路径（start → delta* → done）。
+ */
+public class ResponseCacheAdvisor implements CallAroundAdvisor, StreamAroundAdvisor {
+
+    /** 排在 QuestionAnswerAdvisor / RetrievalAugmentationAdvisor（order 0）之后，才能拿到检索结果 */
+    public static final int ORDER = 100;
+
+    /** 缓存命中的响应在 ChatResponse 元数据中带有该键（值为缓存名 exact/semantic） */
+    public static final String CACHE_HIT_METADATA = CachedAnswers.CACHE_HIT_METADATA;
+
+    private static final String CACHE_NAME = "exact";
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    /** 汉字两侧的空白没有语义（“什么是 RAG” 与 “什么是RAG”） */
+    private static final Pattern HAN_SPACING = Pattern.compile("(?<=\\p{IsHan}) | (?=\\p{IsHan})");
+    private static final String TRAILING_PUNCTUATION = "?!.。~ ";
+
+    private final ResponseCacheProperties properties;
+    private final LRUCache<String, String> cache;
+    private final Counter hits;
+    private final Counter misses;
+
+    public ResponseCacheAdvisor(ResponseCacheProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.cache = CacheUtil.newLRUCache(properties.getMaxEntries(), properties.getTtlMs());
+        this.hits = meterRegistry.counter("chat.response.cache", "result", "hit");
+        this.misses = meterRegistry.counter("chat.response.cache", "result", "miss");
+        Gauge.builder("chat.response.cache.size", cache, LRUCache::size).register(meterRegistry);
+    }
+
+    @Override
+    public String getName() {
+        return getClass().getSimpleName();
+    }
+
+    @Override
+    public int getOrder() {
+        return ORDER;
+    }
+
+    @Override
+    public AdvisedResponse aroundCall(AdvisedRequest advisedRequest, CallAroundAdvisorChain chain) {
+        String key = cacheKey(advisedRequest);
+        if (key == null) {
+            return chain.nextAroundCall(advisedRequest);
+        }
+        String cached = cache.get(key);
+        if (cached != null) {
+            hits.increment();
+            return CachedAnswers.whole(cached, CACHE_NAME, advisedRequest.adviseContext());
+        }
+        misses.increment();
+        AdvisedResponse advisedResponse = chain.nextAroundCall(advisedRequest);
+        store(key, advisedResponse.response());
+        return advisedResponse;
+    }
+
+    @Override
+    public Flux<AdvisedResponse> aroundStream(AdvisedRequest advisedRequest, StreamAroundAdvisorChain chain) {
+        String key = cacheKey(advisedRequest);
+        if (key == null) {
+            return chain.nextAroundStream(advisedRequest);
+        }
+        String cached = cache.get(key);
+        if (cached != null) {
+            hits.increment();
+            return CachedAnswers.replay(cached, properties.getStreamChunkChars(), CACHE_NAME,
+                    advisedRequest.adviseContext());
+        }
+        misses.increment();
+        // 只有完整结束的流才会触发聚合回调；被取消的流不会写入缓存
+        return new MessageAggregator().aggregateAdvisedResponse(chain.nextAroundStream(advisedRequest),
+                aggregated -> store(key, aggregated.response()));
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * 计算缓存键；未启用或请求不可缓存（带工具回调）时返回 null
+     */
+    private String cacheKey(AdvisedRequest request) {
+        if (!properties.isEnabled() || request.userText() == null || CachedAnswers.usesTools(request)) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder(normalize(request.userText()));
+        key.append("\u0000docs:");
+        for (Document document : retrievedDocuments(request.adviseContext())) {
+            key.append(document.getId()).append(',');
+        }
+        key.append("\u0000scope:").append(CachedAnswers.scopeOf(request));
+        Object tenant = request.adviseContext().get(SemanticCacheAdvisor.TENANT_KEY);
+        key.append("\u0000tenant:").append(tenant == null ? "" : tenant);
+        key.append("\u0000history:").append(CachedAnswers.historyOf(request));
+        return DigestUtil.sha256Hex(key.toString());
+    }
+
+    private void store(String key, ChatResponse response) {
+        String text = CachedAnswers.cacheableText(response);
+        if (text != null) {
+            cache.put(key, text);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<Document> retrievedDocuments(Map<String, Object> context) {
+        Object documents = context.get(QuestionAnswerAdvisor.RETRIEVED_DOCUMENTS);
+        if (documents == null) {
+            documents = context.get(RetrievalAugmentationAdvisor.DOCUMENT_CONTEXT);
+        }
+        return documents instanceof List<?> list ? (List<Document>) list : List.of();
+    }
+
+    /**
+     * 规范化：NFKC（全角转半角）、小写、行内空白折叠并去掉汉字两侧空白、去掉每行末尾的标点与空行。
+     * 按行处理是因为检索 Advisor 会在问题后追加上下文模板，问题本身的结尾标点位于首段末尾
+     */
+    static String normalize(String text) {
+        String s = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        StringBuilder out = new StringBuilder(s.length());
+        for (String line : s.split("\\R")) {
+            String l = WHITESPACE.matcher(line).replaceAll(" ").trim();
+            l = HAN_SPACING.matcher(l).replaceAll("");
+            int end = l.length();
+            while (end > 0 && TRAILING_PUNCTUATION.indexOf(l.charAt(end - 1)) >= 0) {
+                end--;
+            }
+            if (end > 0) {
+                out.append(l, 0, end).append('\n');
+            }
+        }
+        return out.toString();
+    }
+}
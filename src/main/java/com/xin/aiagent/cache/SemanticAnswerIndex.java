@@ -0,0 +1,148 @@
+package com.xin.aiagent.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 语义缓存的内存向量索引：按租户隔离，租户内暴力计算余弦相似度（条目数有上限，线性扫描足够快）。
+ * - 每个租户最多 maxEntriesPerTenant 条，超出时淘汰最久未命中的条目；
+ * - 租户按访问顺序 LRU，最多 maxTenants 个；
+ * - 条目超过 ttlMs 后在查询时惰性删除。
+ * 向量在写入前归一化，相似度即点积。所有方法在 this 上同步。
+ */
+public class SemanticAnswerIndex {
+
+    /** 命中结果 */
+    public record Match(String prompt, String answer, double similarity) {
+    }
+
+    private static final class Entry {
+        final String scope;
+        final float[] vector;
+        final String prompt;
+        final String answer;
+        final long createdAt;
+        /** 最近一次写入/命中的逻辑时钟，用于租户内 LRU */
+        long lastUsed;
+
+        Entry(String scope, float[] vector, String prompt, String answer, long createdAt, long lastUsed) {
+            this.scope = scope;
+            this.vector = vector;
+            this.prompt = prompt;
+            this.answer = answer;
+            this.createdAt = createdAt;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    private final int maxTenants;
+    private final int maxEntriesPerTenant;
+    private final long ttlMs;
+    private final LinkedHashMap<String, List<Entry>> tenants = new LinkedHashMap<>(64, 0.75f, true);
+    private int size;
+    private long clock;
+
+    public SemanticAnswerIndex(int maxTenants, int maxEntriesPerTenant, long ttlMs) {
+        this.maxTenants = maxTenants;
+        this.maxEntriesPerTenant = maxEntriesPerTenant;
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * 查找同一租户、同一范围内与 vector 最相似且不低于阈值的回答
+     *
+     * @param vector 已归一化的问题向量
+     * @return 命中结果，未命中为 null
+     */
+    public synchronized Match lookup(String tenant, String scope, float[] vector, double threshold) {
+        List<Entry> entries = tenants.get(tenant);
+        if (entries == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        Entry best = null;
+        double bestSimilarity = threshold;
+        Iterator<Entry> it = entries.iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (now - entry.createdAt > ttlMs) {
+                it.remove();
+                size--;
+                continue;
+            }
+            if (!entry.scope.equals(scope) || entry.vector.length != vector.length) {
+                continue;
+            }
+            double similarity = dot(entry.vector, vector);
+            if (similarity >= bestSimilarity) {
+                best = entry;
+                bestSimilarity = similarity;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        best.lastUsed = ++clock;
+        return new Match(best.prompt, best.answer, bestSimilarity);
+    }
+
+    /**
+     * 写入一条回答
+     *
+     * @param vector 已归一化的问题向量
+     */
+    public synchronized void put(String tenant, String scope, float[] vector, String prompt, String answer) {
+        List<Entry> entries = tenants.computeIfAbsent(tenant, k -> new ArrayList<>());
+        if (entries.size() >= maxEntriesPerTenant) {
+            int victim = 0;
+            for (int i = 1; i < entries.size(); i++) {
+                if (entries.get(i).lastUsed < entries.get(victim).lastUsed) {
+                    victim = i;
+                }
+            }
+            entries.remove(victim);
+            size--;
+        }
+        entries.add(new Entry(scope, vector, prompt, answer, System.currentTimeMillis(), ++clock));
+        size++;
+        Iterator<Map.Entry<String, List<Entry>>> it = tenants.entrySet().iterator();
+        while (tenants.size() > maxTenants && it.hasNext()) {
+            size -= it.next().getValue().size();
+            it.remove();
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * 归一化为单位向量（返回新数组）；零向量原样返回
+     */
+    public static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += (double) v * v;
+        }
+        norm = Math.sqrt(norm);
+        float[] out = new float[vector.length];
+        if (norm == 0) {
+            return out;
+        }
+        for (int i = 0; i < vector.length; i++) {
+            out[i] = (float) (vector[i] / norm);
+        }
+        return out;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
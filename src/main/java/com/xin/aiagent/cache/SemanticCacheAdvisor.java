@@ -0,0 +1,150 @@
+package com.xin.aiagent.cache;
+
+import com.xin.aiagent.config.SemanticCacheProperties;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.advisor.api.AdvisedRequest;
+import org.springframework.ai.chat.client.advisor.api.AdvisedResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAroundAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAroundAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAroundAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAroundAdvisorChain;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.MessageAggregator;
+import org.springframework.ai.embedding.EmbeddingModel;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Optional;
+
+/**
+ * 语义回答缓存（Advisor，排在对话记忆之后、检索之前）。
+ * 用注入的 EmbeddingModel 向量化问题，在 {@link SemanticAnswerIndex} 中查找同租户、同范围（系统提示词 + 模型参数
+ * + 对话记忆已注入的历史消息）下相似度不低于阈值的已回答问题，命中时直接返回其回答，跳过检索与生成；
+ * 未命中时正常执行并在完整结束后写入。历史计入范围，使“那第二个呢？”这类依赖上下文的追问不会命中另一段对话的回答。
+ * 租户由请求参数 {@link #TENANT_KEY} 指定，缺失时不使用缓存，保证不同用户之间互不可见。
+ */
+@Slf4j
+public class SemanticCacheAdvisor implements CallAroundAdvisor, StreamAroundAdvisor {
+
+    /** 对话记忆 Advisor 之后、QuestionAnswerAdvisor（order 0）之前：命中时可跳过检索 */
+    public static final int ORDER = -100;
+
+    /** advise 参数：租户（用户）标识 */
+    public static final String TENANT_KEY = "semantic_cache_tenant";
+
+    private static final String CACHE_NAME = "semantic";
+
+    private final EmbeddingModel embeddingModel;
+    private final SemanticCacheProperties properties;
+    private final SemanticAnswerIndex index;
+    private final MeterRegistry meterRegistry;
+    private final DistributionSummary hitSimilarity;
+
+    /** 一次查找的结果；answer 为空表示未命中，命中与否都保留向量供写入复用 */
+    private record Lookup(String tenant, String scope, String prompt, float[] vector, String answer) {
+    }
+
+    public SemanticCacheAdvisor(EmbeddingModel embeddingModel, SemanticCacheProperties properties,
+                                MeterRegistry meterRegistry) {
+        this.embeddingModel = embeddingModel;
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        this.index = new SemanticAnswerIndex(properties.getMaxTenants(), properties.getMaxEntriesPerTenant(),
+                properties.getTtlMs());
+        this.hitSimilarity = DistributionSummary.builder("chat.semantic.cache.similarity")
+                .description("语义缓存命中时的相似度")
+                .register(meterRegistry);
+        Gauge.builder("chat.semantic.cache.size", index, SemanticAnswerIndex::size).register(meterRegistry);
+    }
+
+    @Override
+    public String getName() {
+        return getClass().getSimpleName();
+    }
+
+    @Override
+    public int getOrder() {
+        return ORDER;
+    }
+
+    @Override
+    public AdvisedResponse aroundCall(AdvisedRequest advisedRequest, CallAroundAdvisorChain chain) {
+        Lookup lookup = lookup(advisedRequest);
+        if (lookup != null && lookup.answer() != null) {
+            return CachedAnswers.whole(lookup.answer(), CACHE_NAME, advisedRequest.adviseContext());
+        }
+        AdvisedResponse advisedResponse = chain.nextAroundCall(advisedRequest);
+        store(lookup, advisedResponse.response());
+        return advisedResponse;
+    }
+
+    @Override
+    public Flux<AdvisedResponse> aroundStream(AdvisedRequest advisedRequest, StreamAroundAdvisorChain chain) {
+        if (!enabledFor(advisedRequest)) {
+            return chain.nextAroundStream(advisedRequest);
+        }
+        // 向量化是阻塞调用，不在订阅线程上执行；先确定命中与否再选择分支，下游为空流时也不会再次调用模型
+        return Mono.fromCallable(() -> Optional.ofNullable(lookup(advisedRequest)))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(found -> {
+                    Lookup lookup = found.orElse(null);
+                    if (lookup == null) {
+                        return chain.nextAroundStream(advisedRequest);
+                    }
+                    if (lookup.answer() != null) {
+                        return CachedAnswers.replay(lookup.answer(), properties.getStreamChunkChars(), CACHE_NAME,
+                                advisedRequest.adviseContext());
+                    }
+                    return new MessageAggregator().aggregateAdvisedResponse(chain.nextAroundStream(advisedRequest),
+                            aggregated -> store(lookup, aggregated.response()));
+                });
+    }
+
+    private boolean enabledFor(AdvisedRequest request) {
+        return properties.isEnabled() && request.userText() != null && !request.userText().isBlank()
+                && request.adviseContext().get(TENANT_KEY) != null && !CachedAnswers.usesTools(request);
+    }
+
+    /**
+     * 向量化并查找；不可缓存或向量化失败时返回 null（直接走正常流程）
+     */
+    private Lookup lookup(AdvisedRequest request) {
+        if (!enabledFor(request)) {
+            return null;
+        }
+        String tenant = request.adviseContext().get(TENANT_KEY).toString();
+        String scope = CachedAnswers.scopeOf(request) + ':' + CachedAnswers.historyOf(request);
+        String prompt = request.userText();
+        float[] vector;
+        try {
+            vector = SemanticAnswerIndex.normalize(embeddingModel.embed(prompt));
+        } catch (Exception e) {
+            meterRegistry.counter("chat.semantic.cache", "result", "error").increment();
+            log.debug("语义缓存向量化失败，跳过缓存：{}", e.getMessage());
+            return null;
+        }
+        SemanticAnswerIndex.Match match = index.lookup(tenant, scope, vector, properties.getSimilarityThreshold());
+        if (match == null) {
+            meterRegistry.counter("chat.semantic.cache", "result", "miss").increment();
+            return new Lookup(tenant, scope, prompt, vector, null);
+        }
+        meterRegistry.counter("chat.semantic.cache", "result", "hit").increment();
+        hitSimilarity.record(match.similarity());
+        log.debug("语义缓存命中：similarity={}, prompt={}, cachedPrompt={}", match.similarity(), prompt, match.prompt());
+        return new Lookup(tenant, scope, prompt, vector, match.answer());
+    }
+
+    private void store(Lookup lookup, ChatResponse response) {
+        if (lookup == null) {
+            return;
+        }
+        String text = CachedAnswers.cacheableText(response);
+        if (text != null) {
+            index.put(lookup.tenant(), lookup.scope(), lookup.vector(), lookup.prompt(), text);
+        }
+    }
+}
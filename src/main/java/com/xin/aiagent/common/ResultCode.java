@@ -21,7 +21,14 @@ public enum ResultCode {
     USER_NOT_FOUND_OR_DISABLED(1002, "User not found or disabled"),
     REGISTER_FAILED(1003, "Register failed"),
     USERNAME_EXISTS(1004, "Username already exists"),
-    EMAIL_EXISTS(1005, "Email already exists");
+    EMAIL_EXISTS(1005, "Email already exists"),
+
+    // 聊天/对话相关
+    CHAT_BUSY(3000, "Chat service busy"),
+
+    // 系统/基础设施
+    UPSTREAM_OVERLOADED(9000, "Upstream model overloaded"),
+    UPSTREAM_TIMEOUT(9001, "Upstream model timed out");
 
     private final int code;
     private final String defaultMessage;
@@ -0,0 +1,18 @@
+package com.xin.aiagent.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 对话日志采样配置（前缀 app.chat.logging）：指标总是记录，日志只按比例采样并截断
+ */
+@Data
+@ConfigurationProperties(prefix = "app.chat.logging")
+public class ChatLoggingProperties {
+
+    /** 写入 INFO 日志的请求比例，0 ~ 1 */
+    private double sampleRate = 0.01;
+
+    /** 日志中问题与回答各自最多保留的字符数 */
+    private int maxChars = 500;
+}
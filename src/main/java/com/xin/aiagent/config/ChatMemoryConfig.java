@@ -0,0 +1,41 @@
+package com.xin.aiagent.config;
+
+import com.xin.aiagent.mapper.ConversationMapper;
+import com.xin.aiagent.mapper.ConversationSummaryMapper;
+import com.xin.aiagent.mapper.MessageMapper;
+import com.xin.aiagent.memory.PersistentChatMemory;
+import com.xin.aiagent.memory.RollingSummaryStore;
+import com.xin.aiagent.memory.TokenBudgetMemoryAdvisor;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 对话记忆配置：以 messages 表为持久层、带有界热层的 ChatMemory，
+ * 替代无淘汰、重启即丢失的 InMemoryChatMemory；历史按 token 预算注入，超出部分折叠为滚动摘要。
+ */
+@Configuration
+@EnableConfigurationProperties(ChatMemoryProperties.class)
+public class ChatMemoryConfig {
+
+    @Bean
+    public ChatMemory chatMemory(ChatMemoryProperties properties, MessageMapper messageMapper,
+                                 ConversationMapper conversationMapper, MeterRegistry meterRegistry) {
+        return new PersistentChatMemory(properties, messageMapper, conversationMapper, meterRegistry);
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public RollingSummaryStore rollingSummaryStore(ChatModel chatModel, ConversationSummaryMapper summaryMapper,
+                                                   ChatMemoryProperties properties, MeterRegistry meterRegistry) {
+        return new RollingSummaryStore(chatModel, summaryMapper, properties, meterRegistry);
+    }
+
+    @Bean
+    public TokenBudgetMemoryAdvisor chatMemoryAdvisor(ChatMemory chatMemory, RollingSummaryStore rollingSummaryStore,
+                                                      ChatMemoryProperties properties, MeterRegistry meterRegistry) {
+        return new TokenBudgetMemoryAdvisor(chatMemory, rollingSummaryStore, properties, meterRegistry);
+    }
+}
@@ -0,0 +1,49 @@
+package com.xin.aiagent.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 对话记忆配置（前缀 app.chat.memory）。
+ * 热层只保存活跃会话的最近消息，按会话数、总字节数和空闲时间三重限制淘汰；
+ * 冷数据在 messages 表中，未命中时按需加载最近的 window-size 条。
+ */
+@Data
+@ConfigurationProperties(prefix = "app.chat.memory")
+public class ChatMemoryProperties {
+
+    /** 热层最多缓存的会话数 */
+    private int maxConversations = 10_000;
+
+    /** 热层消息内容总字节数上限（按 UTF-16 估算） */
+    private long maxBytes = 64L * 1024 * 1024;
+
+    /** 会话空闲超过该时间（毫秒）后从热层淘汰 */
+    private long idleTtlMs = 30 * 60_000L;
+
+    /** 每个会话在热层保留、未命中时从数据库加载的最近消息条数 */
+    private int windowSize = 20;
+
+    private Budget budget = new Budget();
+
+    /**
+     * 按 token 预算挑选历史：从最新消息向前累加估算 token，超出预算的旧消息折叠进滚动摘要
+     */
+    @Data
+    public static class Budget {
+        /** 注入提示词的历史消息 token 上限（不含摘要与本轮问题） */
+        private int historyTokens = 2000;
+
+        /** 每条消息的格式开销（角色、分隔符）估算 */
+        private int messageOverheadTokens = 4;
+
+        /** 滚动摘要的目标长度上限（token） */
+        private int summaryTokens = 300;
+
+        /** 单次折叠时每条消息送入摘要模型的最大字符数，防止超长粘贴拖慢摘要 */
+        private int summaryInputCharsPerMessage = 2000;
+
+        /** 折叠失败（模型或写库出错）后该会话暂停折叠的时长，避免每轮请求都重新调用摘要模型 */
+        private long summaryRetryBackoffMs = 60000;
+    }
+}
@@ -0,0 +1,20 @@
+package com.xin.aiagent.config;
+
+import com.xin.aiagent.app.MyLoggerAdvisor;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 对话计时/用量指标与采样日志
+ */
+@Configuration
+@EnableConfigurationProperties(ChatLoggingProperties.class)
+public class ChatMetricsConfig {
+
+    @Bean
+    public MyLoggerAdvisor myLoggerAdvisor(MeterRegistry meterRegistry, ChatLoggingProperties properties) {
+        return new MyLoggerAdvisor(meterRegistry, properties);
+    }
+}
@@ -0,0 +1,66 @@
+package com.xin.aiagent.config;
+
+import com.xin.aiagent.limit.AdaptiveLimiterPostProcessor;
+import com.xin.aiagent.upstream.RoutingChatModel;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.model.tool.ToolCallingManager;
+import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.retry.support.RetryTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 多模型路由配置：开启后 RoutingChatModel 作为主 ChatModel（App、会话摘要等所有注入点都经过路由），
+ * 自动配置的 openAiChatModel 作为 base-url 为空的端点的底层模型。
+ */
+@Slf4j
+@Configuration
+@EnableConfigurationProperties(ChatRouterProperties.class)
+public class ChatRouterConfig {
+
+    @Bean
+    @Primary
+    @ConditionalOnProperty(prefix = "app.chat.router", name = "enabled", havingValue = "true")
+    public RoutingChatModel routingChatModel(@Qualifier("openAiChatModel") ChatModel defaultChatModel,
+                                             ChatRouterProperties properties,
+                                             AdaptiveLimiterPostProcessor limiters,
+                                             ObjectProvider<ToolCallingManager> toolCallingManager,
+                                             ObjectProvider<RetryTemplate> retryTemplate,
+                                             @Value("${spring.ai.openai.api-key:}") String defaultApiKey,
+                                             MeterRegistry meterRegistry) {
+        List<RoutingChatModel.Endpoint> endpoints = new ArrayList<>();
+        for (ChatRouterProperties.Endpoint cfg : properties.getEndpoints()) {
+            ChatModel chatModel = defaultChatModel;
+            if (cfg.getBaseUrl() != null && !cfg.getBaseUrl().isBlank()) {
+                OpenAiApi api = OpenAiApi.builder()
+                        .baseUrl(cfg.getBaseUrl())
+                        .apiKey(cfg.getApiKey() == null || cfg.getApiKey().isBlank() ? defaultApiKey : cfg.getApiKey())
+                        .build();
+                OpenAiChatOptions options = defaultChatModel.getDefaultOptions() instanceof OpenAiChatOptions defaults
+                        ? defaults.copy() : new OpenAiChatOptions();
+                options.setModel(cfg.getModel());
+                OpenAiChatModel.Builder builder = OpenAiChatModel.builder().openAiApi(api).defaultOptions(options);
+                toolCallingManager.ifAvailable(builder::toolCallingManager);
+                retryTemplate.ifAvailable(builder::retryTemplate);
+                chatModel = limiters.limit("chat-" + cfg.getName(), builder.build());
+            }
+            endpoints.add(new RoutingChatModel.Endpoint(cfg.getName(), cfg.getTier(), cfg.getModel(), chatModel));
+            log.info("模型路由端点：name={}, tier={}, model={}, baseUrl={}",
+                    cfg.getName(), cfg.getTier(), cfg.getModel(), cfg.getBaseUrl() == null ? "(default)" : cfg.getBaseUrl());
+        }
+        return new RoutingChatModel(endpoints, properties, meterRegistry);
+    }
+}
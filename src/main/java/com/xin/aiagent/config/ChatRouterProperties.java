@@ -0,0 +1,51 @@
+package com.xin.aiagent.config;
+
+import com.xin.aiagent.upstream.RoutingChatModel;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 多模型路由配置（前缀 app.chat.router）
+ */
+@Data
+@ConfigurationProperties(prefix = "app.chat.router")
+public class ChatRouterProperties {
+
+    /** 开启后以 RoutingChatModel 作为主 ChatModel */
+    private boolean enabled = false;
+
+    /** 非工具请求的提示词总字符数不超过该值时优先走便宜档 */
+    private int cheapMaxPromptChars = 1500;
+
+    /** 工具调用请求使用的档位 */
+    private RoutingChatModel.Tier toolsTier = RoutingChatModel.Tier.STRONG;
+
+    /** 延迟与错误率 EWMA 的平滑系数 */
+    private double ewmaAlpha = 0.2;
+
+    /** 错误率 EWMA 超过该值时端点进入冷却 */
+    private double errorThreshold = 0.5;
+
+    private long cooldownMs = 30_000L;
+
+    /** 过载错误（429/5xx/超时）时最多尝试的端点数；工具调用请求不重试 */
+    private int maxAttempts = 2;
+
+    private List<Endpoint> endpoints = new ArrayList<>();
+
+    /**
+     * 模型端点：base-url 为空时复用默认 ChatModel（spring.ai.openai.*），只按请求切换模型名；
+     * 否则单独创建 OpenAI 兼容客户端，api-key 为空时沿用 spring.ai.openai.api-key
+     */
+    @Data
+    public static class Endpoint {
+        private String name;
+        private RoutingChatModel.Tier tier = RoutingChatModel.Tier.STRONG;
+        private String model;
+        private String baseUrl;
+        private String apiKey;
+    }
+}
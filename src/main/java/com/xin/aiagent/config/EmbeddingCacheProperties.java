@@ -0,0 +1,21 @@
+package com.xin.aiagent.config;
+
+import lombok.Data;
+
+/**
+ * 持久化嵌入缓存配置（前缀 app.embedding.cache）。
+ * 由 {@link com.xin.aiagent.embedding.EmbeddingCachePostProcessor} 在 Bean 后处理阶段通过 Binder 绑定，
+ * 因此不注册为 @ConfigurationProperties Bean。
+ */
+@Data
+public class EmbeddingCacheProperties {
+
+    /** 是否包装 EmbeddingModel */
+    private boolean enabled = true;
+
+    /** 缓存文件目录，可在多次部署之间共享 */
+    private String path = "data/embedding-cache";
+
+    /** 缓存键中的模型名，为空时取 spring.ai.openai.embedding.options.model；更换模型后旧向量自然失效 */
+    private String model;
+}
@@ -0,0 +1,30 @@
+package com.xin.aiagent.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * RAG 混合检索配置（前缀 app.rag.hybrid），见 {@link com.xin.aiagent.rag.HybridDocumentRetriever}。
+ */
+@Data
+@ConfigurationProperties(prefix = "app.rag.hybrid")
+public class HybridRetrievalProperties {
+
+    /** 是否启用 BM25 + 向量的混合检索，关闭时退回纯向量的 QuestionAnswerAdvisor */
+    private boolean enabled = true;
+
+    /** 最终返回的分块数 */
+    private int topK = 4;
+
+    /** 每一路参与融合的候选数 */
+    private int candidates = 20;
+
+    /** 倒数排名融合的平滑常数 k：score = Σ 1 / (k + rank) */
+    private int rrfK = 60;
+
+    /** 向量检索（含查询嵌入）的等待上限（毫秒），超时本次只用关键词结果 */
+    private long vectorTimeoutMs = 1500;
+
+    /** 向量检索超时或失败后，在这段时间（毫秒）内直接走关键词检索 */
+    private long vectorCooldownMs = 10_000;
+}
@@ -0,0 +1,24 @@
+package com.xin.aiagent.config;
+
+import lombok.Data;
+
+/**
+ * 检索查询嵌入的合批与缓存配置（前缀 app.embedding.query）。
+ * 由 {@link com.xin.aiagent.embedding.QueryEmbeddingPostProcessor} 在 Bean 后处理阶段通过 Binder 绑定，
+ * 因此不注册为 @ConfigurationProperties Bean。
+ */
+@Data
+public class QueryEmbeddingProperties {
+
+    /** 是否包装 EmbeddingModel */
+    private boolean enabled = true;
+
+    /** 合批窗口（毫秒）：窗口内并发到达的查询合并为一次嵌入请求，0 表示不等待（仍合并相同的在途查询） */
+    private long windowMs = 3;
+
+    /** 单批最多文本数，攒满立即发送 */
+    private int maxBatchSize = 32;
+
+    /** 最近查询向量的 LRU 容量，0 表示不缓存 */
+    private int cacheSize = 1024;
+}
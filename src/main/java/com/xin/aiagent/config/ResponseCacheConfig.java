@@ -0,0 +1,28 @@
+package com.xin.aiagent.config;
+
+import com.xin.aiagent.cache.ResponseCacheAdvisor;
+import com.xin.aiagent.cache.SemanticCacheAdvisor;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 回答缓存配置（精确匹配 + 语义相似）：未启用时 Advisor 直接透传
+ */
+@Configuration
+@EnableConfigurationProperties({ResponseCacheProperties.class, SemanticCacheProperties.class})
+public class ResponseCacheConfig {
+
+    @Bean
+    public ResponseCacheAdvisor responseCacheAdvisor(ResponseCacheProperties properties, MeterRegistry meterRegistry) {
+        return new ResponseCacheAdvisor(properties, meterRegistry);
+    }
+
+    @Bean
+    public SemanticCacheAdvisor semanticCacheAdvisor(EmbeddingModel embeddingModel, SemanticCacheProperties properties,
+                                                     MeterRegistry meterRegistry) {
+        return new SemanticCacheAdvisor(embeddingModel, properties, meterRegistry);
+    }
+}
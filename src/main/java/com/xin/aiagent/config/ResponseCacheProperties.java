@@ -0,0 +1,26 @@
+package com.xin.aiagent.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * RAG 回答精确匹配缓存配置（前缀 app.chat.response-cache）。
+ * 键由规范化问题、检索到的文档 ID、模型与生成参数组成；不考虑多轮上下文，
+ * 适合 FAQ 类独立问题，默认关闭。
+ */
+@Data
+@ConfigurationProperties(prefix = "app.chat.response-cache")
+public class ResponseCacheProperties {
+
+    /** 是否启用 */
+    private boolean enabled = false;
+
+    /** 最多缓存的回答数（LRU 淘汰） */
+    private int maxEntries = 2000;
+
+    /** 回答的存活时间（毫秒） */
+    private long ttlMs = 10 * 60_000L;
+
+    /** 命中后以流式返回时每个分片的字符数，使 SSE 端与正常生成一样逐段推送 */
+    private int streamChunkChars = 24;
+}
@@ -2,6 +2,7 @@ package com.xin.aiagent.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.xin.aiagent.security.JwtAuthenticationFilter;
+import jakarta.servlet.DispatcherType;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Bean;
@@ -36,6 +37,8 @@ public class SecurityConfig {
                 .cors(cors -> {})
                 .sessionManagement(sm -> sm.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
                 .authorizeHttpRequests(reg -> reg
+                        // 流式响应结束时的 ASYNC 二次派发：首个请求已通过 JWT 认证，此处放行避免在已提交的响应上返回 401
+                        .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
                         // 认证白名单（登录/注册/文档/错误页/静态资源等）
                         .requestMatchers(
                                 "/api/auth/**",
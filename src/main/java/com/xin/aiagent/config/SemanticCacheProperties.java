@@ -0,0 +1,31 @@
+package com.xin.aiagent.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 语义回答缓存配置（前缀 app.chat.semantic-cache）。
+ * 同一租户内，与已回答问题的向量相似度达到阈值时直接复用回答；阈值过低会把不同问题当成同一个，默认关闭。
+ */
+@Data
+@ConfigurationProperties(prefix = "app.chat.semantic-cache")
+public class SemanticCacheProperties {
+
+    /** 是否启用 */
+    private boolean enabled = false;
+
+    /** 命中所需的最低余弦相似度 */
+    private double similarityThreshold = 0.92;
+
+    /** 条目存活时间（毫秒） */
+    private long ttlMs = 30 * 60_000L;
+
+    /** 每个租户最多缓存的问答数 */
+    private int maxEntriesPerTenant = 500;
+
+    /** 最多同时缓存的租户数（按访问顺序淘汰） */
+    private int maxTenants = 1000;
+
+    /** 命中后以流式返回时每个分片的字符数 */
+    private int streamChunkChars = 24;
+}
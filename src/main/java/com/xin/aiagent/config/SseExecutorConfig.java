@@ -0,0 +1,65 @@
+package com.xin.aiagent.config;
+
+import com.xin.aiagent.app.ChatMode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SSE 专用执行器：替代 CompletableFuture.runAsync 默认使用的 ForkJoinPool.commonPool()，
+ * 防止长时间阻塞的 RAG/工具调用占满公共线程池、拖慢其他并行任务。
+ * 并发与排队由各模式的舱壁（{@link com.xin.aiagent.sse.ChatBulkhead}）控制，执行器只负责提供线程：
+ * 平台线程池的线程数等于所有舱壁 max-concurrent 之和；舱壁内的排队任务在释放名额的工作线程上接着执行，
+ * 不会再次提交给执行器。执行器自身的无界队列只用于吸收短暂的交接窗口（刚归还名额的线程尚未回到池中时新任务已被放行），
+ * 其长度受舱壁并发上限约束，不会无限增长。
+ */
+@Configuration
+@EnableConfigurationProperties(SseProperties.class)
+@Slf4j
+public class SseExecutorConfig {
+
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService sseExecutor(SseProperties properties) {
+        if (properties.getExecutor().isVirtualThreads()) {
+            log.info("SSE 执行器使用虚拟线程");
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("sse-vt-", 0).factory());
+        }
+        // core == max：线程数固定为舱壁上限之和；队列只用于交接窗口，舱壁放行的任务不会被执行器拒绝
+        int threads = 0;
+        for (ChatMode mode : ChatMode.values()) {
+            threads += properties.bulkheadFor(mode.tag()).getMaxConcurrent();
+        }
+        log.info("SSE 执行器使用平台线程池：threads={}（各模式舱壁 max-concurrent 之和）", threads);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), namedFactory("sse-worker-"), new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * SSE 定时任务：增量合并窗口的定时下发、会话过期清理
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ScheduledExecutorService sseScheduler() {
+        return Executors.newScheduledThreadPool(2, namedFactory("sse-scheduler-"));
+    }
+
+    private static ThreadFactory namedFactory(String prefix) {
+        AtomicInteger seq = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,67 @@
+package com.xin.aiagent.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SSE 流式对话相关配置（前缀 app.sse）。
+ * 执行器负责承载阻塞的模型/工具调用；舱壁按对话模式隔离并发，避免某一模式耗尽全部线程。
+ */
+@Data
+@ConfigurationProperties(prefix = "app.sse")
+public class SseProperties {
+
+    /** SseEmitter 超时时间（毫秒） */
+    private long timeoutMs = 600_000L;
+
+    /** 客户端断开时用于估算“节省 token”的预期回答长度 */
+    private long expectedCompletionTokens = 1024L;
+
+    private Executor executor = new Executor();
+
+    private Resume resume = new Resume();
+
+    private Coalesce coalesce = new Coalesce();
+
+    /** 按模式配置的舱壁，键为 ChatMode#tag（rag-cloud / rag-local / tools） */
+    private Map<String, Bulkhead> bulkhead = new HashMap<>();
+
+    @Data
+    public static class Executor {
+        /** 是否使用虚拟线程（JDK 21）；关闭时使用平台线程池，线程数为各模式舱壁 max-concurrent 之和 */
+        private boolean virtualThreads = false;
+    }
+
+    @Data
+    public static class Bulkhead {
+        /** 同时进行中的流数量上限 */
+        private int maxConcurrent = 32;
+        /** 等待执行的流数量上限，超过后直接拒绝（503） */
+        private int maxQueue = 64;
+    }
+
+    @Data
+    public static class Resume {
+        /** 每个会话保留的最近事件数量（环形缓冲） */
+        private int bufferSize = 512;
+        /** 生成结束后缓冲保留时长（毫秒），期间可通过 Last-Event-ID 补发 */
+        private long ttlMs = 120_000L;
+        /** 所有订阅者断开后等待重连的宽限期（毫秒），超时则取消上游生成 */
+        private long graceMs = 15_000L;
+    }
+
+    @Data
+    public static class Coalesce {
+        /** 合并窗口（毫秒），<= 0 表示关闭合并 */
+        private long windowMs = 30L;
+        /** 累计达到该 UTF-8 字节数立即下发 */
+        private int maxBytes = 512;
+    }
+
+    public Bulkhead bulkheadFor(String mode) {
+        return bulkhead.getOrDefault(mode, new Bulkhead());
+    }
+}
@@ -0,0 +1,47 @@
+package com.xin.aiagent.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 模型调用的截止时间与对冲请求配置（前缀 app.upstream.call）
+ */
+@Data
+@ConfigurationProperties(prefix = "app.upstream.call")
+public class UpstreamCallProperties {
+
+    private Budget deadline = new Budget();
+
+    private Hedge hedge = new Hedge();
+
+    /**
+     * 每种模式一次请求的预算（毫秒，含排队），<= 0 表示不限制。
+     * 同步调用约束整次调用；流式调用只约束首包，首包之后由 stream-idle-ms 约束相邻分片的间隔，
+     * 长回答的总时长只受 SSE 超时（app.sse.timeout-ms）限制
+     */
+    @Data
+    public static class Budget {
+        private long ragMs = 60_000L;
+        private long toolsMs = 180_000L;
+        /** 流式调用首包之后相邻分片的最大间隔，<= 0 表示不限制 */
+        private long streamIdleMs = 30_000L;
+    }
+
+    /**
+     * 对冲：主请求超过延迟分位数仍未返回（流式为首包）时再发一份，取先返回者并取消另一份。
+     * 工具调用模式有副作用，始终不对冲
+     */
+    @Data
+    public static class Hedge {
+        private boolean enabled = false;
+        /** 对冲延迟取最近样本的该分位数 */
+        private double percentile = 0.95;
+        /** 样本不足 min-samples 时使用的对冲延迟 */
+        private long initialDelayMs = 5_000L;
+        private long minDelayMs = 300L;
+        private int minSamples = 20;
+        private int windowSize = 512;
+        /** 对冲请求数不超过总请求数的该比例，避免上游整体变慢时流量翻倍 */
+        private double maxRatio = 0.1;
+    }
+}
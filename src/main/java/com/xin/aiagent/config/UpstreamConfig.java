@@ -0,0 +1,13 @@
+package com.xin.aiagent.config;
+
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 模型调用配置：请求截止时间与对冲（由 App 包装 ChatModel 时使用）。
+ * 自适应并发限制见 {@link com.xin.aiagent.limit.AdaptiveLimiterPostProcessor}
+ */
+@Configuration
+@EnableConfigurationProperties(UpstreamCallProperties.class)
+public class UpstreamConfig {
+}
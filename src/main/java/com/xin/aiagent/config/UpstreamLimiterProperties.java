@@ -0,0 +1,53 @@
+package com.xin.aiagent.config;
+
+import lombok.Data;
+
+/**
+ * 出站模型调用的自适应并发限制配置（前缀 app.upstream.limiter）。
+ * 由 {@link com.xin.aiagent.limit.AdaptiveLimiterPostProcessor} 在 Bean 后处理阶段通过 Binder 绑定，
+ * 因此不注册为 @ConfigurationProperties Bean。
+ */
+@Data
+public class UpstreamLimiterProperties {
+
+    /** 是否包装 ChatModel / EmbeddingModel */
+    private boolean enabled = true;
+
+    private Limit chat = new Limit(16, 2, 128, 2.5);
+
+    private Limit embedding = new Limit(8, 1, 64, 2.0);
+
+    /**
+     * AIMD：成功、延迟未超过 基线 × latency-tolerance 且在途数达到 limit × utilization-threshold 时加性增长，
+     * 429/5xx/超时或延迟超标时乘以 backoff-ratio 收缩
+     */
+    @Data
+    public static class Limit {
+        private int initialLimit;
+        private int minLimit;
+        private int maxLimit;
+        /** 延迟容忍倍数，<= 0 表示只根据 429/5xx/超时调整 */
+        private double latencyTolerance;
+        /** 延迟基线窗口：最近多少个成功样本的中位数 */
+        private int latencyWindow = 100;
+        /** 窗口样本少于该值时不做延迟判断 */
+        private int latencyMinSamples = 20;
+        private double backoffRatio = 0.9;
+        /** 成功时只有在途数不低于 limit × 该比例才增长，0 表示总是增长 */
+        private double utilizationThreshold = 0.5;
+        /** 超出限制时最多排队的请求数，满了直接拒绝 */
+        private int maxQueue = 100;
+        /** 排队最长等待时间（毫秒） */
+        private long maxWaitMs = 30_000L;
+
+        public Limit() {
+        }
+
+        public Limit(int initialLimit, int minLimit, int maxLimit, double latencyTolerance) {
+            this.initialLimit = initialLimit;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            this.latencyTolerance = latencyTolerance;
+        }
+    }
+}
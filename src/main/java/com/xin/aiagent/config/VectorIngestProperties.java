@@ -0,0 +1,40 @@
+package com.xin.aiagent.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 批量入库的嵌入流水线配置（前缀 app.vector.ingest），见 {@link com.xin.aiagent.rag.EmbeddingPipeline}。
+ * token 数按 {@link com.xin.aiagent.common.TokenEstimator} 估算。
+ */
+@Data
+@ConfigurationProperties(prefix = "app.vector.ingest")
+public class VectorIngestProperties {
+
+    /** 单个嵌入批次的 token 上限（单个分块超限时独占一批） */
+    private int batchMaxTokens = 6000;
+
+    /** 单个嵌入批次的分块数上限 */
+    private int batchMaxChunks = 64;
+
+    /** 同时进行的批次数 */
+    private int parallelism = 4;
+
+    /** 每秒最多发出的批次数，<= 0 不限 */
+    private double requestsPerSecond = 0;
+
+    /** 每秒最多提交的 token 数，<= 0 不限 */
+    private double tokensPerSecond = 0;
+
+    /** 每个批次的最大尝试次数（含首次） */
+    private int maxAttempts = 4;
+
+    /** 首次重试前的等待（毫秒），之后逐次翻倍并加随机抖动 */
+    private long initialBackoffMs = 500;
+
+    /** 重试等待上限（毫秒） */
+    private long maxBackoffMs = 10_000;
+
+    /** 进度日志的最小间隔（毫秒） */
+    private long progressIntervalMs = 5_000;
+}
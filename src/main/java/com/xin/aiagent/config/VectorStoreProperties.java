@@ -0,0 +1,61 @@
+package com.xin.aiagent.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * RAG 向量库配置（前缀 app.vector.store）。
+ * simple 为内存 SimpleVectorStore（每次启动重新嵌入）；mapped 为持久化到 path 目录的内存映射向量库，见 MappedVectorStore。
+ */
+@Data
+@ConfigurationProperties(prefix = "app.vector.store")
+public class VectorStoreProperties {
+
+    public enum Type {
+        SIMPLE, MAPPED
+    }
+
+    /** 向量库实现 */
+    private Type type = Type.SIMPLE;
+
+    /** mapped 模式的数据目录 */
+    private String path = "data/vector-store";
+
+    /** 死行（已删除/被覆盖）占比超过该值时写入后自动压缩 */
+    private double compactionThreshold = 0.3;
+
+    /** 死行数达到该值才考虑自动压缩 */
+    private int minCompactionRows = 1000;
+
+    /** mapped 模式的检索方式：flat 为全量扫描，hnsw 为近似最近邻索引 */
+    private Index index = Index.FLAT;
+
+    private Hnsw hnsw = new Hnsw();
+
+    /** mapped 模式的向量量化：none 为全精度检索，int8 为量化粗排 + 全精度精排 */
+    private Quantization quantization = Quantization.NONE;
+
+    /** int8 粗排候选数为 topK 的倍数 */
+    private int rerankFactor = 4;
+
+    public enum Index {
+        FLAT, HNSW
+    }
+
+    public enum Quantization {
+        NONE, INT8
+    }
+
+    @Data
+    public static class Hnsw {
+
+        /** 每层邻居数（第 0 层为 2m），越大召回越高、内存越多 */
+        private int m = 16;
+
+        /** 建图候选数，越大图质量越好、建图越慢 */
+        private int efConstruction = 200;
+
+        /** 查询候选数（至少为 topK），越大召回越高、查询越慢 */
+        private int efSearch = 64;
+    }
+}
@@ -0,0 +1,22 @@
+package com.xin.aiagent.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 向量库后台预热配置（前缀 app.vector.warmup），见 {@link com.xin.aiagent.rag.VectorStoreWarmup}。
+ */
+@Data
+@ConfigurationProperties(prefix = "app.vector.warmup")
+public class VectorWarmupProperties {
+
+    public enum WhileIndexing {
+        /** 使用已入库的部分数据检索 */
+        PARTIAL,
+        /** 跳过检索，直接由模型回答 */
+        SKIP
+    }
+
+    /** 预热完成前 RAG 对话的处理方式 */
+    private WhileIndexing whileIndexing = WhileIndexing.PARTIAL;
+}
@@ -0,0 +1,134 @@
+package com.xin.aiagent.controller;
+
+import com.xin.aiagent.app.App;
+import com.xin.aiagent.app.ChatMode;
+import com.xin.aiagent.sse.ChatBulkheadRegistry;
+import com.xin.aiagent.sse.SseFrameEncoder;
+import com.xin.aiagent.sse.StreamCancellation;
+import com.xin.aiagent.upstream.Deadline;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 响应式聊天接口（路径前缀 /api/rx，开关 app.chat.reactive.enabled，默认开启）
+ * 与 {@link ChatController} 的 SSE 事件契约一致（start → delta* → done / error），但直接返回
+ * Flux&lt;ServerSentEvent&gt;：连接空闲时不占用任何线程，写出由客户端消费速度驱动（背压），
+ * 适合单节点承载大量长时间打开的流。认证沿用同一条过滤器链（JwtAuthenticationFilter）。
+ * 并发受同一组按模式划分的舱壁约束：订阅时占用名额、流结束或取消时归还，饱和时推送 busy 错误事件。
+ * - GET /api/rx/doChatWithAppSse → 流式返回（RAG 云端）
+ * - GET /api/rx/doChatWithManus  → 流式返回（工具模式）
+ */
+@RestController
+@RequestMapping("/api/rx")
+@ConditionalOnProperty(name = "app.chat.reactive.enabled", havingValue = "true", matchIfMissing = true)
+@Slf4j
+public class ReactiveChatController {
+
+    @Resource
+    private App app;
+
+    @Resource
+    private ChatBulkheadRegistry chatBulkheadRegistry;
+
+    /**
+     * App 聊天：响应式 SSE 流（调用云端 RAG）
+     *
+     * @param sessionId 会话 ID，用于维护对话上下文
+     * @param prompt 用户问题
+     * @return SSE 事件流
+     */
+    @GetMapping(path = "/doChatWithAppSse", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> doChatWithAppSse(@RequestParam("sessionId") String sessionId,
+                                                          @RequestParam("prompt") String prompt) {
+        String tenant = app.currentTenant();
+        String memoryId = app.memoryId(sessionId);
+        Deadline deadline = app.newDeadline(ChatMode.RAG_CLOUD);
+        return admitted(ChatMode.RAG_CLOUD,
+                () -> toEvents(Flux.defer(() -> app.doChatWithRagCloudStream(prompt, memoryId, tenant, deadline))));
+    }
+
+    /**
+     * Manus（工具模式）聊天：响应式 SSE 流
+     * 客户端断开时订阅被取消，取消令牌同时阻止后续工具调用
+     *
+     * @param sessionId 会话 ID，用于维护对话上下文
+     * @param prompt 用户问题
+     * @return SSE 事件流
+     */
+    @GetMapping(path = "/doChatWithManus", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> doChatWithManusSse(@RequestParam("sessionId") String sessionId,
+                                                            @RequestParam("prompt") String prompt) {
+        String memoryId = app.memoryId(sessionId);
+        Deadline deadline = app.newDeadline(ChatMode.TOOLS);
+        return admitted(ChatMode.TOOLS, () -> {
+            StreamCancellation cancellation = new StreamCancellation();
+            return toEvents(app.doChatWithToolsStream(prompt, memoryId, cancellation, deadline))
+                    .doOnCancel(cancellation::cancel);
+        });
+    }
+
+    /**
+     * 舱壁准入：每次订阅占用一个名额，完成、出错或取消时归还；饱和时只推送 busy 错误事件
+     *
+     * @param mode 对话模式
+     * @param events 准入后构造的事件流
+     * @return SSE 事件流
+     */
+    private Flux<ServerSentEvent<String>> admitted(ChatMode mode, Supplier<Flux<ServerSentEvent<String>>> events) {
+        return Flux.defer(() -> {
+            if (!chatBulkheadRegistry.tryAcquire(mode)) {
+                log.warn("SSE 舱壁已饱和，拒绝响应式请求：mode={}", mode.tag());
+                return Flux.just(event(new AtomicLong(), "message", SseFrameEncoder.errorJson("busy", "服务繁忙，请稍后重试")));
+            }
+            Flux<ServerSentEvent<String>> flux;
+            try {
+                flux = events.get();
+            } catch (RuntimeException e) {
+                chatBulkheadRegistry.release(mode);
+                throw e;
+            }
+            return flux.doFinally(signal -> chatBulkheadRegistry.release(mode));
+        });
+    }
+
+    /**
+     * 把模型增量流包装为 start → delta* → done 事件序列，异常转换为 error 事件
+     *
+     * @param deltas 模型增量流
+     * @return 带单调递增 id 的 SSE 事件流
+     */
+    private Flux<ServerSentEvent<String>> toEvents(Flux<String> deltas) {
+        AtomicLong seq = new AtomicLong();
+        Mono<ServerSentEvent<String>> start = Mono.fromSupplier(() ->
+                event(seq, "message", SseFrameEncoder.startJson(Instant.now().toEpochMilli())));
+        Flux<ServerSentEvent<String>> body = deltas
+                .filter(part -> !part.isEmpty())
+                .map(part -> event(seq, "message", SseFrameEncoder.deltaJson(part)));
+        Mono<ServerSentEvent<String>> done = Mono.fromSupplier(() -> event(seq, "done", "done"));
+        return Flux.concat(start, body, done)
+                .onErrorResume(e -> {
+                    log.error("响应式 SSE 执行异常", e);
+                    return Mono.just(event(seq, "message", SseFrameEncoder.errorJson(SseFrameEncoder.errorCodeOf(e), e.getMessage())));
+                });
+    }
+
+    private static ServerSentEvent<String> event(AtomicLong seq, String name, String data) {
+        return ServerSentEvent.builder(data)
+                .id(String.valueOf(seq.incrementAndGet()))
+                .event(name)
+                .build();
+    }
+}
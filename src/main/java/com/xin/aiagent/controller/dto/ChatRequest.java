@@ -1,12 +1,13 @@
 package com.xin.aiagent.controller.dto;
 
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Size;
 import lombok.Data;
 
 /**
  * 聊天请求入参
- * 说明：前端会先以 POST 方式发送一次请求（用于排队/记录/权限校验等），
- * 随后通过 SSE 拉取流式结果。
+ * 说明：前端先以 POST 方式提交生成任务（立即入队开始生成，返回 jobId），
+ * 随后通过 SSE 携带 jobId 接入该任务的流式结果。
  */
 @Data
 public class ChatRequest {
@@ -18,5 +19,9 @@ public class ChatRequest {
     /** 用户问题/提示词 */
     @NotBlank(message = "prompt 不能为空")
     private String prompt;
+
+    /** 可选：客户端生成的任务 ID（幂等键），重试同一任务不会重复生成 */
+    @Size(max = 64, message = "jobId 过长")
+    private String jobId;
 }
 
@@ -0,0 +1,199 @@
+package com.xin.aiagent.embedding;
+
+import com.xin.aiagent.config.QueryEmbeddingProperties;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptionsBuilder;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 检索查询嵌入的合批装饰器，只作用于单条文本的 embed(String)（向量库检索、语义缓存的查询路径）：
+ * <ul>
+ *     <li>最近的查询向量保存在有界 LRU 中，重复的问题不再请求上游；</li>
+ *     <li>相同文本的在途请求合并为一个，后到者等待同一结果；</li>
+ *     <li>窗口期内并发到达的不同查询合并为一次批量嵌入请求，攒满 max-batch-size 立即发送。</li>
+ * </ul>
+ * 不使用额外线程：每批第一个到达的调用方作为发送者，等待窗口结束（或批次攒满）后用自己的线程发出请求，
+ * 其余调用方阻塞等待结果。批量入库的 call / embed(Document) 原样透传。
+ */
+public class BatchingQueryEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final int cacheSize;
+
+    /** 访问顺序的 LinkedHashMap 作为 LRU，读写都需要持有自身的锁 */
+    private final LinkedHashMap<String, float[]> recent;
+    private final Map<String, CompletableFuture<float[]>> inFlight = new ConcurrentHashMap<>();
+    private final Object batchLock = new Object();
+    private Batch open;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    private static final class Batch {
+        final Map<String, CompletableFuture<float[]>> texts = new LinkedHashMap<>();
+        final CountDownLatch full = new CountDownLatch(1);
+    }
+
+    public BatchingQueryEmbeddingModel(EmbeddingModel delegate, QueryEmbeddingProperties properties) {
+        this.delegate = delegate;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, properties.getWindowMs()));
+        this.maxBatchSize = Math.max(1, properties.getMaxBatchSize());
+        this.cacheSize = Math.max(0, properties.getCacheSize());
+        this.recent = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    @Override
+    public float[] embed(String text) {
+        float[] cached;
+        synchronized (recent) {
+            cached = recent.get(text);
+        }
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached.clone();
+        }
+        CompletableFuture<float[]> created = new CompletableFuture<>();
+        CompletableFuture<float[]> future = inFlight.putIfAbsent(text, created);
+        if (future == null) {
+            future = created;
+            Batch leading = enqueue(text, created);
+            if (leading != null) {
+                send(leading);
+            }
+        }
+        try {
+            return future.join().clone();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        return delegate.call(request);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return delegate.embed(document);
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    public EmbeddingModel getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @return LRU 命中次数
+     */
+    public long hits() {
+        return hits.get();
+    }
+
+    /**
+     * @return 发往上游的批量请求数
+     */
+    public long batches() {
+        return batches.get();
+    }
+
+    /**
+     * 加入当前批次
+     *
+     * @return 调用方开启了新批次、需要负责发送时返回该批次，否则为 null
+     */
+    private Batch enqueue(String text, CompletableFuture<float[]> future) {
+        synchronized (batchLock) {
+            Batch batch = open;
+            Batch leading = null;
+            if (batch == null) {
+                batch = new Batch();
+                open = batch;
+                leading = batch;
+            }
+            batch.texts.put(text, future);
+            if (batch.texts.size() >= maxBatchSize) {
+                open = null;
+                batch.full.countDown();
+            }
+            return leading;
+        }
+    }
+
+    private void send(Batch batch) {
+        if (windowNanos > 0) {
+            try {
+                batch.full.await(windowNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        List<String> texts;
+        synchronized (batchLock) {
+            if (open == batch) {
+                open = null;
+            }
+            texts = new ArrayList<>(batch.texts.keySet());
+        }
+        batches.incrementAndGet();
+        try {
+            EmbeddingResponse response = delegate.call(new EmbeddingRequest(texts,
+                    EmbeddingOptionsBuilder.builder().build()));
+            for (Embedding embedding : response.getResults()) {
+                String text = texts.get(embedding.getIndex());
+                if (cacheSize > 0) {
+                    synchronized (recent) {
+                        recent.put(text, embedding.getOutput());
+                    }
+                }
+                complete(text, batch.texts.get(text), embedding.getOutput(), null);
+            }
+            // 上游少返回的文本按失败处理，避免调用方永久等待
+            batch.texts.forEach((text, future) -> {
+                if (!future.isDone()) {
+                    complete(text, future, null, new IllegalStateException("嵌入结果缺失：" + text));
+                }
+            });
+        } catch (RuntimeException | Error e) {
+            batch.texts.forEach((text, future) -> complete(text, future, null, e));
+            throw e;
+        }
+    }
+
+    private void complete(String text, CompletableFuture<float[]> future, float[] vector, Throwable error) {
+        inFlight.remove(text, future);
+        if (error == null) {
+            future.complete(vector);
+        } else {
+            future.completeExceptionally(error);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.xin.aiagent.embedding;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 带持久化缓存的 EmbeddingModel：同一模型下同一正文只嵌入一次，重启、重建向量库和新部署都直接复用。
+ * call 中只把未命中的文本（同一请求内去重）合并成一次请求交给被包装的模型，结果按原顺序拼回。
+ * 请求选项中指定了模型或维度时以其为缓存键的模型部分，否则使用构造时给定的模型名。
+ * 单条文本的 embed(String) 是检索时的查询路径，不写入持久化缓存（查询几乎不重复，逐条落盘只会让文件无限增长）。
+ */
+public class CachedEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+    private final EmbeddingCache cache;
+    private final String model;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public CachedEmbeddingModel(EmbeddingModel delegate, EmbeddingCache cache, String model) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.model = model;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        String key = model(request.getOptions());
+        List<String> texts = request.getInstructions();
+        float[][] vectors = new float[texts.size()][];
+        Map<String, byte[]> missing = new LinkedHashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            byte[] digest = DigestUtil.sha256(texts.get(i));
+            vectors[i] = cache.get(key, digest);
+            if (vectors[i] == null) {
+                missing.putIfAbsent(texts.get(i), digest);
+            }
+        }
+        EmbeddingResponse response = null;
+        Map<String, float[]> computed = Map.of();
+        if (!missing.isEmpty()) {
+            List<String> missingTexts = new ArrayList<>(missing.keySet());
+            response = delegate.call(new EmbeddingRequest(missingTexts, request.getOptions()));
+            computed = new LinkedHashMap<>();
+            for (Embedding embedding : response.getResults()) {
+                String text = missingTexts.get(embedding.getIndex());
+                computed.put(text, embedding.getOutput());
+                cache.put(key, missing.get(text), embedding.getOutput());
+            }
+        }
+        List<Embedding> embeddings = new ArrayList<>(texts.size());
+        for (int i = 0; i < texts.size(); i++) {
+            float[] vector = vectors[i] != null ? vectors[i] : computed.get(texts.get(i));
+            embeddings.add(new Embedding(vector, i));
+        }
+        hits.addAndGet(texts.size() - missing.size());
+        misses.addAndGet(missing.size());
+        return response == null ? new EmbeddingResponse(embeddings)
+                : new EmbeddingResponse(embeddings, response.getMetadata());
+    }
+
+    @Override
+    public float[] embed(String text) {
+        return delegate.embed(text);
+    }
+
+    /**
+     * 以 EMBED 模式格式化后的正文为键（与 OpenAI 自动配置的 metadataMode 一致），未命中时交给被包装的模型
+     */
+    @Override
+    public float[] embed(Document document) {
+        byte[] digest = DigestUtil.sha256(document.getFormattedContent(MetadataMode.EMBED));
+        float[] vector = cache.get(model, digest);
+        if (vector != null) {
+            hits.incrementAndGet();
+            return vector;
+        }
+        misses.incrementAndGet();
+        vector = delegate.embed(document);
+        cache.put(model, digest, vector);
+        return vector;
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    public EmbeddingModel getDelegate() {
+        return delegate;
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    private String model(EmbeddingOptions options) {
+        if (options == null) {
+            return model;
+        }
+        String name = options.getModel() != null ? options.getModel() : model;
+        return options.getDimensions() != null ? name + "@" + options.getDimensions() : name;
+    }
+}
@@ -0,0 +1,209 @@
+package com.xin.aiagent.embedding;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * 追加写的持久化嵌入缓存，键为（模型名，正文 SHA-256），见 {@link CachedEmbeddingModel}。
+ * <p>
+ * 文件 embeddings.log 中每条记录为 [长度][CRC32][模型名][SHA-256][维度][float 向量]，启动时顺序回放建立
+ * 键 → 文件偏移的内存索引，向量按需读取，内存只占索引。末尾残缺记录（写入中途崩溃）在回放时截断。
+ * <p>
+ * 多个进程（如蓝绿部署的新旧实例）共享同一目录时，只有拿到文件锁的进程追加写入，其余进程只读命中，
+ * 不会互相破坏记录。写入不逐条 fsync，崩溃最多丢失最近的若干条缓存，下次重新嵌入即可。
+ */
+@Slf4j
+public class EmbeddingCache implements Closeable {
+
+    static final String FILE = "embeddings.log";
+
+    private static final int DIGEST_BYTES = 32;
+
+    private record Slot(long offset, int dimensions) {
+    }
+
+    private final Path file;
+    private final FileChannel channel;
+    private final FileLock writeLock;
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+    private long size;
+
+    private EmbeddingCache(Path file, FileChannel channel, FileLock writeLock) {
+        this.file = file;
+        this.channel = channel;
+        this.writeLock = writeLock;
+    }
+
+    /**
+     * 打开（不存在则创建）目录下的缓存文件
+     */
+    public static EmbeddingCache open(Path directory) {
+        Path file = directory.resolve(FILE);
+        try {
+            Files.createDirectories(directory);
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) {
+                log.warn("嵌入缓存已被其他进程写入，本进程只读：{}", file);
+            }
+            EmbeddingCache cache = new EmbeddingCache(file, channel, lock);
+            cache.replay();
+            return cache;
+        } catch (IOException e) {
+            throw new UncheckedIOException("打开嵌入缓存失败：" + file, e);
+        }
+    }
+
+    /**
+     * @param model  模型名
+     * @param digest 正文的 SHA-256（32 字节）
+     * @return 缓存的向量，未命中或读取失败时为 null
+     */
+    public float[] get(String model, byte[] digest) {
+        Slot slot = slots.get(key(model, digest));
+        if (slot == null) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(slot.dimensions() * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            long position = slot.offset();
+            while (buffer.hasRemaining()) {
+                int n = channel.read(buffer, position);
+                if (n < 0) {
+                    throw new EOFException("嵌入缓存被截断");
+                }
+                position += n;
+            }
+        } catch (IOException e) {
+            log.warn("读取嵌入缓存失败：{}，按未命中处理", e.getMessage());
+            return null;
+        }
+        buffer.flip();
+        float[] vector = new float[slot.dimensions()];
+        buffer.asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    /**
+     * 追加一条缓存；只读模式或写入失败时忽略（只影响命中率）
+     */
+    public synchronized void put(String model, byte[] digest, float[] vector) {
+        if (writeLock == null) {
+            return;
+        }
+        byte[] modelBytes = model.getBytes(StandardCharsets.UTF_8);
+        int length = Integer.BYTES + modelBytes.length + DIGEST_BYTES + Integer.BYTES + vector.length * Float.BYTES;
+        ByteBuffer payload = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        payload.putInt(modelBytes.length).put(modelBytes).put(digest).putInt(vector.length);
+        int vectorOffset = payload.position();
+        for (float v : vector) {
+            payload.putFloat(v);
+        }
+        CRC32 checksum = new CRC32();
+        checksum.update(payload.array());
+        ByteBuffer record = ByteBuffer.allocate(8 + length);
+        record.putInt(length).putInt((int) checksum.getValue()).put(payload.array()).flip();
+        try {
+            long position = size;
+            while (record.hasRemaining()) {
+                position += channel.write(record, position);
+            }
+            slots.put(key(model, digest), new Slot(size + 8 + vectorOffset, vector.length));
+            size = position;
+        } catch (IOException e) {
+            log.warn("写入嵌入缓存失败：{}", e.getMessage());
+        }
+    }
+
+    /**
+     * @return 缓存的向量条数
+     */
+    public int size() {
+        return slots.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            if (writeLock != null) {
+                channel.force(false);
+            }
+            channel.close();
+        } catch (IOException e) {
+            log.warn("关闭嵌入缓存失败：{}", e.getMessage());
+        }
+    }
+
+    private void replay() throws IOException {
+        long offset = 0;
+        long fileSize = channel.size();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            while (offset < fileSize) {
+                int length;
+                int crc;
+                byte[] payload;
+                try {
+                    length = in.readInt();
+                    crc = in.readInt();
+                    if (length <= 0 || offset + 8 + length > fileSize) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    break;
+                }
+                CRC32 checksum = new CRC32();
+                checksum.update(payload);
+                if ((int) checksum.getValue() != crc) {
+                    break;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN);
+                byte[] modelBytes = new byte[buffer.getInt()];
+                buffer.get(modelBytes);
+                byte[] digest = new byte[DIGEST_BYTES];
+                buffer.get(digest);
+                int dimensions = buffer.getInt();
+                slots.put(key(new String(modelBytes, StandardCharsets.UTF_8), digest),
+                        new Slot(offset + 8 + buffer.position(), dimensions));
+                offset += 8 + length;
+            }
+        }
+        // 只读进程看到的残缺末尾可能是写入方正在追加的记录，不能截断
+        if (offset < fileSize && writeLock != null) {
+            log.warn("嵌入缓存末尾有 {} 字节残缺记录，已截断：{}", fileSize - offset, file);
+            channel.truncate(offset);
+        }
+        size = offset;
+        log.info("嵌入缓存已加载：entries={}, {}", slots.size(), file);
+    }
+
+    private static String key(String model, byte[] digest) {
+        return model + '\0' + HexFormat.of().formatHex(digest);
+    }
+}
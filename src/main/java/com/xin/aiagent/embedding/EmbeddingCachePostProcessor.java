@@ -0,0 +1,70 @@
+package com.xin.aiagent.embedding;
+
+import com.xin.aiagent.config.EmbeddingCacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 把容器中的 EmbeddingModel Bean 包装为 {@link CachedEmbeddingModel}。
+ * 最后执行，缓存位于限流器（{@link com.xin.aiagent.limit.AdaptiveLimiterPostProcessor}）与查询合批
+ * （{@link QueryEmbeddingPostProcessor}）外层，命中不占并发配额、也不会拉低限流器的延迟基线。
+ * 配置通过 Binder 直接绑定，缓存文件在容器关闭时关闭。
+ */
+@Slf4j
+@Component
+public class EmbeddingCachePostProcessor implements BeanPostProcessor, Ordered, DisposableBean {
+
+    private static final String PREFIX = "app.embedding.cache";
+    private static final String MODEL_PROPERTY = "spring.ai.openai.embedding.options.model";
+
+    private final Environment environment;
+    private final List<EmbeddingCache> caches = new ArrayList<>();
+    private EmbeddingCacheProperties properties;
+
+    public EmbeddingCachePostProcessor(Environment environment) {
+        this.environment = environment;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof EmbeddingModel embeddingModel && !(bean instanceof CachedEmbeddingModel)
+                && properties().isEnabled()) {
+            String model = StringUtils.hasText(properties().getModel()) ? properties().getModel()
+                    : environment.getProperty(MODEL_PROPERTY, beanName);
+            EmbeddingCache cache = EmbeddingCache.open(Path.of(properties().getPath()));
+            caches.add(cache);
+            log.info("嵌入缓存已启用：bean={}, model={}, path={}", beanName, model, properties().getPath());
+            return new CachedEmbeddingModel(embeddingModel, cache, model);
+        }
+        return bean;
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.LOWEST_PRECEDENCE;
+    }
+
+    @Override
+    public void destroy() {
+        caches.forEach(EmbeddingCache::close);
+    }
+
+    private EmbeddingCacheProperties properties() {
+        if (properties == null) {
+            properties = Binder.get(environment).bind(PREFIX, EmbeddingCacheProperties.class)
+                    .orElseGet(EmbeddingCacheProperties::new);
+        }
+        return properties;
+    }
+}
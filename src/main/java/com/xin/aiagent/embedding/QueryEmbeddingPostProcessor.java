@@ -0,0 +1,53 @@
+package com.xin.aiagent.embedding;
+
+import com.xin.aiagent.config.QueryEmbeddingProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * 把容器中的 EmbeddingModel Bean 包装为 {@link BatchingQueryEmbeddingModel}。
+ * 执行顺序位于限流器与持久化嵌入缓存之间：合批后的一次请求只占一个并发配额，
+ * 查询路径又在 {@link CachedEmbeddingModel} 中直接透传，查询向量不会写入持久化缓存。
+ */
+@Slf4j
+@Component
+public class QueryEmbeddingPostProcessor implements BeanPostProcessor, Ordered {
+
+    private static final String PREFIX = "app.embedding.query";
+
+    private final Environment environment;
+    private QueryEmbeddingProperties properties;
+
+    public QueryEmbeddingPostProcessor(Environment environment) {
+        this.environment = environment;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof EmbeddingModel embeddingModel && !(bean instanceof BatchingQueryEmbeddingModel)
+                && !(bean instanceof CachedEmbeddingModel) && properties().isEnabled()) {
+            log.info("查询嵌入合批已启用：bean={}, windowMs={}, maxBatchSize={}, cacheSize={}", beanName,
+                    properties().getWindowMs(), properties().getMaxBatchSize(), properties().getCacheSize());
+            return new BatchingQueryEmbeddingModel(embeddingModel, properties());
+        }
+        return bean;
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.LOWEST_PRECEDENCE - 1;
+    }
+
+    private QueryEmbeddingProperties properties() {
+        if (properties == null) {
+            properties = Binder.get(environment).bind(PREFIX, QueryEmbeddingProperties.class)
+                    .orElseGet(QueryEmbeddingProperties::new);
+        }
+        return properties;
+    }
+}
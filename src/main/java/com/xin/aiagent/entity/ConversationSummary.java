@@ -0,0 +1,29 @@
+package com.xin.aiagent.entity;
+
+import com.baomidou.mybatisplus.annotation.FieldFill;
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+@Data
+@TableName("conversation_summaries")
+public class ConversationSummary {
+    /** 记忆 ID 的 SHA-256：记忆 ID 含客户端会话 ID，长度不受控 */
+    @TableId(value = "conversation_key", type = IdType.INPUT)
+    private String conversationKey;
+
+    private String summary;
+
+    private Long summarizedSeq;
+
+    private Integer summarizedCount;
+
+    @TableField(value = "created_at", fill = FieldFill.INSERT)
+    private LocalDateTime createdAt;
+
+    @TableField(value = "updated_at", fill = FieldFill.INSERT_UPDATE)
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,228 @@
+package com.xin.aiagent.limit;
+
+import com.xin.aiagent.common.BusinessException;
+import com.xin.aiagent.common.ResultCode;
+import com.xin.aiagent.config.UpstreamLimiterProperties;
+import com.xin.aiagent.upstream.Deadline;
+import com.xin.aiagent.upstream.LatencyWindow;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 出站调用的自适应并发限制（AIMD）。
+ * - 成功且延迟未超标，且完成时在途数不低于 limit × utilization-threshold：limit += 1/limit（每轮满并发约 +1）；
+ *   低负载时的成功不能说明上游能承受更高并发，不增长，避免 limit 在空闲期无限抬升、突发流量时一次放行过多；
+ * - 429/5xx/超时，或延迟超过 基线 × latency-tolerance：limit *= backoff-ratio；
+ *   同一轮中（在上次收缩之前发出的请求）的多次失败只收缩一次，避免突发错误把限制打到底；
+ * - 其他错误（参数错误、客户端取消等）只释放名额，不调整限制。
+ * 延迟按信号类型（{@link Signal}）分别维护基线：最近 latency-window 个成功样本的中位数，样本不足 latency-min-samples
+ * 时不做判断；同一个 limiter 上的首包时间、每 token 耗时与总耗时互不比较。
+ * 超出限制的请求排队等待，队列已满或等待超过 max-wait-ms（有截止时间时取二者较小值）时
+ * 抛出 {@link ResultCode#UPSTREAM_OVERLOADED}。
+ */
+@Slf4j
+public class AdaptiveLimiter {
+
+    /** 一次调用的结果 */
+    public enum Outcome {
+        SUCCESS, DROPPED, IGNORED
+    }
+
+    /**
+     * 延迟信号类型，各自维护基线
+     * - TOTAL：整次调用耗时（向量化等输出长度固定的调用）；
+     * - FIRST_CHUNK：流式调用的首包时间；
+     * - PER_TOKEN：同步对话调用按输出 token 数归一化后的耗时，长短回答可以互相比较
+     */
+    public enum Signal {
+        TOTAL, FIRST_CHUNK, PER_TOKEN
+    }
+
+    /** 基线取窗口内样本的分位数 */
+    private static final double BASELINE_QUANTILE = 0.5;
+
+    private final String name;
+    private final UpstreamLimiterProperties.Limit config;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Counter rejected;
+    private final Counter dropped;
+
+    private double limit;
+    private int inFlight;
+    private int waiting;
+    private final Map<Signal, LatencyWindow> baselines = new EnumMap<>(Signal.class);
+    private long lastDecreaseNanos;
+
+    public AdaptiveLimiter(String name, UpstreamLimiterProperties.Limit config, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.config = config;
+        this.limit = Math.max(config.getMinLimit(), Math.min(config.getMaxLimit(), config.getInitialLimit()));
+        this.lastDecreaseNanos = System.nanoTime();
+        for (Signal signal : Signal.values()) {
+            baselines.put(signal, new LatencyWindow(config.getLatencyWindow()));
+        }
+        this.rejected = meterRegistry.counter("upstream.limiter.rejected", "model", name);
+        this.dropped = meterRegistry.counter("upstream.limiter.dropped", "model", name);
+        Gauge.builder("upstream.limiter.limit", this, AdaptiveLimiter::getLimit)
+                .tag("model", name).register(meterRegistry);
+        Gauge.builder("upstream.limiter.inflight", this, AdaptiveLimiter::getInFlight)
+                .tag("model", name).register(meterRegistry);
+        Gauge.builder("upstream.limiter.queued", this, AdaptiveLimiter::getWaiting)
+                .tag("model", name).register(meterRegistry);
+    }
+
+    /**
+     * 获取一个名额，排队时间受当前线程上的截止时间约束
+     *
+     * @see #acquire(Deadline)
+     */
+    public long acquire() {
+        return acquire(Deadline.current());
+    }
+
+    /**
+     * 获取一个名额，必要时排队等待
+     *
+     * @param deadline 请求截止时间，可为 null
+     * @return 获取名额的时刻（System.nanoTime），释放时原样传回
+     * @throws BusinessException 队列已满、等待超时或被中断
+     */
+    public long acquire(Deadline deadline) {
+        lock.lock();
+        try {
+            if (inFlight < currentLimit()) {
+                inFlight++;
+                return System.nanoTime();
+            }
+            if (waiting >= config.getMaxQueue()) {
+                throw reject("queue full");
+            }
+            waiting++;
+            try {
+                long remaining = TimeUnit.MILLISECONDS.toNanos(config.getMaxWaitMs());
+                if (deadline != null) {
+                    remaining = Math.min(remaining, deadline.remainingNanos());
+                }
+                while (inFlight >= currentLimit()) {
+                    if (remaining <= 0) {
+                        throw reject("wait timeout");
+                    }
+                    remaining = available.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw reject("interrupted");
+            } finally {
+                waiting--;
+            }
+            inFlight++;
+            return System.nanoTime();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 释放名额并按结果调整限制，延迟按整次调用耗时（{@link Signal#TOTAL}）判断
+     *
+     * @see #release(long, Outcome, Signal, long)
+     */
+    public void release(long startNanos, Outcome outcome, long latencyNanos) {
+        release(startNanos, outcome, Signal.TOTAL, latencyNanos);
+    }
+
+    /**
+     * 释放名额并按结果调整限制
+     *
+     * @param startNanos {@link #acquire()} 的返回值
+     * @param outcome 调用结果
+     * @param signal 延迟信号类型，只与同类型的基线比较
+     * @param latencyNanos 用于判断延迟是否超标的耗时，未知或不应参与判断时传 -1
+     */
+    public void release(long startNanos, Outcome outcome, Signal signal, long latencyNanos) {
+        lock.lock();
+        try {
+            int busy = inFlight--;
+            Outcome effective = outcome;
+            if (outcome == Outcome.SUCCESS && latencyNanos > 0) {
+                effective = observeLatency(signal, latencyNanos);
+            }
+            if (effective == Outcome.SUCCESS) {
+                if (busy >= limit * config.getUtilizationThreshold()) {
+                    limit = Math.min(config.getMaxLimit(), limit + 1.0 / limit);
+                }
+            } else if (effective == Outcome.DROPPED) {
+                dropped.increment();
+                if (startNanos - lastDecreaseNanos >= 0) {
+                    double before = limit;
+                    limit = Math.max(config.getMinLimit(), limit * config.getBackoffRatio());
+                    lastDecreaseNanos = System.nanoTime();
+                    log.debug("上游并发限制收缩：model={}, {} -> {}", name, (int) before, (int) limit);
+                }
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return currentLimit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getWaiting() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 与同类型基线比较并记录样本；超过 基线 × 容忍倍数 视为过载信号（调用方持有锁）。
+     * 基线是窗口分位数而不是历史最小值，一次偶发的极短调用不会让之后的正常调用全部被判为超标
+     */
+    private Outcome observeLatency(Signal signal, long latencyNanos) {
+        LatencyWindow window = baselines.get(signal);
+        boolean slow = config.getLatencyTolerance() > 0
+                && window.count() >= config.getLatencyMinSamples()
+                && latencyNanos > window.percentile(BASELINE_QUANTILE) * config.getLatencyTolerance();
+        window.record(latencyNanos);
+        return slow ? Outcome.DROPPED : Outcome.SUCCESS;
+    }
+
+    private int currentLimit() {
+        return (int) limit;
+    }
+
+    private BusinessException reject(String reason) {
+        rejected.increment();
+        log.debug("上游并发限制拒绝请求：model={}, reason={}, limit={}, inFlight={}, waiting={}",
+                name, reason, currentLimit(), inFlight, waiting);
+        return new BusinessException(ResultCode.UPSTREAM_OVERLOADED);
+    }
+}
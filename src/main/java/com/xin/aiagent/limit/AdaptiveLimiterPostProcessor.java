@@ -0,0 +1,79 @@
+package com.xin.aiagent.limit;
+
+import com.xin.aiagent.config.UpstreamLimiterProperties;
+import com.xin.aiagent.upstream.RoutingChatModel;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * 把容器中的 ChatModel / EmbeddingModel Bean 包装为受自适应并发限制的实现，
+ * 所有注入点（ChatClient、向量库、摘要、语义缓存）共享同一个限制器。
+ * BeanPostProcessor 早于普通 Bean 创建，配置通过 Binder 直接绑定，MeterRegistry 延迟获取。
+ * 排在查询合批与嵌入缓存之前执行，限流器位于最内层，只限制真正发往上游的请求。
+ */
+@Slf4j
+@Component
+public class AdaptiveLimiterPostProcessor implements BeanPostProcessor, Ordered {
+
+    private static final String PREFIX = "app.upstream.limiter";
+
+    private final Environment environment;
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+    private UpstreamLimiterProperties properties;
+
+    public AdaptiveLimiterPostProcessor(Environment environment, ObjectProvider<MeterRegistry> meterRegistry) {
+        this.environment = environment;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        // 路由模型的每个端点已各自受限，不再整体包装
+        if (bean instanceof ChatModel chatModel && !(bean instanceof LimitedChatModel)
+                && !(bean instanceof RoutingChatModel) && properties().isEnabled()) {
+            log.info("上游并发限制已启用：bean={}, limit={}", beanName, properties().getChat().getInitialLimit());
+            return new LimitedChatModel(chatModel,
+                    new AdaptiveLimiter("chat", properties().getChat(), meterRegistry.getObject()));
+        }
+        if (bean instanceof EmbeddingModel embeddingModel && !(bean instanceof LimitedEmbeddingModel)
+                && properties().isEnabled()) {
+            log.info("上游并发限制已启用：bean={}, limit={}", beanName, properties().getEmbedding().getInitialLimit());
+            return new LimitedEmbeddingModel(embeddingModel,
+                    new AdaptiveLimiter("embedding", properties().getEmbedding(), meterRegistry.getObject()));
+        }
+        return bean;
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.LOWEST_PRECEDENCE - 2;
+    }
+
+    /**
+     * 为不是 Bean 的 ChatModel（如路由器单独创建的端点）包装独立的限制器；未启用时原样返回
+     *
+     * @param name 指标标签 model 的值
+     */
+    public ChatModel limit(String name, ChatModel chatModel) {
+        if (!properties().isEnabled()) {
+            return chatModel;
+        }
+        return new LimitedChatModel(chatModel, new AdaptiveLimiter(name, properties().getChat(), meterRegistry.getObject()));
+    }
+
+    private UpstreamLimiterProperties properties() {
+        if (properties == null) {
+            properties = Binder.get(environment).bind(PREFIX, UpstreamLimiterProperties.class)
+                    .orElseGet(UpstreamLimiterProperties::new);
+        }
+        return properties;
+    }
+}
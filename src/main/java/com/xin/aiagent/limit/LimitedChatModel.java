@@ -0,0 +1,104 @@
+package com.xin.aiagent.limit;
+
+import com.xin.aiagent.common.TokenEstimator;
+import com.xin.aiagent.upstream.Deadline;
+import com.xin.aiagent.upstream.HedgingChatModel;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 受 {@link AdaptiveLimiter} 限制的 ChatModel。
+ * 回答长度差异很大，总耗时没有可比性：同步调用以总耗时除以输出 token 数作为延迟信号，流式调用以首包时间作为延迟信号。
+ * 带工具的请求在一次调用内执行工具，耗时取决于工具而不是上游负载，不参与延迟判断，只按 429/5xx/超时调整。
+ * 流式调用的名额在流结束、出错或被取消时释放，取消不调整限制。
+ */
+public class LimitedChatModel implements ChatModel {
+
+    private final ChatModel delegate;
+    private final AdaptiveLimiter limiter;
+
+    public LimitedChatModel(ChatModel delegate, AdaptiveLimiter limiter) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        boolean judgeLatency = !HedgingChatModel.usesTools(prompt.getOptions());
+        long start = limiter.acquire();
+        try {
+            ChatResponse response = delegate.call(prompt);
+            long elapsed = System.nanoTime() - start;
+            int tokens = judgeLatency ? completionTokens(response) : 0;
+            limiter.release(start, AdaptiveLimiter.Outcome.SUCCESS, AdaptiveLimiter.Signal.PER_TOKEN,
+                    tokens > 0 ? elapsed / tokens : -1);
+            return response;
+        } catch (RuntimeException | Error e) {
+            limiter.release(start, UpstreamErrors.classify(e), -1);
+            throw e;
+        }
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        // 排队是阻塞等待，不占用订阅线程；排队时间受 Reactor Context 中的截止时间约束
+        return Mono.deferContextual(context -> Mono.fromCallable(() -> limiter.acquire(Deadline.from(context))))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(start -> {
+                    AtomicBoolean released = new AtomicBoolean();
+                    AtomicLong firstChunkNanos = new AtomicLong(-1);
+                    boolean judgeLatency = !HedgingChatModel.usesTools(prompt.getOptions());
+                    return delegate.stream(prompt)
+                            .doOnNext(r -> {
+                                if (judgeLatency) {
+                                    firstChunkNanos.compareAndSet(-1, System.nanoTime() - start);
+                                }
+                            })
+                            .doOnComplete(() -> release(released, start, AdaptiveLimiter.Outcome.SUCCESS,
+                                    firstChunkNanos.get()))
+                            .doOnError(e -> release(released, start, UpstreamErrors.classify(e), -1))
+                            .doOnCancel(() -> release(released, start, AdaptiveLimiter.Outcome.IGNORED, -1));
+                });
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return delegate.getDefaultOptions();
+    }
+
+    public ChatModel getDelegate() {
+        return delegate;
+    }
+
+    private void release(AtomicBoolean released, long start, AdaptiveLimiter.Outcome outcome, long latencyNanos) {
+        if (released.compareAndSet(false, true)) {
+            limiter.release(start, outcome, AdaptiveLimiter.Signal.FIRST_CHUNK, latencyNanos);
+        }
+    }
+
+    /**
+     * 输出 token 数：优先取上游返回的用量，缺失时按回答文本估算
+     */
+    private static int completionTokens(ChatResponse response) {
+        if (response == null) {
+            return 0;
+        }
+        Usage usage = response.getMetadata() == null ? null : response.getMetadata().getUsage();
+        if (usage != null && usage.getCompletionTokens() != null && usage.getCompletionTokens() > 0) {
+            return usage.getCompletionTokens();
+        }
+        Generation generation = response.getResult();
+        return generation == null || generation.getOutput() == null ? 0
+                : TokenEstimator.estimate(generation.getOutput().getText());
+    }
+}
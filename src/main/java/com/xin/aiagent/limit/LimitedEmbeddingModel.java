@@ -0,0 +1,54 @@
+package com.xin.aiagent.limit;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.function.Supplier;
+
+/**
+ * 受 {@link AdaptiveLimiter} 限制的 EmbeddingModel，以单次请求总耗时作为延迟信号。
+ * 其余默认方法（embed(String)、批量 embed 等）最终都经过 call / embed(Document)，无需单独包装
+ */
+public class LimitedEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+    private final AdaptiveLimiter limiter;
+
+    public LimitedEmbeddingModel(EmbeddingModel delegate, AdaptiveLimiter limiter) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        return limited(() -> delegate.call(request));
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return limited(() -> delegate.embed(document));
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    public EmbeddingModel getDelegate() {
+        return delegate;
+    }
+
+    private <T> T limited(Supplier<T> call) {
+        long start = limiter.acquire();
+        try {
+            T result = call.get();
+            limiter.release(start, AdaptiveLimiter.Outcome.SUCCESS, System.nanoTime() - start);
+            return result;
+        } catch (RuntimeException | Error e) {
+            limiter.release(start, UpstreamErrors.classify(e), -1);
+            throw e;
+        }
+    }
+}
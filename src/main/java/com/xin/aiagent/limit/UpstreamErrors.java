@@ -0,0 +1,58 @@
+package com.xin.aiagent.limit;
+
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.net.SocketTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 上游错误分类：哪些错误说明提供方已过载，应当收缩并发限制
+ */
+public final class UpstreamErrors {
+
+    private static final int MAX_CAUSE_DEPTH = 8;
+
+    private UpstreamErrors() {
+    }
+
+    /**
+     * 沿 cause 链判断：429、5xx（Spring AI 的 TransientAiException）或超时视为过载，其余错误不影响限制
+     */
+    public static AdaptiveLimiter.Outcome classify(Throwable error) {
+        Throwable t = error;
+        for (int depth = 0; t != null && depth < MAX_CAUSE_DEPTH; depth++, t = t.getCause()) {
+            if (isOverload(t)) {
+                return AdaptiveLimiter.Outcome.DROPPED;
+            }
+        }
+        return AdaptiveLimiter.Outcome.IGNORED;
+    }
+
+    private static boolean isOverload(Throwable t) {
+        if (t instanceof TransientAiException
+                || t instanceof TimeoutException
+                || t instanceof SocketTimeoutException
+                || t instanceof HttpTimeoutException) {
+            return true;
+        }
+        // Spring AI 对 4xx 抛 NonTransientAiException，消息以状态码开头（"429 - ..."）
+        if (t instanceof NonTransientAiException) {
+            return t.getMessage() != null && t.getMessage().startsWith("429");
+        }
+        if (t instanceof RestClientResponseException e) {
+            return isOverloadStatus(e.getStatusCode().value());
+        }
+        if (t instanceof WebClientResponseException e) {
+            return isOverloadStatus(e.getStatusCode().value());
+        }
+        return false;
+    }
+
+    private static boolean isOverloadStatus(int status) {
+        return status == 429 || status >= 500;
+    }
+}
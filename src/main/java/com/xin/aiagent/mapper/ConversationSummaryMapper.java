@@ -0,0 +1,9 @@
+package com.xin.aiagent.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.xin.aiagent.entity.ConversationSummary;
+import org.apache.ibatis.annotations.Mapper;
+
+@Mapper
+public interface ConversationSummaryMapper extends BaseMapper<ConversationSummary> {
+}
@@ -0,0 +1,295 @@
+package com.xin.aiagent.memory;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.xin.aiagent.config.ChatMemoryProperties;
+import com.xin.aiagent.entity.Conversation;
+import com.xin.aiagent.mapper.ConversationMapper;
+import com.xin.aiagent.mapper.MessageMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 以 messages 表为持久层的 ChatMemory。
+ * - 热层：按访问顺序的 LRU，受会话数、消息总字节数、空闲 TTL 三重限制，每个会话只保留最近 window-size 条，
+ *   因此内存占用与会话总数无关；
+ * - 未命中：从数据库加载该会话最近 window-size 条消息；
+ * - 写入：会话 ID 对应 conversations 表中属于该用户的有效会话时，user/assistant 消息直接写入 messages 表（write-through），
+ *   写入的 AI 消息在元数据 {@link #MESSAGE_ID} 中带回行 ID；其他会话 ID（匿名 SSE 会话、他人的会话）只保存在热层，淘汰即丢弃。
+ * - 序号：每条消息的元数据 {@link #MESSAGE_SEQ} 是会话内单调递增的序号（持久会话取 messages 行 ID，其余取进程内计数），
+ *   供滚动摘要记录水位；内容相同的消息（如反复的“继续”）序号不同。
+ * 记忆 ID 由 {@link #conversationId(Long, String)} 生成，带上请求线程上解析出的用户，不同用户的同名会话互不可见。
+ * clear 只清理热层，数据库中的历史由会话接口负责（软删除）。
+ */
+@Slf4j
+public class PersistentChatMemory implements ChatMemory {
+
+    /** 写入 messages 表后回填到消息元数据中的行 ID */
+    public static final String MESSAGE_ID = "messageId";
+
+    /** 会话内单调递增的消息序号，见类注释 */
+    public static final String MESSAGE_SEQ = "messageSeq";
+
+    /** 未登录请求的记忆 ID 前缀 */
+    private static final String ANONYMOUS = "anon";
+
+    /** 每条消息的固定开销估算（对象头、引用、元数据） */
+    private static final int MESSAGE_OVERHEAD_BYTES = 64;
+
+    private final ChatMemoryProperties properties;
+    private final MessageMapper messageMapper;
+    private final ConversationMapper conversationMapper;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    /** 非持久消息的序号，以启动时刻的微秒数起步，重启后仍大于之前发出的序号 */
+    private final AtomicLong sequence = new AtomicLong(System.currentTimeMillis() * 1000);
+
+    /** 访问顺序的 LinkedHashMap，头部为最久未访问的会话；所有访问在 this 上同步 */
+    private final LinkedHashMap<String, Entry> hot = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes;
+
+    /** 一个会话在热层中的最近消息窗口 */
+    private static final class Entry {
+        /** 持久会话对应的 conversations.id，非持久会话为 null */
+        final Long conversationId;
+        final Deque<Message> messages = new ArrayDeque<>();
+        long bytes;
+        long lastAccess;
+
+        Entry(Long conversationId) {
+            this.conversationId = conversationId;
+        }
+    }
+
+    public PersistentChatMemory(ChatMemoryProperties properties, MessageMapper messageMapper,
+                                ConversationMapper conversationMapper, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.messageMapper = messageMapper;
+        this.conversationMapper = conversationMapper;
+        this.hits = meterRegistry.counter("chat.memory.requests", "result", "hit");
+        this.misses = meterRegistry.counter("chat.memory.requests", "result", "miss");
+        this.evictions = meterRegistry.counter("chat.memory.evictions");
+        Gauge.builder("chat.memory.conversations", this, PersistentChatMemory::size).register(meterRegistry);
+        Gauge.builder("chat.memory.bytes", this, PersistentChatMemory::bytes).register(meterRegistry);
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        Entry entry = entryFor(conversationId);
+        if (entry.conversationId != null) {
+            for (Message message : messages) {
+                persist(entry.conversationId, message);
+            }
+        } else {
+            for (Message message : messages) {
+                message.getMetadata().put(MESSAGE_SEQ, sequence.incrementAndGet());
+            }
+        }
+        synchronized (this) {
+            Entry current = hot.get(conversationId);
+            if (current == null) {
+                // 加载与写库期间已被淘汰，重新放回热层
+                current = entry;
+                hot.put(conversationId, current);
+                totalBytes += current.bytes;
+            }
+            for (Message message : messages) {
+                long size = sizeOf(message);
+                current.messages.addLast(message);
+                current.bytes += size;
+                totalBytes += size;
+            }
+            trim(current);
+            current.lastAccess = System.currentTimeMillis();
+            evict();
+        }
+    }
+
+    @Override
+    public List<Message> get(String conversationId, int lastN) {
+        Entry entry = entryFor(conversationId);
+        synchronized (this) {
+            List<Message> all = new ArrayList<>(entry.messages);
+            return all.subList(Math.max(0, all.size() - lastN), all.size());
+        }
+    }
+
+    @Override
+    public synchronized void clear(String conversationId) {
+        Entry removed = hot.remove(conversationId);
+        if (removed != null) {
+            totalBytes -= removed.bytes;
+        }
+    }
+
+    /**
+     * 对话记忆 ID：用户 ID + 客户端会话 ID。用户必须在请求线程上解析（流式请求在舱壁线程中执行，拿不到安全上下文）
+     *
+     * @param userId 当前用户，未登录为 null
+     * @param chatId 客户端会话 ID，或 conversations.id
+     */
+    public static String conversationId(Long userId, String chatId) {
+        return (userId == null ? ANONYMOUS : String.valueOf(userId)) + ":" + chatId;
+    }
+
+    public synchronized int size() {
+        return hot.size();
+    }
+
+    public synchronized long bytes() {
+        return totalBytes;
+    }
+
+    /**
+     * 取热层中的会话；未命中时在锁外加载，避免数据库延迟阻塞其他会话
+     */
+    private Entry entryFor(String conversationId) {
+        synchronized (this) {
+            Entry entry = hot.get(conversationId);
+            if (entry != null) {
+                entry.lastAccess = System.currentTimeMillis();
+                hits.increment();
+                return entry;
+            }
+        }
+        misses.increment();
+        Entry loaded = load(conversationId);
+        synchronized (this) {
+            Entry raced = hot.get(conversationId);
+            if (raced != null) {
+                return raced;
+            }
+            hot.put(conversationId, loaded);
+            totalBytes += loaded.bytes;
+            loaded.lastAccess = System.currentTimeMillis();
+            evict();
+            return loaded;
+        }
+    }
+
+    private Entry load(String conversationId) {
+        int separator = conversationId.indexOf(':');
+        Long userId = separator < 0 ? null : parseId(conversationId.substring(0, separator));
+        Long cid = userId == null ? null : parseId(conversationId.substring(separator + 1));
+        if (cid == null) {
+            return new Entry(null);
+        }
+        Conversation conversation = conversationMapper.selectById(cid);
+        if (conversation == null || conversation.getDeletedAt() != null) {
+            return new Entry(null);
+        }
+        if (!userId.equals(conversation.getUserId())) {
+            // 他人的会话：不读取历史，也不写入其 messages 表
+            log.warn("拒绝访问他人的会话记忆：userId={}, conversationId={}", userId, cid);
+            return new Entry(null);
+        }
+        Entry entry = new Entry(cid);
+        List<com.xin.aiagent.entity.Message> rows = messageMapper.selectList(
+                new LambdaQueryWrapper<com.xin.aiagent.entity.Message>()
+                        .eq(com.xin.aiagent.entity.Message::getConversationId, cid)
+                        .isNull(com.xin.aiagent.entity.Message::getDeletedAt)
+                        .orderByDesc(com.xin.aiagent.entity.Message::getId)
+                        .last("limit " + properties.getWindowSize()));
+        Collections.reverse(rows);
+        for (com.xin.aiagent.entity.Message row : rows) {
+            Message message = "assistant".equals(row.getRole())
+                    ? new AssistantMessage(row.getContent())
+                    : new UserMessage(row.getContent());
+            message.getMetadata().put(MESSAGE_SEQ, row.getId());
+            entry.messages.addLast(message);
+            entry.bytes += sizeOf(message);
+        }
+        log.debug("对话记忆从数据库加载：conversationId={}, messages={}", cid, rows.size());
+        return entry;
+    }
+
+    private void persist(Long conversationId, Message message) {
+        String role = switch (message.getMessageType()) {
+            case USER -> "user";
+            case ASSISTANT -> "assistant";
+            default -> null;
+        };
+        if (role == null || message.getText() == null) {
+            return;
+        }
+        com.xin.aiagent.entity.Message row = new com.xin.aiagent.entity.Message();
+        row.setConversationId(conversationId);
+        row.setRole(role);
+        row.setContent(message.getText());
+        messageMapper.insert(row);
+        if (row.getId() == null) {
+            return;
+        }
+        message.getMetadata().put(MESSAGE_SEQ, row.getId());
+        if (message.getMessageType() == MessageType.ASSISTANT) {
+            message.getMetadata().put(MESSAGE_ID, row.getId());
+        }
+    }
+
+    /**
+     * 裁剪单个会话到窗口大小
+     */
+    private void trim(Entry entry) {
+        while (entry.messages.size() > properties.getWindowSize()) {
+            long size = sizeOf(entry.messages.removeFirst());
+            entry.bytes -= size;
+            totalBytes -= size;
+        }
+    }
+
+    /**
+     * 依次淘汰空闲超时、超出会话数或字节上限的最久未访问会话（调用方持有锁）
+     */
+    private void evict() {
+        long idleBefore = System.currentTimeMillis() - properties.getIdleTtlMs();
+        Iterator<Map.Entry<String, Entry>> it = hot.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            boolean over = hot.size() > properties.getMaxConversations() || totalBytes > properties.getMaxBytes();
+            if (!over && eldest.lastAccess >= idleBefore) {
+                break;
+            }
+            it.remove();
+            totalBytes -= eldest.bytes;
+            evictions.increment();
+        }
+    }
+
+    private static long sizeOf(Message message) {
+        String text = message.getText();
+        return MESSAGE_OVERHEAD_BYTES + (text == null ? 0 : 2L * text.length());
+    }
+
+    private static Long parseId(String conversationId) {
+        if (conversationId == null || conversationId.isEmpty() || conversationId.length() > 18) {
+            return null;
+        }
+        for (int i = 0; i < conversationId.length(); i++) {
+            if (!Character.isDigit(conversationId.charAt(i))) {
+                return null;
+            }
+        }
+        return Long.valueOf(conversationId);
+    }
+}
@@ -0,0 +1,221 @@
+package com.xin.aiagent.memory;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.crypto.digest.DigestUtil;
+import com.xin.aiagent.config.ChatMemoryProperties;
+import com.xin.aiagent.entity.ConversationSummary;
+import com.xin.aiagent.mapper.ConversationSummaryMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.prompt.Prompt;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 会话滚动摘要（conversation_summaries 表 + LRU 缓存）。
+ * 超出 token 预算的旧消息被增量折叠进摘要：记录最后一条已折叠消息的序号（{@link PersistentChatMemory#MESSAGE_SEQ}）作为水位，
+ * 每次只把水位之后新掉出预算的消息连同旧摘要交给模型合并，摘要长度保持有界。
+ * 折叠在后台单线程执行、同一会话同时只有一个折叠任务，不增加对话请求的延迟；
+ * 本轮请求使用的是上一次折叠后的摘要。折叠失败后该会话在 summary-retry-backoff-ms 内不再折叠。
+ * 表主键是记忆 ID 的 SHA-256，记忆 ID 本身长度不受控。
+ */
+@Slf4j
+public class RollingSummaryStore {
+
+    private static final String SUMMARY_SYSTEM_PROMPT = "你是对话摘要助手。请把【已有摘要】与【新增对话】合并为一段简洁的中文摘要，" +
+            "保留用户的目标、偏好、已确认的事实与结论、尚未解决的问题，省略寒暄与重复内容。只输出摘要正文。";
+
+    /** 未生成过摘要的会话在缓存中的占位，避免反复查询数据库 */
+    private static final ConversationSummary EMPTY = new ConversationSummary();
+
+    private final ChatModel chatModel;
+    private final ConversationSummaryMapper summaryMapper;
+    private final ChatMemoryProperties.Budget budget;
+    private final MeterRegistry meterRegistry;
+    private final LRUCache<String, ConversationSummary> cache;
+    /** 折叠失败的会话 → 允许再次折叠的时间戳 */
+    private final LRUCache<String, Long> retryAt;
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final ExecutorService executor;
+
+    public RollingSummaryStore(ChatModel chatModel, ConversationSummaryMapper summaryMapper,
+                               ChatMemoryProperties properties, MeterRegistry meterRegistry) {
+        this.chatModel = chatModel;
+        this.summaryMapper = summaryMapper;
+        this.budget = properties.getBudget();
+        this.meterRegistry = meterRegistry;
+        this.cache = CacheUtil.newLRUCache(properties.getMaxConversations());
+        this.retryAt = CacheUtil.newLRUCache(properties.getMaxConversations());
+        AtomicInteger seq = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(256), r -> {
+            Thread t = new Thread(r, "memory-summary-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 当前摘要正文
+     *
+     * @param conversationId 会话 ID
+     * @return 摘要，尚未生成时为 null
+     */
+    public String summaryOf(String conversationId) {
+        return load(conversationId).getSummary();
+    }
+
+    /**
+     * 是否有尚未折叠的消息：掉出预算的最后一条带序号的消息在水位之后，且该会话不在失败退避期内
+     *
+     * @param conversationId 会话 ID
+     * @param dropped 本轮掉出预算的消息（时间正序）
+     */
+    public boolean hasUnfolded(String conversationId, List<Message> dropped) {
+        Long last = null;
+        for (int i = dropped.size() - 1; i >= 0 && last == null; i--) {
+            last = sequenceOf(dropped.get(i));
+        }
+        if (last == null || backingOff(conversationId)) {
+            return false;
+        }
+        Long watermark = load(conversationId).getSummarizedSeq();
+        return watermark == null || last > watermark;
+    }
+
+    /**
+     * 在后台把掉出预算的消息折叠进摘要；同一会话已有折叠任务或队列已满时跳过，下一轮请求会再次触发
+     *
+     * @param conversationId 会话 ID
+     * @param dropped 本轮掉出预算的消息（时间正序）
+     */
+    public void foldAsync(String conversationId, List<Message> dropped) {
+        if (!inFlight.add(conversationId)) {
+            return;
+        }
+        List<Message> snapshot = List.copyOf(dropped);
+        try {
+            executor.execute(() -> {
+                try {
+                    fold(conversationId, snapshot);
+                } finally {
+                    inFlight.remove(conversationId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(conversationId);
+            log.debug("摘要队列已满，跳过本次折叠：conversationId={}", conversationId);
+        }
+    }
+
+    /**
+     * 同步折叠：只处理水位之后的消息，合并后写库并更新缓存
+     *
+     * @param conversationId 会话 ID
+     * @param dropped 掉出预算的消息（时间正序）
+     */
+    public void fold(String conversationId, List<Message> dropped) {
+        ConversationSummary current = load(conversationId);
+        Long watermark = current.getSummarizedSeq();
+        int start = 0;
+        Long last = null;
+        for (int i = 0; i < dropped.size(); i++) {
+            Long seq = sequenceOf(dropped.get(i));
+            if (seq == null) {
+                continue;
+            }
+            if (watermark != null && seq <= watermark) {
+                start = i + 1;
+            } else {
+                last = seq;
+            }
+        }
+        if (last == null) {
+            return;
+        }
+        List<Message> fresh = dropped.subList(start, dropped.size());
+        try {
+            String merged = summarize(current.getSummary(), fresh);
+            ConversationSummary next = new ConversationSummary();
+            next.setConversationKey(keyOf(conversationId));
+            next.setSummary(merged);
+            next.setSummarizedSeq(last);
+            int folded = current.getSummarizedCount() == null ? 0 : current.getSummarizedCount();
+            next.setSummarizedCount(folded + fresh.size());
+            if (current == EMPTY || summaryMapper.updateById(next) == 0) {
+                summaryMapper.insert(next);
+            }
+            cache.put(conversationId, next);
+            retryAt.remove(conversationId);
+            meterRegistry.counter("chat.memory.summaries", "result", "success").increment();
+            log.debug("会话摘要已更新：conversationId={}, folded={}, total={}",
+                    conversationId, fresh.size(), next.getSummarizedCount());
+        } catch (Exception e) {
+            retryAt.put(conversationId, System.currentTimeMillis() + budget.getSummaryRetryBackoffMs());
+            meterRegistry.counter("chat.memory.summaries", "result", "failure").increment();
+            log.warn("会话摘要更新失败，{} ms 内不再重试：conversationId={}, reason={}",
+                    budget.getSummaryRetryBackoffMs(), conversationId, e.getMessage());
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private String summarize(String previous, List<Message> fresh) {
+        StringBuilder input = new StringBuilder();
+        input.append("【已有摘要】\n").append(previous == null || previous.isBlank() ? "（无）" : previous).append("\n\n");
+        input.append("【新增对话】\n");
+        for (Message message : fresh) {
+            String text = message.getText() == null ? "" : message.getText();
+            if (text.length() > budget.getSummaryInputCharsPerMessage()) {
+                text = text.substring(0, budget.getSummaryInputCharsPerMessage()) + "…";
+            }
+            input.append(message.getMessageType().getValue()).append(": ").append(text).append('\n');
+        }
+        String system = SUMMARY_SYSTEM_PROMPT + "摘要不超过 " + budget.getSummaryTokens() + " 字。";
+        String output = chatModel.call(new Prompt(List.of(new SystemMessage(system), new UserMessage(input.toString()))))
+                .getResult().getOutput().getText();
+        return truncate(output == null ? "" : output.trim(), budget.getSummaryTokens() * 2);
+    }
+
+    private ConversationSummary load(String conversationId) {
+        ConversationSummary cached = cache.get(conversationId);
+        if (cached != null) {
+            return cached;
+        }
+        ConversationSummary row = summaryMapper.selectById(keyOf(conversationId));
+        ConversationSummary value = row == null ? EMPTY : row;
+        cache.put(conversationId, value);
+        return value;
+    }
+
+    private static String truncate(String text, int maxChars) {
+        return text.length() <= maxChars ? text : text.substring(0, maxChars);
+    }
+
+    private boolean backingOff(String conversationId) {
+        Long until = retryAt.get(conversationId);
+        return until != null && System.currentTimeMillis() < until;
+    }
+
+    private static Long sequenceOf(Message message) {
+        return message.getMetadata().get(PersistentChatMemory.MESSAGE_SEQ) instanceof Number seq ? seq.longValue() : null;
+    }
+
+    private static String keyOf(String conversationId) {
+        return DigestUtil.sha256Hex(conversationId);
+    }
+}
@@ -0,0 +1,125 @@
+package com.xin.aiagent.memory;
+
+import com.xin.aiagent.common.TokenEstimator;
+import com.xin.aiagent.config.ChatMemoryProperties;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor;
+import org.springframework.ai.chat.client.advisor.api.AdvisedRequest;
+import org.springframework.ai.chat.client.advisor.api.AdvisedResponse;
+import org.springframework.ai.chat.client.advisor.api.Advisor;
+import org.springframework.ai.chat.client.advisor.api.CallAroundAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAroundAdvisorChain;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.MessageAggregator;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按 token 预算注入历史的记忆 Advisor（替代按固定条数注入的 MessageChatMemoryAdvisor）。
+ * - 从最新消息向前累加本地估算的 token（{@link TokenEstimator}），直到用完 history-tokens 预算；
+ * - 掉出预算的旧消息交给 {@link RollingSummaryStore} 增量折叠，摘要以一条系统消息放在历史最前面；
+ * - 注入条数同时不超过“检索条数 - 4”，保证消息在离开记忆窗口之前一定先掉出预算、被折叠进摘要。
+ * 提示词中的历史长度因此有上界（预算 + 摘要上限），与对话轮数和单条消息长度无关。
+ */
+public class TokenBudgetMemoryAdvisor extends AbstractChatMemoryAdvisor<ChatMemory> {
+
+    /** 注入条数相对检索条数保留的余量（每轮对话新增 user + assistant 两条） */
+    private static final int FOLD_MARGIN = 4;
+
+    private static final String SUMMARY_PREFIX = "以下是本次对话较早内容的摘要，供回答时参考：\n";
+
+    private final RollingSummaryStore summaryStore;
+    private final ChatMemoryProperties.Budget budget;
+    private final DistributionSummary historyTokens;
+
+    public TokenBudgetMemoryAdvisor(ChatMemory chatMemory, RollingSummaryStore summaryStore,
+                                    ChatMemoryProperties properties, MeterRegistry meterRegistry) {
+        super(chatMemory, DEFAULT_CHAT_MEMORY_CONVERSATION_ID, properties.getWindowSize(), true,
+                Advisor.DEFAULT_CHAT_MEMORY_PRECEDENCE_ORDER);
+        this.summaryStore = summaryStore;
+        this.budget = properties.getBudget();
+        this.historyTokens = DistributionSummary.builder("chat.memory.history.tokens")
+                .description("每次请求注入的历史与摘要估算 token 数")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public AdvisedResponse aroundCall(AdvisedRequest advisedRequest, CallAroundAdvisorChain chain) {
+        advisedRequest = this.before(advisedRequest);
+        AdvisedResponse advisedResponse = chain.nextAroundCall(advisedRequest);
+        this.observeAfter(advisedResponse);
+        return advisedResponse;
+    }
+
+    @Override
+    public Flux<AdvisedResponse> aroundStream(AdvisedRequest advisedRequest, StreamAroundAdvisorChain chain) {
+        Flux<AdvisedResponse> advisedResponses = this.doNextWithProtectFromBlockingBefore(advisedRequest, chain,
+                this::before);
+        return new MessageAggregator().aggregateAdvisedResponse(advisedResponses, this::observeAfter);
+    }
+
+    private AdvisedRequest before(AdvisedRequest request) {
+        String conversationId = this.doGetConversationId(request.adviseContext());
+        int retrieveSize = this.doGetChatMemoryRetrieveSize(request.adviseContext());
+
+        // 1. 取候选历史，从最新一条向前按预算挑选
+        List<Message> candidates = this.getChatMemoryStore().get(conversationId, retrieveSize);
+        int maxSelected = Math.max(1, retrieveSize - FOLD_MARGIN);
+        int remaining = budget.getHistoryTokens();
+        int cut = candidates.size();
+        for (int i = candidates.size() - 1; i >= 0 && candidates.size() - i <= maxSelected; i--) {
+            int cost = cost(candidates.get(i));
+            if (cost > remaining) {
+                break;
+            }
+            remaining -= cost;
+            cut = i;
+        }
+        List<Message> dropped = candidates.subList(0, cut);
+        List<Message> selected = candidates.subList(cut, candidates.size());
+
+        // 2. 掉出预算的消息增量折叠进摘要（后台执行），本轮使用已有摘要
+        if (summaryStore.hasUnfolded(conversationId, dropped)) {
+            summaryStore.foldAsync(conversationId, dropped);
+        }
+        String summary = summaryStore.summaryOf(conversationId);
+
+        List<Message> advisedMessages = new ArrayList<>(request.messages());
+        int used = budget.getHistoryTokens() - remaining;
+        if (summary != null && !summary.isBlank()) {
+            SystemMessage summaryMessage = new SystemMessage(SUMMARY_PREFIX + summary);
+            advisedMessages.add(summaryMessage);
+            used += cost(summaryMessage);
+        }
+        advisedMessages.addAll(selected);
+        historyTokens.record(used);
+
+        AdvisedRequest advisedRequest = AdvisedRequest.from(request).messages(advisedMessages).build();
+
+        // 3. 把本轮用户输入写入记忆
+        UserMessage userMessage = new UserMessage(request.userText(), request.media());
+        this.getChatMemoryStore().add(conversationId, userMessage);
+
+        return advisedRequest;
+    }
+
+    private void observeAfter(AdvisedResponse advisedResponse) {
+        List<Message> assistantMessages = advisedResponse.response()
+                .getResults()
+                .stream()
+                .map(g -> (Message) g.getOutput())
+                .toList();
+        this.getChatMemoryStore().add(this.doGetConversationId(advisedResponse.adviseContext()), assistantMessages);
+    }
+
+    private int cost(Message message) {
+        return TokenEstimator.estimate(message.getText() == null ? "" : message.getText())
+                + budget.getMessageOverheadTokens();
+    }
+}
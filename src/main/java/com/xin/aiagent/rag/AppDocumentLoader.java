@@ -9,8 +9,14 @@ import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * @author: TDA
@@ -21,17 +27,34 @@ import java.util.List;
 @Component
 @Slf4j
 public class AppDocumentLoader {
+
+    /** 分块所在的 Markdown 标题路径，如 “恋爱篇 > 争吵” */
+    public static final String HEADING_PATH = "heading_path";
+
+    private static final Pattern HEADING = Pattern.compile("^ {0,3}(#{1,6})\\s+(.*?)(\\s+#+)?\\s*$");
+
+    private record Heading(int level, String title) {
+    }
+
     private final ResourcePatternResolver resourcePatternResolver;
 
-    AppDocumentLoader(ResourcePatternResolver resourcePatternResolver) {
+    public AppDocumentLoader(ResourcePatternResolver resourcePatternResolver) {
         this.resourcePatternResolver = resourcePatternResolver;
     }
 
     public List<Document> loadMarkdowns() {
+        // 可以修改为要加载的多个 Markdown 文件的路径模式
+        return loadMarkdowns("classpath:document/*.md");
+    }
+
+    /**
+     * @param locationPattern 资源路径模式，如 classpath:document/*.md
+     * @return 按文件内顺序排列的分块，元数据含 filename 与 heading_path
+     */
+    public List<Document> loadMarkdowns(String locationPattern) {
         List<Document> allDocuments = new ArrayList<>();
         try {
-            // 可以修改为要加载的多个 Markdown 文件的路径模式
-            Resource[] resources = resourcePatternResolver.getResources("classpath:document/*.md");
+            Resource[] resources = resourcePatternResolver.getResources(locationPattern);
             for (Resource resource : resources) {
                 String fileName = resource.getFilename();
                 MarkdownDocumentReaderConfig config = MarkdownDocumentReaderConfig.builder()
@@ -41,11 +64,69 @@ public class AppDocumentLoader {
                         .withAdditionalMetadata("filename", fileName)
                         .build();
                 MarkdownDocumentReader reader = new MarkdownDocumentReader(resource, config);
-                allDocuments.addAll(reader.get());
+                allDocuments.addAll(withHeadingPaths(resource.getContentAsString(StandardCharsets.UTF_8), reader.get()));
             }
         } catch (IOException e) {
             log.error("Markdown 文档加载失败", e);
         }
         return allDocuments;
     }
+
+    /**
+     * 为分块补充完整标题路径。MarkdownDocumentReader 只在标题处开启的分块上标注 category=header_N 与 title，
+     * 且没有正文的标题（如只有子标题的一级标题）不产生分块，所以按原文中的标题顺序同步推进各级标题栈
+     */
+    private static List<Document> withHeadingPaths(String markdown, List<Document> chunks) {
+        List<Heading> headings = headings(markdown);
+        TreeMap<Integer, String> stack = new TreeMap<>();
+        int cursor = 0;
+        List<Document> annotated = new ArrayList<>(chunks.size());
+        for (Document chunk : chunks) {
+            Object category = chunk.getMetadata().get("category");
+            Object title = chunk.getMetadata().get("title");
+            if (category instanceof String c && c.startsWith("header_") && title != null) {
+                Heading current = new Heading(Integer.parseInt(c.substring("header_".length())), title.toString());
+                int match = headings.subList(cursor, headings.size()).indexOf(current);
+                if (match >= 0) {
+                    // 途经的无正文标题也入栈
+                    for (Heading heading : headings.subList(cursor, cursor + match + 1)) {
+                        push(stack, heading);
+                    }
+                    cursor += match + 1;
+                } else {
+                    // 原文标题含行内格式等无法对齐时，只用分块自身的标题
+                    push(stack, current);
+                }
+            }
+            Map<String, Object> metadata = new HashMap<>(chunk.getMetadata());
+            metadata.put(HEADING_PATH, String.join(" > ", stack.values()));
+            annotated.add(Document.builder().id(chunk.getId()).text(chunk.getText()).metadata(metadata).build());
+        }
+        return annotated;
+    }
+
+    private static void push(TreeMap<Integer, String> stack, Heading heading) {
+        stack.tailMap(heading.level(), true).clear();
+        stack.put(heading.level(), heading.title());
+    }
+
+    /**
+     * 原文中的 ATX 标题（# 开头），跳过围栏代码块
+     */
+    private static List<Heading> headings(String markdown) {
+        List<Heading> headings = new ArrayList<>();
+        boolean fenced = false;
+        for (String line : markdown.split("\\R")) {
+            String trimmed = line.strip();
+            if (trimmed.startsWith("```") || trimmed.startsWith("~~~")) {
+                fenced = !fenced;
+                continue;
+            }
+            Matcher matcher = HEADING.matcher(line);
+            if (!fenced && matcher.matches()) {
+                headings.add(new Heading(matcher.group(1).length(), matcher.group(2).strip()));
+            }
+        }
+        return headings;
+    }
 }
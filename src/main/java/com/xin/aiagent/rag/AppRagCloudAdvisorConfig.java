@@ -1,25 +1,44 @@
 package com.xin.aiagent.rag;
 
+import com.xin.aiagent.config.HybridRetrievalProperties;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.advisor.QuestionAnswerAdvisor;
+import org.springframework.ai.chat.client.advisor.RetrievalAugmentationAdvisor;
 import org.springframework.ai.chat.client.advisor.api.Advisor;
+import org.springframework.ai.rag.generation.augmentation.ContextualQueryAugmenter;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 /**
- * 说明：原使用阿里 DashScope 云检索（知识库索引），现切换为本地向量库检索以适配 DeepSeek（OpenAI 兼容）。
+ * 说明：原使用阿里 DashScope 云检索（知识库索引），现切换为本地检索以适配 DeepSeek（OpenAI 兼容）。
+ * 默认为 BM25 关键词 + 向量的混合检索（{@link HybridDocumentRetriever}），app.rag.hybrid.enabled=false 时为纯向量检索。
  * 若后续接入 DeepSeek 官方云检索能力，可在此处替换为对应的 DocumentRetriever 实现。
  */
 @Configuration
 @Slf4j
+@EnableConfigurationProperties(HybridRetrievalProperties.class)
 public class AppRagCloudAdvisorConfig {
 
     /**
-     * 用本地 VectorStore 封装一个问答增强 Advisor，实现与云检索近似体验。
+     * 问答增强 Advisor。
+     * 混合检索：关键词索引在此处由 {@link AppDocumentLoader} 的分块构建（不需要嵌入，耗时只与语料的文本量相关），
+     * 预热期间或嵌入服务不可用时自动只用关键词结果；检索不到内容时按原问题回答。
+     * 纯向量检索：预热期间按 app.vector.warmup.while-indexing 使用部分数据检索或跳过检索。
      */
     @Bean
-    public Advisor appRagCloudAdvisor(VectorStore appVectorStore) {
-        return new QuestionAnswerAdvisor(appVectorStore);
+    public Advisor appRagCloudAdvisor(VectorStore appVectorStore, VectorStoreWarmup vectorStoreWarmup,
+                                      AppDocumentLoader documentLoader, HybridRetrievalProperties properties) {
+        if (!properties.isEnabled()) {
+            return new WarmupGatedAdvisor(new QuestionAnswerAdvisor(appVectorStore), vectorStoreWarmup);
+        }
+        long start = System.nanoTime();
+        Bm25Index lexicalIndex = Bm25Index.build(documentLoader.loadMarkdowns());
+        log.info("关键词索引构建完成：documents={}, {}ms", lexicalIndex.size(), (System.nanoTime() - start) / 1_000_000);
+        return RetrievalAugmentationAdvisor.builder()
+                .documentRetriever(new HybridDocumentRetriever(appVectorStore, lexicalIndex, vectorStoreWarmup, properties))
+                .queryAugmenter(ContextualQueryAugmenter.builder().allowEmptyContext(true).build())
+                .build();
     }
 }
@@ -1,53 +1,53 @@
 package com.xin.aiagent.rag;
 
-import jakarta.annotation.Resource;
-import org.springframework.ai.document.Document;
+import com.xin.aiagent.config.VectorIngestProperties;
+import com.xin.aiagent.config.VectorStoreProperties;
+import com.xin.aiagent.config.VectorWarmupProperties;
+import com.xin.aiagent.vector.MappedVectorStore;
 import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.vectorstore.SimpleVectorStore;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
-import java.util.List;
+import java.nio.file.Path;
 
 /**
  * 向量库配置
- * 说明：默认在启动期不强制进行文档嵌入（可通过开关启用）。
+ * 说明：默认在启动期不强制进行文档嵌入（可通过开关 app.vector.init-on-startup 启用）。
  * 目的：避免开发环境缺少 DeepSeek 凭据或无网络时导致应用启动失败。
+ * 这里只创建向量库（mapped 模式下直接映射磁盘上的已有数据），建图与文档入库由 {@link VectorStoreWarmup} 在应用就绪后于后台完成，
+ * 启动耗时与语料规模无关；入库按清单增量进行（见 DocumentIngestor），语料不变时不产生嵌入调用。
  */
 @Configuration
-@lombok.extern.slf4j.Slf4j
+@EnableConfigurationProperties({VectorStoreProperties.class, VectorIngestProperties.class, VectorWarmupProperties.class})
 public class AppVectorStoreConfig {
 
-    @Resource
-    private AppDocumentLoader appDocumentLoader;
-
-    // 开关：是否在启动期进行向量库文档嵌入
-    @org.springframework.beans.factory.annotation.Value("${app.vector.init-on-startup:false}")
-    private boolean initOnStartup;
+    /** 增量入库清单，与 mapped 向量库放在同一目录 */
+    static final String MANIFEST_FILE = "ingest-manifest.json";
 
     /**
      * 使用通用 EmbeddingModel（由 Spring AI OpenAI Starter 提供的 DeepSeek 兼容实现注入）。
      */
     @Bean
-    VectorStore appVectorStore(EmbeddingModel embeddingModel) {
-        SimpleVectorStore simpleVectorStore = SimpleVectorStore.builder(embeddingModel)
-                .build();
-
-        if (initOnStartup) {
-            try {
-                // 加载文档并在启动期完成嵌入，便于开箱即用
-                List<Document> documents = appDocumentLoader.loadMarkdowns();
-                simpleVectorStore.add(documents);
-                log.info("向量库已在启动期完成文档嵌入，共 {} 条", documents.size());
-            } catch (Exception e) {
-                // 容错：失败仅记录告警，不阻断启动（例如 API Key 无效/网络不可达）
-                log.warn("启动期向量库文档嵌入失败：{}，已跳过（不影响服务启动）", e.getMessage());
+    VectorStore appVectorStore(EmbeddingModel embeddingModel, VectorStoreProperties properties) {
+        return switch (properties.getType()) {
+            case MAPPED -> {
+                MappedVectorStore.Builder builder = MappedVectorStore.builder(embeddingModel, Path.of(properties.getPath()))
+                        .compactionThreshold(properties.getCompactionThreshold())
+                        .minCompactionRows(properties.getMinCompactionRows());
+                if (properties.getIndex() == VectorStoreProperties.Index.HNSW) {
+                    VectorStoreProperties.Hnsw hnsw = properties.getHnsw();
+                    // 建图放到后台预热中，建成之前检索走全量扫描
+                    builder.hnsw(hnsw.getM(), hnsw.getEfConstruction(), hnsw.getEfSearch()).deferIndexBuild();
+                }
+                if (properties.getQuantization() == VectorStoreProperties.Quantization.INT8) {
+                    builder.int8(properties.getRerankFactor());
+                }
+                yield builder.build();
             }
-        } else {
-            log.info("已禁用启动期向量库文档嵌入（app.vector.init-on-startup=false）");
-        }
-
-        return simpleVectorStore;
+            case SIMPLE -> SimpleVectorStore.builder(embeddingModel).build();
+        };
     }
 }
@@ -0,0 +1,203 @@
+package com.xin.aiagent.rag;
+
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * 进程内 BM25 倒排索引，构建后只读，可并发检索。
+ * <p>
+ * 分词面向中文语料：连续的汉字（及日文假名、韩文）切成重叠的二元组，单字成词；
+ * 连续的字母数字连同内部的 . _ - 作为一个整词保留（错误码、类名、配置键可精确命中），同时按这些符号拆出子词。
+ * 全部转为小写。
+ */
+public class Bm25Index {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private record Postings(int[] docs, int[] frequencies) {
+    }
+
+    private final List<Document> documents;
+    private final int[] lengths;
+    private final double averageLength;
+    private final Map<String, Postings> postings;
+
+    private Bm25Index(List<Document> documents, int[] lengths, double averageLength, Map<String, Postings> postings) {
+        this.documents = documents;
+        this.lengths = lengths;
+        this.averageLength = averageLength;
+        this.postings = postings;
+    }
+
+    /**
+     * @param documents 分块（通常来自 {@link AppDocumentLoader}），检索结果返回这些对象的副本
+     */
+    public static Bm25Index build(List<Document> documents) {
+        List<Document> docs = List.copyOf(documents);
+        int[] lengths = new int[docs.size()];
+        Map<String, List<int[]>> builder = new HashMap<>();
+        long total = 0;
+        for (int i = 0; i < docs.size(); i++) {
+            List<String> tokens = tokenize(docs.get(i).getText());
+            lengths[i] = tokens.size();
+            total += tokens.size();
+            Map<String, Integer> frequencies = new HashMap<>();
+            for (String token : tokens) {
+                frequencies.merge(token, 1, Integer::sum);
+            }
+            int doc = i;
+            frequencies.forEach((term, tf) -> builder.computeIfAbsent(term, t -> new ArrayList<>()).add(new int[]{doc, tf}));
+        }
+        Map<String, Postings> postings = new HashMap<>(builder.size() * 2);
+        builder.forEach((term, list) -> {
+            int[] ids = new int[list.size()];
+            int[] tfs = new int[list.size()];
+            for (int i = 0; i < list.size(); i++) {
+                ids[i] = list.get(i)[0];
+                tfs[i] = list.get(i)[1];
+            }
+            postings.put(term, new Postings(ids, tfs));
+        });
+        double average = docs.isEmpty() ? 0 : (double) total / docs.size();
+        return new Bm25Index(docs, lengths, average, postings);
+    }
+
+    /**
+     * @param query 查询文本，按文档相同的规则分词，重复的词只计一次
+     * @param topK  最多返回的分块数
+     * @return 按 BM25 分数降序、分数大于 0 的分块，score 为 BM25 分数
+     */
+    public List<Document> search(String query, int topK) {
+        if (documents.isEmpty() || topK <= 0) {
+            return List.of();
+        }
+        double[] scores = new double[documents.size()];
+        int n = documents.size();
+        for (String term : new LinkedHashSet<>(tokenize(query))) {
+            Postings p = postings.get(term);
+            if (p == null) {
+                continue;
+            }
+            double idf = Math.log(1 + (n - p.docs().length + 0.5) / (p.docs().length + 0.5));
+            for (int i = 0; i < p.docs().length; i++) {
+                int doc = p.docs()[i];
+                double tf = p.frequencies()[i];
+                double norm = K1 * (1 - B + B * lengths[doc] / averageLength);
+                scores[doc] += idf * tf * (K1 + 1) / (tf + norm);
+            }
+        }
+        PriorityQueue<Integer> top = new PriorityQueue<>(Comparator.comparingDouble(doc -> scores[doc]));
+        for (int doc = 0; doc < n; doc++) {
+            if (scores[doc] <= 0) {
+                continue;
+            }
+            if (top.size() < topK) {
+                top.add(doc);
+            } else if (scores[doc] > scores[top.peek()]) {
+                top.poll();
+                top.add(doc);
+            }
+        }
+        List<Document> results = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            int doc = top.poll();
+            Document document = documents.get(doc);
+            results.add(0, document.mutate().score(scores[doc]).build());
+        }
+        return results;
+    }
+
+    public int size() {
+        return documents.size();
+    }
+
+    /**
+     * 中文二元组 + 整词/子词分词，见类注释
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        StringBuilder word = new StringBuilder();
+        List<Integer> cjk = new ArrayList<>();
+        for (int i = 0; i < lower.length(); ) {
+            int cp = lower.codePointAt(i);
+            i += Character.charCount(cp);
+            if (isCjk(cp)) {
+                flushWord(word, tokens);
+                cjk.add(cp);
+            } else if (Character.isLetterOrDigit(cp) || cp == '_' || cp == '-' || cp == '.') {
+                flushCjk(cjk, tokens);
+                word.appendCodePoint(cp);
+            } else {
+                flushWord(word, tokens);
+                flushCjk(cjk, tokens);
+            }
+        }
+        flushWord(word, tokens);
+        flushCjk(cjk, tokens);
+        return tokens;
+    }
+
+    private static boolean isCjk(int cp) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(cp);
+        return script == Character.UnicodeScript.HAN || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA || script == Character.UnicodeScript.HANGUL;
+    }
+
+    private static void flushCjk(List<Integer> run, List<String> tokens) {
+        if (run.size() == 1) {
+            tokens.add(Character.toString(run.get(0)));
+        }
+        for (int i = 0; i + 1 < run.size(); i++) {
+            tokens.add(new StringBuilder().appendCodePoint(run.get(i)).appendCodePoint(run.get(i + 1)).toString());
+        }
+        run.clear();
+    }
+
+    private static void flushWord(StringBuilder word, List<String> tokens) {
+        String token = trimSeparators(word.toString());
+        word.setLength(0);
+        if (token.isEmpty()) {
+            return;
+        }
+        tokens.add(token);
+        String[] parts = token.split("[._-]+");
+        if (parts.length > 1) {
+            Set<String> seen = new LinkedHashSet<>();
+            for (String part : parts) {
+                if (!part.isEmpty() && seen.add(part)) {
+                    tokens.add(part);
+                }
+            }
+        }
+    }
+
+    private static String trimSeparators(String token) {
+        int start = 0;
+        int end = token.length();
+        while (start < end && isSeparator(token.charAt(start))) {
+            start++;
+        }
+        while (end > start && isSeparator(token.charAt(end - 1))) {
+            end--;
+        }
+        return token.substring(start, end);
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '.' || c == '_' || c == '-';
+    }
+}
@@ -0,0 +1,206 @@
+package com.xin.aiagent.rag;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xin.aiagent.config.VectorIngestProperties;
+import com.xin.aiagent.vector.MappedVectorStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.VectorStore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * 增量文档入库：按“文件名 + 标题路径 + 正文哈希”为每个分块生成稳定指纹，作为向量库中的文档 ID，
+ * 并在清单文件中记录上次入库的全部指纹。每次入库只嵌入新增或内容变化的分块，删除来源已消失（含内容变化前的旧版本）的分块，
+ * 语料基本不变时几乎不产生嵌入调用。
+ * 新增分块经 {@link EmbeddingPipeline} 分批并行写入，重试后仍失败的分块不记入清单，下次入库时重新嵌入。
+ * 清单只对持久化向量库有意义：manifestFile 为 null 时（如内存 SimpleVectorStore）每次全量写入。
+ * 清单缺失但 MappedVectorStore 已有数据时（旧版本随机 ID 入库），把库中现有 ID 视为上次入库结果，全部按失效处理后重建。
+ */
+@Slf4j
+public class DocumentIngestor {
+
+    /** 分块正文的 SHA-256 */
+    public static final String CONTENT_HASH = "content_hash";
+
+    private static final int MANIFEST_VERSION = 1;
+
+    /**
+     * 清单中的一条记录
+     */
+    public record ManifestEntry(String filename, String headingPath, String contentHash) {
+    }
+
+    /**
+     * 清单文件内容
+     */
+    public record Manifest(int version, Map<String, ManifestEntry> chunks) {
+    }
+
+    /**
+     * 一次入库的结果
+     */
+    public record Report(int added, int deleted, int unchanged, int failed) {
+    }
+
+    private final VectorStore vectorStore;
+    private final Path manifestFile;
+    private final EmbeddingPipeline pipeline;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * @param manifestFile 清单文件路径，null 表示不做增量
+     */
+    public DocumentIngestor(VectorStore vectorStore, Path manifestFile, EmbeddingPipeline pipeline) {
+        this.vectorStore = vectorStore;
+        this.manifestFile = manifestFile;
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * 使用默认流水线配置
+     */
+    public DocumentIngestor(VectorStore vectorStore, Path manifestFile) {
+        this(vectorStore, manifestFile, new EmbeddingPipeline(vectorStore, new VectorIngestProperties()));
+    }
+
+    /**
+     * 同步入库
+     *
+     * @param documents AppDocumentLoader 产出的分块（元数据含 filename 与 heading_path）
+     */
+    public Report ingest(List<Document> documents) {
+        return ingest(documents, progress -> {
+        });
+    }
+
+    /**
+     * 同步入库
+     *
+     * @param listener 新增分块的写入进度，见 {@link EmbeddingPipeline#add(List, Consumer)}
+     */
+    public synchronized Report ingest(List<Document> documents, Consumer<EmbeddingPipeline.Progress> listener) {
+        Map<String, Document> current = fingerprint(documents);
+        Map<String, ManifestEntry> previous = loadManifest();
+        // 持久化向量库本身是最终依据：清单里有、库里却没有的分块（如上次写入中途失败）重新写入
+        Set<String> stored = vectorStore instanceof MappedVectorStore mapped ? mapped.ids() : null;
+
+        List<Document> added = new ArrayList<>();
+        for (Map.Entry<String, Document> chunk : current.entrySet()) {
+            if (!previous.containsKey(chunk.getKey()) || (stored != null && !stored.contains(chunk.getKey()))) {
+                added.add(chunk.getValue());
+            }
+        }
+        List<String> deleted = new ArrayList<>();
+        for (String id : previous.keySet()) {
+            if (!current.containsKey(id)) {
+                deleted.add(id);
+            }
+        }
+
+        // 先删后增：同 ID 不会同时出现在两侧，顺序只影响中途失败时残留的是旧数据还是缺数据
+        if (!deleted.isEmpty()) {
+            vectorStore.delete(deleted);
+        }
+        List<Document> failed = added.isEmpty() ? List.of() : pipeline.add(added, listener).failed();
+        for (Document document : failed) {
+            current.remove(document.getId());
+        }
+        saveManifest(current);
+
+        Report report = new Report(added.size() - failed.size(), deleted.size(), current.size() - added.size() + failed.size(),
+                failed.size());
+        log.info("文档入库完成：新增 {}，删除 {}，未变化 {}，失败 {}", report.added(), report.deleted(), report.unchanged(),
+                report.failed());
+        return report;
+    }
+
+    /**
+     * 为每个分块补充正文哈希，并以指纹作为 ID；同一文件同一标题下正文重复的分块按出现次序区分
+     *
+     * @return 指纹 -> 分块，保持输入顺序
+     */
+    private static Map<String, Document> fingerprint(List<Document> documents) {
+        Map<String, Document> chunks = new LinkedHashMap<>();
+        for (Document document : documents) {
+            String filename = String.valueOf(document.getMetadata().getOrDefault("filename", ""));
+            String headingPath = String.valueOf(document.getMetadata().getOrDefault(AppDocumentLoader.HEADING_PATH, ""));
+            String text = document.getText() == null ? "" : document.getText();
+            String contentHash = DigestUtil.sha256Hex(text);
+
+            String key = filename + "\n" + headingPath + "\n" + contentHash;
+            String id = uuid(key);
+            for (int occurrence = 1; chunks.containsKey(id); occurrence++) {
+                id = uuid(key + "\n" + occurrence);
+            }
+            Map<String, Object> metadata = new HashMap<>(document.getMetadata());
+            metadata.put(CONTENT_HASH, contentHash);
+            chunks.put(id, Document.builder().id(id).text(text).metadata(metadata).build());
+        }
+        return chunks;
+    }
+
+    private static String uuid(String key) {
+        return UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    // ============== 清单 ==============
+
+    private Map<String, ManifestEntry> loadManifest() {
+        if (manifestFile == null) {
+            return Map.of();
+        }
+        if (Files.exists(manifestFile)) {
+            try {
+                Manifest manifest = objectMapper.readValue(manifestFile.toFile(), Manifest.class);
+                if (manifest.version() == MANIFEST_VERSION && manifest.chunks() != null) {
+                    return manifest.chunks();
+                }
+                log.warn("入库清单版本不符，按全量重建：{}", manifestFile);
+            } catch (IOException e) {
+                log.warn("入库清单读取失败，按全量重建：{}", e.getMessage());
+            }
+        }
+        Map<String, ManifestEntry> existing = new HashMap<>();
+        if (vectorStore instanceof MappedVectorStore mapped) {
+            for (String id : mapped.ids()) {
+                existing.put(id, new ManifestEntry(null, null, null));
+            }
+        }
+        return existing;
+    }
+
+    private void saveManifest(Map<String, Document> chunks) {
+        if (manifestFile == null) {
+            return;
+        }
+        Map<String, ManifestEntry> entries = new LinkedHashMap<>();
+        chunks.forEach((id, document) -> entries.put(id, new ManifestEntry(
+                String.valueOf(document.getMetadata().getOrDefault("filename", "")),
+                String.valueOf(document.getMetadata().getOrDefault(AppDocumentLoader.HEADING_PATH, "")),
+                (String) document.getMetadata().get(CONTENT_HASH))));
+        try {
+            Path parent = manifestFile.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path tmp = parent.resolve(manifestFile.getFileName() + ".tmp");
+            objectMapper.writeValue(tmp.toFile(), new Manifest(MANIFEST_VERSION, entries));
+            Files.move(tmp, manifestFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("入库清单写入失败：" + manifestFile, e);
+        }
+    }
+}
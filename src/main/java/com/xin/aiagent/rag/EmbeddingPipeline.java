@@ -0,0 +1,226 @@
+package com.xin.aiagent.rag;
+
+import com.xin.aiagent.common.TokenEstimator;
+import com.xin.aiagent.config.VectorIngestProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.VectorStore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 批量入库的嵌入流水线：
+ * - 分批：按顺序把分块装入批次，批次的估算 token 数不超过 batch-max-tokens、分块数不超过 batch-max-chunks；
+ * - 并行：最多 parallelism 个批次同时写入向量库（嵌入在向量库的 add 中完成）；
+ * - 限速：按 requests-per-second 与 tokens-per-second 匀速放行批次，超出时排队等待；
+ * - 重试：失败的批次按指数退避加抖动重试，用尽 max-attempts 后记为失败，不影响其他批次；
+ * - 进度：每完成一批回调监听器，并按 progress-interval-ms 输出进度与吞吐（chunks/s、tokens/s）。
+ * 与出站并发限制（AdaptiveLimiter）叠加：这里控制入库整体的批次与速率，限流器控制对提供方的瞬时并发。
+ */
+@Slf4j
+public class EmbeddingPipeline {
+
+    /**
+     * 入库进度快照
+     */
+    public record Progress(int totalChunks, int doneChunks, int failedChunks, long tokens, long elapsedMs) {
+
+        public double chunksPerSecond() {
+            return elapsedMs == 0 ? 0 : doneChunks * 1000.0 / elapsedMs;
+        }
+
+        public double tokensPerSecond() {
+            return elapsedMs == 0 ? 0 : tokens * 1000.0 / elapsedMs;
+        }
+    }
+
+    /**
+     * 一次入库的结果
+     *
+     * @param failed 重试用尽后仍失败的分块
+     */
+    public record Report(int chunks, long tokens, int batches, int retries, List<Document> failed, long elapsedMs) {
+
+        public double chunksPerSecond() {
+            return elapsedMs == 0 ? 0 : (chunks - failed.size()) * 1000.0 / elapsedMs;
+        }
+
+        public double tokensPerSecond() {
+            return elapsedMs == 0 ? 0 : tokens * 1000.0 / elapsedMs;
+        }
+    }
+
+    private record Batch(List<Document> documents, int tokens) {
+    }
+
+    private final VectorStore vectorStore;
+    private final VectorIngestProperties properties;
+    private final Pacer requestPacer;
+    private final Pacer tokenPacer;
+
+    public EmbeddingPipeline(VectorStore vectorStore, VectorIngestProperties properties) {
+        this.vectorStore = vectorStore;
+        this.properties = properties;
+        this.requestPacer = properties.getRequestsPerSecond() > 0 ? new Pacer(properties.getRequestsPerSecond()) : null;
+        this.tokenPacer = properties.getTokensPerSecond() > 0 ? new Pacer(properties.getTokensPerSecond()) : null;
+    }
+
+    public Report add(List<Document> documents) {
+        return add(documents, progress -> {
+        });
+    }
+
+    /**
+     * 同步入库，返回时全部批次已完成或失败
+     *
+     * @param listener 每完成（或最终失败）一个批次回调一次，在工作线程上调用
+     */
+    public Report add(List<Document> documents, Consumer<Progress> listener) {
+        List<Batch> batches = batches(documents);
+        long start = System.nanoTime();
+        AtomicInteger done = new AtomicInteger();
+        AtomicInteger failedChunks = new AtomicInteger();
+        AtomicLong tokens = new AtomicLong();
+        AtomicInteger retries = new AtomicInteger();
+        AtomicLong lastLog = new AtomicLong(start);
+        List<Document> failed = Collections.synchronizedList(new ArrayList<>());
+
+        int parallelism = Math.max(1, Math.min(properties.getParallelism(), batches.size()));
+        try (ExecutorService executor = Executors.newFixedThreadPool(parallelism, Thread.ofPlatform()
+                .name("embedding-pipeline-", 0).daemon().factory())) {
+            for (Batch batch : batches) {
+                executor.execute(() -> {
+                    if (write(batch, retries)) {
+                        done.addAndGet(batch.documents().size());
+                        tokens.addAndGet(batch.tokens());
+                    } else {
+                        failedChunks.addAndGet(batch.documents().size());
+                        failed.addAll(batch.documents());
+                    }
+                    Progress progress = new Progress(documents.size(), done.get(), failedChunks.get(), tokens.get(),
+                            (System.nanoTime() - start) / 1_000_000);
+                    listener.accept(progress);
+                    long now = System.nanoTime();
+                    long last = lastLog.get();
+                    if (now - last >= properties.getProgressIntervalMs() * 1_000_000 && lastLog.compareAndSet(last, now)) {
+                        log.info("入库进度：{}/{} 分块，失败 {}，{} chunks/s，{} tokens/s", progress.doneChunks(),
+                                progress.totalChunks(), progress.failedChunks(), Math.round(progress.chunksPerSecond()),
+                                Math.round(progress.tokensPerSecond()));
+                    }
+                });
+            }
+        }
+
+        Report report = new Report(documents.size(), tokens.get(), batches.size(), retries.get(), List.copyOf(failed),
+                (System.nanoTime() - start) / 1_000_000);
+        if (!batches.isEmpty()) {
+            log.info("入库完成：{} 分块 / {} 批，失败 {}，重试 {} 次，{}ms，{} chunks/s，{} tokens/s", report.chunks(),
+                    report.batches(), report.failed().size(), report.retries(), report.elapsedMs(),
+                    Math.round(report.chunksPerSecond()), Math.round(report.tokensPerSecond()));
+        }
+        return report;
+    }
+
+    /**
+     * 按顺序装批：加入下一个分块会超出 token 或分块数上限时另起一批
+     */
+    private List<Batch> batches(List<Document> documents) {
+        List<Batch> batches = new ArrayList<>();
+        List<Document> current = new ArrayList<>();
+        int currentTokens = 0;
+        for (Document document : documents) {
+            int tokens = Math.max(1, TokenEstimator.estimate(document.getText()));
+            if (!current.isEmpty() && (currentTokens + tokens > properties.getBatchMaxTokens()
+                    || current.size() >= properties.getBatchMaxChunks())) {
+                batches.add(new Batch(current, currentTokens));
+                current = new ArrayList<>();
+                currentTokens = 0;
+            }
+            current.add(document);
+            currentTokens += tokens;
+        }
+        if (!current.isEmpty()) {
+            batches.add(new Batch(current, currentTokens));
+        }
+        return batches;
+    }
+
+    /**
+     * @return 是否写入成功
+     */
+    private boolean write(Batch batch, AtomicInteger retries) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                pace(batch.tokens());
+                vectorStore.add(batch.documents());
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (RuntimeException e) {
+                if (attempt >= properties.getMaxAttempts()) {
+                    log.warn("嵌入批次失败，已放弃：{} 分块，{} 次尝试，{}", batch.documents().size(), attempt, e.getMessage());
+                    return false;
+                }
+                long backoff = backoffMs(attempt);
+                log.debug("嵌入批次失败，{}ms 后第 {} 次重试：{}", backoff, attempt, e.getMessage());
+                retries.incrementAndGet();
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * 第 attempt 次失败后的等待：initial × 2^(attempt-1)，不超过上限，乘以 [0.5, 1) 的抖动避免并行批次同时重试
+     */
+    private long backoffMs(int attempt) {
+        long base = properties.getInitialBackoffMs() << Math.min(attempt - 1, 20);
+        long capped = Math.min(base, properties.getMaxBackoffMs());
+        return (long) (capped * (0.5 + ThreadLocalRandom.current().nextDouble() * 0.5));
+    }
+
+    private void pace(int tokens) throws InterruptedException {
+        long waitNanos = 0;
+        if (requestPacer != null) {
+            waitNanos = Math.max(waitNanos, requestPacer.reserve(1));
+        }
+        if (tokenPacer != null) {
+            waitNanos = Math.max(waitNanos, tokenPacer.reserve(tokens));
+        }
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+        }
+    }
+
+    /**
+     * 匀速放行：每次预约 permits 个名额，返回需要等待的纳秒数（首个请求不等待，之后按速率排开）
+     */
+    private static final class Pacer {
+        private final double nanosPerPermit;
+        private long nextFreeNanos = System.nanoTime();
+
+        Pacer(double permitsPerSecond) {
+            this.nanosPerPermit = 1_000_000_000 / permitsPerSecond;
+        }
+
+        synchronized long reserve(double permits) {
+            long now = System.nanoTime();
+            long start = Math.max(now, nextFreeNanos);
+            nextFreeNanos = start + (long) (permits * nanosPerPermit);
+            return start - now;
+        }
+    }
+}
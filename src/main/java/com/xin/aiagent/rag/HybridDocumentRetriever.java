@@ -0,0 +1,117 @@
+package com.xin.aiagent.rag;
+
+import cn.hutool.crypto.digest.DigestUtil;
+import com.xin.aiagent.config.HybridRetrievalProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.rag.Query;
+import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 混合检索：{@link Bm25Index} 关键词检索与向量检索并行执行，按倒数排名融合（RRF）合并，
+ * 两路结果按正文去重（向量库与文档加载器为同一分块生成的 ID 不同）。
+ * <p>
+ * 关键词检索在进程内完成，不依赖嵌入服务，以下情况只用关键词结果（快速路径）：
+ * <ul>
+ *     <li>向量库预热中且 app.vector.warmup.while-indexing=skip；</li>
+ *     <li>向量检索（含查询嵌入）超过 vector-timeout-ms 或失败，之后 vector-cooldown-ms 内不再尝试向量检索。</li>
+ * </ul>
+ */
+@Slf4j
+public class HybridDocumentRetriever implements DocumentRetriever {
+
+    private final VectorStore vectorStore;
+    private final Bm25Index lexicalIndex;
+    private final VectorStoreWarmup warmup;
+    private final HybridRetrievalProperties properties;
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("vector-search-", 0).factory());
+
+    /** 向量检索恢复尝试的时间点（System.nanoTime） */
+    private volatile long vectorRetryAt = System.nanoTime();
+
+    public HybridDocumentRetriever(VectorStore vectorStore, Bm25Index lexicalIndex, VectorStoreWarmup warmup,
+                                   HybridRetrievalProperties properties) {
+        this.vectorStore = vectorStore;
+        this.lexicalIndex = lexicalIndex;
+        this.warmup = warmup;
+        this.properties = properties;
+    }
+
+    @Override
+    public List<Document> retrieve(Query query) {
+        String text = query.text();
+        int candidates = Math.max(properties.getCandidates(), properties.getTopK());
+        Future<List<Document>> vector = null;
+        if (vectorAvailable()) {
+            SearchRequest request = SearchRequest.builder().query(text).topK(candidates).build();
+            vector = executor.submit(() -> vectorStore.similaritySearch(request));
+        }
+        // 关键词检索与查询嵌入并行
+        List<Document> lexical = lexicalIndex.search(text, candidates);
+        List<Document> semantic = vector == null ? List.of() : await(vector);
+        return fuse(lexical, semantic);
+    }
+
+    /**
+     * @return 当前是否尝试向量检索
+     */
+    public boolean vectorAvailable() {
+        return warmup.retrievalEnabled() && System.nanoTime() - vectorRetryAt >= 0;
+    }
+
+    private List<Document> await(Future<List<Document>> vector) {
+        try {
+            List<Document> documents = vector.get(properties.getVectorTimeoutMs(), TimeUnit.MILLISECONDS);
+            return documents == null ? List.of() : documents;
+        } catch (TimeoutException e) {
+            // 不取消：查询嵌入可能与其他请求合批，中断会让同批请求一起失败；完成后的向量进入 LRU，重复提问可直接命中
+            cooldown("超过 " + properties.getVectorTimeoutMs() + "ms");
+        } catch (ExecutionException e) {
+            cooldown(String.valueOf(e.getCause().getMessage()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return List.of();
+    }
+
+    private void cooldown(String reason) {
+        vectorRetryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(properties.getVectorCooldownMs());
+        log.warn("向量检索不可用（{}），{}ms 内只使用关键词检索", reason, properties.getVectorCooldownMs());
+    }
+
+    private List<Document> fuse(List<Document> lexical, List<Document> semantic) {
+        record Fused(Document document, double score) {
+        }
+        Map<String, Fused> fused = new LinkedHashMap<>();
+        for (List<Document> ranking : List.of(semantic, lexical)) {
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                Document document = ranking.get(rank);
+                double score = 1.0 / (properties.getRrfK() + rank + 1);
+                fused.merge(DigestUtil.sha256Hex(document.getText()), new Fused(document, score),
+                        (a, b) -> new Fused(a.document(), a.score() + b.score()));
+            }
+        }
+        List<Fused> ranked = new ArrayList<>(fused.values());
+        ranked.sort(Comparator.comparingDouble(Fused::score).reversed());
+        List<Document> results = new ArrayList<>(Math.min(ranked.size(), properties.getTopK()));
+        for (Fused f : ranked.subList(0, Math.min(ranked.size(), properties.getTopK()))) {
+            results.add(f.document().mutate().score(f.score()).build());
+        }
+        return results;
+    }
+}
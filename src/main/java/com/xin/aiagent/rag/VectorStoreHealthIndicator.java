@@ -0,0 +1,47 @@
+package com.xin.aiagent.rag;
+
+import com.xin.aiagent.vector.MappedVectorStore;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.stereotype.Component;
+
+/**
+ * /actuator/health 中的 vectorStore 组件：预热完成为 UP，预热中为 INDEXING，入库失败为 DEGRADED（已有数据仍可检索）。
+ * INDEXING / DEGRADED 不在默认状态顺序中，不会把整体健康状态拉低，也不影响 HTTP 状态码
+ */
+@Component
+public class VectorStoreHealthIndicator implements HealthIndicator {
+
+    static final Status INDEXING = new Status("INDEXING", "向量库预热中");
+    static final Status DEGRADED = new Status("DEGRADED", "向量库入库失败，按已有数据检索");
+
+    private final VectorStoreWarmup warmup;
+    private final VectorStore vectorStore;
+
+    public VectorStoreHealthIndicator(VectorStoreWarmup warmup, VectorStore appVectorStore) {
+        this.warmup = warmup;
+        this.vectorStore = appVectorStore;
+    }
+
+    @Override
+    public Health health() {
+        Health.Builder builder = switch (warmup.getState()) {
+            case READY -> Health.up();
+            case PENDING, INDEXING -> Health.status(INDEXING);
+            case FAILED -> Health.status(DEGRADED).withDetail("error", String.valueOf(warmup.getError()));
+        };
+        builder.withDetail("state", warmup.getState());
+        EmbeddingPipeline.Progress progress = warmup.getProgress();
+        if (progress != null) {
+            builder.withDetail("chunks", progress.doneChunks() + "/" + progress.totalChunks())
+                    .withDetail("failedChunks", progress.failedChunks())
+                    .withDetail("chunksPerSecond", Math.round(progress.chunksPerSecond()));
+        }
+        if (vectorStore instanceof MappedVectorStore mapped) {
+            builder.withDetail("documents", mapped.size()).withDetail("indexReady", mapped.isIndexReady());
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,129 @@
+package com.xin.aiagent.rag;
+
+import com.xin.aiagent.config.VectorIngestProperties;
+import com.xin.aiagent.config.VectorStoreProperties;
+import com.xin.aiagent.config.VectorWarmupProperties;
+import com.xin.aiagent.vector.MappedVectorStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+
+/**
+ * 向量库后台预热：应用就绪后在后台线程中构建延迟的 HNSW 图，并（app.vector.init-on-startup=true 时）增量入库，
+ * 启动耗时与语料规模无关。
+ * 预热完成前 {@link #isReady()} 为 false，RAG 检索按 app.vector.warmup.while-indexing 使用部分数据或跳过，
+ * 见 {@link WarmupGatedAdvisor}；状态与进度通过 {@link VectorStoreHealthIndicator} 暴露。
+ * 入库失败时保持已有数据可用，状态为 FAILED，不影响服务。
+ */
+@Component
+@Slf4j
+public class VectorStoreWarmup {
+
+    public enum State {
+        /** 应用尚未就绪，预热未开始 */
+        PENDING,
+        /** 正在建图或入库 */
+        INDEXING,
+        READY,
+        /** 入库失败，已有数据仍可检索 */
+        FAILED
+    }
+
+    private final VectorStore vectorStore;
+    private final AppDocumentLoader documentLoader;
+    private final VectorStoreProperties storeProperties;
+    private final VectorIngestProperties ingestProperties;
+    private final VectorWarmupProperties warmupProperties;
+    private final boolean initOnStartup;
+
+    private volatile State state = State.PENDING;
+    private volatile EmbeddingPipeline.Progress progress;
+    private volatile String error;
+
+    public VectorStoreWarmup(VectorStore appVectorStore, AppDocumentLoader documentLoader,
+                             VectorStoreProperties storeProperties, VectorIngestProperties ingestProperties,
+                             VectorWarmupProperties warmupProperties,
+                             @Value("${app.vector.init-on-startup:false}") boolean initOnStartup) {
+        this.vectorStore = appVectorStore;
+        this.documentLoader = documentLoader;
+        this.storeProperties = storeProperties;
+        this.ingestProperties = ingestProperties;
+        this.warmupProperties = warmupProperties;
+        this.initOnStartup = initOnStartup;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        synchronized (this) {
+            if (state != State.PENDING) {
+                return;
+            }
+            state = State.INDEXING;
+        }
+        Thread.ofPlatform().name("vector-warmup").daemon().start(this::run);
+    }
+
+    private void run() {
+        long start = System.nanoTime();
+        try {
+            if (vectorStore instanceof MappedVectorStore mapped) {
+                mapped.buildIndex();
+            }
+            if (initOnStartup) {
+                // mapped 模式按清单增量入库，只嵌入新增或变化的分块
+                Path manifest = vectorStore instanceof MappedVectorStore
+                        ? Path.of(storeProperties.getPath()).resolve(AppVectorStoreConfig.MANIFEST_FILE) : null;
+                DocumentIngestor ingestor = new DocumentIngestor(vectorStore, manifest,
+                        new EmbeddingPipeline(vectorStore, ingestProperties));
+                DocumentIngestor.Report report = ingestor.ingest(documentLoader.loadMarkdowns(), p -> progress = p);
+                if (report.failed() > 0) {
+                    throw new IllegalStateException(report.failed() + " 个分块嵌入失败，下次启动时重试");
+                }
+            } else {
+                log.info("已禁用启动期向量库文档嵌入（app.vector.init-on-startup=false）");
+            }
+            state = State.READY;
+            log.info("向量库预热完成，{}ms", (System.nanoTime() - start) / 1_000_000);
+        } catch (Exception e) {
+            // 容错：失败仅记录告警，不阻断服务（例如 API Key 无效/网络不可达）
+            error = e.getMessage();
+            state = State.FAILED;
+            log.warn("向量库预热失败：{}，已有数据仍可检索", e.getMessage());
+        }
+    }
+
+    /**
+     * @return 预热是否已成功完成
+     */
+    public boolean isReady() {
+        return state == State.READY;
+    }
+
+    /**
+     * @return 当前是否应当执行 RAG 检索：预热结束后（含失败，按已有数据检索）总是检索，预热中按配置决定
+     */
+    public boolean retrievalEnabled() {
+        return state == State.READY || state == State.FAILED
+                || warmupProperties.getWhileIndexing() == VectorWarmupProperties.WhileIndexing.PARTIAL;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return 最近一次入库进度，尚未开始写入时为 null
+     */
+    public EmbeddingPipeline.Progress getProgress() {
+        return progress;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,50 @@
+package com.xin.aiagent.rag;
+
+import org.springframework.ai.chat.client.advisor.api.AdvisedRequest;
+import org.springframework.ai.chat.client.advisor.api.AdvisedResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAroundAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAroundAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAroundAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAroundAdvisorChain;
+import reactor.core.publisher.Flux;
+
+/**
+ * 按向量库预热状态决定是否执行检索：{@link VectorStoreWarmup#retrievalEnabled()} 为 false 时跳过被包装的检索 Advisor，
+ * 请求不带检索上下文直接交给模型
+ */
+public class WarmupGatedAdvisor implements CallAroundAdvisor, StreamAroundAdvisor {
+
+    private final CallAroundAdvisor callDelegate;
+    private final StreamAroundAdvisor streamDelegate;
+    private final VectorStoreWarmup warmup;
+
+    public <A extends CallAroundAdvisor & StreamAroundAdvisor> WarmupGatedAdvisor(A delegate, VectorStoreWarmup warmup) {
+        this.callDelegate = delegate;
+        this.streamDelegate = delegate;
+        this.warmup = warmup;
+    }
+
+    @Override
+    public String getName() {
+        return getClass().getSimpleName();
+    }
+
+    @Override
+    public int getOrder() {
+        return callDelegate.getOrder();
+    }
+
+    @Override
+    public AdvisedResponse aroundCall(AdvisedRequest advisedRequest, CallAroundAdvisorChain chain) {
+        return warmup.retrievalEnabled()
+                ? callDelegate.aroundCall(advisedRequest, chain)
+                : chain.nextAroundCall(advisedRequest);
+    }
+
+    @Override
+    public Flux<AdvisedResponse> aroundStream(AdvisedRequest advisedRequest, StreamAroundAdvisorChain chain) {
+        return warmup.retrievalEnabled()
+                ? streamDelegate.aroundStream(advisedRequest, chain)
+                : chain.nextAroundStream(advisedRequest);
+    }
+}
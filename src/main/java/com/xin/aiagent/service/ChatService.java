@@ -2,14 +2,16 @@ package com.xin.aiagent.service;
 
 import com.xin.aiagent.controller.dto.SendMessageResp;
 import com.xin.aiagent.app.App;
+import com.xin.aiagent.app.ChatMode;
+import com.xin.aiagent.memory.PersistentChatMemory;
 import lombok.RequiredArgsConstructor;
+import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.stereotype.Service;
 
 @Service
 @RequiredArgsConstructor
 public class ChatService {
     private final ConversationService conversationService;
-    private final MessageService messageService;
     private final App app;
 
     public SendMessageResp send(Long userId, Long conversationId, String content) {
@@ -18,16 +20,15 @@ public class ChatService {
         }
         Long cid = conversationService.ensureConversation(userId, conversationId, content);
 
-        // 1) 存用户消息
-        messageService.insertUserMessage(cid, content);
+        // 1) 调用 Spring AI（与 SSE 端一致的能力），获得完整回答用于回退
+        //    用户消息与 AI 消息由对话记忆（PersistentChatMemory）写入 messages 表，这里不再重复插入
+        String memoryId = PersistentChatMemory.conversationId(userId, String.valueOf(cid));
+        AssistantMessage answer = app.doChatWithTools(content, memoryId, app.newDeadline(ChatMode.TOOLS));
 
-        // 2) 调用 Spring AI（与 SSE 端一致的能力），获得完整回答用于回退
-        String answer = app.doChatWithTools(content, String.valueOf(cid));
-
-        // 3) 存 AI 消息并更新会话时间
-        Long mid = messageService.insertAssistantMessage(cid, answer);
+        // 2) AI 消息 ID 由记忆写库时回填（同一会话并发发送时不能按“最新一条”查询），并更新会话时间
+        Long mid = (Long) answer.getMetadata().get(PersistentChatMemory.MESSAGE_ID);
         conversationService.touch(cid);
 
-        return new SendMessageResp(cid, mid, answer);
+        return new SendMessageResp(cid, mid, answer.getText());
     }
 }
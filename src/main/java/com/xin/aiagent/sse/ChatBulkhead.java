@@ -0,0 +1,124 @@
+package com.xin.aiagent.sse;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 单个对话模式的并发舱壁。
+ * 最多 maxConcurrent 个任务同时运行，超出部分进入长度为 maxQueue 的等待队列，队列满则立即拒绝。
+ * 排队任务不占用执行器线程：运行中的任务结束后，由同一个工作线程继续执行下一个排队任务，
+ * 名额与线程一起移交，不会再次提交给执行器，因此执行器满载时排队任务也不会被拒绝。
+ * 响应式流不占线程，通过 {@link #tryAcquire()} / {@link #release()} 直接持有名额，与线程任务共用同一并发上限。
+ */
+@Slf4j
+public class ChatBulkhead {
+
+    private final String name;
+    private final Executor executor;
+    private final int maxConcurrent;
+    private final int maxQueue;
+
+    private final Queue<Runnable> waiting = new ArrayDeque<>();
+    private int active;
+
+    public ChatBulkhead(String name, Executor executor, int maxConcurrent, int maxQueue) {
+        this.name = name;
+        this.executor = executor;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueue = maxQueue;
+    }
+
+    /**
+     * 尝试提交任务
+     *
+     * @param task 待执行任务
+     * @return true 表示已运行或已排队；false 表示舱壁已饱和
+     */
+    public boolean tryExecute(Runnable task) {
+        synchronized (this) {
+            if (active >= maxConcurrent) {
+                if (waiting.size() >= maxQueue) {
+                    return false;
+                }
+                waiting.add(task);
+                return true;
+            }
+            active++;
+        }
+        try {
+            executor.execute(() -> runLoop(task));
+        } catch (RejectedExecutionException e) {
+            // 底层执行器已关闭或已满：归还名额，排队任务（若有）由其他仍在运行的工作线程接手
+            synchronized (this) {
+                active--;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 不经执行器直接占用一个运行名额（响应式流订阅时调用），不排队
+     *
+     * @return false 表示名额已满
+     */
+    public synchronized boolean tryAcquire() {
+        if (active >= maxConcurrent) {
+            return false;
+        }
+        active++;
+        return true;
+    }
+
+    /**
+     * 归还 {@link #tryAcquire()} 占用的名额；有排队任务时名额移交给它，在执行器上启动新的工作线程
+     */
+    public void release() {
+        Runnable next = next();
+        if (next == null) {
+            return;
+        }
+        try {
+            executor.execute(() -> runLoop(next));
+        } catch (RejectedExecutionException e) {
+            // 底层执行器已关闭：丢弃该任务并归还名额
+            synchronized (this) {
+                active--;
+            }
+            log.warn("舱壁排队任务无法启动，已丢弃：bulkhead={}", name);
+        }
+    }
+
+    /**
+     * 在当前工作线程上依次执行首个任务与之后轮到的排队任务，队列为空时归还名额
+     */
+    private void runLoop(Runnable first) {
+        Runnable current = first;
+        while (current != null) {
+            try {
+                current.run();
+            } catch (RuntimeException e) {
+                log.error("舱壁任务执行异常：bulkhead={}", name, e);
+            }
+            current = next();
+        }
+    }
+
+    private synchronized Runnable next() {
+        Runnable next = waiting.poll();
+        if (next == null) {
+            active--;
+        }
+        return next;
+    }
+
+    public String getName() { return name; }
+
+    public synchronized int activeCount() { return active; }
+
+    public synchronized int queuedCount() { return waiting.size(); }
+}
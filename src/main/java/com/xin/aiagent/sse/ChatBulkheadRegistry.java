@@ -0,0 +1,77 @@
+package com.xin.aiagent.sse;
+
+import com.xin.aiagent.app.ChatMode;
+import com.xin.aiagent.config.SseProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 按对话模式划分的舱壁注册表，并把活跃/排队数量暴露为 Micrometer 指标：
+ * - chat.sse.active{mode}：正在生成的流
+ * - chat.sse.queued{mode}：等待执行的流
+ * - chat.sse.rejected{mode}：因饱和被拒绝的请求数
+ */
+@Component
+@Slf4j
+public class ChatBulkheadRegistry {
+
+    private final Map<ChatMode, ChatBulkhead> bulkheads = new EnumMap<>(ChatMode.class);
+    private final Map<ChatMode, Counter> rejected = new EnumMap<>(ChatMode.class);
+
+    public ChatBulkheadRegistry(ExecutorService sseExecutor, SseProperties properties, MeterRegistry meterRegistry) {
+        for (ChatMode mode : ChatMode.values()) {
+            SseProperties.Bulkhead cfg = properties.bulkheadFor(mode.tag());
+            ChatBulkhead bulkhead = new ChatBulkhead(mode.tag(), sseExecutor, cfg.getMaxConcurrent(), cfg.getMaxQueue());
+            bulkheads.put(mode, bulkhead);
+
+            Gauge.builder("chat.sse.active", bulkhead, ChatBulkhead::activeCount)
+                    .tag("mode", mode.tag())
+                    .register(meterRegistry);
+            Gauge.builder("chat.sse.queued", bulkhead, ChatBulkhead::queuedCount)
+                    .tag("mode", mode.tag())
+                    .register(meterRegistry);
+            rejected.put(mode, Counter.builder("chat.sse.rejected")
+                    .tag("mode", mode.tag())
+                    .register(meterRegistry));
+            log.info("SSE 舱壁已创建：mode={}, maxConcurrent={}, maxQueue={}",
+                    mode.tag(), cfg.getMaxConcurrent(), cfg.getMaxQueue());
+        }
+    }
+
+    /**
+     * 在对应模式的舱壁中执行任务
+     *
+     * @return false 表示舱壁已饱和，调用方应快速失败
+     */
+    public boolean tryExecute(ChatMode mode, Runnable task) {
+        boolean accepted = bulkheads.get(mode).tryExecute(task);
+        if (!accepted) {
+            rejected.get(mode).increment();
+        }
+        return accepted;
+    }
+
+    /**
+     * 为响应式流占用对应模式的一个运行名额，须在流终止或取消时调用 {@link #release(ChatMode)}
+     *
+     * @return false 表示舱壁已饱和，调用方应快速失败
+     */
+    public boolean tryAcquire(ChatMode mode) {
+        boolean acquired = bulkheads.get(mode).tryAcquire();
+        if (!acquired) {
+            rejected.get(mode).increment();
+        }
+        return acquired;
+    }
+
+    public void release(ChatMode mode) {
+        bulkheads.get(mode).release();
+    }
+}
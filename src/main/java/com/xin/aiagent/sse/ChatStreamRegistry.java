@@ -0,0 +1,148 @@
+package com.xin.aiagent.sse;
+
+import com.xin.aiagent.app.ChatMode;
+import com.xin.aiagent.config.SseProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 流式生成会话注册表（按 用户 + sessionId 索引；POST 提交的任务另按 "job:" + 用户 + jobId 索引）。
+ * - 索引带上会话所属用户，不同用户即使使用相同的 sessionId / jobId 也互不可见；
+ * - 同一会话同时只有一个生成：新生成登记时，仍在进行的旧生成被取消，不会脱离注册表成为无人清理的孤儿；
+ * - 已结束的会话在 app.sse.resume.ttl-ms 内保留缓冲，供断线重连补发；
+ * - 生成中但所有订阅者都已离开超过 app.sse.resume.grace-ms 的会话会被取消，
+ *   既给移动端留出重连窗口，又不会让被放弃的流长期占用模型与线程。
+ */
+@Component
+@Slf4j
+public class ChatStreamRegistry {
+
+    private static final String JOB_PREFIX = "job:";
+    private static final String ANONYMOUS = "anon";
+
+    private final Map<String, ChatStreamSession> sessions = new ConcurrentHashMap<>();
+    private final SseProperties sseProperties;
+    private final MeterRegistry meterRegistry;
+    private final SseProperties.Resume resume;
+
+    public ChatStreamRegistry(SseProperties sseProperties, MeterRegistry meterRegistry,
+                              ScheduledExecutorService sseScheduler) {
+        this.sseProperties = sseProperties;
+        this.meterRegistry = meterRegistry;
+        this.resume = sseProperties.getResume();
+        Gauge.builder("chat.sse.sessions", sessions, m -> m.values().stream().distinct().count()).register(meterRegistry);
+        long period = Math.max(1000L, Math.min(resume.getGraceMs(), resume.getTtlMs()) / 2);
+        sseScheduler.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 为新的生成创建会话；同一用户同一 sessionId 仍在进行的旧生成被取消（客户端已发起新的提问）
+     *
+     * @param owner 会话所属用户 ID，未登录为 null
+     * @param sessionId 会话 ID
+     * @param mode 对话模式
+     */
+    public ChatStreamSession create(Long owner, String sessionId, ChatMode mode) {
+        ChatStreamSession session = new ChatStreamSession(key(owner, sessionId), owner, mode, resume.getBufferSize());
+        supersede(sessions.put(session.getKey(), session));
+        return session;
+    }
+
+    /**
+     * 为 POST 提交的任务创建会话；同一用户的同一 jobId 已存在时返回已有会话（幂等），其他用户的任务不可见
+     *
+     * @param owner 任务所属用户 ID，未登录为 null
+     * @param jobId 任务 ID
+     * @param sessionId 会话 ID，新任务同时登记为该 sessionId 的最新会话
+     * @param mode 对话模式
+     * @param prompt 用户问题，供不带 jobId 的 SSE GET 认领
+     * @return 新建或已存在的任务会话
+     */
+    public ChatStreamSession createJob(Long owner, String jobId, String sessionId, ChatMode mode, String prompt) {
+        ChatStreamSession created = new ChatStreamSession(key(owner, sessionId), owner, mode,
+                resume.getBufferSize(), jobId, prompt);
+        ChatStreamSession existing = sessions.putIfAbsent(JOB_PREFIX + key(owner, jobId), created);
+        if (existing != null) {
+            return existing;
+        }
+        supersede(sessions.put(created.getKey(), created));
+        return created;
+    }
+
+    public ChatStreamSession find(Long owner, String sessionId) {
+        return sessionId == null ? null : sessions.get(key(owner, sessionId));
+    }
+
+    public ChatStreamSession findJob(Long owner, String jobId) {
+        return jobId == null ? null : sessions.get(JOB_PREFIX + key(owner, jobId));
+    }
+
+    /**
+     * 移除会话的所有索引（sessionId 与 jobId）
+     */
+    public void remove(ChatStreamSession session) {
+        sessions.remove(session.getKey(), session);
+        if (session.getJobId() != null) {
+            sessions.remove(JOB_PREFIX + key(session.getOwner(), session.getJobId()), session);
+        }
+    }
+
+    private static String key(Long owner, String id) {
+        return (owner == null ? ANONYMOUS : owner) + ":" + id;
+    }
+
+    /**
+     * 被同一会话的新生成替换：旧生成仍在进行时取消，向其订阅者推送 superseded 错误事件后结束；
+     * POST 任务仍可按 jobId 找到，直到 TTL 过期
+     */
+    private void supersede(ChatStreamSession previous) {
+        if (previous == null || previous.isFinished()) {
+            return;
+        }
+        if (previous.getCancellation().cancel()) {
+            onCancelled(previous, "被同一会话的新请求取代");
+        }
+        previous.publish("message", SseFrameEncoder.errorJson("superseded", "同一会话已发起新的对话"));
+        previous.complete();
+    }
+
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        for (ChatStreamSession session : sessions.values()) {
+            try {
+                if (session.isFinished()) {
+                    if (now - session.getFinishedAt() > resume.getTtlMs()) {
+                        remove(session);
+                    }
+                } else if (session.isAbandoned() && now - session.getLastDetachedAt() > resume.getGraceMs()) {
+                    if (session.getCancellation().cancel()) {
+                        onCancelled(session, "客户端断开且未重连");
+                    }
+                    session.complete();
+                }
+            } catch (Exception e) {
+                log.warn("SSE 会话清理异常：key={}, reason={}", session.getKey(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 记录一次取消：节省的 token 按“预期回答长度 - 已输出长度”估算
+     */
+    private void onCancelled(ChatStreamSession session, String reason) {
+        String mode = session.getMode().tag();
+        long streamed = session.getStreamedTokens().get();
+        long saved = Math.max(0, sseProperties.getExpectedCompletionTokens() - streamed);
+        meterRegistry.counter("chat.sse.cancelled", "mode", mode).increment();
+        meterRegistry.counter("chat.sse.tokens.saved", "mode", mode).increment(saved);
+        log.info("SSE {}，已取消上游调用：key={}, mode={}, streamedTokens={}, estimatedSavedTokens={}",
+                reason, session.getKey(), mode, streamed, saved);
+    }
+}
@@ -0,0 +1,291 @@
+package com.xin.aiagent.sse;
+
+import com.xin.aiagent.app.ChatMode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一次正在进行（或刚结束）的流式生成。
+ * 生成任务只向 session 发布事件；每个事件带单调递增 id，并写入有界环形缓冲。
+ * 多个 SseEmitter 可以订阅同一 session：断线重连时携带 Last-Event-ID，先补发缺失事件再接入实时流，
+ * 不会重新发起模型调用。
+ * 由 POST 提交的生成任务（带 jobId）在没有任何订阅者时就已开始生成，之后的 SSE GET 凭 jobId 接入。
+ * 发布只在锁内分配 id、编码并入队，写连接在锁外进行：同一时刻只有一个线程负责写出（先到者），
+ * 其余发布者入队后立即返回，慢连接不会阻塞生成线程、合并定时器或其他请求对会话的访问。
+ */
+@Slf4j
+public class ChatStreamSession {
+
+    /** 一条已发布的 SSE 事件，frame 为预编码的完整帧文本 */
+    record StreamEvent(long id, String frame) {
+    }
+
+    private final String key;
+    private final Long owner;
+    private final ChatMode mode;
+    private final int bufferSize;
+    private final String jobId;
+    private final String prompt;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final StreamCancellation cancellation = new StreamCancellation();
+    private final AtomicLong streamedTokens = new AtomicLong();
+
+    private final Deque<StreamEvent> buffer = new ArrayDeque<>();
+    /** 已发布、尚未写给订阅者的事件 */
+    private final Deque<StreamEvent> outbox = new ArrayDeque<>();
+    private final List<SseEmitter> subscribers = new ArrayList<>();
+    private long nextId = 1;
+    /** 写出线程最近取出的事件 id；不大于它的事件由 attach 补发，更大的由写出线程推送 */
+    private long dispatchedId;
+    private boolean draining;
+    private boolean finished;
+    private Throwable failure;
+    private volatile long finishedAt;
+    private volatile long lastDetachedAt;
+    private boolean claimed;
+
+    ChatStreamSession(String key, Long owner, ChatMode mode, int bufferSize) {
+        this(key, owner, mode, bufferSize, null, null);
+    }
+
+    ChatStreamSession(String key, Long owner, ChatMode mode, int bufferSize, String jobId, String prompt) {
+        this.key = key;
+        this.owner = owner;
+        this.mode = mode;
+        this.bufferSize = bufferSize;
+        this.jobId = jobId;
+        this.prompt = prompt;
+        // 创建时视为刚断开：任务先于连接开始生成，同样享有宽限期
+        this.lastDetachedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * 标记生成已启动；只有第一次调用返回 true，用于保证同一任务不会生成两次
+     */
+    public boolean markStarted() {
+        return started.compareAndSet(false, true);
+    }
+
+    /**
+     * 不带 jobId 的 SSE GET 认领 POST 已提交的任务：同一模式、同一问题且尚未被认领时成功
+     *
+     * @param mode 请求的对话模式
+     * @param prompt 请求的问题
+     * @return true 表示可直接接入该任务，无需再次生成
+     */
+    public synchronized boolean claim(ChatMode mode, String prompt) {
+        if (jobId == null || claimed || failure != null || this.mode != mode || !this.prompt.equals(prompt)) {
+            return false;
+        }
+        claimed = true;
+        return true;
+    }
+
+    /**
+     * 发布事件并推送给所有订阅者；推送失败的订阅者被移除
+     *
+     * @param name 事件名
+     * @param data 单行数据（预序列化的 JSON 或纯文本）
+     */
+    public void publish(String name, String data) {
+        enqueue(name, data);
+        drain();
+    }
+
+    /**
+     * 只发布不推送：分配 id、编码为 SSE 帧（只编码一次）、写入缓冲并排队，之后由 {@link #drain()} 写出
+     *
+     * @param name 事件名
+     * @param data 单行数据（预序列化的 JSON 或纯文本）
+     */
+    public synchronized void enqueue(String name, String data) {
+        if (finished) {
+            return;
+        }
+        long id = nextId++;
+        StreamEvent event = new StreamEvent(id, SseFrameEncoder.frame(id, name, data));
+        buffer.addLast(event);
+        if (buffer.size() > bufferSize) {
+            buffer.removeFirst();
+        }
+        outbox.addLast(event);
+    }
+
+    /**
+     * 在锁外按 id 顺序把排队事件写给订阅者；已有线程在写出时立即返回，由该线程继续写完
+     */
+    public void drain() {
+        synchronized (this) {
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        while (true) {
+            StreamEvent event;
+            List<SseEmitter> targets;
+            synchronized (this) {
+                event = outbox.pollFirst();
+                if (event == null) {
+                    draining = false;
+                    if (finished) {
+                        closeSubscribers();
+                    }
+                    return;
+                }
+                dispatchedId = event.id();
+                targets = List.copyOf(subscribers);
+            }
+            for (SseEmitter emitter : targets) {
+                if (!send(emitter, event)) {
+                    detach(emitter);
+                }
+            }
+        }
+    }
+
+    /**
+     * 正常结束：通知所有订阅者完成；缓冲保留到 TTL 过期，供迟到的重连补发
+     */
+    public synchronized void complete() {
+        finish(null);
+    }
+
+    /**
+     * 异常结束：调用方应先发布 error 事件；之后不能再被认领
+     */
+    public synchronized void fail(Throwable error) {
+        finish(error);
+    }
+
+    private void finish(Throwable error) {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        failure = error;
+        finishedAt = System.currentTimeMillis();
+        // 仍有事件在写出时，由写出线程写完后再结束订阅者
+        if (!draining) {
+            closeSubscribers();
+        }
+    }
+
+    private void closeSubscribers() {
+        List<SseEmitter> current = List.copyOf(subscribers);
+        subscribers.clear();
+        for (SseEmitter emitter : current) {
+            close(emitter);
+        }
+    }
+
+    /**
+     * 订阅：补发 id 大于 lastEventId 的事件，若生成仍在进行则继续接收实时事件。
+     * 补发在锁外进行（慢连接不阻塞发布与写出）：每轮在锁内取出写出线程已取出、尚未补发的事件，锁外发送，
+     * 直到没有新事件时在锁内加入订阅者，之后的事件由写出线程推送，保证每个事件按顺序只送达一次
+     *
+     * @param emitter 订阅者
+     * @param lastEventId 客户端已收到的最后一个事件 id，新连接传 0
+     * @return false 表示所需事件已被挤出缓冲，无法完整续传
+     */
+    public boolean attach(SseEmitter emitter, long lastEventId) {
+        long sent = lastEventId;
+        while (true) {
+            List<StreamEvent> replay = new ArrayList<>();
+            boolean closeNow = false;
+            synchronized (this) {
+                StreamEvent oldest = buffer.peekFirst();
+                if (oldest != null && oldest.id() > sent + 1) {
+                    return false;
+                }
+                for (StreamEvent event : buffer) {
+                    if (event.id() > dispatchedId) {
+                        break;
+                    }
+                    if (event.id() > sent) {
+                        replay.add(event);
+                    }
+                }
+                if (replay.isEmpty()) {
+                    // 已追上写出线程：交给写出线程推送之后的事件
+                    if (finished && !draining) {
+                        closeNow = true;
+                    } else {
+                        subscribers.add(emitter);
+                    }
+                }
+            }
+            if (replay.isEmpty()) {
+                if (closeNow) {
+                    close(emitter);
+                }
+                return true;
+            }
+            for (StreamEvent event : replay) {
+                if (!send(emitter, event)) {
+                    return true;
+                }
+                sent = event.id();
+            }
+        }
+    }
+
+    /**
+     * 取消订阅（客户端断开/超时）
+     */
+    public synchronized void detach(SseEmitter emitter) {
+        if (subscribers.remove(emitter)) {
+            lastDetachedAt = System.currentTimeMillis();
+        }
+    }
+
+    /** 生成仍在进行但已没有任何订阅者 */
+    public synchronized boolean isAbandoned() {
+        return !finished && subscribers.isEmpty();
+    }
+
+    /**
+     * 失败的生成同样正常结束连接：error 事件已在流中，completeWithError 会把异常交给异步分派，
+     * 由全局异常处理器向 text/event-stream 响应写 JSON 而再次失败
+     */
+    private void close(SseEmitter emitter) {
+        emitter.complete();
+    }
+
+    private boolean send(SseEmitter emitter, StreamEvent event) {
+        try {
+            emitter.send(SseFrameEncoder.encoded(event.frame()));
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            log.debug("SSE 订阅者推送失败，移除：key={}, reason={}", key, e.getMessage());
+            emitter.complete();
+            return false;
+        }
+    }
+
+    public String getKey() { return key; }
+
+    public Long getOwner() { return owner; }
+
+    public ChatMode getMode() { return mode; }
+
+    public String getJobId() { return jobId; }
+
+    public StreamCancellation getCancellation() { return cancellation; }
+
+    public AtomicLong getStreamedTokens() { return streamedTokens; }
+
+    public synchronized boolean isFinished() { return finished; }
+
+    public long getFinishedAt() { return finishedAt; }
+
+    public long getLastDetachedAt() { return lastDetachedAt; }
+}
@@ -0,0 +1,109 @@
+package com.xin.aiagent.sse;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 增量合并器：把模型逐 token 产出的小片段按时间/字节窗口合并后再下发，减少帧数与 flush 次数。
+ * - 第一个片段立即下发，不影响首字延迟；
+ * - 之后累计达到 maxBytes（UTF-8 字节）立即下发，否则最多等待 windowMs 由定时器下发；
+ * - windowMs <= 0 时关闭合并，逐片段下发。
+ * 合并结果在锁内交给 sink 编码入队（保证顺序），writer 在锁外执行写出，
+ * 定时器线程上的下发不会在持锁期间等待慢连接。
+ */
+public class DeltaCoalescer {
+
+    private final long windowMs;
+    private final int maxBytes;
+    private final ScheduledExecutorService timer;
+    private final Consumer<String> sink;
+    private final Runnable writer;
+
+    private final StringBuilder pending = new StringBuilder();
+    private int pendingBytes;
+    private boolean firstSent;
+    private ScheduledFuture<?> scheduled;
+
+    public DeltaCoalescer(long windowMs, int maxBytes, ScheduledExecutorService timer, Consumer<String> sink) {
+        this(windowMs, maxBytes, timer, sink, () -> { });
+    }
+
+    /**
+     * @param sink 在锁内接收合并后的片段，只应编码入队，不做 IO
+     * @param writer 每次下发后在锁外执行，负责把入队内容写出
+     */
+    public DeltaCoalescer(long windowMs, int maxBytes, ScheduledExecutorService timer, Consumer<String> sink,
+                          Runnable writer) {
+        this.windowMs = windowMs;
+        this.maxBytes = maxBytes;
+        this.timer = timer;
+        this.sink = sink;
+        this.writer = writer;
+    }
+
+    public void offer(String part) {
+        boolean emitted;
+        synchronized (this) {
+            pending.append(part);
+            pendingBytes += utf8Length(part);
+            if (!firstSent || windowMs <= 0 || pendingBytes >= maxBytes) {
+                firstSent = true;
+                emitted = emitPending();
+            } else {
+                if (scheduled == null) {
+                    scheduled = timer.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+                }
+                emitted = false;
+            }
+        }
+        if (emitted) {
+            writer.run();
+        }
+    }
+
+    /** 下发所有未发送内容；生成结束时必须调用 */
+    public void flush() {
+        boolean emitted;
+        synchronized (this) {
+            emitted = emitPending();
+        }
+        if (emitted) {
+            writer.run();
+        }
+    }
+
+    private boolean emitPending() {
+        if (scheduled != null) {
+            scheduled.cancel(false);
+            scheduled = null;
+        }
+        if (pending.isEmpty()) {
+            return false;
+        }
+        String chunk = pending.toString();
+        pending.setLength(0);
+        pendingBytes = 0;
+        sink.accept(chunk);
+        return true;
+    }
+
+    static int utf8Length(CharSequence s) {
+        int bytes = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+}
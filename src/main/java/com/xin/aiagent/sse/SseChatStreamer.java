@@ -0,0 +1,233 @@
+package com.xin.aiagent.sse;
+
+import com.xin.aiagent.app.ChatMode;
+import com.xin.aiagent.common.BusinessException;
+import com.xin.aiagent.common.ResultCode;
+import com.xin.aiagent.common.TokenEstimator;
+import com.xin.aiagent.config.SseProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Function;
+
+/**
+ * SSE 流式对话执行器：把模型增量流桥接到 SseEmitter。
+ * 事件契约：start → delta* → done，异常时推送 error；每个事件带单调递增的 id。
+ * 事件由 {@link SseFrameEncoder} 预编码为帧文本，delta 经 {@link DeltaCoalescer} 按时间/字节窗口合并后下发。
+ * 生成与连接解耦：生成任务写入 {@link ChatStreamSession}，连接只是订阅者。
+ * 客户端携带 Last-Event-ID 重连时只补发缺失事件并接入进行中的生成，不会触发第二次模型调用；
+ * 断开后超过宽限期仍未重连，由 {@link ChatStreamRegistry} 取消上游模型请求与工具调用。
+ * POST 可先通过 {@link #submitJob} 提交任务立即开始生成，SSE GET 再凭 jobId 接入，省去一次往返。
+ */
+@Component
+@Slf4j
+public class SseChatStreamer {
+
+    private final ChatBulkheadRegistry chatBulkheadRegistry;
+    private final ChatStreamRegistry chatStreamRegistry;
+    private final SseProperties sseProperties;
+    private final ScheduledExecutorService sseScheduler;
+
+    public SseChatStreamer(ChatBulkheadRegistry chatBulkheadRegistry, ChatStreamRegistry chatStreamRegistry,
+                           SseProperties sseProperties, ScheduledExecutorService sseScheduler) {
+        this.chatBulkheadRegistry = chatBulkheadRegistry;
+        this.chatStreamRegistry = chatStreamRegistry;
+        this.sseProperties = sseProperties;
+        this.sseScheduler = sseScheduler;
+    }
+
+    /**
+     * 提交生成任务：立即在对应模式的舱壁中开始生成，结果写入会话缓冲，等待 SSE 接入
+     * 同一 jobId 重复提交（客户端重试）直接返回已有任务，不会再次生成
+     *
+     * @param mode 对话模式，决定使用哪个舱壁
+     * @param owner 当前用户 ID（在请求线程上解析），未登录为 null；任务只对同一用户可见
+     * @param sessionId 会话 ID
+     * @param jobId 客户端提供的任务 ID（幂等键），为空时由服务端生成
+     * @param prompt 用户问题
+     * @param source 根据取消令牌构造模型增量流
+     * @return 任务 ID
+     * @throws BusinessException 舱壁饱和（CHAT_BUSY）
+     */
+    public String submitJob(ChatMode mode, Long owner, String sessionId, String jobId, String prompt,
+                            Function<StreamCancellation, Flux<String>> source) {
+        String id = (jobId == null || jobId.isBlank()) ? UUID.randomUUID().toString() : jobId;
+        ChatStreamSession session = chatStreamRegistry.createJob(owner, id, sessionId, mode, prompt);
+        if (!session.markStarted()) {
+            log.debug("重复提交的生成任务，复用已有任务：jobId={}", id);
+            return id;
+        }
+        boolean accepted = chatBulkheadRegistry.tryExecute(mode, () -> generate(session, source));
+        if (!accepted) {
+            log.warn("SSE 舱壁已饱和，拒绝任务：mode={}, jobId={}", mode.tag(), id);
+            chatStreamRegistry.remove(session);
+            throw new BusinessException(ResultCode.CHAT_BUSY, "服务繁忙，请稍后重试");
+        }
+        log.debug("生成任务已入队：mode={}, jobId={}, sessionId={}", mode.tag(), id, sessionId);
+        return id;
+    }
+
+    /**
+     * 打开一个 SSE 流
+     * - 带 jobId：接入 POST 提交的任务（配合 Last-Event-ID 续传），任务不存在时推送 job_not_found 并返回 404；
+     * - 带 Last-Event-ID 且该 sessionId 的生成仍在缓冲期内时，直接续传；
+     * - 该 sessionId 有 POST 提交且尚未被认领的同一问题任务时，直接接入；
+     * - 否则在对应模式的舱壁中启动新的生成，舱壁饱和时返回 503 并推送 busy 错误事件
+     *
+     * @param mode 对话模式，决定使用哪个舱壁
+     * @param owner 当前用户 ID（在请求线程上解析），未登录为 null；只能接入同一用户的会话与任务
+     * @param sessionId 会话 ID，同时作为续传的索引
+     * @param jobId POST 返回的任务 ID，可为 null
+     * @param prompt 用户问题，用于认领未带 jobId 的已提交任务
+     * @param lastEventId 客户端重连时携带的 Last-Event-ID，可为 null
+     * @param source 根据取消令牌构造模型增量流
+     * @return 包装了 SseEmitter 的响应，超时时间由 app.sse.timeout-ms 决定（默认 10 分钟）
+     */
+    public ResponseEntity<SseEmitter> open(ChatMode mode, Long owner, String sessionId, String jobId, String prompt,
+                                           String lastEventId, Function<StreamCancellation, Flux<String>> source) {
+        SseEmitter emitter = new SseEmitter(sseProperties.getTimeoutMs());
+
+        long resumeFrom = parseEventId(lastEventId);
+        if (jobId != null && !jobId.isBlank()) {
+            ChatStreamSession job = chatStreamRegistry.findJob(owner, jobId);
+            if (job == null || job.getMode() != mode) {
+                sendError(emitter, "job_not_found", "任务不存在或已过期，请重新发起对话");
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(emitter);
+            }
+            job.claim(mode, prompt);
+            subscribe(job, emitter);
+            if (!job.attach(emitter, resumeFrom)) {
+                sendError(emitter, "replay_gap", "断点已超出缓冲范围，请重新发起对话");
+            }
+            return ResponseEntity.ok(emitter);
+        }
+        if (resumeFrom > 0) {
+            ChatStreamSession existing = chatStreamRegistry.find(owner, sessionId);
+            if (existing != null && existing.getMode() == mode) {
+                subscribe(existing, emitter);
+                if (existing.attach(emitter, resumeFrom)) {
+                    log.debug("SSE 续传：sessionId={}, lastEventId={}", sessionId, resumeFrom);
+                } else {
+                    sendError(emitter, "replay_gap", "断点已超出缓冲范围，请重新发起对话");
+                }
+                return ResponseEntity.ok(emitter);
+            }
+        }
+
+        ChatStreamSession pending = chatStreamRegistry.find(owner, sessionId);
+        if (pending != null && pending.claim(mode, prompt)) {
+            subscribe(pending, emitter);
+            if (!pending.attach(emitter, 0)) {
+                sendError(emitter, "replay_gap", "断点已超出缓冲范围，请重新发起对话");
+            }
+            return ResponseEntity.ok(emitter);
+        }
+
+        ChatStreamSession session = chatStreamRegistry.create(owner, sessionId, mode);
+        session.markStarted();
+        subscribe(session, emitter);
+        session.attach(emitter, 0);
+
+        boolean accepted = chatBulkheadRegistry.tryExecute(mode, () -> generate(session, source));
+        if (!accepted) {
+            log.warn("SSE 舱壁已饱和，拒绝请求：mode={}", mode.tag());
+            chatStreamRegistry.remove(session);
+            session.detach(emitter);
+            sendError(emitter, "busy", "服务繁忙，请稍后重试");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(emitter);
+        }
+        return ResponseEntity.ok(emitter);
+    }
+
+    /**
+     * 执行一次生成，把事件发布到会话（在舱壁线程中运行）
+     */
+    private void generate(ChatStreamSession session, Function<StreamCancellation, Flux<String>> source) {
+        StreamCancellation cancellation = session.getCancellation();
+        if (cancellation.isCancelled()) {
+            // 排队期间客户端已离开且未重连，无需再发起模型调用
+            return;
+        }
+        SseProperties.Coalesce coalesce = sseProperties.getCoalesce();
+        DeltaCoalescer coalescer = new DeltaCoalescer(coalesce.getWindowMs(), coalesce.getMaxBytes(), sseScheduler,
+                chunk -> session.enqueue("message", SseFrameEncoder.deltaJson(chunk)), session::drain);
+        try {
+            // 可选：发送 start 事件
+            session.publish("message", SseFrameEncoder.startJson(Instant.now().toEpochMilli()));
+
+            // 模型增量经合并窗口后发布；取消信号到达时停止订阅上游
+            source.apply(cancellation)
+                    .takeUntilOther(cancellation.signal())
+                    .filter(part -> !part.isEmpty())
+                    .doOnNext(part -> {
+                        session.getStreamedTokens().addAndGet(TokenEstimator.estimate(part));
+                        coalescer.offer(part);
+                    })
+                    .blockLast();
+            if (cancellation.isCancelled()) {
+                return;
+            }
+            coalescer.flush();
+
+            // 结束事件
+            session.publish("done", "done");
+            session.complete();
+        } catch (Exception e) {
+            if (cancellation.isCancelled()) {
+                log.debug("SSE 流已取消：key={}, reason={}", session.getKey(), e.getMessage());
+                return;
+            }
+            log.error("SSE 执行异常", e);
+            coalescer.flush();
+            String code = SseFrameEncoder.errorCodeOf(e);
+            session.publish("message", SseFrameEncoder.errorJson(code, e.getMessage()));
+            session.fail(new RuntimeException(code + ":" + e.getMessage()));
+        }
+    }
+
+    /**
+     * 连接断开/超时时从会话移除该订阅者；是否取消生成由注册表按宽限期决定
+     */
+    private void subscribe(ChatStreamSession session, SseEmitter emitter) {
+        emitter.onCompletion(() -> session.detach(emitter));
+        emitter.onTimeout(() -> session.detach(emitter));
+        emitter.onError(e -> session.detach(emitter));
+    }
+
+    private long parseEventId(String lastEventId) {
+        if (lastEventId == null || lastEventId.isBlank()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(lastEventId.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 推送不进入会话缓冲的错误事件并正常结束流（舱壁饱和、无法续传等）
+     *
+     * @param emitter SSE 发射器
+     * @param code 错误代码
+     * @param message 错误消息
+     */
+    private void sendError(SseEmitter emitter, String code, String message) {
+        try {
+            emitter.send(SseFrameEncoder.encoded(SseFrameEncoder.frame(0, "message", SseFrameEncoder.errorJson(code, message))));
+            emitter.complete();
+        } catch (IOException ex) {
+            // 客户端已断开，不把异常交给异步分派
+            log.debug("SSE 错误事件推送失败：code={}, reason={}", code, ex.getMessage());
+            emitter.complete();
+        }
+    }
+}
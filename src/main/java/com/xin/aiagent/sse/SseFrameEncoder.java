@@ -0,0 +1,114 @@
+package com.xin.aiagent.sse;
+
+import com.xin.aiagent.common.BusinessException;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * 轻量 SSE 帧编码器：直接拼出 start/delta/error 的 JSON 与完整的 SSE 帧文本，绕过 Map + Jackson。
+ * 编码使用线程内复用的 StringBuilder；每个事件只编码一次，实时推送与断线补发共用同一帧。
+ * 帧格式与 SseEmitter.event().id().name().data() 输出一致：id:..\nevent:..\ndata:..\n\n
+ */
+public final class SseFrameEncoder {
+
+    private static final MediaType TEXT_PLAIN_UTF8 = new MediaType("text", "plain", StandardCharsets.UTF_8);
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(1024));
+    private static final int MAX_RETAINED = 64 * 1024;
+
+    private SseFrameEncoder() {
+    }
+
+    public static String startJson(long ts) {
+        return borrow().append("{\"type\":\"start\",\"ts\":").append(ts).append('}').toString();
+    }
+
+    public static String deltaJson(CharSequence content) {
+        StringBuilder sb = borrow().append("{\"type\":\"delta\",\"content\":\"");
+        escape(sb, content);
+        return sb.append("\"}").toString();
+    }
+
+    /**
+     * 生成异常对应的 error 事件代码：舱壁或上游过载为 busy，超过截止时间为 timeout，其余为 server_error
+     */
+    public static String errorCodeOf(Throwable error) {
+        if (error instanceof BusinessException e) {
+            return switch (e.getCodeEnum()) {
+                case CHAT_BUSY, UPSTREAM_OVERLOADED -> "busy";
+                case UPSTREAM_TIMEOUT -> "timeout";
+                default -> "server_error";
+            };
+        }
+        return "server_error";
+    }
+
+    public static String errorJson(String code, String message) {
+        StringBuilder sb = borrow().append("{\"type\":\"error\",\"code\":\"");
+        escape(sb, code);
+        sb.append("\",\"message\":");
+        if (message == null) {
+            sb.append("null");
+        } else {
+            sb.append('"');
+            escape(sb, message);
+            sb.append('"');
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * 编码完整 SSE 帧；data 必须是单行文本（JSON 或纯文本）
+     *
+     * @param id 事件 id，小于等于 0 时不输出 id 行
+     */
+    public static String frame(long id, String event, String data) {
+        StringBuilder sb = borrow();
+        if (id > 0) {
+            sb.append("id:").append(id).append('\n');
+        }
+        return sb.append("event:").append(event).append('\n')
+                .append("data:").append(data).append("\n\n")
+                .toString();
+    }
+
+    /** 把预编码帧包装为 SseEmitter.send(Set) 可直接发送的数据（由 StringHttpMessageConverter 原样写出） */
+    public static Set<ResponseBodyEmitter.DataWithMediaType> encoded(String frame) {
+        return Set.of(new ResponseBodyEmitter.DataWithMediaType(frame, TEXT_PLAIN_UTF8));
+    }
+
+    private static StringBuilder borrow() {
+        StringBuilder sb = BUFFER.get();
+        if (sb.capacity() > MAX_RETAINED) {
+            // 偶发超大片段后不长期持有大缓冲
+            sb = new StringBuilder(1024);
+            BUFFER.set(sb);
+        }
+        sb.setLength(0);
+        return sb;
+    }
+
+    private static void escape(StringBuilder sb, CharSequence s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                case '\b' -> sb.append("\\b");
+                case '\f' -> sb.append("\\f");
+                default -> {
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.xin.aiagent.sse;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 单个流式请求的取消令牌。
+ * - 模型流通过 {@link #signal()} 感知取消并停止订阅上游（中断 HTTP 请求，不再计费）；
+ * - 工具调用通过 ToolContext 拿到令牌，执行前检查、执行中登记线程以便中断。
+ */
+public class StreamCancellation {
+
+    /** 放入 ToolContext 的键 */
+    public static final String TOOL_CONTEXT_KEY = "stream_cancellation";
+
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private final Sinks.Empty<Void> sink = Sinks.empty();
+    private final Set<Thread> workers = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 触发取消；重复调用无副作用
+     *
+     * @return true 表示本次调用真正触发了取消
+     */
+    public boolean cancel() {
+        if (!cancelled.compareAndSet(false, true)) {
+            return false;
+        }
+        sink.tryEmitEmpty();
+        for (Thread t : workers) {
+            t.interrupt();
+        }
+        return true;
+    }
+
+    public boolean isCancelled() { return cancelled.get(); }
+
+    /** 取消时完成的信号，配合 takeUntilOther 使用 */
+    public Mono<Void> signal() { return sink.asMono(); }
+
+    /** 登记当前线程正在为该请求执行阻塞操作 */
+    public void enter() {
+        workers.add(Thread.currentThread());
+    }
+
+    public void exit() {
+        workers.remove(Thread.currentThread());
+        // 清理可能残留的中断标记，避免影响线程池中的后续任务
+        if (cancelled.get()) {
+            Thread.interrupted();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.xin.aiagent.tools;
+
+import com.xin.aiagent.sse.StreamCancellation;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.metadata.ToolMetadata;
+
+import java.util.Arrays;
+
+/**
+ * 可取消的工具回调包装：客户端断开后不再启动新的工具调用，正在执行的调用会收到线程中断。
+ * 取消令牌通过 ToolContext 的 {@link StreamCancellation#TOOL_CONTEXT_KEY} 传入；无令牌时行为与原工具一致。
+ */
+public class CancellableToolCallback implements ToolCallback {
+
+    private final ToolCallback delegate;
+
+    public CancellableToolCallback(ToolCallback delegate) {
+        this.delegate = delegate;
+    }
+
+    public static ToolCallback[] wrapAll(ToolCallback[] callbacks) {
+        return Arrays.stream(callbacks).map(CancellableToolCallback::new).toArray(ToolCallback[]::new);
+    }
+
+    @Override
+    public ToolDefinition getToolDefinition() {
+        return delegate.getToolDefinition();
+    }
+
+    @Override
+    public ToolMetadata getToolMetadata() {
+        return delegate.getToolMetadata();
+    }
+
+    @Override
+    public String call(String toolInput) {
+        return delegate.call(toolInput);
+    }
+
+    @Override
+    public String call(String toolInput, ToolContext toolContext) {
+        StreamCancellation cancellation = toolContext != null
+                && toolContext.getContext().get(StreamCancellation.TOOL_CONTEXT_KEY) instanceof StreamCancellation c
+                ? c : null;
+        if (cancellation == null) {
+            return delegate.call(toolInput, toolContext);
+        }
+        if (cancellation.isCancelled()) {
+            return "Tool call skipped: client disconnected";
+        }
+        cancellation.enter();
+        try {
+            return delegate.call(toolInput, toolContext);
+        } finally {
+            cancellation.exit();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.xin.aiagent.upstream;
+
+import com.xin.aiagent.common.BusinessException;
+import com.xin.aiagent.common.ResultCode;
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 一次对话请求的截止时间，在控制器/服务层创建，经 App 传到模型调用。
+ * 同步链路通过线程变量（{@link #callWithin}）传递，流式链路通过 Reactor Context（{@link #writeTo}）传递，
+ * 排队（限流器）与模型调用都只使用剩余预算。
+ */
+public final class Deadline {
+
+    /** Reactor Context 中的键 */
+    public static final String CONTEXT_KEY = Deadline.class.getName();
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long expiresAtNanos;
+
+    private Deadline(long expiresAtNanos) {
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    /**
+     * 从现在起 millis 毫秒后截止
+     *
+     * @return 截止时间，millis <= 0 表示不限制，返回 null
+     */
+    public static Deadline after(long millis) {
+        return millis <= 0 ? null : new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    public long remainingNanos() {
+        return expiresAtNanos - System.nanoTime();
+    }
+
+    public long remainingMillis() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(remainingNanos()));
+    }
+
+    public boolean isExpired() {
+        return remainingNanos() <= 0;
+    }
+
+    /**
+     * 当前线程上的截止时间，没有时为 null
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 在 deadline 生效的前提下执行同步调用，结束后恢复原值
+     */
+    public static <T> T callWithin(Deadline deadline, Supplier<T> call) {
+        Deadline previous = CURRENT.get();
+        CURRENT.set(deadline);
+        try {
+            return call.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * 流式链路：把截止时间写入 Reactor Context（contextWrite 的参数）
+     */
+    public static Function<Context, Context> writeTo(Deadline deadline) {
+        return context -> deadline == null ? context : context.put(CONTEXT_KEY, deadline);
+    }
+
+    /**
+     * 流式链路：从 Reactor Context 读取截止时间，没有时为 null
+     */
+    public static Deadline from(ContextView context) {
+        return context.getOrDefault(CONTEXT_KEY, null);
+    }
+
+    /**
+     * 截止时间已到
+     */
+    public static BusinessException exceeded() {
+        return new BusinessException(ResultCode.UPSTREAM_TIMEOUT);
+    }
+}
@@ -0,0 +1,242 @@
+package com.xin.aiagent.upstream;
+
+import com.xin.aiagent.config.UpstreamCallProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 在模型调用上执行截止时间与对冲请求的 ChatModel 包装（由 App 构造，不注册为 Bean）。
+ * - 截止时间：同步调用取线程上的 {@link Deadline}，约束整次调用；流式调用取 Reactor Context 中的 {@link Deadline}，
+ *   只约束首包（慢尾调用卡在首包之前），首包之后改为约束相邻分片的间隔（stream-idle-ms），正在正常输出的长回答不会被截断；
+ *   超时后取消调用并抛出 UPSTREAM_TIMEOUT；
+ * - 对冲：主请求在最近延迟的 percentile 分位（流式按首包时间）内未返回时，再发送一份相同请求，
+ *   取先成功者，另一份被取消（同步调用中断虚拟线程上的阻塞 IO，流式调用取消订阅）；
+ * - 带工具回调的请求（工具调用有副作用）与超出 max-ratio 配额时不对冲。
+ * 对冲的每一份请求都经过下层的自适应限流器，各占一个名额。
+ */
+@Slf4j
+public class HedgingChatModel implements ChatModel {
+
+    private final ChatModel delegate;
+    private final UpstreamCallProperties.Hedge hedge;
+    private final Duration streamIdle;
+    private final LatencyWindow callLatency;
+    private final LatencyWindow firstChunkLatency;
+    private final ExecutorService executor;
+    private final AtomicLong eligible = new AtomicLong();
+    private final AtomicLong hedged = new AtomicLong();
+    private final MeterRegistry meterRegistry;
+    private final Counter deadlineExceeded;
+
+    public HedgingChatModel(ChatModel delegate, UpstreamCallProperties.Hedge hedge, UpstreamCallProperties.Budget budget,
+                            MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.hedge = hedge;
+        this.streamIdle = budget.getStreamIdleMs() > 0 ? Duration.ofMillis(budget.getStreamIdleMs()) : null;
+        this.meterRegistry = meterRegistry;
+        this.callLatency = new LatencyWindow(hedge.getWindowSize());
+        this.firstChunkLatency = new LatencyWindow(hedge.getWindowSize());
+        // 虚拟线程上的阻塞 socket 读写可被中断，取消落败的请求时能及时释放连接
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("model-call-", 0).factory());
+        this.deadlineExceeded = meterRegistry.counter("upstream.deadline.exceeded");
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        Deadline deadline = Deadline.current();
+        boolean hedgeable = hedgeable(prompt);
+        if (deadline == null && !hedgeable) {
+            return timedCall(prompt);
+        }
+        if (deadline != null && deadline.isExpired()) {
+            throw exceeded("call");
+        }
+        Race race = new Race();
+        try {
+            race.start(prompt, deadline);
+            long delay = hedgeable ? hedgeDelayMs(callLatency) : -1;
+            if (delay >= 0 && (deadline == null || delay < deadline.remainingMillis())) {
+                try {
+                    return race.winner.get(delay, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    if (allowHedge()) {
+                        meterRegistry.counter("upstream.hedge.requests", "mode", "call").increment();
+                        race.start(prompt, deadline);
+                    }
+                }
+            }
+            return deadline == null
+                    ? race.winner.get()
+                    : race.winner.get(Math.max(1, deadline.remainingMillis()), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw exceeded("call");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw exceeded("call");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            race.cancelAll();
+        }
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return Flux.deferContextual(context -> {
+            Deadline deadline = Deadline.from(context);
+            if (deadline != null && deadline.isExpired()) {
+                return Flux.error(exceeded("stream"));
+            }
+            Flux<ChatResponse> flux = attempt(prompt, null);
+            if (hedgeable(prompt)) {
+                long delay = hedgeDelayMs(firstChunkLatency);
+                if (deadline == null || delay < deadline.remainingMillis()) {
+                    Flux<ChatResponse> backup = Mono.delay(Duration.ofMillis(delay))
+                            .filter(tick -> allowHedge())
+                            .flatMapMany(tick -> {
+                                meterRegistry.counter("upstream.hedge.requests", "mode", "stream").increment();
+                                return attempt(prompt, meterRegistry.counter("upstream.hedge.wins", "mode", "stream"));
+                            });
+                    // 先产出首个分片的一方胜出，另一方被取消
+                    flux = Flux.firstWithValue(flux, backup);
+                }
+            }
+            if (deadline != null || streamIdle != null) {
+                // 截止时间只约束首包；之后每个分片重新计时，间隔超过 stream-idle-ms 视为卡住
+                Mono<Long> firstChunk = deadline != null
+                        ? Mono.delay(Duration.ofNanos(Math.max(0, deadline.remainingNanos())))
+                        : Mono.never();
+                flux = flux.timeout(firstChunk, chunk -> streamIdle != null ? Mono.delay(streamIdle) : Mono.never())
+                        .onErrorMap(TimeoutException.class, e -> exceeded("stream"));
+            }
+            return flux;
+        });
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return delegate.getDefaultOptions();
+    }
+
+    /**
+     * 流式尝试：记录首包时间；wins 不为空时表示对冲请求，产出首包即胜出
+     */
+    private Flux<ChatResponse> attempt(Prompt prompt, Counter wins) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicBoolean first = new AtomicBoolean(true);
+            return delegate.stream(prompt).doOnNext(chunk -> {
+                if (first.compareAndSet(true, false)) {
+                    firstChunkLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    if (wins != null) {
+                        wins.increment();
+                    }
+                }
+            });
+        });
+    }
+
+    private ChatResponse timedCall(Prompt prompt) {
+        long start = System.nanoTime();
+        ChatResponse response = delegate.call(prompt);
+        callLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return response;
+    }
+
+    private boolean hedgeable(Prompt prompt) {
+        return hedge.isEnabled() && !usesTools(prompt.getOptions());
+    }
+
+    /**
+     * 请求是否带工具：带工具的调用在一次调用内执行工具，不对冲，也不参与延迟判断
+     */
+    public static boolean usesTools(ChatOptions options) {
+        return options instanceof ToolCallingChatOptions toolOptions
+                && (!toolOptions.getToolCallbacks().isEmpty() || !toolOptions.getToolNames().isEmpty());
+    }
+
+    /**
+     * 对冲延迟：样本足够时取分位数（不低于 min-delay-ms），否则取 initial-delay-ms
+     */
+    private long hedgeDelayMs(LatencyWindow window) {
+        eligible.incrementAndGet();
+        if (window.count() < hedge.getMinSamples()) {
+            return hedge.getInitialDelayMs();
+        }
+        return Math.max(hedge.getMinDelayMs(), window.percentile(hedge.getPercentile()));
+    }
+
+    private boolean allowHedge() {
+        if (hedged.get() + 1 > hedge.getMaxRatio() * eligible.get()) {
+            return false;
+        }
+        hedged.incrementAndGet();
+        return true;
+    }
+
+    private RuntimeException exceeded(String mode) {
+        deadlineExceeded.increment();
+        log.debug("模型调用超过截止时间：mode={}", mode);
+        return Deadline.exceeded();
+    }
+
+    /**
+     * 一次同步调用的若干份尝试：任一份成功即完成；全部失败时以最后一个错误完成
+     */
+    private final class Race {
+        final CompletableFuture<ChatResponse> winner = new CompletableFuture<>();
+        final List<Future<?>> attempts = new ArrayList<>(2);
+        final AtomicInteger pending = new AtomicInteger();
+
+        synchronized void start(Prompt prompt, Deadline deadline) {
+            boolean backup = !attempts.isEmpty();
+            pending.incrementAndGet();
+            attempts.add(executor.submit(() -> {
+                try {
+                    ChatResponse response = Deadline.callWithin(deadline, () -> timedCall(prompt));
+                    if (winner.complete(response) && backup) {
+                        meterRegistry.counter("upstream.hedge.wins", "mode", "call").increment();
+                    }
+                } catch (Throwable e) {
+                    if (pending.decrementAndGet() == 0) {
+                        winner.completeExceptionally(e);
+                    }
+                }
+            }));
+        }
+
+        synchronized void cancelAll() {
+            for (Future<?> attempt : attempts) {
+                attempt.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.xin.aiagent.upstream;
+
+import java.util.Arrays;
+
+/**
+ * 最近 N 个延迟样本的环形缓冲，用于估算对冲延迟与并发限制的延迟基线（分位数）。所有方法在 this 上同步
+ */
+public class LatencyWindow {
+
+    private final long[] samples;
+    private int next;
+    private int count;
+
+    public LatencyWindow(int size) {
+        this.samples = new long[Math.max(1, size)];
+    }
+
+    public synchronized void record(long value) {
+        samples[next] = value;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    public synchronized int count() {
+        return count;
+    }
+
+    /**
+     * @param quantile 0 ~ 1
+     * @return 分位数，没有样本时为 -1
+     */
+    public synchronized long percentile(double quantile) {
+        if (count == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(quantile * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+}
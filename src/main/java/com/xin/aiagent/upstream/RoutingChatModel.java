@@ -0,0 +1,267 @@
+package com.xin.aiagent.upstream;
+
+import com.xin.aiagent.config.ChatRouterProperties;
+import com.xin.aiagent.limit.AdaptiveLimiter;
+import com.xin.aiagent.limit.UpstreamErrors;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 多模型路由 ChatModel：每个请求按模式与提示词长度选择档位，再在档位内按端点的实时状态选择端点。
+ * - 档位：工具调用请求走 tools-tier（默认强档）；其余请求提示词总字符数不超过 cheap-max-prompt-chars 时走便宜档，否则强档；
+ * - 端点状态：延迟 EWMA（同步调用为总耗时，流式为首包时间）与错误率 EWMA（只统计 429/5xx/超时），
+ *   错误率超过阈值的端点冷却 cooldown-ms，冷却结束后以半数阈值重新参与（半开）；
+ * - 排序：可用端点优先，其次首选档位，最后延迟低者优先；首选档位全部冷却时自动切到另一档；
+ * - 故障转移：非工具请求遇到过载类错误（流式为首包之前）时改用下一个端点，最多 max-attempts 个；
+ *   工具调用可能已经产生副作用，不重试。
+ * 请求选项中的模型名按所选端点改写（端点共享同一个底层 ChatModel 时只靠模型名区分）。
+ */
+@Slf4j
+public class RoutingChatModel implements ChatModel {
+
+    /** 模型档位 */
+    public enum Tier {
+        CHEAP, STRONG
+    }
+
+    /**
+     * 一个模型端点及其实时状态；状态方法在端点上同步
+     */
+    public static final class Endpoint {
+        private final String name;
+        private final Tier tier;
+        private final String model;
+        private final ChatModel chatModel;
+        private double callLatencyMs = Double.NaN;
+        private double firstChunkLatencyMs = Double.NaN;
+        private double errorRate;
+        private long cooldownUntil;
+
+        public Endpoint(String name, Tier tier, String model, ChatModel chatModel) {
+            this.name = name;
+            this.tier = tier;
+            this.model = model;
+            this.chatModel = chatModel;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Tier getTier() {
+            return tier;
+        }
+
+        synchronized double latencyMs(boolean stream) {
+            double latency = stream ? firstChunkLatencyMs : callLatencyMs;
+            // 没有样本的端点视为最快，保证新端点能拿到流量
+            return Double.isNaN(latency) ? 0 : latency;
+        }
+
+        synchronized double errorRate() {
+            return errorRate;
+        }
+
+        synchronized boolean available(long now) {
+            return now >= cooldownUntil;
+        }
+
+        synchronized void recordLatency(boolean stream, long millis, double alpha) {
+            if (stream) {
+                firstChunkLatencyMs = Double.isNaN(firstChunkLatencyMs)
+                        ? millis : firstChunkLatencyMs + alpha * (millis - firstChunkLatencyMs);
+            } else {
+                callLatencyMs = Double.isNaN(callLatencyMs) ? millis : callLatencyMs + alpha * (millis - callLatencyMs);
+            }
+        }
+
+        /**
+         * @return 本次是否触发冷却
+         */
+        synchronized boolean recordOutcome(boolean failed, ChatRouterProperties properties) {
+            errorRate += properties.getEwmaAlpha() * ((failed ? 1 : 0) - errorRate);
+            if (failed && errorRate > properties.getErrorThreshold()) {
+                cooldownUntil = System.currentTimeMillis() + properties.getCooldownMs();
+                errorRate = properties.getErrorThreshold() / 2;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private final List<Endpoint> endpoints;
+    private final ChatRouterProperties properties;
+    private final MeterRegistry meterRegistry;
+
+    public RoutingChatModel(List<Endpoint> endpoints, ChatRouterProperties properties, MeterRegistry meterRegistry) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("app.chat.router.endpoints is empty");
+        }
+        this.endpoints = List.copyOf(endpoints);
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        for (Endpoint endpoint : this.endpoints) {
+            Gauge.builder("chat.router.latency", endpoint, e -> e.latencyMs(false))
+                    .tag("endpoint", endpoint.name).tag("kind", "call").register(meterRegistry);
+            Gauge.builder("chat.router.latency", endpoint, e -> e.latencyMs(true))
+                    .tag("endpoint", endpoint.name).tag("kind", "first_chunk").register(meterRegistry);
+            Gauge.builder("chat.router.error.rate", endpoint, Endpoint::errorRate)
+                    .tag("endpoint", endpoint.name).register(meterRegistry);
+        }
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        boolean tools = HedgingChatModel.usesTools(prompt.getOptions());
+        List<Endpoint> candidates = rank(prompt, false);
+        int attempts = tools ? 1 : Math.max(1, Math.min(properties.getMaxAttempts(), candidates.size()));
+        RuntimeException last = null;
+        for (int i = 0; i < attempts; i++) {
+            Endpoint endpoint = candidates.get(i);
+            selected(endpoint, i);
+            long start = System.nanoTime();
+            try {
+                ChatResponse response = endpoint.chatModel.call(withModel(prompt, endpoint));
+                endpoint.recordLatency(false, elapsedMs(start), properties.getEwmaAlpha());
+                outcome(endpoint, false);
+                return response;
+            } catch (RuntimeException e) {
+                boolean overload = UpstreamErrors.classify(e) == AdaptiveLimiter.Outcome.DROPPED;
+                if (overload) {
+                    outcome(endpoint, true);
+                }
+                if (!overload || i + 1 >= attempts) {
+                    throw e;
+                }
+                last = e;
+                log.warn("模型端点调用失败，切换端点：endpoint={}, reason={}", endpoint.name, e.getMessage());
+            }
+        }
+        throw last;
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return Flux.defer(() -> {
+            boolean tools = HedgingChatModel.usesTools(prompt.getOptions());
+            List<Endpoint> candidates = rank(prompt, true);
+            int attempts = tools ? 1 : Math.max(1, Math.min(properties.getMaxAttempts(), candidates.size()));
+            return streamFrom(prompt, candidates, 0, attempts);
+        });
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return endpoints.get(0).chatModel.getDefaultOptions();
+    }
+
+    /**
+     * 在第 index 个候选端点上流式调用；首包之前的过载错误转到下一个候选
+     */
+    private Flux<ChatResponse> streamFrom(Prompt prompt, List<Endpoint> candidates, int index, int attempts) {
+        Endpoint endpoint = candidates.get(index);
+        selected(endpoint, index);
+        long start = System.nanoTime();
+        AtomicBoolean started = new AtomicBoolean();
+        Flux<ChatResponse> flux = endpoint.chatModel.stream(withModel(prompt, endpoint))
+                .doOnNext(chunk -> {
+                    if (started.compareAndSet(false, true)) {
+                        endpoint.recordLatency(true, elapsedMs(start), properties.getEwmaAlpha());
+                    }
+                })
+                .doOnComplete(() -> outcome(endpoint, false))
+                .doOnCancel(() -> {
+                    // 首包前被取消（截止时间、对冲落败）：把已等待的时间作为延迟下限计入
+                    if (!started.get()) {
+                        endpoint.recordLatency(true, elapsedMs(start), properties.getEwmaAlpha());
+                    }
+                });
+        return flux.onErrorResume(e -> {
+            boolean overload = UpstreamErrors.classify(e) == AdaptiveLimiter.Outcome.DROPPED;
+            if (overload) {
+                outcome(endpoint, true);
+            }
+            if (!overload || started.get() || index + 1 >= attempts) {
+                return Flux.error(e);
+            }
+            log.warn("模型端点流式调用失败，切换端点：endpoint={}, reason={}", endpoint.name, e.getMessage());
+            return streamFrom(prompt, candidates, index + 1, attempts);
+        });
+    }
+
+    /**
+     * 候选端点排序：可用优先，其次首选档位，最后延迟 EWMA 低者优先
+     */
+    List<Endpoint> rank(Prompt prompt, boolean stream) {
+        Tier preferred = preferredTier(prompt);
+        long now = System.currentTimeMillis();
+        List<Endpoint> ranked = new ArrayList<>(endpoints);
+        ranked.sort(Comparator.<Endpoint>comparingInt(e -> e.available(now) ? 0 : 1)
+                .thenComparingInt(e -> e.tier == preferred ? 0 : 1)
+                .thenComparingDouble(e -> e.latencyMs(stream)));
+        return ranked;
+    }
+
+    Tier preferredTier(Prompt prompt) {
+        if (HedgingChatModel.usesTools(prompt.getOptions())) {
+            return properties.getToolsTier();
+        }
+        long chars = 0;
+        for (Message message : prompt.getInstructions()) {
+            chars += message.getText() == null ? 0 : message.getText().length();
+        }
+        return chars <= properties.getCheapMaxPromptChars() ? Tier.CHEAP : Tier.STRONG;
+    }
+
+    private void selected(Endpoint endpoint, int attempt) {
+        meterRegistry.counter("chat.router.requests", "endpoint", endpoint.name,
+                "tier", endpoint.tier.name().toLowerCase()).increment();
+        if (attempt > 0) {
+            meterRegistry.counter("chat.router.failovers", "endpoint", endpoint.name).increment();
+        }
+    }
+
+    private void outcome(Endpoint endpoint, boolean failed) {
+        if (endpoint.recordOutcome(failed, properties)) {
+            meterRegistry.counter("chat.router.cooldowns", "endpoint", endpoint.name).increment();
+            log.warn("模型端点错误率过高，冷却 {}ms：endpoint={}", properties.getCooldownMs(), endpoint.name);
+        }
+    }
+
+    /**
+     * 把请求选项中的模型名改写为端点的模型（复制选项，不修改原请求）
+     */
+    private static Prompt withModel(Prompt prompt, Endpoint endpoint) {
+        if (endpoint.model == null || endpoint.model.isBlank()) {
+            return prompt;
+        }
+        ChatOptions options = prompt.getOptions();
+        if (options == null) {
+            return new Prompt(prompt.getInstructions(), OpenAiChatOptions.builder().model(endpoint.model).build());
+        }
+        if (options instanceof OpenAiChatOptions openAiOptions && !endpoint.model.equals(openAiOptions.getModel())) {
+            OpenAiChatOptions copy = openAiOptions.copy();
+            copy.setModel(endpoint.model);
+            return new Prompt(prompt.getInstructions(), copy);
+        }
+        return prompt;
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+}
@@ -0,0 +1,353 @@
+package com.xin.aiagent.vector;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntPredicate;
+
+/**
+ * HNSW（分层可导航小世界图）近似最近邻索引，按余弦相似度组织节点，节点 ID 即向量库行号。
+ * - 参数：m 为每层邻居数（第 0 层 2m），ef-construction 为建图时的候选数，ef-search 为查询时的候选数，越大召回越高、越慢；
+ * - 并发：插入可多线程并发、与查询并发；邻居表按节点写时复制，查询读到的总是完整的旧表或新表；
+ * - 删除：只打墓碑，节点继续参与导航但不进入结果，由上层压缩时重建；
+ * - 过滤：查询时不满足条件的节点照常导航、不进入结果，上层在结果不足时回退到全量扫描。
+ * 向量本身不在索引中，通过 {@link Vectors} 按节点 ID 计算相似度。
+ */
+public class HnswIndex {
+
+    /**
+     * 节点向量的访问方式
+     */
+    public interface Vectors {
+
+        /**
+         * @param query 单位向量
+         * @return query 与节点 node 的余弦相似度
+         */
+        double similarity(float[] query, int node);
+
+        /**
+         * @return 节点 node 的单位向量
+         */
+        float[] vector(int node);
+    }
+
+    /**
+     * 检索结果
+     */
+    public record Result(int node, double score) {
+    }
+
+    private static final class Node {
+        final int level;
+        final AtomicReferenceArray<int[]> neighbors;
+
+        Node(int level) {
+            this.level = level;
+            this.neighbors = new AtomicReferenceArray<>(level + 1);
+            for (int i = 0; i <= level; i++) {
+                neighbors.set(i, new int[0]);
+            }
+        }
+    }
+
+    private record EntryPoint(int node, int level) {
+    }
+
+    private record Candidate(int node, double score) {
+    }
+
+    private static final Comparator<Candidate> BEST_FIRST = Comparator.comparingDouble(Candidate::score).reversed();
+    private static final Comparator<Candidate> WORST_FIRST = Comparator.comparingDouble(Candidate::score);
+
+    private final Vectors vectors;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final ReentrantLock growLock = new ReentrantLock();
+    private volatile Node[] nodes = new Node[1024];
+    private volatile EntryPoint entryPoint;
+    /** 墓碑集合，写时复制（删除远少于查询） */
+    private volatile BitSet deleted = new BitSet();
+    private volatile int size;
+
+    public HnswIndex(Vectors vectors, int m, int efConstruction) {
+        if (m < 2) {
+            throw new IllegalArgumentException("m must be >= 2");
+        }
+        this.vectors = vectors;
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.levelMultiplier = 1 / Math.log(m);
+    }
+
+    /**
+     * @return 已插入的节点数（含墓碑）
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 插入节点；同一节点只能插入一次，可与其他插入和查询并发
+     */
+    public void add(int node) {
+        float[] vector = vectors.vector(node);
+        int level = (int) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * levelMultiplier);
+        Node created = new Node(level);
+        store(node, created);
+
+        EntryPoint entry = entryPoint;
+        if (entry == null) {
+            synchronized (this) {
+                if (entryPoint == null) {
+                    entryPoint = new EntryPoint(node, level);
+                    size++;
+                    return;
+                }
+                entry = entryPoint;
+            }
+        }
+
+        int current = entry.node();
+        double currentScore = vectors.similarity(vector, current);
+        // 高于新节点层级的部分只做贪心下降
+        for (int layer = entry.level(); layer > level; layer--) {
+            Candidate best = greedy(vector, current, currentScore, layer);
+            current = best.node();
+            currentScore = best.score();
+        }
+        List<Candidate> entryPoints = List.of(new Candidate(current, currentScore));
+        for (int layer = Math.min(level, entry.level()); layer >= 0; layer--) {
+            PriorityQueue<Candidate> found = searchLayer(vector, entryPoints, efConstruction, layer, null);
+            List<Candidate> selected = selectNeighbors(found, m);
+            int[] links = new int[selected.size()];
+            for (int i = 0; i < links.length; i++) {
+                links[i] = selected.get(i).node();
+            }
+            created.neighbors.set(layer, links);
+            for (Candidate neighbor : selected) {
+                link(neighbor.node(), node, neighbor.score(), layer);
+            }
+            entryPoints = new ArrayList<>(found);
+        }
+
+        synchronized (this) {
+            size++;
+            if (level > entryPoint.level()) {
+                entryPoint = new EntryPoint(node, level);
+            }
+        }
+    }
+
+    /**
+     * 打墓碑：节点不再出现在结果中
+     */
+    public synchronized void markDeleted(int node) {
+        BitSet copy = (BitSet) deleted.clone();
+        copy.set(node);
+        deleted = copy;
+    }
+
+    /**
+     * 近似 topK 查询
+     *
+     * @param efSearch 第 0 层的候选数，实际取 max(efSearch, topK)
+     * @param accept 结果过滤条件，可为 null；不满足的节点仍参与导航
+     * @return 相似度降序的结果
+     */
+    public List<Result> search(float[] query, int topK, int efSearch, IntPredicate accept) {
+        EntryPoint entry = entryPoint;
+        if (entry == null || topK <= 0) {
+            return List.of();
+        }
+        int current = entry.node();
+        double currentScore = vectors.similarity(query, current);
+        for (int layer = entry.level(); layer > 0; layer--) {
+            Candidate best = greedy(query, current, currentScore, layer);
+            current = best.node();
+            currentScore = best.score();
+        }
+        IntPredicate live = node -> !isDeleted(node) && (accept == null || accept.test(node));
+        PriorityQueue<Candidate> found = searchLayer(query, List.of(new Candidate(current, currentScore)),
+                Math.max(efSearch, topK), 0, live);
+        List<Candidate> ranked = new ArrayList<>(found);
+        ranked.sort(BEST_FIRST);
+        List<Result> results = new ArrayList<>(Math.min(topK, ranked.size()));
+        for (int i = 0; i < ranked.size() && results.size() < topK; i++) {
+            results.add(new Result(ranked.get(i).node(), ranked.get(i).score()));
+        }
+        return results;
+    }
+
+    // ============== 图操作 ==============
+
+    private Candidate greedy(float[] query, int start, double startScore, int layer) {
+        int current = start;
+        double currentScore = startScore;
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int neighbor : neighbors(current, layer)) {
+                double score = vectors.similarity(query, neighbor);
+                if (score > currentScore) {
+                    current = neighbor;
+                    currentScore = score;
+                    improved = true;
+                }
+            }
+        }
+        return new Candidate(current, currentScore);
+    }
+
+    /**
+     * 单层束搜索；accept 非空时只有满足条件的节点进入结果，但所有节点都参与扩展
+     *
+     * @return 结果小顶堆（最多 ef 个）
+     */
+    private PriorityQueue<Candidate> searchLayer(float[] query, List<Candidate> entryPoints, int ef, int layer,
+                                                 IntPredicate accept) {
+        BitSet visited = new BitSet(size + 1024);
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(BEST_FIRST);
+        PriorityQueue<Candidate> results = new PriorityQueue<>(WORST_FIRST);
+        for (Candidate entry : entryPoints) {
+            visited.set(entry.node());
+            candidates.add(entry);
+            if (accept == null || accept.test(entry.node())) {
+                results.add(entry);
+            }
+        }
+        while (results.size() > ef) {
+            results.poll();
+        }
+        while (!candidates.isEmpty()) {
+            Candidate closest = candidates.poll();
+            if (results.size() >= ef && closest.score() < results.peek().score()) {
+                break;
+            }
+            for (int neighbor : neighbors(closest.node(), layer)) {
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                double score = vectors.similarity(query, neighbor);
+                if (results.size() < ef || score > results.peek().score()) {
+                    candidates.add(new Candidate(neighbor, score));
+                    if (accept == null || accept.test(neighbor)) {
+                        results.add(new Candidate(neighbor, score));
+                        if (results.size() > ef) {
+                            results.poll();
+                        }
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 启发式选邻居：候选与已选邻居都不比与基点更近时才入选，保持图的连通与方向多样性；不足 max 时用剩余最近者补齐
+     */
+    private List<Candidate> selectNeighbors(PriorityQueue<Candidate> found, int max) {
+        List<Candidate> sorted = new ArrayList<>(found);
+        sorted.sort(BEST_FIRST);
+        if (sorted.size() <= max) {
+            return sorted;
+        }
+        List<Candidate> selected = new ArrayList<>(max);
+        List<float[]> selectedVectors = new ArrayList<>(max);
+        List<Candidate> skipped = new ArrayList<>();
+        for (Candidate candidate : sorted) {
+            if (selected.size() >= max) {
+                break;
+            }
+            boolean diverse = true;
+            for (float[] chosen : selectedVectors) {
+                if (vectors.similarity(chosen, candidate.node()) > candidate.score()) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected.add(candidate);
+                selectedVectors.add(vectors.vector(candidate.node()));
+            } else {
+                skipped.add(candidate);
+            }
+        }
+        for (int i = 0; i < skipped.size() && selected.size() < max; i++) {
+            selected.add(skipped.get(i));
+        }
+        return selected;
+    }
+
+    /**
+     * 给 node 的第 layer 层加反向边；超出上限时只保留最近的邻居（写时复制，在节点上同步）
+     */
+    private void link(int node, int newNeighbor, double score, int layer) {
+        Node target = node(node);
+        if (target == null || layer > target.level) {
+            return;
+        }
+        int max = layer == 0 ? maxM0 : m;
+        synchronized (target) {
+            int[] current = target.neighbors.get(layer);
+            int[] grown = new int[current.length + 1];
+            System.arraycopy(current, 0, grown, 0, current.length);
+            grown[current.length] = newNeighbor;
+            if (grown.length <= max) {
+                target.neighbors.set(layer, grown);
+                return;
+            }
+            float[] base = vectors.vector(node);
+            List<Candidate> scored = new ArrayList<>(grown.length);
+            for (int neighbor : grown) {
+                scored.add(new Candidate(neighbor, neighbor == newNeighbor ? score : vectors.similarity(base, neighbor)));
+            }
+            scored.sort(BEST_FIRST);
+            int[] pruned = new int[max];
+            for (int i = 0; i < max; i++) {
+                pruned[i] = scored.get(i).node();
+            }
+            target.neighbors.set(layer, pruned);
+        }
+    }
+
+    private int[] neighbors(int node, int layer) {
+        Node n = node(node);
+        return n == null || layer > n.level ? new int[0] : n.neighbors.get(layer);
+    }
+
+    private Node node(int id) {
+        Node[] snapshot = nodes;
+        return id < snapshot.length ? snapshot[id] : null;
+    }
+
+    private void store(int id, Node node) {
+        growLock.lock();
+        try {
+            Node[] current = nodes;
+            if (id >= current.length) {
+                Node[] grown = new Node[Math.max(current.length * 2, id + 1)];
+                System.arraycopy(current, 0, grown, 0, current.length);
+                current = grown;
+            }
+            current[id] = node;
+            // 重新发布数组引用，使其他线程看到新节点
+            nodes = current;
+        } finally {
+            growLock.unlock();
+        }
+    }
+
+    private boolean isDeleted(int node) {
+        return deleted.get(node);
+    }
+}
@@ -0,0 +1,80 @@
+package com.xin.aiagent.vector;
+
+import java.util.Arrays;
+
+/**
+ * int8 标量量化的向量副本，供检索粗排使用，精排仍读 float32 原向量。
+ * 每行按单位向量对称量化：scale = max|x| / 127，code = round(x / scale)；每维 1 字节加每行一个 float，
+ * 约为 float32 的 1/4。相似度按非对称方式计算（查询保持 float，只有存储侧量化），避免查询侧再引入误差。
+ * 单线程写入；扩容时编码与缩放因子整体替换，读取方（不持锁的图插入）总是看到同一份完整的数组。
+ */
+final class Int8Vectors {
+
+    private record Storage(byte[] codes, float[] scales) {
+    }
+
+    private final int dimensions;
+    private volatile Storage storage;
+
+    Int8Vectors(int dimensions, int capacity) {
+        this.dimensions = dimensions;
+        this.storage = new Storage(new byte[Math.max(1, capacity) * dimensions], new float[Math.max(1, capacity)]);
+    }
+
+    /**
+     * @param unit 第 row 行的单位向量，零向量传 null
+     */
+    void set(int row, float[] unit) {
+        Storage current = storage;
+        if (row >= current.scales().length) {
+            int capacity = Math.max(current.scales().length * 2, row + 1);
+            current = new Storage(Arrays.copyOf(current.codes(), capacity * dimensions),
+                    Arrays.copyOf(current.scales(), capacity));
+            storage = current;
+        }
+        byte[] codes = current.codes();
+        float[] scales = current.scales();
+        int base = row * dimensions;
+        if (unit == null) {
+            scales[row] = 0;
+            Arrays.fill(codes, base, base + dimensions, (byte) 0);
+            return;
+        }
+        float max = 0;
+        for (float x : unit) {
+            max = Math.max(max, Math.abs(x));
+        }
+        float scale = max == 0 ? 0 : max / 127;
+        scales[row] = scale;
+        for (int i = 0; i < dimensions; i++) {
+            codes[base + i] = scale == 0 ? 0 : (byte) Math.round(unit[i] / scale);
+        }
+    }
+
+    /**
+     * @param query 单位向量
+     * @return 与第 row 行余弦相似度的近似值
+     */
+    double similarity(float[] query, int row) {
+        Storage current = storage;
+        byte[] codes = current.codes();
+        float scale = current.scales()[row];
+        if (scale == 0) {
+            return 0;
+        }
+        int base = row * dimensions;
+        float sum = 0;
+        for (int i = 0; i < dimensions; i++) {
+            sum += query[i] * codes[base + i];
+        }
+        return sum * scale;
+    }
+
+    /**
+     * @return 占用的堆内存字节数
+     */
+    long bytes() {
+        Storage current = storage;
+        return current.codes().length + (long) current.scales().length * Float.BYTES;
+    }
+}
@@ -0,0 +1,1160 @@
+package com.xin.aiagent.vector;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentMetadata;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptionsBuilder;
+import org.springframework.ai.observation.conventions.VectorStoreSimilarityMetric;
+import org.springframework.ai.vectorstore.AbstractVectorStoreBuilder;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.converter.SimpleVectorStoreFilterExpressionConverter;
+import org.springframework.ai.vectorstore.observation.AbstractObservationVectorStore;
+import org.springframework.ai.vectorstore.observation.VectorStoreObservationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+/**
+ * 内存映射的持久化向量库：嵌入与元数据写入紧凑的二进制文件，启动时映射文件并重放文档日志，毫秒级加载且不重新嵌入。
+ * 目录布局（path 下，gen 为当前代号，记录在 CURRENT 文件中，压缩时整体换代）：
+ * - vectors-{gen}.f32：16 字节文件头（魔数、版本、维度、保留）+ 定长向量行（float32 小端），按块映射，向量数据不占堆；
+ * - documents-{gen}.log：追加写的文档日志，每条记录为 [长度][CRC32][类型][内容]，ADD 记录行号/ID/正文/元数据 JSON，
+ *   DELETE 记录 ID。日志是提交点：先写向量行并落盘，再追加日志；启动时末尾残缺或校验失败的记录被截断；
+ * 堆上只保留 ID、行号、元数据、向量范数与正文在日志中的偏移，正文在命中时按偏移读取。
+ * 删除与同 ID 覆盖写只追加日志，死行占比超过 compaction-threshold 且不少于 min-compaction-rows 时，
+ * 写入后自动压缩：在读锁内记下存活行快照，锁外按行号顺序把快照写入新一代文件（检索与写入照常进行），
+ * 再在写锁内补写快照之后的新增与删除并原子替换 CURRENT，写锁只覆盖这段增量。
+ * 检索默认为全量余弦扫描；配置 hnsw 后走 HNSW 近似索引（打开时并行建图，写入时并行插入，删除打墓碑，压缩时重建），
+ * 建图与插入使用自有的 ForkJoinPool，且不持有存储锁：写入在写锁内追加并发布行，释放后再插入图；
+ * 图更新只持有独立的图更新锁（读锁，可并发），换代时取其写锁等待进行中的图更新结束，因此排队的写入不会让检索等待插入；
+ * 压缩换代后重建，期间检索照常进行（重建完成前走全量扫描），
+ * 带过滤条件且索引结果不足 topK 时回退到全量扫描。deferIndexBuild 时首次打开不建图，由调用方在后台调用
+ * {@link #buildIndex()}，建成之前检索走全量扫描。配置 int8 后在堆上另存一份 int8 量化向量（见 {@link Int8Vectors}），
+ * 全量扫描与 HNSW 导航都只读量化向量，取 topK × rerank-factor 个候选后再读 float32 原向量精排，返回的分数为精确值。
+ * 过滤表达式与 SimpleVectorStore 语义一致；读写锁保护，检索可并发。
+ */
+@Slf4j
+public class MappedVectorStore extends AbstractObservationVectorStore implements Closeable {
+
+    private static final int MAGIC = 0x41495653;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final long CHUNK_BYTES = 64L << 20;
+    private static final byte OP_ADD = 1;
+    private static final byte OP_DELETE = 2;
+    private static final String CURRENT = "CURRENT";
+
+    /**
+     * 一条存活文档：元数据在堆上，向量在映射文件中，正文在日志中
+     */
+    private static final class Entry {
+        final String id;
+        final int row;
+        final long textOffset;
+        final int textLength;
+        final Map<String, Object> metadata;
+
+        Entry(String id, int row, long textOffset, int textLength, Map<String, Object> metadata) {
+            this.id = id;
+            this.row = row;
+            this.textOffset = textOffset;
+            this.textLength = textLength;
+            this.metadata = metadata;
+        }
+    }
+
+    private final Path directory;
+    private final double compactionThreshold;
+    private final int minCompactionRows;
+    private final Builder.Hnsw hnsw;
+    /** int8 粗排的候选倍数，0 表示不量化 */
+    private final int rerankFactor;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SpelExpressionParser expressionParser = new SpelExpressionParser();
+    private final SimpleVectorStoreFilterExpressionConverter filterConverter = new SimpleVectorStoreFilterExpressionConverter();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /**
+     * 图更新锁：插入与建图持有读锁（彼此可并发，且不持有存储锁），换代与关闭持有写锁；
+     * 同时需要两把锁时总是先取 indexLock 再取 lock
+     */
+    private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+    /** 同一时刻只有一次压缩；压缩在锁外读取当前一代文件，关闭也要等待压缩结束。加锁顺序：compactionLock、indexLock、lock */
+    private final ReentrantLock compactionLock = new ReentrantLock();
+    /** HNSW 建图与插入专用，不占用公共 ForkJoinPool */
+    private final ForkJoinPool indexPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("hnsw-index-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }, null, false);
+
+    private long generation;
+    private FileChannel vectorChannel;
+    private FileChannel logChannel;
+    /** 图插入不持有存储锁读取向量，块列表写时复制 */
+    private final List<MappedByteBuffer> chunks = new CopyOnWriteArrayList<>();
+    private int dimensions;
+    private int rowsPerChunk;
+    private int rowCount;
+    private long logSize;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final List<Entry> rows = new ArrayList<>();
+    /** 每行向量的范数（含死行，HNSW 导航仍会经过死行）；扩容时整体替换，图插入可无锁读取 */
+    private volatile float[] rowNorms = new float[1024];
+    private int deadRows;
+    /** 接收插入与墓碑的图，建图完成前尚未用于检索 */
+    private volatile HnswIndex graph;
+    /** 已建好、用于检索的图 */
+    private volatile HnswIndex index;
+    private volatile Int8Vectors quantized;
+
+    protected MappedVectorStore(Builder builder) {
+        super(builder);
+        this.directory = builder.directory;
+        this.compactionThreshold = builder.compactionThreshold;
+        this.minCompactionRows = builder.minCompactionRows;
+        this.hnsw = builder.hnsw;
+        this.rerankFactor = builder.rerankFactor;
+        try {
+            Files.createDirectories(directory);
+            open(readGeneration(), !builder.deferIndexBuild);
+        } catch (IOException e) {
+            throw new UncheckedIOException("打开向量库失败：" + directory, e);
+        }
+        log.info("向量库已加载：path={}, documents={}, rows={}, dimensions={}, int8={}",
+                directory, entries.size(), rowCount, dimensions,
+                quantized == null ? (rerankFactor > 0 ? "on" : "off") : quantized.bytes() / 1024 + "KB");
+    }
+
+    public static Builder builder(EmbeddingModel embeddingModel, Path directory) {
+        return new Builder(embeddingModel, directory);
+    }
+
+    /**
+     * @return 存活文档数
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return 全部存活文档 ID 的快照
+     */
+    public Set<String> ids() {
+        lock.readLock().lock();
+        try {
+            return new HashSet<>(entries.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return 已被删除或覆盖、等待压缩回收的行数
+     */
+    public int deadRows() {
+        lock.readLock().lock();
+        try {
+            return deadRows;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void doAdd(List<Document> documents) {
+        if (documents.isEmpty()) {
+            return;
+        }
+        // 嵌入在锁外完成，写入期间不阻塞检索
+        List<float[]> embeddings = embeddingModel.embed(documents, EmbeddingOptionsBuilder.builder().build(),
+                batchingStrategy);
+        boolean compact;
+        HnswIndex target;
+        List<Entry> added = new ArrayList<>(documents.size());
+        lock.writeLock().lock();
+        try {
+            int firstRow = rowCount;
+            ByteBufferOutput records = new ByteBufferOutput();
+            for (int i = 0; i < documents.size(); i++) {
+                Document document = documents.get(i);
+                float[] vector = embeddings.get(i);
+                ensureDimensions(vector.length);
+                int row = rowCount++;
+                writeVector(row, vector);
+                String text = document.getText() == null ? "" : document.getText();
+                long textOffset = logSize + records.appendAdd(row, document.getId(), text,
+                        writeMetadata(document.getMetadata()));
+                added.add(new Entry(document.getId(), row, textOffset, text.getBytes(StandardCharsets.UTF_8).length,
+                        new HashMap<>(document.getMetadata())));
+            }
+            // 先把向量行落盘，再追加日志（日志是提交点）
+            forceVectors(firstRow, rowCount);
+            appendLog(records);
+            for (Entry entry : added) {
+                put(entry);
+            }
+            compact = needsCompaction();
+            target = graph;
+            // 同一批内被覆盖的行已是死行，不再入图
+            added.removeIf(entry -> rows.get(entry.row) != entry);
+        } catch (IOException e) {
+            throw new UncheckedIOException("写入向量库失败：" + directory, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        // 行已发布：插入图时不持有存储锁，检索与其他写入照常进行
+        if (target != null && !added.isEmpty()) {
+            insert(target, added);
+        }
+        if (compact) {
+            maybeCompact();
+        }
+    }
+
+    /**
+     * 把刚发布的行插入图；期间已换代时行号属于旧一代，跳过（新图由换代后的重建覆盖）
+     */
+    private void insert(HnswIndex target, List<Entry> added) {
+        indexLock.readLock().lock();
+        try {
+            if (graph == target) {
+                indexPool.submit(() -> added.parallelStream().forEach(entry -> target.add(entry.row))).join();
+            }
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void doDelete(List<String> idList) {
+        boolean compact;
+        lock.writeLock().lock();
+        try {
+            ByteBufferOutput records = new ByteBufferOutput();
+            List<String> removed = new ArrayList<>();
+            for (String id : idList) {
+                if (entries.containsKey(id)) {
+                    records.appendDelete(id);
+                    removed.add(id);
+                }
+            }
+            if (removed.isEmpty()) {
+                return;
+            }
+            appendLog(records);
+            for (String id : removed) {
+                remove(id);
+            }
+            compact = needsCompaction();
+        } catch (IOException e) {
+            throw new UncheckedIOException("删除向量失败：" + directory, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (compact) {
+            maybeCompact();
+        }
+    }
+
+    @Override
+    public List<Document> doSimilaritySearch(SearchRequest request) {
+        float[] query = unit(embeddingModel.embed(request.getQuery()));
+        Predicate<Map<String, Object>> filter = filterPredicate(request);
+        lock.readLock().lock();
+        try {
+            if (entries.isEmpty() || query == null) {
+                return List.of();
+            }
+            if (query.length != dimensions) {
+                throw new IllegalArgumentException("查询向量维度 " + query.length + " 与向量库维度 " + dimensions + " 不一致");
+            }
+            int topK = request.getTopK();
+            // 量化时粗排多取候选，精排后再截到 topK
+            int candidates = quantized == null ? topK : topK * rerankFactor;
+            List<ScoredEntry> ranked = null;
+            HnswIndex graph = index;
+            if (graph != null) {
+                ranked = new ArrayList<>();
+                for (HnswIndex.Result result : graph.search(query, candidates, Math.max(hnsw.efSearch(), candidates),
+                        row -> {
+                            Entry entry = rows.get(row);
+                            return entry != null && filter.test(entry.metadata);
+                        })) {
+                    ranked.add(new ScoredEntry(rows.get(result.node()), result.score()));
+                }
+                // 过滤条件过于严格时图上可能找不满 topK，回退到全量扫描
+                if (request.hasFilterExpression() && ranked.size() < topK) {
+                    ranked = null;
+                }
+            }
+            if (ranked == null) {
+                ranked = scan(query, candidates, filter);
+            }
+            if (quantized != null) {
+                ranked = rerank(query, ranked, topK);
+            }
+            List<Document> documents = new ArrayList<>(ranked.size());
+            for (ScoredEntry scored : ranked) {
+                if (scored.score() >= request.getSimilarityThreshold()) {
+                    documents.add(toDocument(scored.entry(), scored.score()));
+                }
+            }
+            return documents;
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取向量库失败：" + directory, e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 全量余弦扫描（量化时为近似分数）
+     *
+     * @param query 单位向量
+     * @return 相似度降序的 topK
+     */
+    private List<ScoredEntry> scan(float[] query, int topK, Predicate<Map<String, Object>> filter) {
+        // 小顶堆保留 topK
+        PriorityQueue<ScoredEntry> top = new PriorityQueue<>(Comparator.comparingDouble(ScoredEntry::score));
+        for (Entry entry : rows) {
+            if (entry == null || !filter.test(entry.metadata)) {
+                continue;
+            }
+            double score = coarseSimilarity(query, entry.row);
+            if (top.size() < topK) {
+                top.add(new ScoredEntry(entry, score));
+            } else if (score > top.peek().score()) {
+                top.poll();
+                top.add(new ScoredEntry(entry, score));
+            }
+        }
+        List<ScoredEntry> ranked = new ArrayList<>(top);
+        ranked.sort(Comparator.comparingDouble(ScoredEntry::score).reversed());
+        return ranked;
+    }
+
+    /**
+     * 用 float32 原向量重新打分，取精确相似度的 topK
+     */
+    private List<ScoredEntry> rerank(float[] query, List<ScoredEntry> candidates, int topK) {
+        List<ScoredEntry> exact = new ArrayList<>(candidates.size());
+        for (ScoredEntry candidate : candidates) {
+            exact.add(new ScoredEntry(candidate.entry(), similarity(query, candidate.entry().row)));
+        }
+        exact.sort(Comparator.comparingDouble(ScoredEntry::score).reversed());
+        return exact.size() > topK ? exact.subList(0, topK) : exact;
+    }
+
+    /**
+     * 立即压缩：丢弃死行，按行号顺序重写存活数据并换代；已有压缩在进行时等待其结束
+     */
+    public void compact() {
+        compactionLock.lock();
+        compactAndRebuild();
+    }
+
+    /**
+     * 写入触发的自动压缩：已有压缩在进行时直接返回，不让写入线程排队等待
+     */
+    private void maybeCompact() {
+        if (compactionLock.tryLock()) {
+            compactAndRebuild();
+        }
+    }
+
+    /**
+     * 调用方已持有 compactionLock，返回前释放；换代后在锁外重建图
+     */
+    private void compactAndRebuild() {
+        boolean compacted;
+        try {
+            compacted = doCompact();
+        } catch (IOException e) {
+            throw new UncheckedIOException("压缩向量库失败：" + directory, e);
+        } finally {
+            compactionLock.unlock();
+        }
+        if (compacted) {
+            buildIndex();
+        }
+    }
+
+    @Override
+    public void close() {
+        compactionLock.lock();
+        indexLock.writeLock().lock();
+        lock.writeLock().lock();
+        try {
+            closeChannels();
+        } catch (IOException e) {
+            log.warn("关闭向量库文件失败：{}", e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+            indexLock.writeLock().unlock();
+            compactionLock.unlock();
+            indexPool.shutdown();
+        }
+    }
+
+    @Override
+    public VectorStoreObservationContext.Builder createObservationContextBuilder(String operationName) {
+        return VectorStoreObservationContext.builder("mapped_file", operationName)
+                .dimensions(dimensions)
+                .collectionName(directory.toString())
+                .similarityMetric(VectorStoreSimilarityMetric.COSINE.value());
+    }
+
+    // ============== 打开与重放 ==============
+
+    private long readGeneration() throws IOException {
+        Path current = directory.resolve(CURRENT);
+        return Files.exists(current) ? Long.parseLong(Files.readString(current).strip()) : 0;
+    }
+
+    private Path vectorFile(long gen) {
+        return directory.resolve("vectors-" + gen + ".f32");
+    }
+
+    private Path logFile(long gen) {
+        return directory.resolve("documents-" + gen + ".log");
+    }
+
+    private void open(long gen, boolean buildIndex) throws IOException {
+        generation = gen;
+        vectorChannel = FileChannel.open(vectorFile(gen), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        logChannel = FileChannel.open(logFile(gen), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        chunks.clear();
+        entries.clear();
+        rows.clear();
+        rowNorms = new float[1024];
+        graph = null;
+        index = null;
+        quantized = null;
+        deadRows = 0;
+        rowCount = 0;
+        dimensions = 0;
+        if (vectorChannel.size() >= HEADER_BYTES) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            vectorChannel.read(header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("不是可识别的向量文件：" + vectorFile(gen));
+            }
+            setDimensions(header.getInt());
+        }
+        replayLog();
+        deleteStaleGenerations();
+        if (hnsw != null && buildIndex) {
+            HnswIndex built = emptyIndex();
+            insertAll(built, liveRows());
+            graph = built;
+            index = built;
+        }
+    }
+
+    /**
+     * 构建延迟的 HNSW 图（首次打开时 deferIndexBuild，或压缩换代之后）；未配置 hnsw 或已建好时直接返回。
+     * 只在读锁内登记空图并记下当时的存活行，之后的写入与删除直接作用于该图；建图本身不持有存储锁，
+     * 检索照常进行（走全量扫描），写入也不等待建图
+     */
+    public synchronized void buildIndex() {
+        if (hnsw == null || index != null) {
+            return;
+        }
+        indexLock.readLock().lock();
+        try {
+            HnswIndex built;
+            int[] live;
+            lock.readLock().lock();
+            try {
+                if (graph != null) {
+                    return;
+                }
+                built = emptyIndex();
+                live = liveRows();
+                graph = built;
+            } finally {
+                lock.readLock().unlock();
+            }
+            insertAll(built, live);
+            index = built;
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return 是否已可用 HNSW 检索（未配置 hnsw 时为 true）
+     */
+    public boolean isIndexReady() {
+        return hnsw == null || index != null;
+    }
+
+    /**
+     * @return 读取本库向量的空 HNSW 图
+     */
+    private HnswIndex emptyIndex() {
+        return new HnswIndex(new HnswIndex.Vectors() {
+            @Override
+            public double similarity(float[] query, int node) {
+                return coarseSimilarity(query, node);
+            }
+
+            @Override
+            public float[] vector(int node) {
+                float[] unit = unit(readVector(node));
+                return unit == null ? new float[dimensions] : unit;
+            }
+        }, hnsw.m(), hnsw.efConstruction());
+    }
+
+    /**
+     * @return 当前全部存活行的行号（调用方持有锁）
+     */
+    private int[] liveRows() {
+        return rows.stream().filter(Objects::nonNull).mapToInt(entry -> entry.row).toArray();
+    }
+
+    /**
+     * 并行把给定行插入图
+     */
+    private void insertAll(HnswIndex built, int[] live) {
+        long start = System.nanoTime();
+        indexPool.submit(() -> Arrays.stream(live).parallel().forEach(built::add)).join();
+        if (live.length > 0) {
+            log.info("HNSW 索引构建完成：nodes={}, m={}, efConstruction={}, {}ms", built.size(), hnsw.m(),
+                    hnsw.efConstruction(), (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    private void replayLog() throws IOException {
+        long offset = 0;
+        long size = logChannel.size();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(logFile(generation)), 1 << 16))) {
+            while (offset < size) {
+                int length;
+                int crc;
+                byte[] payload;
+                try {
+                    length = in.readInt();
+                    crc = in.readInt();
+                    if (length <= 0 || offset + 8 + length > size) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    break;
+                }
+                CRC32 checksum = new CRC32();
+                checksum.update(payload);
+                if ((int) checksum.getValue() != crc) {
+                    break;
+                }
+                applyRecord(ByteBuffer.wrap(payload), offset + 8);
+                offset += 8 + length;
+            }
+        }
+        if (offset < size) {
+            log.warn("向量库日志末尾有 {} 字节残缺记录，已截断：{}", size - offset, logFile(generation));
+            logChannel.truncate(offset);
+        }
+        logSize = offset;
+    }
+
+    private void applyRecord(ByteBuffer payload, long payloadOffset) throws IOException {
+        byte op = payload.get();
+        if (op == OP_ADD) {
+            int row = payload.getInt();
+            String id = readString(payload);
+            int textLength = payload.getInt();
+            long textOffset = payloadOffset + payload.position();
+            payload.position(payload.position() + textLength);
+            Map<String, Object> metadata = readMetadata(readString(payload));
+            ensureMapped(row);
+            rowCount = Math.max(rowCount, row + 1);
+            setRow(row, readVector(row));
+            put(new Entry(id, row, textOffset, textLength, metadata));
+        } else if (op == OP_DELETE) {
+            remove(readString(payload));
+        }
+    }
+
+    private void deleteStaleGenerations() throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                String name = file.getFileName().toString();
+                boolean ours = name.startsWith("vectors-") || name.startsWith("documents-");
+                if (ours && !file.equals(vectorFile(generation)) && !file.equals(logFile(generation))) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private void put(Entry entry) {
+        Entry previous = entries.put(entry.id, entry);
+        if (previous != null) {
+            kill(previous);
+        }
+        while (rows.size() <= entry.row) {
+            rows.add(null);
+        }
+        rows.set(entry.row, entry);
+    }
+
+    private void remove(String id) {
+        Entry previous = entries.remove(id);
+        if (previous != null) {
+            kill(previous);
+        }
+    }
+
+    private void kill(Entry entry) {
+        rows.set(entry.row, null);
+        deadRows++;
+        HnswIndex target = graph;
+        if (target != null) {
+            target.markDeleted(entry.row);
+        }
+    }
+
+    // ============== 压缩 ==============
+
+    /**
+     * @return 死行是否已达到自动压缩条件（调用方持有锁，释放后再调用 {@link #maybeCompact()}）
+     */
+    private boolean needsCompaction() {
+        int total = entries.size() + deadRows;
+        return deadRows >= minCompactionRows && total > 0 && (double) deadRows / total > compactionThreshold;
+    }
+
+    /**
+     * 三段式压缩（调用方持有 compactionLock，期间不会换代或关闭）：
+     * 1. 读锁内记下存活行快照与当时的行数；
+     * 2. 不持有存储锁，把快照写入新一代文件（行写入后不再变化，检索与写入照常进行）；
+     * 3. 取 indexLock 与 lock 的写锁，补写快照之后的变化（新增的存活行、被删除的快照行），落盘后切换 CURRENT。
+     * 换代后不在锁内建图，由调用方释放后重建
+     *
+     * @return 是否发生了压缩
+     */
+    private boolean doCompact() throws IOException {
+        List<Entry> snapshot;
+        int snapshotRows;
+        long next;
+        int dims;
+        int reclaimed;
+        lock.readLock().lock();
+        try {
+            if (deadRows == 0) {
+                return false;
+            }
+            snapshot = rows.stream().filter(Objects::nonNull).toList();
+            snapshotRows = rowCount;
+            next = generation + 1;
+            dims = dimensions;
+            reclaimed = deadRows;
+        } finally {
+            lock.readLock().unlock();
+        }
+        long start = System.nanoTime();
+        Files.deleteIfExists(vectorFile(next));
+        Files.deleteIfExists(logFile(next));
+        try (MappedVectorStore.Writer writer = new Writer(vectorFile(next), logFile(next), dims)) {
+            for (Entry entry : snapshot) {
+                writer.add(entry.id, readVector(entry.row), readText(entry), writeMetadata(entry.metadata));
+            }
+            long copiedNanos = System.nanoTime() - start;
+            // 换代会替换图插入读取的映射与范数，先等待进行中的图更新结束
+            indexLock.writeLock().lock();
+            lock.writeLock().lock();
+            try {
+                int changes = copyChanges(writer, snapshot, snapshotRows);
+                writer.commit();
+                // 新一代文件写完并落盘后再切换 CURRENT，中途崩溃时仍使用旧一代
+                Path tmp = directory.resolve(CURRENT + ".tmp");
+                Files.writeString(tmp, Long.toString(next));
+                Files.move(tmp, directory.resolve(CURRENT), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+                closeChannels();
+                open(next, false);
+                log.info("向量库压缩完成：live={}, reclaimed={}, changesDuringCopy={}, copy={}ms, switch={}ms",
+                        entries.size(), reclaimed, changes, copiedNanos / 1_000_000,
+                        (System.nanoTime() - start - copiedNanos) / 1_000_000);
+            } finally {
+                lock.writeLock().unlock();
+                indexLock.writeLock().unlock();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 把快照之后的变化补写到新一代文件（调用方持有写锁）：
+     * 快照后新增的存活行追加为 ADD（同 ID 的快照行在重放时被覆盖）；快照中已被删除且没有新版本的 ID 追加为 DELETE
+     *
+     * @return 补写的记录数
+     */
+    private int copyChanges(Writer writer, List<Entry> snapshot, int snapshotRows) throws IOException {
+        int changes = 0;
+        for (Entry entry : snapshot) {
+            if (rows.get(entry.row) != entry && !entries.containsKey(entry.id)) {
+                writer.delete(entry.id);
+                changes++;
+            }
+        }
+        for (int row = snapshotRows; row < Math.min(rowCount, rows.size()); row++) {
+            Entry entry = rows.get(row);
+            if (entry != null) {
+                writer.add(entry.id, readVector(entry.row), readText(entry), writeMetadata(entry.metadata));
+                changes++;
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * 顺序写新一代文件（压缩用）
+     */
+    private final class Writer implements Closeable {
+        private final FileChannel vectors;
+        private final FileChannel documents;
+        private final ByteBufferOutput records = new ByteBufferOutput();
+        private final ByteBuffer row;
+        private long logOffset;
+        private int rowIndex;
+
+        Writer(Path vectorFile, Path logFile, int dims) throws IOException {
+            vectors = FileChannel.open(vectorFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            documents = FileChannel.open(logFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            vectors.write(header(dims), 0);
+            row = ByteBuffer.allocate(dims * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void add(String id, float[] vector, String text, String metadata) throws IOException {
+            row.clear();
+            row.asFloatBuffer().put(vector);
+            vectors.write(row, HEADER_BYTES + (long) rowIndex * row.capacity());
+            records.appendAdd(rowIndex++, id, text, metadata);
+            if (records.size() > (1 << 20)) {
+                flushRecords();
+            }
+        }
+
+        void delete(String id) throws IOException {
+            records.appendDelete(id);
+            if (records.size() > (1 << 20)) {
+                flushRecords();
+            }
+        }
+
+        private void flushRecords() throws IOException {
+            ByteBuffer buffer = records.toBuffer();
+            while (buffer.hasRemaining()) {
+                logOffset += documents.write(buffer, logOffset);
+            }
+            records.reset();
+        }
+
+        /**
+         * 写出剩余记录并落盘；未提交就关闭的文件由下一次压缩或启动时清理
+         */
+        void commit() throws IOException {
+            flushRecords();
+            vectors.force(true);
+            documents.force(true);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                vectors.close();
+            } finally {
+                documents.close();
+            }
+        }
+    }
+
+    // ============== 向量与日志读写 ==============
+
+    private void ensureDimensions(int dims) throws IOException {
+        if (dimensions == 0) {
+            setDimensions(dims);
+            vectorChannel.write(header(dims), 0);
+            vectorChannel.force(false);
+        } else if (dims != dimensions) {
+            throw new IllegalArgumentException("向量维度 " + dims + " 与向量库维度 " + dimensions + " 不一致");
+        }
+    }
+
+    private void setDimensions(int dims) {
+        dimensions = dims;
+        rowsPerChunk = (int) Math.max(1, CHUNK_BYTES / ((long) dims * Float.BYTES));
+        if (rerankFactor > 0) {
+            quantized = new Int8Vectors(dims, rowNorms.length);
+        }
+    }
+
+    private static ByteBuffer header(int dims) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(dims).putInt(0).flip();
+        return header;
+    }
+
+    /**
+     * 映射到覆盖 row 所在的块（READ_WRITE 映射超出文件末尾时文件自动扩展）
+     */
+    private void ensureMapped(int row) throws IOException {
+        int chunk = row / rowsPerChunk;
+        long chunkBytes = (long) rowsPerChunk * dimensions * Float.BYTES;
+        while (chunks.size() <= chunk) {
+            long position = HEADER_BYTES + chunks.size() * chunkBytes;
+            MappedByteBuffer buffer = vectorChannel.map(FileChannel.MapMode.READ_WRITE, position, chunkBytes);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            chunks.add(buffer);
+        }
+    }
+
+    private void writeVector(int row, float[] vector) throws IOException {
+        ensureMapped(row);
+        setRow(row, vector);
+        MappedByteBuffer chunk = chunks.get(row / rowsPerChunk);
+        int base = (row % rowsPerChunk) * dimensions * Float.BYTES;
+        for (int i = 0; i < vector.length; i++) {
+            chunk.putFloat(base + i * Float.BYTES, vector[i]);
+        }
+    }
+
+    private float[] readVector(int row) {
+        MappedByteBuffer chunk = chunks.get(row / rowsPerChunk);
+        int base = (row % rowsPerChunk) * dimensions * Float.BYTES;
+        float[] vector = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = chunk.getFloat(base + i * Float.BYTES);
+        }
+        return vector;
+    }
+
+    /**
+     * @param query 单位向量
+     * @return 与第 row 行的余弦相似度，零向量为 0
+     */
+    private double similarity(float[] query, int row) {
+        float norm = rowNorms[row];
+        if (norm == 0) {
+            return 0;
+        }
+        MappedByteBuffer chunk = chunks.get(row / rowsPerChunk);
+        int base = (row % rowsPerChunk) * dimensions * Float.BYTES;
+        double sum = 0;
+        for (int i = 0; i < dimensions; i++) {
+            sum += chunk.getFloat(base + i * Float.BYTES) * query[i];
+        }
+        return sum / norm;
+    }
+
+    /**
+     * 量化时为 int8 近似相似度，否则与 {@link #similarity} 相同
+     */
+    private double coarseSimilarity(float[] query, int row) {
+        Int8Vectors codes = quantized;
+        return codes == null ? similarity(query, row) : codes.similarity(query, row);
+    }
+
+    /**
+     * 记录第 row 行的范数与量化向量
+     */
+    private void setRow(int row, float[] vector) {
+        float[] norms = rowNorms;
+        if (row >= norms.length) {
+            norms = Arrays.copyOf(norms, Math.max(norms.length * 2, row + 1));
+            rowNorms = norms;
+        }
+        norms[row] = norm(vector);
+        Int8Vectors codes = quantized;
+        if (codes != null) {
+            codes.set(row, unit(vector));
+        }
+    }
+
+    private void forceVectors(int fromRow, int toRow) {
+        if (fromRow >= toRow) {
+            return;
+        }
+        for (int chunk = fromRow / rowsPerChunk; chunk <= (toRow - 1) / rowsPerChunk; chunk++) {
+            chunks.get(chunk).force();
+        }
+    }
+
+    private void appendLog(ByteBufferOutput records) throws IOException {
+        ByteBuffer buffer = records.toBuffer();
+        long position = logSize;
+        while (buffer.hasRemaining()) {
+            position += logChannel.write(buffer, position);
+        }
+        logChannel.force(false);
+        logSize = position;
+    }
+
+    private String readText(Entry entry) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(entry.textLength);
+        long position = entry.textOffset;
+        while (buffer.hasRemaining()) {
+            int n = logChannel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("文档日志被截断：" + logFile(generation));
+            }
+            position += n;
+        }
+        return new String(buffer.array(), StandardCharsets.UTF_8);
+    }
+
+    private Document toDocument(Entry entry, double score) throws IOException {
+        Map<String, Object> metadata = new HashMap<>(entry.metadata);
+        metadata.put(DocumentMetadata.DISTANCE.value(), 1.0 - score);
+        return Document.builder().id(entry.id).text(readText(entry)).metadata(metadata).score(score).build();
+    }
+
+    private String writeMetadata(Map<String, Object> metadata) throws IOException {
+        return objectMapper.writeValueAsString(metadata);
+    }
+
+    private Map<String, Object> readMetadata(String json) throws IOException {
+        return objectMapper.readValue(json, new TypeReference<HashMap<String, Object>>() {
+        });
+    }
+
+    private Predicate<Map<String, Object>> filterPredicate(SearchRequest request) {
+        if (!request.hasFilterExpression()) {
+            return metadata -> true;
+        }
+        Expression expression = expressionParser.parseExpression(
+                filterConverter.convertExpression(request.getFilterExpression()));
+        return metadata -> {
+            StandardEvaluationContext context = new StandardEvaluationContext();
+            context.setVariable("metadata", metadata);
+            return Boolean.TRUE.equals(expression.getValue(context, Boolean.class));
+        };
+    }
+
+    private void closeChannels() throws IOException {
+        chunks.clear();
+        if (vectorChannel != null) {
+            vectorChannel.close();
+        }
+        if (logChannel != null) {
+            logChannel.close();
+        }
+    }
+
+    /**
+     * @return 归一化后的副本，零向量返回 null
+     */
+    private static float[] unit(float[] vector) {
+        float norm = norm(vector);
+        if (norm == 0) {
+            return null;
+        }
+        float[] unit = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            unit[i] = vector[i] / norm;
+        }
+        return unit;
+    }
+
+    private static float norm(float[] vector) {
+        double sum = 0;
+        for (float v : vector) {
+            sum += v * v;
+        }
+        return (float) Math.sqrt(sum);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private record ScoredEntry(Entry entry, double score) {
+    }
+
+    /**
+     * 日志记录编码：[长度][CRC32][载荷]，整数为大端
+     */
+    private static final class ByteBufferOutput {
+        private ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+        /**
+         * @return 正文字节相对于本批次起点的偏移
+         */
+        long appendAdd(int row, String id, String text, String metadata) {
+            byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+            byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+            byte[] metadataBytes = metadata.getBytes(StandardCharsets.UTF_8);
+            int length = 1 + 4 + 4 + idBytes.length + 4 + textBytes.length + 4 + metadataBytes.length;
+            int start = reserve(8 + length);
+            buffer.position(start + 8);
+            buffer.put(OP_ADD).putInt(row).putInt(idBytes.length).put(idBytes);
+            long textOffset = buffer.position() + 4;
+            buffer.putInt(textBytes.length).put(textBytes).putInt(metadataBytes.length).put(metadataBytes);
+            seal(start, length);
+            return textOffset;
+        }
+
+        void appendDelete(String id) {
+            byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+            int length = 1 + 4 + idBytes.length;
+            int start = reserve(8 + length);
+            buffer.position(start + 8);
+            buffer.put(OP_DELETE).putInt(idBytes.length).put(idBytes);
+            seal(start, length);
+        }
+
+        int size() {
+            return buffer.position();
+        }
+
+        ByteBuffer toBuffer() {
+            return buffer.duplicate().flip();
+        }
+
+        void reset() {
+            buffer.clear();
+        }
+
+        private int reserve(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                grown.put(buffer.flip());
+                buffer = grown;
+            }
+            return buffer.position();
+        }
+
+        private void seal(int start, int length) {
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), start + 8, length);
+            buffer.putInt(start, length).putInt(start + 4, (int) crc.getValue());
+        }
+    }
+
+    public static final class Builder extends AbstractVectorStoreBuilder<Builder> {
+        private final Path directory;
+        private double compactionThreshold = 0.3;
+        private int minCompactionRows = 1000;
+        private Hnsw hnsw;
+        private int rerankFactor;
+        private boolean deferIndexBuild;
+
+        /**
+         * HNSW 参数
+         */
+        record Hnsw(int m, int efConstruction, int efSearch) {
+        }
+
+        private Builder(EmbeddingModel embeddingModel, Path directory) {
+            super(embeddingModel);
+            this.directory = directory;
+        }
+
+        /**
+         * @param threshold 死行占比超过该值时自动压缩
+         */
+        public Builder compactionThreshold(double threshold) {
+            this.compactionThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * @param rows 死行数达到该值才考虑自动压缩，避免小库频繁重写
+         */
+        public Builder minCompactionRows(int rows) {
+            this.minCompactionRows = rows;
+            return this;
+        }
+
+        /**
+         * 使用 HNSW 近似索引代替全量扫描
+         *
+         * @param m 每层邻居数（第 0 层为 2m）
+         * @param efConstruction 建图候选数
+         * @param efSearch 查询候选数
+         */
+        public Builder hnsw(int m, int efConstruction, int efSearch) {
+            this.hnsw = new Hnsw(m, efConstruction, efSearch);
+            return this;
+        }
+
+        /**
+         * 打开时不建 HNSW 图，由调用方稍后调用 {@link MappedVectorStore#buildIndex()}（如在后台预热中），避免阻塞启动
+         */
+        public Builder deferIndexBuild() {
+            this.deferIndexBuild = true;
+            return this;
+        }
+
+        /**
+         * 检索时用 int8 量化向量粗排，再用 float32 原向量精排
+         *
+         * @param rerankFactor 粗排候选数为 topK 的倍数，越大召回越接近全精度
+         */
+        public Builder int8(int rerankFactor) {
+            if (rerankFactor < 1) {
+                throw new IllegalArgumentException("rerankFactor must be >= 1");
+            }
+            this.rerankFactor = rerankFactor;
+            return this;
+        }
+
+        @Override
+        public MappedVectorStore build() {
+            return new MappedVectorStore(this);
+        }
+    }
+}
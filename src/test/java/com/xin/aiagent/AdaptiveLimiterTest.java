@@ -0,0 +1,172 @@
+package com.xin.aiagent;
+
+import com.xin.aiagent.common.BusinessException;
+import com.xin.aiagent.common.ResultCode;
+import com.xin.aiagent.config.UpstreamLimiterProperties;
+import com.xin.aiagent.limit.AdaptiveLimiter;
+import com.xin.aiagent.limit.LimitedChatModel;
+import com.xin.aiagent.upstream.HedgingChatModel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.tool.function.FunctionToolCallback;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * 自适应并发限制测试：满载成功加性增长（低负载不增长）、过载乘性收缩、排队满或超时拒绝；
+ * 延迟基线取窗口中位数，长短混合的同步调用按输出 token 归一化，带工具的调用不参与延迟判断。
+ */
+public class AdaptiveLimiterTest {
+
+    private static UpstreamLimiterProperties.Limit config(int initial) {
+        UpstreamLimiterProperties.Limit limit = new UpstreamLimiterProperties.Limit(initial, 1, 10, 0);
+        limit.setBackoffRatio(0.5);
+        limit.setMaxQueue(1);
+        limit.setMaxWaitMs(50);
+        return limit;
+    }
+
+    private static long ms(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private static ChatResponse reply(long sleepMs, int completionTokens) throws InterruptedException {
+        Thread.sleep(sleepMs);
+        return ChatResponse.builder()
+                .generations(List.of(new Generation(new AssistantMessage("ok"))))
+                .metadata(ChatResponseMetadata.builder().usage(new DefaultUsage(10, completionTokens)).build())
+                .build();
+    }
+
+    @Test
+    void success_grows_and_overload_shrinks_once_per_round() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("chat", config(4), new SimpleMeterRegistry());
+        for (int i = 0; i < 20; i++) {
+            limiter.release(limiter.acquire(), AdaptiveLimiter.Outcome.SUCCESS, -1);
+        }
+        assertEquals(4, limiter.getLimit(), "在途数远低于限制时的成功不应抬升限制");
+
+        for (int round = 0; round < 10; round++) {
+            long[] held = new long[limiter.getLimit()];
+            for (int i = 0; i < held.length; i++) {
+                held[i] = limiter.acquire();
+            }
+            for (long start : held) {
+                limiter.release(start, AdaptiveLimiter.Outcome.SUCCESS, -1);
+            }
+        }
+        assertTrue(limiter.getLimit() >= 6, "limit should grow on success at full load: " + limiter.getLimit());
+
+        int before = limiter.getLimit();
+        long a = limiter.acquire();
+        long b = limiter.acquire();
+        limiter.release(a, AdaptiveLimiter.Outcome.DROPPED, -1);
+        // b 与 a 同一轮发出，不再重复收缩
+        limiter.release(b, AdaptiveLimiter.Outcome.DROPPED, -1);
+        assertEquals(before / 2, limiter.getLimit());
+
+        limiter.release(limiter.acquire(), AdaptiveLimiter.Outcome.IGNORED, -1);
+        assertEquals(before / 2, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void baseline_is_a_windowed_median_not_the_minimum() {
+        UpstreamLimiterProperties.Limit config = config(4);
+        config.setLatencyTolerance(2.5);
+        config.setLatencyMinSamples(5);
+        AdaptiveLimiter limiter = new AdaptiveLimiter("chat", config, new SimpleMeterRegistry());
+
+        // 一次极短调用之后是大量正常调用：不能因为基线贴在最小值上而被判为超标
+        limiter.release(limiter.acquire(), AdaptiveLimiter.Outcome.SUCCESS, ms(1));
+        for (int i = 0; i < 30; i++) {
+            limiter.release(limiter.acquire(), AdaptiveLimiter.Outcome.SUCCESS, ms(10 + i % 5));
+        }
+        assertEquals(4, limiter.getLimit());
+
+        // 远超中位数的样本仍然是过载信号；其他信号类型的基线互不影响
+        limiter.release(limiter.acquire(), AdaptiveLimiter.Outcome.SUCCESS, AdaptiveLimiter.Signal.FIRST_CHUNK, ms(500));
+        assertEquals(4, limiter.getLimit(), "首包时间样本不足，不与总耗时基线比较");
+        limiter.release(limiter.acquire(), AdaptiveLimiter.Outcome.SUCCESS, ms(100));
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    void mixed_short_and_long_sync_calls_do_not_shrink_the_limit() {
+        ChatModel delegate = mock(ChatModel.class);
+        when(delegate.call(any(Prompt.class))).thenAnswer(invocation -> {
+            Prompt prompt = invocation.getArgument(0);
+            String text = prompt.getContents();
+            if (HedgingChatModel.usesTools(prompt.getOptions())) {
+                // 工具在一次调用内执行，耗时与输出长度无关
+                return reply(80, 1);
+            }
+            return text.startsWith("summary") ? reply(4, 4) : reply(60, 60);
+        });
+        UpstreamLimiterProperties.Limit config = config(4);
+        config.setLatencyTolerance(2.5);
+        config.setLatencyMinSamples(5);
+        AdaptiveLimiter limiter = new AdaptiveLimiter("chat", config, new SimpleMeterRegistry());
+        ChatModel limited = new LimitedChatModel(delegate, limiter);
+        Prompt toolPrompt = new Prompt("查天气", ToolCallingChatOptions.builder()
+                .toolCallbacks(FunctionToolCallback.builder("searchWeb", (String query) -> "ok")
+                        .inputType(String.class)
+                        .build())
+                .build());
+
+        // 短摘要与长回答共用一个 limiter：按输出 token 归一化后两者可比，不应把正常回答判为超标
+        limited.call(new Prompt("summary 0"));
+        for (int i = 0; i < 12; i++) {
+            limited.call(new Prompt(i % 4 == 0 ? "summary " + i : "answer " + i));
+        }
+        limited.call(toolPrompt);
+        limited.call(toolPrompt);
+
+        assertEquals(4, limiter.getLimit(), "健康流量下限制不应收缩");
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void rejects_when_queue_full_or_wait_times_out() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("chat", config(1), new SimpleMeterRegistry());
+        long held = limiter.acquire();
+
+        Thread waiter = new Thread(() -> assertThrows(BusinessException.class, limiter::acquire));
+        waiter.start();
+        while (limiter.getWaiting() == 0 && waiter.isAlive()) {
+            Thread.onSpinWait();
+        }
+        BusinessException full = assertThrows(BusinessException.class, limiter::acquire);
+        assertEquals(ResultCode.UPSTREAM_OVERLOADED, full.getCodeEnum());
+        waiter.join();
+
+        limiter.release(held, AdaptiveLimiter.Outcome.SUCCESS, -1);
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void chat_model_429_is_treated_as_overload() {
+        ChatModel delegate = mock(ChatModel.class);
+        when(delegate.call(any(Prompt.class))).thenThrow(new NonTransientAiException("429 - rate limited"));
+        AdaptiveLimiter limiter = new AdaptiveLimiter("chat", config(4), new SimpleMeterRegistry());
+        ChatModel limited = new LimitedChatModel(delegate, limiter);
+
+        assertThrows(NonTransientAiException.class, () -> limited.call(new Prompt("hi")));
+        assertEquals(2, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+}
@@ -0,0 +1,129 @@
+package com.xin.aiagent;
+
+import com.xin.aiagent.config.QueryEmbeddingProperties;
+import com.xin.aiagent.embedding.BatchingQueryEmbeddingModel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.retry.TransientAiException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 查询嵌入合批测试：并发查询合并为少量批次、相同在途查询只嵌入一次、LRU 命中与容量、失败传递给所有等待者。
+ */
+public class BatchingQueryEmbeddingModelTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 每次请求耗时 20ms，可设置为始终失败
+     */
+    static final class SlowEmbeddingModel extends HashEmbeddingModel {
+        volatile boolean failing;
+
+        SlowEmbeddingModel() {
+            super(16);
+        }
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            if (failing) {
+                throw new TransientAiException("503 - upstream unavailable");
+            }
+            return super.call(request);
+        }
+    }
+
+    private static QueryEmbeddingProperties properties(long windowMs, int maxBatchSize, int cacheSize) {
+        QueryEmbeddingProperties properties = new QueryEmbeddingProperties();
+        properties.setWindowMs(windowMs);
+        properties.setMaxBatchSize(maxBatchSize);
+        properties.setCacheSize(cacheSize);
+        return properties;
+    }
+
+    private List<Future<float[]>> embedConcurrently(BatchingQueryEmbeddingModel model, List<String> texts) {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<float[]>> futures = new ArrayList<>();
+        for (String text : texts) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                return model.embed(text);
+            }));
+        }
+        start.countDown();
+        return futures;
+    }
+
+    @Test
+    void concurrent_queries_share_batched_calls() throws Exception {
+        SlowEmbeddingModel delegate = new SlowEmbeddingModel();
+        BatchingQueryEmbeddingModel model = new BatchingQueryEmbeddingModel(delegate, properties(50, 8, 0));
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            texts.add("问题" + i);
+        }
+        List<Future<float[]>> futures = embedConcurrently(model, texts);
+        for (int i = 0; i < texts.size(); i++) {
+            assertArrayEquals(delegate.embed(texts.get(i)), futures.get(i).get());
+        }
+        // 16 次调用减去上面逐条校验的 16 次即为合批请求数
+        int batched = delegate.calls() - texts.size();
+        assertTrue(batched <= 4, "expected a few batches, got " + batched);
+        assertEquals(batched, model.batches());
+    }
+
+    @Test
+    void identical_in_flight_queries_are_merged_and_cached() throws Exception {
+        SlowEmbeddingModel delegate = new SlowEmbeddingModel();
+        BatchingQueryEmbeddingModel model = new BatchingQueryEmbeddingModel(delegate, properties(0, 32, 2));
+        for (Future<float[]> future : embedConcurrently(model, List.of("同一个问题", "同一个问题", "同一个问题", "同一个问题"))) {
+            future.get();
+        }
+        assertEquals(1, delegate.texts(), "identical prompts embed once");
+
+        model.embed("同一个问题");
+        assertEquals(1, delegate.texts());
+        assertEquals(1, model.hits());
+
+        // 容量为 2：再放入两条后最早的被淘汰
+        model.embed("问题A");
+        model.embed("问题B");
+        model.embed("同一个问题");
+        assertEquals(4, delegate.texts());
+    }
+
+    @Test
+    void failure_reaches_every_waiter_and_is_not_cached() throws Exception {
+        SlowEmbeddingModel delegate = new SlowEmbeddingModel();
+        delegate.failing = true;
+        BatchingQueryEmbeddingModel model = new BatchingQueryEmbeddingModel(delegate, properties(20, 32, 16));
+        for (Future<float[]> future : embedConcurrently(model, List.of("问题1", "问题2", "问题1"))) {
+            ExecutionException e = assertThrows(ExecutionException.class, future::get);
+            assertInstanceOf(TransientAiException.class, e.getCause());
+        }
+
+        delegate.failing = false;
+        assertArrayEquals(delegate.embed("问题1"), model.embed("问题1"));
+    }
+}
@@ -0,0 +1,94 @@
+package com.xin.aiagent;
+
+import com.xin.aiagent.embedding.CachedEmbeddingModel;
+import com.xin.aiagent.embedding.EmbeddingCache;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingOptionsBuilder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 持久化嵌入缓存测试：跨重启命中、只请求未命中的文本、按模型隔离、残缺记录截断。
+ */
+public class CachedEmbeddingModelTest {
+
+    @TempDir
+    Path dir;
+
+    private static List<float[]> embed(CachedEmbeddingModel model, List<String> texts) {
+        return model.embed(texts.stream().map(Document::new).toList(), EmbeddingOptionsBuilder.builder().build(),
+                tokens -> List.of(tokens));
+    }
+
+    @Test
+    void reuses_vectors_across_restarts() {
+        HashEmbeddingModel first = new HashEmbeddingModel(16);
+        List<float[]> expected;
+        try (EmbeddingCache cache = EmbeddingCache.open(dir)) {
+            expected = embed(new CachedEmbeddingModel(first, cache, "m1"), List.of("恋爱", "婚姻", "恋爱"));
+            // 同一请求内的重复文本只嵌入一次
+            assertEquals(2, first.texts());
+            assertEquals(2, cache.size());
+        }
+
+        HashEmbeddingModel second = new HashEmbeddingModel(16);
+        try (EmbeddingCache cache = EmbeddingCache.open(dir)) {
+            CachedEmbeddingModel model = new CachedEmbeddingModel(second, cache, "m1");
+            List<float[]> vectors = embed(model, List.of("恋爱", "婚姻", "单身"));
+            assertEquals(1, second.calls());
+            assertEquals(1, second.texts(), "only the new text goes upstream");
+            assertArrayEquals(expected.get(0), vectors.get(0));
+            assertArrayEquals(expected.get(1), vectors.get(1));
+            assertArrayEquals(second.embed("单身"), vectors.get(2));
+
+            embed(model, List.of("单身"));
+            assertEquals(2, second.calls(), "cache hit must not call the delegate");
+            assertEquals(3, model.hits());
+        }
+    }
+
+    @Test
+    void keys_by_model_and_document_content() {
+        HashEmbeddingModel delegate = new HashEmbeddingModel(16);
+        try (EmbeddingCache cache = EmbeddingCache.open(dir)) {
+            new CachedEmbeddingModel(delegate, cache, "m1").embed(new Document("恋爱"));
+            new CachedEmbeddingModel(delegate, cache, "m1").embed(new Document("恋爱"));
+            assertEquals(1, delegate.calls());
+
+            new CachedEmbeddingModel(delegate, cache, "m2").embed(new Document("恋爱"));
+            assertEquals(2, delegate.calls(), "another model must miss");
+
+            // 查询路径不落盘
+            new CachedEmbeddingModel(delegate, cache, "m1").embed("查询");
+            assertEquals(2, cache.size());
+        }
+    }
+
+    @Test
+    void truncates_torn_tail() throws IOException {
+        try (EmbeddingCache cache = EmbeddingCache.open(dir)) {
+            embed(new CachedEmbeddingModel(new HashEmbeddingModel(16), cache, "m1"), List.of("恋爱", "婚姻"));
+        }
+        Path file = dir.resolve("embeddings.log");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 5);
+        }
+        try (EmbeddingCache cache = EmbeddingCache.open(dir)) {
+            assertEquals(1, cache.size());
+            HashEmbeddingModel delegate = new HashEmbeddingModel(16);
+            embed(new CachedEmbeddingModel(delegate, cache, "m1"), List.of("恋爱", "婚姻"));
+            assertEquals(1, delegate.texts());
+        }
+        try (EmbeddingCache cache = EmbeddingCache.open(dir)) {
+            assertEquals(2, cache.size());
+        }
+    }
+}
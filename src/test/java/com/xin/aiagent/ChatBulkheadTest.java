@@ -0,0 +1,154 @@
+package com.xin.aiagent;
+
+import com.xin.aiagent.app.ChatMode;
+import com.xin.aiagent.config.SseExecutorConfig;
+import com.xin.aiagent.config.SseProperties;
+import com.xin.aiagent.sse.ChatBulkhead;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 舱壁单元测试：并发上限、排队上限与名额移交（含响应式流直接占用的名额）；所有模式满载时排队任务在原工作线程上执行，不会被执行器拒绝。
+ */
+public class ChatBulkheadTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void rejects_when_running_and_queue_are_full() throws Exception {
+        ChatBulkhead bulkhead = new ChatBulkhead("test", executor, 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch queuedRan = new CountDownLatch(1);
+
+        assertTrue(bulkhead.tryExecute(() -> await(release)));
+        assertTrue(bulkhead.tryExecute(queuedRan::countDown));
+        assertFalse(bulkhead.tryExecute(() -> { }));
+        assertEquals(1, bulkhead.activeCount());
+        assertEquals(1, bulkhead.queuedCount());
+
+        release.countDown();
+        assertTrue(queuedRan.await(2, TimeUnit.SECONDS));
+        waitUntilIdle(bulkhead);
+        assertEquals(0, bulkhead.queuedCount());
+        assertTrue(bulkhead.tryExecute(() -> { }));
+    }
+
+    @Test
+    void queued_tasks_run_when_every_mode_is_saturated() throws Exception {
+        // 与生产配置相同的平台线程池：线程数恰好等于三个舱壁 max-concurrent 之和
+        SseProperties properties = new SseProperties();
+        for (ChatMode mode : ChatMode.values()) {
+            SseProperties.Bulkhead cfg = new SseProperties.Bulkhead();
+            cfg.setMaxConcurrent(2);
+            cfg.setMaxQueue(3);
+            properties.getBulkhead().put(mode.tag(), cfg);
+        }
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) new SseExecutorConfig().sseExecutor(properties);
+        try {
+            List<ChatBulkhead> bulkheads = new ArrayList<>();
+            for (ChatMode mode : ChatMode.values()) {
+                bulkheads.add(new ChatBulkhead(mode.tag(), pool, 2, 3));
+            }
+            CountDownLatch release = new CountDownLatch(1);
+            int perMode = 2 + 3;
+            CountDownLatch finished = new CountDownLatch(bulkheads.size() * perMode);
+            for (ChatBulkhead bulkhead : bulkheads) {
+                for (int i = 0; i < perMode; i++) {
+                    assertTrue(bulkhead.tryExecute(() -> {
+                        await(release);
+                        finished.countDown();
+                    }));
+                }
+                assertFalse(bulkhead.tryExecute(() -> { }), "运行与排队都已满时应快速拒绝");
+                assertEquals(2, bulkhead.activeCount());
+                assertEquals(3, bulkhead.queuedCount());
+            }
+
+            release.countDown();
+            assertTrue(finished.await(5, TimeUnit.SECONDS), "所有模式满载时排队任务也应执行完毕，不能被执行器拒绝");
+            // 名额刚归还时立即提交的新任务同样不能被执行器拒绝
+            CountDownLatch again = new CountDownLatch(bulkheads.size() * 2);
+            for (ChatBulkhead bulkhead : bulkheads) {
+                waitUntilIdle(bulkhead);
+                for (int i = 0; i < 2; i++) {
+                    assertTrue(bulkhead.tryExecute(again::countDown));
+                }
+            }
+            assertTrue(again.await(2, TimeUnit.SECONDS));
+            assertTrue(pool.getLargestPoolSize() <= bulkheads.size() * 2, "排队任务不应需要额外的线程");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void queued_task_runs_on_the_releasing_worker() throws Exception {
+        // 只有一个线程且不排队：若名额移交重新提交给执行器，必然被拒绝
+        ThreadPoolExecutor single = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS, new SynchronousQueue<>());
+        try {
+            ChatBulkhead bulkhead = new ChatBulkhead("test", single, 1, 1);
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch queuedRan = new CountDownLatch(1);
+
+            assertTrue(bulkhead.tryExecute(() -> await(release)));
+            assertTrue(bulkhead.tryExecute(queuedRan::countDown));
+
+            release.countDown();
+            assertTrue(queuedRan.await(2, TimeUnit.SECONDS), "排队任务应在释放名额的工作线程上执行");
+            waitUntilIdle(bulkhead);
+            assertEquals(0, bulkhead.queuedCount());
+        } finally {
+            single.shutdownNow();
+        }
+    }
+
+    @Test
+    void reactive_permits_share_the_limit_and_hand_off_to_queued_tasks() throws Exception {
+        ChatBulkhead bulkhead = new ChatBulkhead("test", executor, 1, 1);
+        CountDownLatch queuedRan = new CountDownLatch(1);
+
+        assertTrue(bulkhead.tryAcquire());
+        assertFalse(bulkhead.tryAcquire(), "响应式流与线程任务共用并发上限");
+        assertTrue(bulkhead.tryExecute(queuedRan::countDown), "名额被响应式流占用时线程任务排队");
+        assertEquals(1, bulkhead.queuedCount());
+
+        bulkhead.release();
+        assertTrue(queuedRan.await(2, TimeUnit.SECONDS), "归还的名额移交给排队任务");
+        waitUntilIdle(bulkhead);
+        assertTrue(bulkhead.tryAcquire());
+        bulkhead.release();
+        assertEquals(0, bulkhead.activeCount());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitUntilIdle(ChatBulkhead bulkhead) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (bulkhead.activeCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, bulkhead.activeCount());
+    }
+}
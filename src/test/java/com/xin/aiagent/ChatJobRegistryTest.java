@@ -0,0 +1,89 @@
+package com.xin.aiagent;
+
+import com.xin.aiagent.app.ChatMode;
+import com.xin.aiagent.config.SseProperties;
+import com.xin.aiagent.sse.ChatStreamRegistry;
+import com.xin.aiagent.sse.ChatStreamSession;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 生成任务注册测试：同一 jobId 只生成一次，SSE 可按 jobId / sessionId 找到任务；
+ * 会话按用户隔离，同一会话的新生成取代旧生成而不是留下孤儿。
+ */
+public class ChatJobRegistryTest {
+
+    @Test
+    void same_job_id_is_started_only_once() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            ChatStreamRegistry registry = new ChatStreamRegistry(new SseProperties(), new SimpleMeterRegistry(), scheduler);
+
+            ChatStreamSession first = registry.createJob(7L, "j1", "s1", ChatMode.TOOLS, "你好");
+            assertTrue(first.markStarted());
+
+            ChatStreamSession retry = registry.createJob(7L, "j1", "s1", ChatMode.TOOLS, "你好");
+            assertSame(first, retry);
+            assertFalse(retry.markStarted(), "重试不应再次启动生成");
+
+            assertSame(first, registry.findJob(7L, "j1"));
+            assertSame(first, registry.find(7L, "s1"));
+
+            assertFalse(first.claim(ChatMode.RAG_CLOUD, "你好"), "模式不同不能认领");
+            assertTrue(first.claim(ChatMode.TOOLS, "你好"));
+            assertFalse(first.claim(ChatMode.TOOLS, "你好"), "同一任务只能被认领一次");
+
+            registry.remove(first);
+            assertNull(registry.findJob(7L, "j1"));
+            assertNull(registry.find(7L, "s1"));
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    void sessions_and_jobs_are_scoped_per_user() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            ChatStreamRegistry registry = new ChatStreamRegistry(new SseProperties(), new SimpleMeterRegistry(), scheduler);
+
+            ChatStreamSession mine = registry.createJob(7L, "j1", "s1", ChatMode.TOOLS, "你好");
+            assertNull(registry.findJob(8L, "j1"), "其他用户不能接入该任务");
+            assertNull(registry.find(8L, "s1"), "其他用户不能续传该会话");
+            assertNull(registry.findJob(null, "j1"));
+
+            ChatStreamSession theirs = registry.createJob(8L, "j1", "s1", ChatMode.TOOLS, "你好");
+            assertNotSame(mine, theirs, "相同 jobId 的其他用户任务不能复用");
+            assertFalse(mine.isFinished(), "其他用户的任务不影响已有任务");
+            assertSame(mine, registry.findJob(7L, "j1"));
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    void new_generation_cancels_the_running_one() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            SimpleMeterRegistry meters = new SimpleMeterRegistry();
+            ChatStreamRegistry registry = new ChatStreamRegistry(new SseProperties(), meters, scheduler);
+
+            ChatStreamSession first = registry.create(7L, "s1", ChatMode.RAG_CLOUD);
+            first.markStarted();
+            ChatStreamSession second = registry.create(7L, "s1", ChatMode.RAG_CLOUD);
+
+            assertTrue(first.getCancellation().isCancelled(), "被取代的生成应取消上游调用");
+            assertTrue(first.isFinished());
+            assertFalse(second.isFinished());
+            assertSame(second, registry.find(7L, "s1"));
+            assertEquals(1, meters.counter("chat.sse.cancelled", "mode", ChatMode.RAG_CLOUD.tag()).count());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.xin.aiagent;
+
+import io.restassured.RestAssured;
+import io.restassured.http.ContentType;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 离线压测套件：完整启动应用（H2 + 本地 OpenAI 桩服务），对 /api/conversations、/api/chat 与两套 SSE 接口施加并发，
+ * 打印吞吐、p50/p99 延迟与首字节时间。默认不执行，运行方式：
+ * mvn test -Pload [-Dload.clients=32 -Dload.requests=20]
+ */
+@Tag("load")
+@ActiveProfiles("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class ChatLoadTest {
+
+    private static final int CLIENTS = Integer.getInteger("load.clients", 16);
+    private static final int REQUESTS = Integer.getInteger("load.requests", 10);
+
+    private static final OpenAiStubServer STUB = startStub();
+
+    private static OpenAiStubServer startStub() {
+        try {
+            return new OpenAiStubServer().firstTokenDelayMs(200).tokenDelayMs(20).completionTokens(40);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @DynamicPropertySource
+    static void stubProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.ai.openai.base-url", STUB::baseUrl);
+    }
+
+    @AfterAll
+    static void stopStub() {
+        STUB.close();
+    }
+
+    @LocalServerPort
+    private int port;
+
+    private final HttpClient http = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    private String authorization;
+
+    @BeforeEach
+    void login() {
+        RestAssured.baseURI = "http://localhost";
+        RestAssured.port = port;
+        String username = "load_" + System.nanoTime();
+        RestAssured.given().contentType(ContentType.JSON)
+                .body(Map.of("username", username, "password", "Passw0rd!", "email", username + "@example.com"))
+                .post("/api/auth/register")
+                .then().statusCode(200);
+        String token = RestAssured.given().contentType(ContentType.JSON)
+                .body(Map.of("username", username, "password", "Passw0rd!"))
+                .post("/api/auth/login")
+                .then().statusCode(200)
+                .extract().path("data.token");
+        authorization = "Bearer " + token;
+        STUB.rateLimitRate(0).errorRate(0).resetCounters();
+    }
+
+    @Test
+    void conversations() throws Exception {
+        LoadDriver.Report report = LoadDriver.run("conversations", CLIENTS, REQUESTS, (client, seq) ->
+                LoadDriver.exchange(http, seq % 2 == 0
+                        ? request("/api/conversations")
+                            .header("Content-Type", "application/json")
+                            .POST(HttpRequest.BodyPublishers.ofString("{\"title\":\"load " + client + "-" + seq + "\"}"))
+                            .build()
+                        : request("/api/conversations?limit=20").GET().build()));
+        assertEquals(0, report.errors());
+    }
+
+    @Test
+    void chat() throws Exception {
+        LoadDriver.Report report = LoadDriver.run("chat", CLIENTS, REQUESTS, (client, seq) ->
+                LoadDriver.exchange(http, request("/api/chat")
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(
+                                "{\"content\":\"什么是 RAG（" + client + "-" + seq + "）\"}"))
+                        .build()));
+        assertEquals(0, report.errors());
+        // 对话记忆折叠旧轮次时也会调用模型，桩服务收到的请求不少于压测请求数
+        assertTrue(STUB.chatRequests() >= report.requests());
+    }
+
+    @Test
+    void sse() throws Exception {
+        LoadDriver.Report report = LoadDriver.run("sse", CLIENTS, REQUESTS, (client, seq) ->
+                LoadDriver.stream(http, sseRequest("/api/doChatWithAppSse", client, seq)));
+        assertEquals(0, report.errors());
+        assertTrue(report.ttfbP50Ms() < report.latencyP50Ms());
+    }
+
+    @Test
+    void reactive_sse() throws Exception {
+        LoadDriver.Report report = LoadDriver.run("sse (reactive)", CLIENTS, REQUESTS, (client, seq) ->
+                LoadDriver.stream(http, sseRequest("/api/rx/doChatWithAppSse", client, seq)));
+        assertEquals(0, report.errors());
+        assertTrue(report.ttfbP50Ms() < report.latencyP50Ms());
+    }
+
+    @Test
+    void sse_with_upstream_faults() throws Exception {
+        // 20% 429 + 5% 503：每个请求都必须以 done 或 error 事件结束，不能挂起
+        double faultRate = 0.2 + 0.05;
+        STUB.rateLimitRate(0.2).errorRate(0.05);
+        LoadDriver.Report report = LoadDriver.run("sse (429/503 faults)", CLIENTS, REQUESTS, (client, seq) ->
+                LoadDriver.stream(http, sseRequest("/api/doChatWithAppSse", client, seq)));
+        assertEquals(CLIENTS * REQUESTS, report.requests());
+        assertEquals(0, report.unterminated(), "每个请求都必须以 done 或 error 事件结束");
+        assertTrue(STUB.injectedErrors() > 0);
+        // 每个失败的请求至少对应一次注入的故障；错误率不超过注入的故障率（留出抽样波动的余量）
+        assertTrue(report.errors() <= STUB.injectedErrors(),
+                "errors=" + report.errors() + ", injected=" + STUB.injectedErrors());
+        assertTrue(report.errors() <= report.requests() * (faultRate + 0.1),
+                "error rate " + (double) report.errors() / report.requests() + " exceeds fault rate " + faultRate);
+    }
+
+    private HttpRequest sseRequest(String path, int client, int seq) {
+        String prompt = URLEncoder.encode("什么是 RAG（" + client + "-" + seq + "）", StandardCharsets.UTF_8);
+        return request(path + "?sessionId=load-" + client + "&prompt=" + prompt)
+                .header("Accept", "text/event-stream")
+                .GET()
+                .build();
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+                .timeout(Duration.ofSeconds(60))
+                .header("Authorization", authorization);
+    }
+}
@@ -0,0 +1,118 @@
+package com.xin.aiagent;
+
+import com.xin.aiagent.rag.AppDocumentLoader;
+import com.xin.aiagent.rag.DocumentIngestor;
+import com.xin.aiagent.vector.MappedVectorStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 增量入库测试：语料不变时零嵌入、改一段只嵌入一段、删除文件后其分块被删除、标题路径还原、清单丢失时回到库中实际数据。
+ */
+public class DocumentIngestorTest {
+
+    @TempDir
+    Path dir;
+
+    private final HashEmbeddingModel embeddingModel = new HashEmbeddingModel(64);
+
+    private Path corpus() throws IOException {
+        Path corpus = Files.createDirectories(dir.resolve("document"));
+        Files.writeString(corpus.resolve("love.md"), """
+                # 恋爱篇
+
+                ## 争吵
+
+                恋爱中如何处理争吵和冷战
+
+                ## 异地
+
+                异地恋如何维持感情
+                """);
+        Files.writeString(corpus.resolve("single.md"), """
+                # 单身篇
+
+                单身时如何扩大社交圈
+                """);
+        return corpus;
+    }
+
+    private static List<Document> load(Path corpus) {
+        return new AppDocumentLoader(new PathMatchingResourcePatternResolver())
+                .loadMarkdowns(corpus.toUri() + "*.md");
+    }
+
+    private MappedVectorStore open() {
+        return MappedVectorStore.builder(embeddingModel, dir.resolve("store")).build();
+    }
+
+    private DocumentIngestor ingestor(MappedVectorStore store) {
+        return new DocumentIngestor(store, dir.resolve("store").resolve("ingest-manifest.json"));
+    }
+
+    @Test
+    void only_new_or_changed_chunks_are_embedded() throws IOException {
+        Path corpus = corpus();
+        try (MappedVectorStore store = open()) {
+            DocumentIngestor.Report first = ingestor(store).ingest(load(corpus));
+            assertEquals(0, first.deleted());
+            assertEquals(store.size(), first.added());
+        }
+        int embedded = embeddingModel.texts();
+
+        // 重启后语料不变：不产生嵌入调用
+        try (MappedVectorStore store = open()) {
+            DocumentIngestor.Report unchanged = ingestor(store).ingest(load(corpus));
+            assertEquals(new DocumentIngestor.Report(0, 0, store.size(), 0), unchanged);
+            assertEquals(embedded, embeddingModel.texts());
+        }
+
+        // 改一段正文、删掉一个文件
+        Files.writeString(corpus.resolve("love.md"),
+                Files.readString(corpus.resolve("love.md")).replace("异地恋如何维持感情", "异地恋如何保持信任"));
+        Files.delete(corpus.resolve("single.md"));
+        try (MappedVectorStore store = open()) {
+            DocumentIngestor.Report changed = ingestor(store).ingest(load(corpus));
+            assertEquals(1, changed.added());
+            assertEquals(1, embeddingModel.texts() - embedded);
+            // 变化前的旧版本与 single.md 的分块
+            assertEquals(2, changed.deleted());
+            List<Document> hits = store.similaritySearch(SearchRequest.builder().query("单身社交").topK(10).build());
+            assertTrue(hits.stream().noneMatch(d -> "single.md".equals(d.getMetadata().get("filename"))));
+            assertTrue(hits.stream().anyMatch(d -> d.getText().contains("异地恋如何保持信任")));
+        }
+    }
+
+    @Test
+    void heading_path_is_recorded_and_ids_are_stable() throws IOException {
+        Path corpus = corpus();
+        List<String> ids;
+        try (MappedVectorStore store = open()) {
+            ingestor(store).ingest(load(corpus));
+            ids = store.ids().stream().sorted().toList();
+            Document hit = store.similaritySearch(SearchRequest.builder().query("异地恋如何维持感情").topK(1).build()).get(0);
+            assertEquals("恋爱篇 > 异地", hit.getMetadata().get(AppDocumentLoader.HEADING_PATH));
+            assertNotNull(hit.getMetadata().get(DocumentIngestor.CONTENT_HASH));
+        }
+
+        // 清单丢失且向量库被清空：按库中实际数据重新入库，ID 与上次一致
+        Files.delete(dir.resolve("store").resolve("ingest-manifest.json"));
+        try (MappedVectorStore store = open()) {
+            store.delete(new ArrayList<>(store.ids()));
+            DocumentIngestor.Report report = ingestor(store).ingest(load(corpus));
+            assertEquals(ids.size(), report.added());
+            assertEquals(ids, store.ids().stream().sorted().toList());
+        }
+    }
+}
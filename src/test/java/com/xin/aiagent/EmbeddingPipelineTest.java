@@ -0,0 +1,142 @@
+package com.xin.aiagent;
+
+import com.xin.aiagent.config.VectorIngestProperties;
+import com.xin.aiagent.rag.EmbeddingPipeline;
+import com.xin.aiagent.vector.MappedVectorStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.retry.TransientAiException;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 嵌入流水线测试：按 token 与分块数分批、并行度上限、失败批次重试与放弃、限速、进度回调。
+ */
+public class EmbeddingPipelineTest {
+
+    @TempDir
+    Path dir;
+
+    /**
+     * 记录每次嵌入请求的条数与并发峰值，可让前若干次请求失败
+     */
+    static final class RecordingEmbeddingModel extends HashEmbeddingModel {
+        final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final AtomicInteger failuresLeft = new AtomicInteger();
+        volatile String poison;
+
+        RecordingEmbeddingModel() {
+            super(32);
+        }
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+                if (failuresLeft.getAndDecrement() > 0) {
+                    throw new TransientAiException("503 - overloaded");
+                }
+                if (poison != null && request.getInstructions().stream().anyMatch(poison::equals)) {
+                    throw new TransientAiException("503 - always failing");
+                }
+                batchSizes.add(request.getInstructions().size());
+                return super.call(request);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    private static List<Document> chunks(int count) {
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            // 每个分块 10 个汉字，约 10 token
+            documents.add(new Document("doc-" + i, "恋爱婚姻单身社交第" + String.format("%02d", i), Map.of()));
+        }
+        return documents;
+    }
+
+    private static VectorIngestProperties properties() {
+        VectorIngestProperties properties = new VectorIngestProperties();
+        properties.setBatchMaxTokens(35);
+        properties.setBatchMaxChunks(100);
+        properties.setParallelism(3);
+        properties.setInitialBackoffMs(10);
+        properties.setMaxBackoffMs(20);
+        return properties;
+    }
+
+    @Test
+    void batches_are_token_bounded_and_run_in_parallel() {
+        RecordingEmbeddingModel model = new RecordingEmbeddingModel();
+        List<EmbeddingPipeline.Progress> progress = new CopyOnWriteArrayList<>();
+        try (MappedVectorStore store = MappedVectorStore.builder(model, dir).build()) {
+            EmbeddingPipeline.Report report = new EmbeddingPipeline(store, properties()).add(chunks(30), progress::add);
+
+            assertEquals(30, store.size());
+            assertEquals(10, report.batches());
+            assertTrue(model.batchSizes.stream().allMatch(size -> size <= 3), model.batchSizes.toString());
+            assertTrue(model.maxInFlight.get() > 1 && model.maxInFlight.get() <= 3, "max in flight " + model.maxInFlight);
+            assertEquals(300, report.tokens());
+            assertTrue(report.failed().isEmpty());
+            assertEquals(10, progress.size());
+            assertEquals(30, progress.stream().mapToInt(EmbeddingPipeline.Progress::doneChunks).max().orElse(0));
+        }
+    }
+
+    @Test
+    void chunk_count_bounds_batches_too() {
+        RecordingEmbeddingModel model = new RecordingEmbeddingModel();
+        VectorIngestProperties properties = properties();
+        properties.setBatchMaxTokens(10_000);
+        properties.setBatchMaxChunks(8);
+        try (MappedVectorStore store = MappedVectorStore.builder(model, dir).build()) {
+            assertEquals(4, new EmbeddingPipeline(store, properties).add(chunks(30)).batches());
+            assertEquals(List.of(6, 8, 8, 8), model.batchSizes.stream().sorted().toList());
+        }
+    }
+
+    @Test
+    void failed_batches_are_retried_then_given_up() {
+        RecordingEmbeddingModel model = new RecordingEmbeddingModel();
+        model.failuresLeft.set(2);
+        model.poison = "恋爱婚姻单身社交第07";
+        try (MappedVectorStore store = MappedVectorStore.builder(model, dir).build()) {
+            EmbeddingPipeline.Report report = new EmbeddingPipeline(store, properties()).add(chunks(30));
+
+            // 含 doc-7 的批次（doc-6..8）重试用尽，其余批次在重试后成功
+            assertEquals(List.of("doc-6", "doc-7", "doc-8"),
+                    report.failed().stream().map(Document::getId).sorted().toList());
+            assertEquals(27, store.size());
+            // doc-7 所在批次重试 3 次；前两次瞬时失败可能落在任意批次上
+            assertTrue(report.retries() >= 3, "retries " + report.retries());
+        }
+    }
+
+    @Test
+    void requests_are_paced() {
+        RecordingEmbeddingModel model = new RecordingEmbeddingModel();
+        VectorIngestProperties properties = properties();
+        properties.setRequestsPerSecond(20);
+        try (MappedVectorStore store = MappedVectorStore.builder(model, dir).build()) {
+            EmbeddingPipeline.Report report = new EmbeddingPipeline(store, properties).add(chunks(30));
+            // 10 批、每秒 20 批：首批立即放行，其余间隔 50ms
+            assertTrue(report.elapsedMs() >= 9 * 50 - 20, "elapsed " + report.elapsedMs());
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.xin.aiagent;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 离线向量模型（仅测试使用）：与 OpenAiStubServer 相同的字符二元组哈希向量，记录调用次数与嵌入的文本数。
+ */
+public class HashEmbeddingModel implements EmbeddingModel {
+
+    private final int dimensions;
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger texts = new AtomicInteger();
+
+    public HashEmbeddingModel(int dimensions) {
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        calls.incrementAndGet();
+        texts.addAndGet(request.getInstructions().size());
+        List<Embedding> embeddings = new ArrayList<>();
+        for (int i = 0; i < request.getInstructions().size(); i++) {
+            embeddings.add(new Embedding(OpenAiStubServer.embed(request.getInstructions().get(i), dimensions), i));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getText());
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    public int calls() {
+        return calls.get();
+    }
+
+    public int texts() {
+        return texts.get();
+    }
+}
@@ -0,0 +1,151 @@
+package com.xin.aiagent;
+
+import com.xin.aiagent.common.BusinessException;
+import com.xin.aiagent.common.ResultCode;
+import com.xin.aiagent.config.UpstreamCallProperties;
+import com.xin.aiagent.upstream.Deadline;
+import com.xin.aiagent.upstream.HedgingChatModel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.tool.function.FunctionToolCallback;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * 截止时间与对冲请求测试：慢请求被对冲副本抢先、工具模式不对冲、超过截止时间取消；
+ * 流式调用的截止时间只约束首包，之后按分片间隔判断卡住。
+ */
+public class HedgingChatModelTest {
+
+    private final ChatModel delegate = mock(ChatModel.class);
+
+    private static UpstreamCallProperties.Hedge hedge(boolean enabled) {
+        UpstreamCallProperties.Hedge hedge = new UpstreamCallProperties.Hedge();
+        hedge.setEnabled(enabled);
+        hedge.setInitialDelayMs(50);
+        hedge.setMaxRatio(1.0);
+        return hedge;
+    }
+
+    private ChatModel model(boolean hedged) {
+        return model(hedged, new UpstreamCallProperties.Budget());
+    }
+
+    private ChatModel model(boolean hedged, UpstreamCallProperties.Budget budget) {
+        return new HedgingChatModel(delegate, hedge(hedged), budget, new SimpleMeterRegistry());
+    }
+
+    private static ChatResponse answer(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+
+    /** 第一次调用很慢，之后的调用立即返回 */
+    private void slowFirstCall() {
+        AtomicInteger calls = new AtomicInteger();
+        when(delegate.call(any(Prompt.class))).thenAnswer(inv -> {
+            if (calls.incrementAndGet() == 1) {
+                Thread.sleep(2_000);
+                return answer("slow");
+            }
+            return answer("fast");
+        });
+    }
+
+    @Test
+    void slow_call_is_hedged_and_fast_copy_wins() {
+        slowFirstCall();
+        ChatModel model = model(true);
+
+        long start = System.nanoTime();
+        ChatResponse response = model.call(new Prompt("hi"));
+        assertEquals("fast", response.getResult().getOutput().getText());
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 1_500);
+        verify(delegate, times(2)).call(any(Prompt.class));
+    }
+
+    @Test
+    void tool_calls_are_never_hedged() {
+        slowFirstCall();
+        ChatModel model = model(true);
+
+        Prompt prompt = new Prompt("hi", ToolCallingChatOptions.builder()
+                .toolCallbacks(FunctionToolCallback.builder("searchWeb", (String query) -> "ok")
+                        .inputType(String.class)
+                        .build())
+                .build());
+        assertEquals("slow", model.call(prompt).getResult().getOutput().getText());
+        verify(delegate, times(1)).call(any(Prompt.class));
+    }
+
+    @Test
+    void call_past_deadline_is_cancelled() {
+        slowFirstCall();
+        ChatModel model = model(false);
+
+        long start = System.nanoTime();
+        BusinessException e = assertThrows(BusinessException.class,
+                () -> Deadline.callWithin(Deadline.after(100), () -> model.call(new Prompt("hi"))));
+        assertEquals(ResultCode.UPSTREAM_TIMEOUT, e.getCodeEnum());
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 1_500);
+    }
+
+    @Test
+    void stream_hedge_wins_on_first_chunk_and_deadline_applies() {
+        AtomicInteger calls = new AtomicInteger();
+        when(delegate.stream(any(Prompt.class))).thenAnswer(inv -> calls.incrementAndGet() == 1
+                ? Flux.just(answer("slow")).delaySubscription(Duration.ofSeconds(2))
+                : Flux.just(answer("fa"), answer("st")));
+        ChatModel model = model(true);
+
+        List<String> parts = model.stream(new Prompt("hi"))
+                .map(r -> r.getResult().getOutput().getText())
+                .collectList()
+                .block(Duration.ofSeconds(1));
+        assertEquals(List.of("fa", "st"), parts);
+
+        ChatModel unhedged = model(false);
+        calls.set(0);
+        BusinessException e = assertThrows(BusinessException.class, () -> unhedged.stream(new Prompt("hi"))
+                .contextWrite(Deadline.writeTo(Deadline.after(100)))
+                .blockLast(Duration.ofSeconds(1)));
+        assertEquals(ResultCode.UPSTREAM_TIMEOUT, e.getCodeEnum());
+    }
+
+    @Test
+    void stream_deadline_bounds_first_chunk_not_total_length() {
+        UpstreamCallProperties.Budget budget = new UpstreamCallProperties.Budget();
+        budget.setStreamIdleMs(200);
+        ChatModel model = model(false, budget);
+
+        // 首包很快、之后持续输出：总时长超过截止时间也不截断
+        when(delegate.stream(any(Prompt.class))).thenReturn(Flux.interval(Duration.ofMillis(50)).take(8)
+                .map(i -> answer("p" + i)));
+        List<String> parts = model.stream(new Prompt("hi"))
+                .contextWrite(Deadline.writeTo(Deadline.after(150)))
+                .map(r -> r.getResult().getOutput().getText())
+                .collectList()
+                .block(Duration.ofSeconds(2));
+        assertEquals(8, parts.size());
+
+        // 首包之后卡住超过 stream-idle-ms：视为超时
+        when(delegate.stream(any(Prompt.class))).thenReturn(Flux.concat(Flux.just(answer("p0")),
+                Flux.just(answer("p1")).delaySubscription(Duration.ofSeconds(2))));
+        BusinessException e = assertThrows(BusinessException.class, () -> model.stream(new Prompt("hi"))
+                .contextWrite(Deadline.writeTo(Deadline.after(10_000)))
+                .blockLast(Duration.ofSeconds(1)));
+        assertEquals(ResultCode.UPSTREAM_TIMEOUT, e.getCodeEnum());
+    }
+}
@@ -0,0 +1,147 @@
+package com.xin.aiagent;
+
+import com.xin.aiagent.vector.HnswIndex;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * HNSW 索引测试：与精确检索对比的召回率、多线程并发插入、墓碑与过滤条件。
+ */
+public class HnswIndexTest {
+
+    private static final int DIMENSIONS = 32;
+
+    /**
+     * 聚类分布的单位向量：100 个中心，各点在中心附近加噪声
+     */
+    static float[][] clustered(int count, int dimensions, long seed) {
+        Random random = new Random(seed);
+        float[][] centroids = new float[100][dimensions];
+        for (float[] centroid : centroids) {
+            for (int d = 0; d < dimensions; d++) {
+                centroid[d] = (float) random.nextGaussian();
+            }
+        }
+        float[][] vectors = new float[count][];
+        for (int i = 0; i < count; i++) {
+            float[] centroid = centroids[random.nextInt(centroids.length)];
+            float[] v = new float[dimensions];
+            for (int d = 0; d < dimensions; d++) {
+                v[d] = centroid[d] + (float) random.nextGaussian() * 0.5f;
+            }
+            vectors[i] = unit(v);
+        }
+        return vectors;
+    }
+
+    static float[] unit(float[] v) {
+        double norm = 0;
+        for (float x : v) {
+            norm += x * x;
+        }
+        float[] u = new float[v.length];
+        for (int i = 0; i < v.length; i++) {
+            u[i] = (float) (v[i] / Math.sqrt(norm));
+        }
+        return u;
+    }
+
+    private static HnswIndex index(float[][] data) {
+        return new HnswIndex(new HnswIndex.Vectors() {
+            @Override
+            public double similarity(float[] query, int node) {
+                double dot = 0;
+                for (int i = 0; i < query.length; i++) {
+                    dot += query[i] * data[node][i];
+                }
+                return dot;
+            }
+
+            @Override
+            public float[] vector(int node) {
+                return data[node];
+            }
+        }, 16, 100);
+    }
+
+    private static Set<Integer> exact(float[][] data, float[] query, int k) {
+        return new HashSet<>(IntStream.range(0, data.length).boxed()
+                .sorted(Comparator.comparingDouble(i -> -dot(data[i], query)))
+                .limit(k).toList());
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    private static double recall(HnswIndex index, float[][] data, float[][] queries, int k, int ef) {
+        int hits = 0;
+        for (float[] query : queries) {
+            Set<Integer> truth = exact(data, query, k);
+            for (HnswIndex.Result result : index.search(query, k, ef, null)) {
+                if (truth.contains(result.node())) {
+                    hits++;
+                }
+            }
+        }
+        return (double) hits / (queries.length * k);
+    }
+
+    @Test
+    void concurrent_inserts_reach_high_recall() throws Exception {
+        float[][] data = clustered(3000, DIMENSIONS, 1);
+        float[][] queries = clustered(50, DIMENSIONS, 2);
+        HnswIndex index = index(data);
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = thread; i < data.length; i += 8) {
+                        index.add(i);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        assertEquals(data.length, index.size());
+        assertTrue(recall(index, data, queries, 10, 100) >= 0.95);
+        // ef 越大召回不降
+        assertTrue(recall(index, data, queries, 10, 200) >= recall(index, data, queries, 10, 10) - 1e-9);
+    }
+
+    @Test
+    void deleted_and_filtered_nodes_are_excluded() {
+        float[][] data = clustered(500, DIMENSIONS, 3);
+        HnswIndex index = index(data);
+        for (int i = 0; i < data.length; i++) {
+            index.add(i);
+        }
+        assertEquals(7, index.search(data[7], 1, 50, null).get(0).node());
+
+        index.markDeleted(7);
+        assertTrue(index.search(data[7], 10, 50, null).stream().noneMatch(r -> r.node() == 7));
+
+        List<HnswIndex.Result> even = index.search(data[9], 10, 50, node -> node % 2 == 0);
+        assertEquals(10, even.size());
+        assertTrue(even.stream().allMatch(r -> r.node() % 2 == 0));
+    }
+}
@@ -0,0 +1,143 @@
+package com.xin.aiagent;
+
+import com.xin.aiagent.config.HybridRetrievalProperties;
+import com.xin.aiagent.config.VectorIngestProperties;
+import com.xin.aiagent.config.VectorStoreProperties;
+import com.xin.aiagent.config.VectorWarmupProperties;
+import com.xin.aiagent.rag.AppDocumentLoader;
+import com.xin.aiagent.rag.Bm25Index;
+import com.xin.aiagent.rag.HybridDocumentRetriever;
+import com.xin.aiagent.rag.VectorStoreWarmup;
+import com.xin.aiagent.vector.MappedVectorStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.rag.Query;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 混合检索测试：中文二元组与标识符分词、BM25 精确命中错误码、RRF 融合去重、嵌入超时与预热期间只用关键词结果。
+ */
+public class HybridRetrievalTest {
+
+    @TempDir
+    Path dir;
+
+    private static final List<Document> DOCUMENTS = List.of(
+            new Document("恋爱中如何处理争吵：先冷静，再沟通彼此的感受。", Map.of("filename", "love.md")),
+            new Document("异地恋需要固定的联系时间和见面计划。", Map.of("filename", "love.md")),
+            new Document("登录失败返回错误码 ERR-1042，表示令牌已过期，请重新登录。", Map.of("filename", "faq.md")),
+            new Document("婚后如何分配家务：列清单，按各自擅长的分工。", Map.of("filename", "marriage.md")),
+            new Document("单身时多参加兴趣社团，扩大社交圈。", Map.of("filename", "single.md")));
+
+    /**
+     * 可设置每次嵌入请求的延迟
+     */
+    static final class SlowEmbeddingModel extends HashEmbeddingModel {
+        volatile long delayMs;
+
+        SlowEmbeddingModel() {
+            super(64);
+        }
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return super.call(request);
+        }
+    }
+
+    private VectorStoreWarmup warmup(MappedVectorStore store, VectorWarmupProperties.WhileIndexing whileIndexing) {
+        VectorStoreProperties storeProperties = new VectorStoreProperties();
+        storeProperties.setPath(dir.toString());
+        VectorWarmupProperties warmupProperties = new VectorWarmupProperties();
+        warmupProperties.setWhileIndexing(whileIndexing);
+        return new VectorStoreWarmup(store, new AppDocumentLoader(new PathMatchingResourcePatternResolver()),
+                storeProperties, new VectorIngestProperties(), warmupProperties, false);
+    }
+
+    private static HybridRetrievalProperties properties() {
+        HybridRetrievalProperties properties = new HybridRetrievalProperties();
+        properties.setTopK(3);
+        properties.setCandidates(5);
+        properties.setVectorTimeoutMs(100);
+        properties.setVectorCooldownMs(60_000);
+        return properties;
+    }
+
+    @Test
+    void tokenizes_cjk_bigrams_and_whole_identifiers() {
+        Bm25Index index = Bm25Index.build(DOCUMENTS);
+        List<Document> hits = index.search("err-1042", 3);
+        assertEquals(1, hits.size());
+        assertTrue(hits.get(0).getText().contains("ERR-1042"));
+
+        // 中文按二元组匹配，问句中的其他字不影响命中
+        assertTrue(index.search("吵架了怎么办，争吵", 1).get(0).getText().contains("争吵"));
+        assertTrue(index.search("异地恋", 1).get(0).getText().contains("异地恋"));
+        assertTrue(index.search("完全无关 xyz", 3).isEmpty());
+    }
+
+    @Test
+    void fuses_lexical_and_vector_hits_without_duplicates() {
+        try (MappedVectorStore store = MappedVectorStore.builder(new SlowEmbeddingModel(), dir).build()) {
+            store.add(DOCUMENTS.stream().map(d -> new Document(d.getText(), d.getMetadata())).toList());
+            HybridDocumentRetriever retriever = new HybridDocumentRetriever(store, Bm25Index.build(DOCUMENTS),
+                    warmup(store, VectorWarmupProperties.WhileIndexing.PARTIAL), properties());
+
+            List<Document> results = retriever.retrieve(new Query("登录提示 ERR-1042 怎么办"));
+            assertEquals(3, results.size());
+            assertTrue(results.get(0).getText().contains("ERR-1042"));
+            assertEquals(3, results.stream().map(Document::getText).distinct().count());
+            // 两路都命中的分块得分为两个倒数排名之和
+            assertEquals(2.0 / 61, results.get(0).getScore(), 1e-9);
+        }
+    }
+
+    @Test
+    void slow_embedding_falls_back_to_keywords_and_cools_down() {
+        SlowEmbeddingModel model = new SlowEmbeddingModel();
+        try (MappedVectorStore store = MappedVectorStore.builder(model, dir).build()) {
+            store.add(DOCUMENTS.stream().map(d -> new Document(d.getText(), d.getMetadata())).toList());
+            model.delayMs = 1_000;
+            HybridDocumentRetriever retriever = new HybridDocumentRetriever(store, Bm25Index.build(DOCUMENTS),
+                    warmup(store, VectorWarmupProperties.WhileIndexing.PARTIAL), properties());
+
+            long start = System.nanoTime();
+            List<Document> results = retriever.retrieve(new Query("ERR-1042"));
+            assertTrue(System.nanoTime() - start < 800_000_000L, "must not wait for the slow embedding");
+            assertEquals(1, results.size());
+            assertTrue(results.get(0).getText().contains("ERR-1042"));
+            assertFalse(retriever.vectorAvailable());
+
+            int calls = model.calls();
+            retriever.retrieve(new Query("异地恋"));
+            assertEquals(calls, model.calls(), "vector search is skipped during cool-down");
+        }
+    }
+
+    @Test
+    void keyword_only_while_warming_up_in_skip_mode() {
+        SlowEmbeddingModel model = new SlowEmbeddingModel();
+        try (MappedVectorStore store = MappedVectorStore.builder(model, dir).build()) {
+            HybridDocumentRetriever retriever = new HybridDocumentRetriever(store, Bm25Index.build(DOCUMENTS),
+                    warmup(store, VectorWarmupProperties.WhileIndexing.SKIP), properties());
+            assertFalse(retriever.vectorAvailable());
+            List<Document> results = retriever.retrieve(new Query("婚后家务怎么分"));
+            assertTrue(results.get(0).getText().contains("家务"));
+            assertEquals(0, model.calls());
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.xin.aiagent;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 压测驱动（仅测试使用）：固定数量的并发客户端（虚拟线程）各自顺序发送请求，汇总吞吐、p50/p99 延迟与首字节时间。
+ * - 普通接口的首字节时间为收到响应体第一个字节；
+ * - SSE 接口的首字节时间为收到第一个 delta 事件（即用户看到的首个字），以 done 事件结束且无 error 事件才算成功；
+ *   既没有 done 也没有 error 事件（流被中断或超时）记为未终结。
+ */
+public final class LoadDriver {
+
+    private LoadDriver() {
+    }
+
+    /**
+     * 单次请求的结果
+     *
+     * @param status HTTP 状态码，连接失败时为 -1
+     * @param terminated 请求是否有明确的结局：普通接口读完响应体，SSE 收到 done 或 error 事件
+     * @param ttfbNanos 首字节时间，未收到时为 -1
+     */
+    public record Sample(boolean ok, int status, boolean terminated, long ttfbNanos, long latencyNanos) {
+    }
+
+    /**
+     * 一个客户端的第 seq 次请求
+     */
+    @FunctionalInterface
+    public interface Request {
+        Sample execute(int client, int seq) throws Exception;
+    }
+
+    /**
+     * 一轮压测的汇总
+     */
+    public record Report(String name, int clients, int requests, int errors, int unterminated, double seconds,
+                         long latencyP50Ms, long latencyP99Ms, long ttfbP50Ms, long ttfbP99Ms) {
+
+        public double throughput() {
+            return seconds <= 0 ? 0 : requests / seconds;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-24s clients=%-3d requests=%-5d errors=%-4d unterminated=%-4d throughput=%7.1f req/s"
+                            + "  latency p50=%5dms p99=%5dms  ttfb p50=%5dms p99=%5dms",
+                    name, clients, requests, errors, unterminated, throughput(),
+                    latencyP50Ms, latencyP99Ms, ttfbP50Ms, ttfbP99Ms);
+        }
+    }
+
+    /**
+     * 运行一轮压测并打印汇总
+     *
+     * @param clients 并发客户端数
+     * @param requestsPerClient 每个客户端的请求数
+     */
+    public static Report run(String name, int clients, int requestsPerClient, Request request) throws Exception {
+        List<Future<List<Sample>>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clients; c++) {
+                int client = c;
+                futures.add(executor.submit(() -> {
+                    List<Sample> samples = new ArrayList<>(requestsPerClient);
+                    for (int seq = 0; seq < requestsPerClient; seq++) {
+                        long begin = System.nanoTime();
+                        try {
+                            samples.add(request.execute(client, seq));
+                        } catch (Exception e) {
+                            samples.add(new Sample(false, -1, false, -1, System.nanoTime() - begin));
+                        }
+                    }
+                    return samples;
+                }));
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        List<Sample> samples = new ArrayList<>();
+        for (Future<List<Sample>> future : futures) {
+            samples.addAll(future.get());
+        }
+        long[] latencies = samples.stream().mapToLong(Sample::latencyNanos).sorted().toArray();
+        long[] ttfbs = samples.stream().mapToLong(Sample::ttfbNanos).filter(t -> t >= 0).sorted().toArray();
+        int errors = (int) samples.stream().filter(s -> !s.ok()).count();
+        int unterminated = (int) samples.stream().filter(s -> !s.terminated()).count();
+        Report report = new Report(name, clients, samples.size(), errors, unterminated, seconds,
+                percentileMs(latencies, 0.5), percentileMs(latencies, 0.99),
+                percentileMs(ttfbs, 0.5), percentileMs(ttfbs, 0.99));
+        System.out.println("[load] " + report);
+        return report;
+    }
+
+    /**
+     * 发送普通请求并读完响应体；2xx 为成功
+     */
+    public static Sample exchange(HttpClient client, HttpRequest request) throws Exception {
+        long start = System.nanoTime();
+        HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        long ttfb = -1;
+        try (InputStream body = response.body()) {
+            byte[] buffer = new byte[8192];
+            int n = body.read(buffer);
+            if (n >= 0) {
+                ttfb = System.nanoTime() - start;
+            }
+            while (n >= 0) {
+                n = body.read(buffer);
+            }
+        }
+        int status = response.statusCode();
+        return new Sample(status / 100 == 2, status, true, ttfb, System.nanoTime() - start);
+    }
+
+    /**
+     * 发送 SSE 请求并读到流结束
+     */
+    public static Sample stream(HttpClient client, HttpRequest request) throws Exception {
+        long start = System.nanoTime();
+        HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        long ttfb = -1;
+        boolean done = false;
+        boolean failed = false;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(response.body(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (ttfb < 0 && line.startsWith("data:") && line.contains("\"type\":\"delta\"")) {
+                    ttfb = System.nanoTime() - start;
+                } else if (line.startsWith("data:") && line.contains("\"type\":\"error\"")) {
+                    failed = true;
+                } else if (line.startsWith("event:") && line.substring(6).strip().equals("done")) {
+                    done = true;
+                }
+            }
+        }
+        int status = response.statusCode();
+        return new Sample(status == 200 && done && !failed, status, done || failed, ttfb, System.nanoTime() - start);
+    }
+
+    private static long percentileMs(long[] sortedNanos, double percentile) {
+        if (sortedNanos.length == 0) {
+            return -1;
+        }
+        int rank = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+        return TimeUnit.NANOSECONDS.toMillis(sortedNanos[Math.max(0, Math.min(rank, sortedNanos.length - 1))]);
+    }
+}
@@ -0,0 +1,279 @@
+package com.xin.aiagent;
+
+import com.xin.aiagent.vector.MappedVectorStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 内存映射向量库测试：重启后不重新嵌入即可检索、删除与覆盖后压缩换代（含 HNSW 重建）、日志残缺记录截断、元数据过滤、
+ * 并发写入（图插入不持有存储锁）与检索、压缩期间的写入在换代时补写。
+ */
+public class MappedVectorStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private final HashEmbeddingModel embeddingModel = new HashEmbeddingModel(64);
+
+    private MappedVectorStore open() {
+        return MappedVectorStore.builder(embeddingModel, dir).minCompactionRows(2).compactionThreshold(0.4).build();
+    }
+
+    private static List<Document> docs() {
+        return List.of(
+                new Document("a", "恋爱中如何处理争吵和冷战", Map.of("filename", "love.md")),
+                new Document("b", "婚后夫妻沟通减少怎么办", Map.of("filename", "marriage.md")),
+                new Document("c", "单身时如何扩大社交圈", Map.of("filename", "single.md")));
+    }
+
+    private static SearchRequest query(String text) {
+        return SearchRequest.builder().query(text).topK(2).build();
+    }
+
+    @Test
+    void reopen_loads_documents_without_re_embedding() {
+        try (MappedVectorStore store = open()) {
+            store.add(docs());
+        }
+        int embedded = embeddingModel.texts();
+
+        try (MappedVectorStore store = open()) {
+            assertEquals(3, store.size());
+            assertEquals(embedded, embeddingModel.texts());
+            List<Document> hits = store.similaritySearch(query("婚后夫妻沟通"));
+            assertEquals("b", hits.get(0).getId());
+            assertEquals("婚后夫妻沟通减少怎么办", hits.get(0).getText());
+            assertEquals("marriage.md", hits.get(0).getMetadata().get("filename"));
+            assertTrue(hits.get(0).getScore() > hits.get(1).getScore());
+        }
+    }
+
+    @Test
+    void deletes_and_overwrites_trigger_compaction() throws IOException {
+        try (MappedVectorStore store = open()) {
+            store.add(docs());
+            store.add(List.of(new Document("a", "恋爱中如何处理分歧", Map.of("filename", "love.md"))));
+            assertEquals(1, store.deadRows());
+            // 第二个死行：2/4 超过 0.4，自动压缩
+            store.delete(List.of("c"));
+            assertEquals(0, store.deadRows());
+            assertEquals(2, store.size());
+            assertEquals("恋爱中如何处理分歧", store.similaritySearch(query("恋爱分歧")).get(0).getText());
+        }
+        assertEquals("1", Files.readString(dir.resolve("CURRENT")).strip());
+        assertFalse(Files.exists(dir.resolve("documents-0.log")));
+
+        try (MappedVectorStore store = open()) {
+            assertEquals(2, store.size());
+            assertEquals("恋爱中如何处理分歧", store.similaritySearch(query("恋爱分歧")).get(0).getText());
+        }
+    }
+
+    @Test
+    void torn_log_tail_is_truncated() throws IOException {
+        try (MappedVectorStore store = open()) {
+            store.add(docs());
+        }
+        Path log = dir.resolve("documents-0.log");
+        long size = Files.size(log);
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            // 模拟写到一半崩溃：长度声明 100 字节，实际只写了 3 字节
+            channel.write(ByteBuffer.allocate(11).putInt(100).putInt(0).put(new byte[]{1, 2, 3}).flip(), size);
+        }
+
+        try (MappedVectorStore store = open()) {
+            assertEquals(3, store.size());
+            store.add(List.of(new Document("d", "异地恋如何维持感情", Map.of("filename", "love.md"))));
+        }
+        try (MappedVectorStore store = open()) {
+            assertEquals(4, store.size());
+        }
+    }
+
+    @Test
+    void hnsw_index_is_rebuilt_on_reopen_and_honours_deletes() {
+        try (MappedVectorStore store = MappedVectorStore.builder(embeddingModel, dir).hnsw(8, 50, 32).build()) {
+            store.add(docs());
+            assertEquals("b", store.similaritySearch(query("婚后夫妻沟通")).get(0).getId());
+            store.delete(List.of("b"));
+            assertTrue(store.similaritySearch(query("婚后夫妻沟通")).stream().noneMatch(d -> d.getId().equals("b")));
+        }
+        try (MappedVectorStore store = MappedVectorStore.builder(embeddingModel, dir).hnsw(8, 50, 32).build()) {
+            assertEquals("a", store.similaritySearch(query("恋爱中如何处理争吵")).get(0).getId());
+            List<Document> hits = store.similaritySearch(SearchRequest.builder()
+                    .query("恋爱中如何处理争吵").topK(3).filterExpression("filename == 'single.md'").build());
+            assertEquals(List.of("c"), hits.stream().map(Document::getId).toList());
+        }
+    }
+
+    @Test
+    void hnsw_index_is_rebuilt_after_compaction() {
+        try (MappedVectorStore store = MappedVectorStore.builder(embeddingModel, dir).hnsw(8, 50, 32)
+                .minCompactionRows(2).compactionThreshold(0.4).build()) {
+            store.add(docs());
+            store.delete(List.of("b", "c"));
+            assertEquals(0, store.deadRows(), "2/3 死行超过阈值，自动压缩");
+            assertTrue(store.isIndexReady(), "压缩换代后释放写锁即重建索引");
+            assertEquals("a", store.similaritySearch(query("恋爱中如何处理争吵")).get(0).getId());
+
+            store.add(List.of(new Document("d", "异地恋如何维持感情", Map.of("filename", "love.md"))));
+            assertEquals("d", store.similaritySearch(query("异地恋如何维持感情")).get(0).getId());
+        }
+    }
+
+    @Test
+    void concurrent_ingestion_and_search_keep_the_index_consistent() throws Exception {
+        HashEmbeddingModel wide = new HashEmbeddingModel(128);
+        try (MappedVectorStore store = MappedVectorStore.builder(wide, dir).hnsw(16, 100, 64).int8(2)
+                .minCompactionRows(50).compactionThreshold(0.3).build()) {
+            int writers = 4;
+            int batches = 25;
+            int batchSize = 8;
+            int distinct = 300;
+            AtomicBoolean writing = new AtomicBoolean(true);
+            List<Throwable> failures = new CopyOnWriteArrayList<>();
+            // 写入期间持续检索：图插入、建图与压缩换代都不能让检索出错
+            Thread searcher = new Thread(() -> {
+                while (writing.get()) {
+                    try {
+                        store.similaritySearch(SearchRequest.builder().query("文档 7 的内容").topK(5).build());
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }
+            });
+            searcher.start();
+            ExecutorService pool = Executors.newFixedThreadPool(writers);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int w = 0; w < writers; w++) {
+                    int writer = w;
+                    futures.add(pool.submit(() -> {
+                        for (int b = 0; b < batches; b++) {
+                            List<Document> batch = new ArrayList<>();
+                            for (int i = 0; i < batchSize; i++) {
+                                // 同 ID 覆盖写产生死行，触发自动压缩
+                                int n = ((writer * batches + b) * batchSize + i) % distinct;
+                                batch.add(new Document("doc-" + n, "文档 " + n + " 的内容：第 " + n + " 篇",
+                                        Map.of("n", n)));
+                            }
+                            store.add(batch);
+                        }
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get(60, TimeUnit.SECONDS);
+                }
+            } finally {
+                writing.set(false);
+                searcher.join();
+                pool.shutdownNow();
+            }
+            assertTrue(failures.isEmpty(), () -> "检索失败：" + failures);
+            assertEquals(distinct, store.size());
+            assertTrue(store.isIndexReady());
+
+            int found = 0;
+            for (int n = 0; n < distinct; n++) {
+                List<Document> hits = store.similaritySearch(SearchRequest.builder()
+                        .query("文档 " + n + " 的内容：第 " + n + " 篇").topK(1).build());
+                if (!hits.isEmpty() && hits.get(0).getId().equals("doc-" + n)) {
+                    found++;
+                }
+            }
+            assertTrue(found >= distinct * 0.95, "并发插入后 HNSW 召回不足：" + found + "/" + distinct);
+        }
+    }
+
+    @Test
+    void writes_during_compaction_survive_the_generation_switch() throws Exception {
+        Map<String, String> expected = new ConcurrentHashMap<>();
+        try (MappedVectorStore store = MappedVectorStore.builder(embeddingModel, dir)
+                .minCompactionRows(Integer.MAX_VALUE).build()) {
+            List<Document> initial = new ArrayList<>();
+            for (int n = 0; n < 2000; n++) {
+                initial.add(new Document("doc-" + n, "文档 " + n, Map.of("n", n)));
+                expected.put("doc-" + n, "文档 " + n);
+            }
+            store.add(initial);
+            List<String> dead = new ArrayList<>();
+            for (int n = 0; n < 1000; n++) {
+                dead.add("doc-" + n);
+                expected.remove("doc-" + n);
+            }
+            store.delete(dead);
+
+            // 压缩在锁外复制快照，同时进行的删除、覆盖与新增都要在换代时补写进新一代
+            Thread compactor = new Thread(store::compact);
+            compactor.start();
+            for (int n = 1000; n < 1200; n++) {
+                store.delete(List.of("doc-" + n));
+                expected.remove("doc-" + n);
+                store.add(List.of(new Document("doc-" + (n + 100), "改写 " + n, Map.of("n", n))));
+                expected.put("doc-" + (n + 100), "改写 " + n);
+                store.add(List.of(new Document("new-" + n, "新增 " + n, Map.of("n", n))));
+                expected.put("new-" + n, "新增 " + n);
+            }
+            compactor.join();
+            assertEquals(expected.keySet(), store.ids());
+        }
+        assertNotEquals("0", Files.readString(dir.resolve("CURRENT")).strip());
+
+        try (MappedVectorStore store = open()) {
+            assertEquals(expected.keySet(), store.ids(), "重启后不应出现已删除的文档，也不应丢失压缩期间的写入");
+            List<Document> hits = store.similaritySearch(SearchRequest.builder().query("改写 1150").topK(1).build());
+            assertEquals("doc-1250", hits.get(0).getId());
+            assertEquals(expected.get("doc-1250"), hits.get(0).getText());
+        }
+    }
+
+    @Test
+    void int8_quantization_reranks_with_exact_scores() {
+        List<Document> exact;
+        try (MappedVectorStore store = open()) {
+            store.add(docs());
+            exact = store.similaritySearch(query("婚后夫妻沟通"));
+        }
+        try (MappedVectorStore store = MappedVectorStore.builder(embeddingModel, dir).int8(2).build()) {
+            List<Document> hits = store.similaritySearch(query("婚后夫妻沟通"));
+            assertEquals(exact.stream().map(Document::getId).toList(), hits.stream().map(Document::getId).toList());
+            // 精排后返回的是全精度分数
+            assertEquals(exact.get(0).getScore(), hits.get(0).getScore(), 1e-9);
+        }
+        try (MappedVectorStore store = MappedVectorStore.builder(embeddingModel, dir).int8(2).hnsw(8, 50, 32).build()) {
+            assertEquals("b", store.similaritySearch(query("婚后夫妻沟通")).get(0).getId());
+        }
+    }
+
+    @Test
+    void filter_expression_limits_candidates() {
+        try (MappedVectorStore store = open()) {
+            store.add(docs());
+            List<Document> hits = store.similaritySearch(SearchRequest.builder()
+                    .query("恋爱中如何处理争吵").topK(3).filterExpression("filename == 'single.md'").build());
+            assertEquals(1, hits.size());
+            assertEquals("c", hits.get(0).getId());
+        }
+    }
+}
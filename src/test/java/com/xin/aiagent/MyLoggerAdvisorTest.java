@@ -0,0 +1,99 @@
+package com.xin.aiagent;
+
+import com.xin.aiagent.app.MyLoggerAdvisor;
+import com.xin.aiagent.config.ChatLoggingProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.advisor.api.AdvisedRequest;
+import org.springframework.ai.chat.client.advisor.api.AdvisedResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAroundAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAroundAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAroundAdvisorChain;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * 计时/用量 Advisor 测试：同步调用取响应 usage，流式调用记录首包时间并在缺少 usage 时估算，检索标记测得检索耗时。
+ */
+public class MyLoggerAdvisorTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final MyLoggerAdvisor advisor = new MyLoggerAdvisor(registry, new ChatLoggingProperties());
+
+    private static AdvisedRequest request(String mode) {
+        return AdvisedRequest.builder()
+                .chatModel(mock(ChatModel.class))
+                .userText("什么是 RAG")
+                .adviseContext(Map.of(MyLoggerAdvisor.MODE_KEY, mode))
+                .build();
+    }
+
+    private static ChatResponse chunk(String text, DefaultUsage usage) {
+        ChatResponseMetadata.Builder metadata = ChatResponseMetadata.builder().model("deepseek-chat");
+        if (usage != null) {
+            metadata.usage(usage);
+        }
+        return ChatResponse.builder()
+                .generations(List.of(new Generation(new AssistantMessage(text))))
+                .metadata(metadata.build())
+                .build();
+    }
+
+    @Test
+    void call_records_latency_usage_and_retrieval() {
+        CallAroundAdvisorChain chain = mock(CallAroundAdvisorChain.class);
+        CallAroundAdvisor start = (CallAroundAdvisor) MyLoggerAdvisor.RETRIEVAL_START;
+        CallAroundAdvisor end = (CallAroundAdvisor) MyLoggerAdvisor.RETRIEVAL_END;
+        CallAroundAdvisorChain modelChain = mock(CallAroundAdvisorChain.class);
+        when(modelChain.nextAroundCall(any())).thenAnswer(inv -> new AdvisedResponse(
+                chunk("RAG 是检索增强生成", new DefaultUsage(120, 30)), Map.of()));
+        // 链路：logger → start 标记 → end 标记 → 模型
+        when(chain.nextAroundCall(any())).thenAnswer(inv -> start.aroundCall(inv.getArgument(0),
+                mockChain(req -> end.aroundCall(req, modelChain))));
+
+        advisor.aroundCall(request("rag-cloud"), chain);
+
+        assertEquals(1, registry.get("chat.latency").tags("mode", "rag-cloud", "model", "deepseek-chat",
+                "outcome", "success", "cached", "false").timer().count());
+        assertEquals(120, registry.get("chat.tokens").tags("type", "prompt", "source", "usage")
+                .summary().totalAmount());
+        assertEquals(30, registry.get("chat.tokens").tags("type", "completion", "source", "usage")
+                .summary().totalAmount());
+        assertEquals(1, registry.get("chat.retrieval").tags("mode", "rag-cloud").timer().count());
+        assertEquals(1, registry.get("chat.tokens.per_second").summary().count());
+    }
+
+    @Test
+    void stream_records_ttft_and_estimates_tokens_without_usage() {
+        StreamAroundAdvisorChain chain = mock(StreamAroundAdvisorChain.class);
+        when(chain.nextAroundStream(any())).thenReturn(Flux.just(
+                new AdvisedResponse(chunk("检索", null), Map.of()),
+                new AdvisedResponse(chunk("增强", null), Map.of())));
+
+        List<AdvisedResponse> chunks = advisor.aroundStream(request("tools"), chain).collectList().block();
+        assertEquals(2, chunks.size());
+
+        assertEquals(1, registry.get("chat.ttft").tags("mode", "tools").timer().count());
+        assertEquals(4, registry.get("chat.tokens").tags("mode", "tools", "type", "completion", "source", "estimate")
+                .summary().totalAmount());
+        assertTrue(registry.find("chat.retrieval").timers().isEmpty());
+    }
+
+    private static CallAroundAdvisorChain mockChain(java.util.function.Function<AdvisedRequest, AdvisedResponse> next) {
+        CallAroundAdvisorChain chain = mock(CallAroundAdvisorChain.class);
+        when(chain.nextAroundCall(any())).thenAnswer(inv -> next.apply(inv.getArgument(0)));
+        return chain;
+    }
+}
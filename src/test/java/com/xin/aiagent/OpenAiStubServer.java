@@ -0,0 +1,356 @@
+package com.xin.aiagent;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地 OpenAI 兼容桩服务（仅测试使用）：实现 /v1/chat/completions（含 stream=true 的 SSE）与 /v1/embeddings，
+ * 让压测与集成测试在没有 DeepSeek 凭据、没有外网的 CI 机器上运行。
+ * - 时延：首 token 延迟 first-token-delay-ms，之后每个 token 间隔 token-delay-ms；同步调用等待全部 token 的总时长；
+ * - 故障注入：按 rate-limit-rate 返回 429（带 Retry-After），按 error-rate 返回 503；
+ * - 回答：固定中文回答截取 completion-tokens 个 token；请求带 stream_options.include_usage 时最后发送 usage 块；
+ * - 向量：按字符二元组哈希到 dimensions 维并归一化，文本相近则向量相近，结果确定；
+ * - 计数：各端点请求数、注入的错误数、当前与峰值并发，便于断言限流/对冲行为。
+ * 所有参数可在运行中修改（volatile），压测各阶段可以切换故障比例。
+ */
+public class OpenAiStubServer implements AutoCloseable {
+
+    private static final String[] ANSWER = ("检索增强生成会先从知识库中找到与问题最相关的片段，"
+            + "再把这些片段和问题一起交给模型作答，因此回答可以引用最新的资料，也更容易核对来源。").split("");
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private volatile long firstTokenDelayMs = 50;
+    private volatile long tokenDelayMs = 10;
+    private volatile int completionTokens = 40;
+    private volatile long embeddingDelayMs = 5;
+    private volatile int dimensions = 256;
+    private volatile double errorRate;
+    private volatile double rateLimitRate;
+
+    private final AtomicLong chatRequests = new AtomicLong();
+    private final AtomicLong streamRequests = new AtomicLong();
+    private final AtomicLong embeddingRequests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final AtomicInteger peakInflight = new AtomicInteger();
+
+    /**
+     * 在回环地址的随机端口上启动
+     */
+    public OpenAiStubServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        server.setExecutor(executor);
+        server.createContext("/v1/chat/completions", exchange -> handle(exchange, this::chat));
+        server.createContext("/v1/embeddings", exchange -> handle(exchange, this::embeddings));
+        server.start();
+    }
+
+    /**
+     * @return 作为 spring.ai.openai.base-url 使用的地址
+     */
+    public String baseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    public OpenAiStubServer firstTokenDelayMs(long millis) {
+        this.firstTokenDelayMs = millis;
+        return this;
+    }
+
+    public OpenAiStubServer tokenDelayMs(long millis) {
+        this.tokenDelayMs = millis;
+        return this;
+    }
+
+    public OpenAiStubServer completionTokens(int tokens) {
+        this.completionTokens = tokens;
+        return this;
+    }
+
+    public OpenAiStubServer embeddingDelayMs(long millis) {
+        this.embeddingDelayMs = millis;
+        return this;
+    }
+
+    public OpenAiStubServer dimensions(int dimensions) {
+        this.dimensions = dimensions;
+        return this;
+    }
+
+    /**
+     * @param rate 返回 503 的请求比例 [0, 1]
+     */
+    public OpenAiStubServer errorRate(double rate) {
+        this.errorRate = rate;
+        return this;
+    }
+
+    /**
+     * @param rate 返回 429 的请求比例 [0, 1]
+     */
+    public OpenAiStubServer rateLimitRate(double rate) {
+        this.rateLimitRate = rate;
+        return this;
+    }
+
+    public long chatRequests() {
+        return chatRequests.get();
+    }
+
+    public long streamRequests() {
+        return streamRequests.get();
+    }
+
+    public long embeddingRequests() {
+        return embeddingRequests.get();
+    }
+
+    public long injectedErrors() {
+        return injectedErrors.get();
+    }
+
+    public int peakInflight() {
+        return peakInflight.get();
+    }
+
+    /**
+     * 清零计数（不改变时延与故障参数）
+     */
+    public void resetCounters() {
+        chatRequests.set(0);
+        streamRequests.set(0);
+        embeddingRequests.set(0);
+        injectedErrors.set(0);
+        peakInflight.set(inflight.get());
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange, JsonNode body) throws IOException, InterruptedException;
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        int current = inflight.incrementAndGet();
+        peakInflight.accumulateAndGet(current, Math::max);
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendJson(exchange, 405, error("method not allowed", "invalid_request_error"));
+                return;
+            }
+            JsonNode body = mapper.readTree(exchange.getRequestBody());
+            if (injectFault(exchange)) {
+                return;
+            }
+            handler.handle(exchange, body);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // 客户端断开（取消、对冲落败、截止时间）：丢弃即可
+        } finally {
+            inflight.decrementAndGet();
+        }
+    }
+
+    private boolean injectFault(HttpExchange exchange) throws IOException {
+        double draw = ThreadLocalRandom.current().nextDouble();
+        if (draw < rateLimitRate) {
+            injectedErrors.incrementAndGet();
+            exchange.getResponseHeaders().add("Retry-After", "1");
+            sendJson(exchange, 429, error("Rate limit reached, please retry later", "rate_limit_exceeded"));
+            return true;
+        }
+        if (draw < rateLimitRate + errorRate) {
+            injectedErrors.incrementAndGet();
+            sendJson(exchange, 503, error("The server is overloaded", "server_error"));
+            return true;
+        }
+        return false;
+    }
+
+    private void chat(HttpExchange exchange, JsonNode body) throws IOException, InterruptedException {
+        String model = body.path("model").asText("stub-model");
+        int promptTokens = promptTokens(body.path("messages"));
+        int tokens = Math.max(1, completionTokens);
+        if (!body.path("stream").asBoolean(false)) {
+            chatRequests.incrementAndGet();
+            Thread.sleep(firstTokenDelayMs + tokenDelayMs * (tokens - 1));
+            ObjectNode response = completion("chat.completion", model);
+            ObjectNode choice = response.putArray("choices").addObject();
+            choice.put("index", 0);
+            choice.putObject("message").put("role", "assistant").put("content", answer(tokens));
+            choice.put("finish_reason", "stop");
+            response.set("usage", usage(promptTokens, tokens));
+            sendJson(exchange, 200, response);
+            return;
+        }
+
+        streamRequests.incrementAndGet();
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        Thread.sleep(firstTokenDelayMs);
+        for (int i = 0; i < tokens; i++) {
+            if (i > 0 && tokenDelayMs > 0) {
+                Thread.sleep(tokenDelayMs);
+            }
+            ObjectNode chunk = completion("chat.completion.chunk", model);
+            ObjectNode choice = chunk.putArray("choices").addObject();
+            choice.put("index", 0);
+            ObjectNode delta = choice.putObject("delta");
+            if (i == 0) {
+                delta.put("role", "assistant");
+            }
+            delta.put("content", ANSWER[i % ANSWER.length]);
+            choice.putNull("finish_reason");
+            writeEvent(out, chunk);
+        }
+        ObjectNode last = completion("chat.completion.chunk", model);
+        ObjectNode choice = last.putArray("choices").addObject();
+        choice.put("index", 0);
+        choice.putObject("delta");
+        choice.put("finish_reason", "stop");
+        writeEvent(out, last);
+        if (body.path("stream_options").path("include_usage").asBoolean(false)) {
+            ObjectNode usage = completion("chat.completion.chunk", model);
+            usage.putArray("choices");
+            usage.set("usage", usage(promptTokens, tokens));
+            writeEvent(out, usage);
+        }
+        out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private void embeddings(HttpExchange exchange, JsonNode body) throws IOException, InterruptedException {
+        embeddingRequests.incrementAndGet();
+        List<String> inputs = new ArrayList<>();
+        JsonNode input = body.path("input");
+        if (input.isArray()) {
+            input.forEach(node -> inputs.add(node.asText()));
+        } else {
+            inputs.add(input.asText());
+        }
+        if (embeddingDelayMs > 0) {
+            Thread.sleep(embeddingDelayMs);
+        }
+        ObjectNode response = mapper.createObjectNode();
+        response.put("object", "list");
+        ArrayNode data = response.putArray("data");
+        int tokens = 0;
+        for (int i = 0; i < inputs.size(); i++) {
+            ObjectNode item = data.addObject();
+            item.put("object", "embedding");
+            item.put("index", i);
+            ArrayNode vector = item.putArray("embedding");
+            for (float v : embed(inputs.get(i), dimensions)) {
+                vector.add(v);
+            }
+            tokens += inputs.get(i).length();
+        }
+        response.put("model", body.path("model").asText("stub-embedding"));
+        response.putObject("usage").put("prompt_tokens", tokens).put("total_tokens", tokens);
+        sendJson(exchange, 200, response);
+    }
+
+    /**
+     * 字符二元组哈希向量：共享片段越多余弦相似度越高；空文本返回第 0 维的单位向量
+     */
+    static float[] embed(String text, int dimensions) {
+        float[] vector = new float[dimensions];
+        String normalized = text == null ? "" : text.strip().toLowerCase();
+        for (int i = 0; i + 1 < normalized.length(); i++) {
+            int hash = normalized.charAt(i) * 31 + normalized.charAt(i + 1);
+            vector[Math.floorMod(hash * 0x9E3779B1, dimensions)] += 1;
+        }
+        if (normalized.length() == 1) {
+            vector[Math.floorMod(normalized.charAt(0) * 0x9E3779B1, dimensions)] = 1;
+        }
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        if (norm == 0) {
+            vector[0] = 1;
+            return vector;
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] *= scale;
+        }
+        return vector;
+    }
+
+    private static String answer(int tokens) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < tokens; i++) {
+            sb.append(ANSWER[i % ANSWER.length]);
+        }
+        return sb.toString();
+    }
+
+    private static int promptTokens(JsonNode messages) {
+        int chars = 0;
+        for (JsonNode message : messages) {
+            chars += message.path("content").asText("").length();
+        }
+        return Math.max(1, chars / 2);
+    }
+
+    private ObjectNode completion(String object, String model) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("id", "chatcmpl-stub");
+        node.put("object", object);
+        node.put("created", System.currentTimeMillis() / 1000);
+        node.put("model", model);
+        return node;
+    }
+
+    private ObjectNode usage(int promptTokens, int completionTokens) {
+        return mapper.createObjectNode()
+                .put("prompt_tokens", promptTokens)
+                .put("completion_tokens", completionTokens)
+                .put("total_tokens", promptTokens + completionTokens);
+    }
+
+    private ObjectNode error(String message, String type) {
+        ObjectNode node = mapper.createObjectNode();
+        node.putObject("error").put("message", message).put("type", type);
+        return node;
+    }
+
+    private void writeEvent(OutputStream out, JsonNode data) throws IOException {
+        out.write(("data: " + mapper.writeValueAsString(data) + "\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private void sendJson(HttpExchange exchange, int status, JsonNode body) throws IOException {
+        byte[] bytes = mapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+}
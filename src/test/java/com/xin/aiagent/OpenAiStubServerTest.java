@@ -0,0 +1,98 @@
+package com.xin.aiagent;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.ai.openai.OpenAiEmbeddingModel;
+import org.springframework.ai.openai.OpenAiEmbeddingOptions;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.retry.support.RetryTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 桩服务自检：用真实的 Spring AI OpenAI 客户端走一遍同步、流式、向量与故障注入，保证压测替身与线上协议一致。
+ */
+public class OpenAiStubServerTest {
+
+    private OpenAiStubServer stub;
+    private OpenAiChatModel chatModel;
+    private OpenAiEmbeddingModel embeddingModel;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stub = new OpenAiStubServer().firstTokenDelayMs(5).tokenDelayMs(1).completionTokens(8);
+        OpenAiApi api = OpenAiApi.builder().baseUrl(stub.baseUrl()).apiKey("stub").build();
+        RetryTemplate noRetry = RetryTemplate.builder().maxAttempts(1).build();
+        chatModel = OpenAiChatModel.builder()
+                .openAiApi(api)
+                .defaultOptions(OpenAiChatOptions.builder().model("deepseek-chat").streamUsage(true).build())
+                .retryTemplate(noRetry)
+                .build();
+        embeddingModel = new OpenAiEmbeddingModel(api, MetadataMode.EMBED,
+                OpenAiEmbeddingOptions.builder().model("deepseek-embedding").build(), noRetry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        stub.close();
+    }
+
+    @Test
+    void call_and_stream_follow_the_openai_protocol() {
+        ChatResponse response = chatModel.call(new Prompt("什么是 RAG"));
+        assertEquals(8, response.getResult().getOutput().getText().length());
+        assertEquals(8, response.getMetadata().getUsage().getCompletionTokens());
+
+        List<ChatResponse> chunks = chatModel.stream(new Prompt("什么是 RAG")).collectList().block();
+        StringBuilder text = new StringBuilder();
+        chunks.forEach(chunk -> {
+            if (chunk.getResult() != null && chunk.getResult().getOutput().getText() != null) {
+                text.append(chunk.getResult().getOutput().getText());
+            }
+        });
+        assertEquals(response.getResult().getOutput().getText(), text.toString());
+        assertEquals(8, chunks.get(chunks.size() - 1).getMetadata().getUsage().getCompletionTokens());
+        assertEquals(1, stub.chatRequests());
+        assertEquals(1, stub.streamRequests());
+    }
+
+    @Test
+    void embeddings_are_deterministic_and_similarity_preserving() {
+        List<float[]> vectors = embeddingModel.embed(List.of("如何提升检索召回率", "如何提升检索的召回率", "今天天气不错"));
+        assertArrayEquals(vectors.get(0), embeddingModel.embed("如何提升检索召回率"));
+        assertTrue(cosine(vectors.get(0), vectors.get(1)) > 0.8);
+        assertTrue(cosine(vectors.get(0), vectors.get(2)) < 0.3);
+    }
+
+    @Test
+    void injected_faults_map_to_spring_ai_errors() {
+        stub.rateLimitRate(1);
+        NonTransientAiException limited = assertThrows(NonTransientAiException.class,
+                () -> chatModel.call(new Prompt("hi")));
+        assertTrue(limited.getMessage().startsWith("429"));
+
+        stub.rateLimitRate(0).errorRate(1);
+        assertThrows(TransientAiException.class, () -> chatModel.call(new Prompt("hi")));
+        assertEquals(2, stub.injectedErrors());
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0, na = 0, nb = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            na += a[i] * a[i];
+            nb += b[i] * b[i];
+        }
+        return dot / Math.sqrt(na * nb);
+    }
+}
@@ -0,0 +1,97 @@
+package com.xin.aiagent;
+
+import com.xin.aiagent.config.ChatMemoryProperties;
+import com.xin.aiagent.entity.Conversation;
+import com.xin.aiagent.mapper.ConversationMapper;
+import com.xin.aiagent.mapper.MessageMapper;
+import com.xin.aiagent.memory.PersistentChatMemory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * 持久化对话记忆测试：热层有界、窗口裁剪、本人的有效会话写入 messages 表、他人的会话不读不写。
+ */
+public class PersistentChatMemoryTest {
+
+    private final MessageMapper messageMapper = mock(MessageMapper.class);
+    private final ConversationMapper conversationMapper = mock(ConversationMapper.class);
+
+    private PersistentChatMemory memory(int maxConversations, long maxBytes, int windowSize) {
+        ChatMemoryProperties properties = new ChatMemoryProperties();
+        properties.setMaxConversations(maxConversations);
+        properties.setMaxBytes(maxBytes);
+        properties.setWindowSize(windowSize);
+        return new PersistentChatMemory(properties, messageMapper, conversationMapper, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void hot_tier_is_bounded_by_conversations_bytes_and_window() {
+        PersistentChatMemory memory = memory(2, 1024, 3);
+
+        for (int i = 0; i < 5; i++) {
+            memory.add("s-a", new UserMessage("q" + i));
+        }
+        assertEquals(List.of("q2", "q3", "q4"), memory.get("s-a", 10).stream().map(Message::getText).toList());
+        assertEquals(List.of("q4"), memory.get("s-a", 1).stream().map(Message::getText).toList());
+
+        memory.add("s-b", new UserMessage("b"));
+        memory.add("s-c", new UserMessage("c"));
+        assertEquals(2, memory.size(), "超出会话数上限时淘汰最久未访问的会话");
+        assertTrue(memory.get("s-a", 10).isEmpty(), "非持久会话被淘汰后无法恢复");
+
+        memory.add("s-d", new UserMessage("x".repeat(600)));
+        assertTrue(memory.bytes() <= 1024, "总字节数不超过上限");
+
+        verifyNoInteractions(messageMapper);
+    }
+
+    @Test
+    void existing_conversation_is_written_through() {
+        Conversation conversation = new Conversation();
+        conversation.setId(42L);
+        conversation.setUserId(7L);
+        when(conversationMapper.selectById(42L)).thenReturn(conversation);
+        when(messageMapper.selectList(any())).thenReturn(new java.util.ArrayList<>());
+        doAnswer(invocation -> {
+            invocation.<com.xin.aiagent.entity.Message>getArgument(0).setId(1001L);
+            return 1;
+        }).when(messageMapper).insert(any(com.xin.aiagent.entity.Message.class));
+        PersistentChatMemory memory = memory(10, 1 << 20, 10);
+        String memoryId = PersistentChatMemory.conversationId(7L, "42");
+
+        AssistantMessage answer = new AssistantMessage("答");
+        memory.add(memoryId, List.of(new UserMessage("问"), new SystemMessage("sys"), answer));
+
+        verify(messageMapper, times(2)).insert(any(com.xin.aiagent.entity.Message.class));
+        assertEquals(3, memory.get(memoryId, 10).size());
+        assertEquals(1001L, answer.getMetadata().get(PersistentChatMemory.MESSAGE_ID), "AI 消息回填写入的行 ID");
+    }
+
+    @Test
+    void foreign_conversation_is_ephemeral() {
+        Conversation conversation = new Conversation();
+        conversation.setId(42L);
+        conversation.setUserId(7L);
+        when(conversationMapper.selectById(42L)).thenReturn(conversation);
+        PersistentChatMemory memory = memory(10, 1 << 20, 10);
+
+        String foreign = PersistentChatMemory.conversationId(8L, "42");
+        memory.add(foreign, new UserMessage("窥探"));
+        memory.add(PersistentChatMemory.conversationId(null, "42"), new UserMessage("匿名"));
+
+        verifyNoInteractions(messageMapper);
+        assertEquals(List.of("窥探"), memory.get(foreign, 10).stream().map(Message::getText).toList());
+        assertTrue(memory.get(PersistentChatMemory.conversationId(7L, "42"), 10).isEmpty(),
+                "不同用户的同名会话互不可见");
+    }
+}
@@ -0,0 +1,102 @@
+package com.xin.aiagent;
+
+import com.xin.aiagent.cache.ResponseCacheAdvisor;
+import com.xin.aiagent.cache.SemanticCacheAdvisor;
+import com.xin.aiagent.config.ResponseCacheProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.advisor.QuestionAnswerAdvisor;
+import org.springframework.ai.chat.client.advisor.api.AdvisedRequest;
+import org.springframework.ai.chat.client.advisor.api.AdvisedResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAroundAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAroundAdvisorChain;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * 回答缓存测试：规范化问题 + 文档 ID 命中，命中后流式分片返回；历史与租户不同则不命中。
+ */
+public class ResponseCacheAdvisorTest {
+
+    private final ChatModel chatModel = mock(ChatModel.class);
+
+    private AdvisedRequest request(String question, String docId) {
+        return AdvisedRequest.builder()
+                .chatModel(chatModel)
+                .userText(question + System.lineSeparator() + "Context information is below.")
+                .adviseContext(Map.of(QuestionAnswerAdvisor.RETRIEVED_DOCUMENTS, List.of(new Document(docId, "doc", Map.of()))))
+                .build();
+    }
+
+    @Test
+    void normalized_prompt_with_same_documents_hits_cache() {
+        ResponseCacheProperties properties = new ResponseCacheProperties();
+        properties.setEnabled(true);
+        properties.setStreamChunkChars(4);
+        ResponseCacheAdvisor advisor = new ResponseCacheAdvisor(properties, new SimpleMeterRegistry());
+
+        CallAroundAdvisorChain chain = mock(CallAroundAdvisorChain.class);
+        when(chain.nextAroundCall(any())).thenAnswer(inv -> new AdvisedResponse(
+                new ChatResponse(List.of(new Generation(new AssistantMessage("RAG 是检索增强生成。")))), Map.of()));
+
+        AdvisedResponse first = advisor.aroundCall(request("什么是 RAG？", "d1"), chain);
+        AdvisedResponse second = advisor.aroundCall(request("  什么是   rag? ", "d1"), chain);
+        verify(chain, times(1)).nextAroundCall(any());
+        assertEquals(first.response().getResult().getOutput().getText(), second.response().getResult().getOutput().getText());
+
+        advisor.aroundCall(request("什么是 RAG？", "d2"), chain);
+        verify(chain, times(2)).nextAroundCall(any());
+
+        StreamAroundAdvisorChain streamChain = mock(StreamAroundAdvisorChain.class);
+        List<String> parts = advisor.aroundStream(request("什么是RAG", "d2"), streamChain)
+                .map(r -> r.response().getResult().getOutput().getText())
+                .collectList().block();
+        verifyNoInteractions(streamChain);
+        assertNotNull(parts);
+        assertTrue(parts.size() > 1, "命中后应分片流式返回");
+        assertEquals("RAG 是检索增强生成。", String.join("", parts));
+    }
+
+    @Test
+    void history_and_tenant_are_part_of_the_key() {
+        ResponseCacheProperties properties = new ResponseCacheProperties();
+        properties.setEnabled(true);
+        ResponseCacheAdvisor advisor = new ResponseCacheAdvisor(properties, new SimpleMeterRegistry());
+        CallAroundAdvisorChain chain = mock(CallAroundAdvisorChain.class);
+        when(chain.nextAroundCall(any())).thenAnswer(inv -> new AdvisedResponse(
+                new ChatResponse(List.of(new Generation(new AssistantMessage("第二个是……")))), Map.of()));
+
+        AdvisedRequest followUp = request("那第二个呢", "d1");
+        AdvisedRequest userA = AdvisedRequest.from(followUp)
+                .messages(List.of(new UserMessage("推荐三本书"), new AssistantMessage("甲、乙、丙")))
+                .adviseContext(Map.of(QuestionAnswerAdvisor.RETRIEVED_DOCUMENTS, List.of(new Document("d1", "doc", Map.of())),
+                        SemanticCacheAdvisor.TENANT_KEY, "user:1"))
+                .build();
+        advisor.aroundCall(userA, chain);
+        advisor.aroundCall(userA, chain);
+        verify(chain, times(1)).nextAroundCall(any());
+
+        // 同一用户、不同历史
+        advisor.aroundCall(AdvisedRequest.from(userA)
+                .messages(List.of(new UserMessage("推荐三部电影"), new AssistantMessage("丁、戊、己"))).build(), chain);
+        verify(chain, times(2)).nextAroundCall(any());
+
+        // 相同历史、不同用户
+        advisor.aroundCall(AdvisedRequest.from(userA)
+                .adviseContext(Map.of(QuestionAnswerAdvisor.RETRIEVED_DOCUMENTS, List.of(new Document("d1", "doc", Map.of())),
+                        SemanticCacheAdvisor.TENANT_KEY, "user:2"))
+                .build(), chain);
+        verify(chain, times(3)).nextAroundCall(any());
+    }
+}
@@ -0,0 +1,127 @@
+package com.xin.aiagent;
+
+import com.xin.aiagent.config.ChatMemoryProperties;
+import com.xin.aiagent.entity.ConversationSummary;
+import com.xin.aiagent.mapper.ConversationSummaryMapper;
+import com.xin.aiagent.memory.PersistentChatMemory;
+import com.xin.aiagent.memory.RollingSummaryStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * 滚动摘要测试：只折叠水位之后新掉出预算的消息；水位按消息序号而非内容；折叠失败后退避。
+ */
+public class RollingSummaryStoreTest {
+
+    private static Message seq(Message message, long seq) {
+        message.getMetadata().put(PersistentChatMemory.MESSAGE_SEQ, seq);
+        return message;
+    }
+
+    private static ChatResponse reply(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+
+    @Test
+    void fold_is_incremental_from_watermark() {
+        ChatModel chatModel = mock(ChatModel.class);
+        when(chatModel.call(any(Prompt.class)))
+                .thenReturn(new ChatResponse(List.of(new Generation(new AssistantMessage("摘要1")))))
+                .thenReturn(new ChatResponse(List.of(new Generation(new AssistantMessage("摘要2")))));
+        ConversationSummaryMapper mapper = mock(ConversationSummaryMapper.class);
+        RollingSummaryStore store = new RollingSummaryStore(chatModel, mapper, new ChatMemoryProperties(),
+                new SimpleMeterRegistry());
+        try {
+            Message q1 = seq(new UserMessage("问题一"), 1);
+            Message a1 = seq(new AssistantMessage("回答一"), 2);
+            Message q2 = seq(new UserMessage("问题二"), 3);
+            Message a2 = seq(new AssistantMessage("回答二"), 4);
+
+            assertTrue(store.hasUnfolded("c1", List.of(q1, a1)));
+            store.fold("c1", List.of(q1, a1));
+            assertEquals("摘要1", store.summaryOf("c1"));
+            verify(mapper).insert(any(ConversationSummary.class));
+            assertFalse(store.hasUnfolded("c1", List.of(q1, a1)), "已折叠的消息不应再次触发");
+
+            store.fold("c1", List.of(a1, q2, a2));
+            assertEquals("摘要2", store.summaryOf("c1"));
+
+            ArgumentCaptor<Prompt> prompts = ArgumentCaptor.forClass(Prompt.class);
+            verify(chatModel, times(2)).call(prompts.capture());
+            String second = prompts.getAllValues().get(1).getInstructions().get(1).getText();
+            assertTrue(second.contains("摘要1") && second.contains("问题二") && second.contains("回答二"));
+            assertFalse(second.contains("回答一"), "水位之前的消息不应重复送入摘要模型");
+        } finally {
+            store.shutdown();
+        }
+    }
+
+    @Test
+    void repeated_messages_do_not_confuse_the_watermark() {
+        ChatModel chatModel = mock(ChatModel.class);
+        when(chatModel.call(any(Prompt.class))).thenReturn(reply("摘要1"), reply("摘要2"));
+        ConversationSummaryMapper mapper = mock(ConversationSummaryMapper.class);
+        RollingSummaryStore store = new RollingSummaryStore(chatModel, mapper, new ChatMemoryProperties(),
+                new SimpleMeterRegistry());
+        try {
+            Message go1 = seq(new UserMessage("继续"), 1);
+            Message a1 = seq(new AssistantMessage("第一段"), 2);
+            Message go2 = seq(new UserMessage("继续"), 3);
+            Message a2 = seq(new AssistantMessage("第二段"), 4);
+
+            store.fold("c1", List.of(go1, a1, go2));
+            assertFalse(store.hasUnfolded("c1", List.of(go1, a1, go2)));
+            assertTrue(store.hasUnfolded("c1", List.of(go1, a1, go2, a2)), "内容相同但序号更新的消息仍需折叠");
+
+            store.fold("c1", List.of(go1, a1, go2, a2));
+            ArgumentCaptor<Prompt> prompts = ArgumentCaptor.forClass(Prompt.class);
+            verify(chatModel, times(2)).call(prompts.capture());
+            String second = prompts.getAllValues().get(1).getInstructions().get(1).getText();
+            assertTrue(second.contains("第二段"));
+            assertFalse(second.contains("继续") || second.contains("第一段"), "水位按序号定位，不会回退到同内容的旧消息");
+
+            ArgumentCaptor<ConversationSummary> rows = ArgumentCaptor.forClass(ConversationSummary.class);
+            verify(mapper, atLeastOnce()).insert(rows.capture());
+            assertEquals(64, rows.getValue().getConversationKey().length(), "主键是记忆 ID 的哈希，长度固定");
+        } finally {
+            store.shutdown();
+        }
+    }
+
+    @Test
+    void failed_fold_backs_off_instead_of_retrying_every_turn() {
+        ChatModel chatModel = mock(ChatModel.class);
+        when(chatModel.call(any(Prompt.class))).thenReturn(reply("摘要"));
+        ConversationSummaryMapper mapper = mock(ConversationSummaryMapper.class);
+        when(mapper.insert(any(ConversationSummary.class))).thenThrow(new RuntimeException("Data too long"));
+        ChatMemoryProperties properties = new ChatMemoryProperties();
+        properties.getBudget().setSummaryRetryBackoffMs(60_000);
+        RollingSummaryStore store = new RollingSummaryStore(chatModel, mapper, properties, new SimpleMeterRegistry());
+        try {
+            List<Message> dropped = List.of(seq(new UserMessage("问题"), 1), seq(new AssistantMessage("回答"), 2));
+            String memoryId = "anon:" + "s".repeat(200);
+
+            assertTrue(store.hasUnfolded(memoryId, dropped));
+            store.fold(memoryId, dropped);
+            assertNull(store.summaryOf(memoryId));
+            assertFalse(store.hasUnfolded(memoryId, dropped), "退避期内不再触发摘要模型");
+            verify(chatModel, times(1)).call(any(Prompt.class));
+        } finally {
+            store.shutdown();
+        }
+    }
+}
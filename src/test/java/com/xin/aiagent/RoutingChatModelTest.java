@@ -0,0 +1,103 @@
+package com.xin.aiagent;
+
+import com.xin.aiagent.config.ChatRouterProperties;
+import com.xin.aiagent.upstream.RoutingChatModel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.ai.tool.function.FunctionToolCallback;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * 多模型路由测试：按提示词长度与模式选档、改写模型名、过载时故障转移并冷却端点。
+ */
+public class RoutingChatModelTest {
+
+    private final ChatModel cheap = mock(ChatModel.class);
+    private final ChatModel strong = mock(ChatModel.class);
+
+    private RoutingChatModel router(ChatRouterProperties properties) {
+        return new RoutingChatModel(List.of(
+                new RoutingChatModel.Endpoint("cheap", RoutingChatModel.Tier.CHEAP, "deepseek-chat", cheap),
+                new RoutingChatModel.Endpoint("strong", RoutingChatModel.Tier.STRONG, "deepseek-reasoner", strong)),
+                properties, new SimpleMeterRegistry());
+    }
+
+    private static ChatResponse answer(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+
+    private static Prompt prompt(String text) {
+        return new Prompt(text, OpenAiChatOptions.builder().model("deepseek-chat").build());
+    }
+
+    private static Prompt toolPrompt() {
+        return new Prompt("hi", ToolCallingChatOptions.builder()
+                .toolCallbacks(FunctionToolCallback.builder("searchWeb", (String query) -> "ok")
+                        .inputType(String.class)
+                        .build())
+                .build());
+    }
+
+    @Test
+    void routes_by_prompt_length_and_mode_and_rewrites_model() {
+        ChatRouterProperties properties = new ChatRouterProperties();
+        properties.setCheapMaxPromptChars(10);
+        RoutingChatModel router = router(properties);
+        when(cheap.call(any(Prompt.class))).thenReturn(answer("cheap"));
+        when(strong.call(any(Prompt.class))).thenReturn(answer("strong"));
+
+        assertEquals("cheap", router.call(prompt("hi")).getResult().getOutput().getText());
+        assertEquals("strong", router.call(prompt("a much longer question")).getResult().getOutput().getText());
+
+        ArgumentCaptor<Prompt> sent = ArgumentCaptor.forClass(Prompt.class);
+        verify(strong).call(sent.capture());
+        assertEquals("deepseek-reasoner", sent.getValue().getOptions().getModel());
+
+        Prompt tools = toolPrompt();
+        assertEquals("strong", router.call(tools).getResult().getOutput().getText());
+    }
+
+    @Test
+    void overload_fails_over_and_cools_down_endpoint() {
+        ChatRouterProperties properties = new ChatRouterProperties();
+        properties.setEwmaAlpha(0.6);
+        properties.setErrorThreshold(0.5);
+        RoutingChatModel router = router(properties);
+        when(cheap.call(any(Prompt.class))).thenThrow(new TransientAiException("503 - overloaded"));
+        when(strong.call(any(Prompt.class))).thenReturn(answer("strong"));
+
+        // 首次：便宜档失败，同一请求切到强档；错误率 0.6 超过阈值，便宜档进入冷却
+        assertEquals("strong", router.call(prompt("hi")).getResult().getOutput().getText());
+        verify(cheap, times(1)).call(any(Prompt.class));
+
+        // 冷却期内短问题也直接走强档
+        assertEquals("strong", router.call(prompt("hi")).getResult().getOutput().getText());
+        verify(cheap, times(1)).call(any(Prompt.class));
+        verify(strong, times(2)).call(any(Prompt.class));
+    }
+
+    @Test
+    void tool_calls_are_not_retried_on_another_endpoint() {
+        RoutingChatModel router = router(new ChatRouterProperties());
+        when(strong.call(any(Prompt.class))).thenThrow(new TransientAiException("503 - overloaded"));
+        when(cheap.call(any(Prompt.class))).thenReturn(answer("cheap"));
+
+        Prompt tools = toolPrompt();
+        assertThrows(TransientAiException.class, () -> router.call(tools));
+        verify(cheap, never()).call(any(Prompt.class));
+    }
+}
@@ -0,0 +1,137 @@
+package com.xin.aiagent;
+
+import com.xin.aiagent.cache.SemanticAnswerIndex;
+import com.xin.aiagent.cache.SemanticCacheAdvisor;
+import com.xin.aiagent.config.SemanticCacheProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.advisor.api.AdvisedRequest;
+import org.springframework.ai.chat.client.advisor.api.AdvisedResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAroundAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAroundAdvisorChain;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.embedding.EmbeddingModel;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * 语义缓存测试：相似度阈值、租户隔离、容量淘汰、对话历史隔离；流式未命中只调用一次下游。
+ */
+public class SemanticCacheTest {
+
+    private static float[] vec(float... v) {
+        return SemanticAnswerIndex.normalize(v);
+    }
+
+    @Test
+    void index_respects_threshold_tenant_and_capacity() {
+        SemanticAnswerIndex index = new SemanticAnswerIndex(10, 2, 60_000);
+        index.put("u1", "s", vec(1, 0, 0), "如何重置密码", "在设置页点击重置");
+
+        SemanticAnswerIndex.Match match = index.lookup("u1", "s", vec(0.95f, 0.1f, 0), 0.9);
+        assertNotNull(match);
+        assertEquals("在设置页点击重置", match.answer());
+
+        assertNull(index.lookup("u1", "s", vec(0, 1, 0), 0.9), "低于阈值不应命中");
+        assertNull(index.lookup("u2", "s", vec(1, 0, 0), 0.9), "不同租户互不可见");
+        assertNull(index.lookup("u1", "other", vec(1, 0, 0), 0.9), "不同范围互不可见");
+
+        index.put("u1", "s", vec(0, 1, 0), "q2", "a2");
+        index.lookup("u1", "s", vec(1, 0, 0), 0.9);
+        index.put("u1", "s", vec(0, 0, 1), "q3", "a3");
+        assertEquals(2, index.size(), "超过每租户上限时淘汰最久未命中的条目");
+        assertNotNull(index.lookup("u1", "s", vec(1, 0, 0), 0.9), "刚命中过的条目应保留");
+        assertNull(index.lookup("u1", "s", vec(0, 1, 0), 0.9), "最久未使用的条目被淘汰");
+    }
+
+    @Test
+    void paraphrase_hits_without_calling_the_model() {
+        EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+        when(embeddingModel.embed("怎么重置密码")).thenReturn(new float[]{1, 0});
+        when(embeddingModel.embed("密码重置步骤")).thenReturn(new float[]{0.98f, 0.05f});
+        SemanticCacheProperties properties = new SemanticCacheProperties();
+        properties.setEnabled(true);
+        SemanticCacheAdvisor advisor = new SemanticCacheAdvisor(embeddingModel, properties, new SimpleMeterRegistry());
+
+        CallAroundAdvisorChain chain = mock(CallAroundAdvisorChain.class);
+        when(chain.nextAroundCall(any())).thenReturn(new AdvisedResponse(
+                new ChatResponse(List.of(new Generation(new AssistantMessage("打开设置 → 安全 → 重置密码")))), Map.of()));
+        ChatModel chatModel = mock(ChatModel.class);
+
+        advisor.aroundCall(request(chatModel, "怎么重置密码", "user:1"), chain);
+        AdvisedResponse hit = advisor.aroundCall(request(chatModel, "密码重置步骤", "user:1"), chain);
+        advisor.aroundCall(request(chatModel, "密码重置步骤", "user:2"), chain);
+
+        assertEquals("打开设置 → 安全 → 重置密码", hit.response().getResult().getOutput().getText());
+        verify(chain, times(2)).nextAroundCall(any());
+    }
+
+    @Test
+    void follow_up_does_not_hit_another_conversation() {
+        EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+        when(embeddingModel.embed("那第二个呢？")).thenReturn(new float[]{1, 0});
+        SemanticCacheProperties properties = new SemanticCacheProperties();
+        properties.setEnabled(true);
+        SemanticCacheAdvisor advisor = new SemanticCacheAdvisor(embeddingModel, properties, new SimpleMeterRegistry());
+
+        CallAroundAdvisorChain chain = mock(CallAroundAdvisorChain.class);
+        when(chain.nextAroundCall(any())).thenReturn(
+                new AdvisedResponse(new ChatResponse(List.of(new Generation(new AssistantMessage("第二本是乙")))), Map.of()),
+                new AdvisedResponse(new ChatResponse(List.of(new Generation(new AssistantMessage("第二部是戊")))), Map.of()));
+        ChatModel chatModel = mock(ChatModel.class);
+        List<Message> books = List.of(new UserMessage("推荐三本书"), new AssistantMessage("甲、乙、丙"));
+        List<Message> movies = List.of(new UserMessage("推荐三部电影"), new AssistantMessage("丁、戊、己"));
+
+        // 同一用户的两段对话：同样的追问在不同历史下不能互相命中
+        advisor.aroundCall(request(chatModel, "那第二个呢？", "user:1", books), chain);
+        AdvisedResponse other = advisor.aroundCall(request(chatModel, "那第二个呢？", "user:1", movies), chain);
+        AdvisedResponse same = advisor.aroundCall(request(chatModel, "那第二个呢？", "user:1", books), chain);
+
+        assertEquals("第二部是戊", other.response().getResult().getOutput().getText());
+        assertEquals("第二本是乙", same.response().getResult().getOutput().getText());
+        verify(chain, times(2)).nextAroundCall(any());
+    }
+
+    @Test
+    void empty_stream_miss_calls_the_model_once() {
+        EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+        when(embeddingModel.embed("怎么重置密码")).thenReturn(new float[]{1, 0});
+        when(embeddingModel.embed("密码重置步骤")).thenThrow(new IllegalStateException("embedding down"));
+        SemanticCacheProperties properties = new SemanticCacheProperties();
+        properties.setEnabled(true);
+        SemanticCacheAdvisor advisor = new SemanticCacheAdvisor(embeddingModel, properties, new SimpleMeterRegistry());
+
+        StreamAroundAdvisorChain chain = mock(StreamAroundAdvisorChain.class);
+        when(chain.nextAroundStream(any())).thenReturn(Flux.empty());
+        ChatModel chatModel = mock(ChatModel.class);
+
+        // 未命中与向量化失败（跳过缓存）两条路径，下游返回空流时都不应再次调用
+        assertEquals(0, advisor.aroundStream(request(chatModel, "怎么重置密码", "user:1"), chain).count().block());
+        assertEquals(0, advisor.aroundStream(request(chatModel, "密码重置步骤", "user:1"), chain).count().block());
+        verify(chain, times(2)).nextAroundStream(any());
+    }
+
+    private static AdvisedRequest request(ChatModel chatModel, String prompt, String tenant) {
+        return request(chatModel, prompt, tenant, List.of());
+    }
+
+    private static AdvisedRequest request(ChatModel chatModel, String prompt, String tenant, List<Message> history) {
+        return AdvisedRequest.builder()
+                .chatModel(chatModel)
+                .userText(prompt)
+                .messages(history)
+                .adviseContext(Map.of(SemanticCacheAdvisor.TENANT_KEY, tenant))
+                .build();
+    }
+}
@@ -0,0 +1,200 @@
+package com.xin.aiagent;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.xin.aiagent.app.ChatMode;
+import com.xin.aiagent.config.SseProperties;
+import com.xin.aiagent.sse.ChatStreamRegistry;
+import com.xin.aiagent.sse.ChatStreamSession;
+import com.xin.aiagent.sse.DeltaCoalescer;
+import com.xin.aiagent.sse.SseFrameEncoder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * SSE 帧编码与增量合并测试；写连接（含重连补发）在会话锁外进行，慢连接不阻塞发布者；失败的生成以 error 事件正常结束连接。
+ */
+public class SseFrameEncoderTest {
+
+    @Test
+    void delta_json_is_valid_and_frame_matches_sse_format() throws Exception {
+        String content = "换行\n引号\"反斜杠\\ tab\t";
+        String json = SseFrameEncoder.deltaJson(content);
+        JsonNode node = new ObjectMapper().readTree(json);
+        assertEquals("delta", node.get("type").asText());
+        assertEquals(content, node.get("content").asText());
+
+        assertEquals("id:7\nevent:message\ndata:" + json + "\n\n", SseFrameEncoder.frame(7, "message", json));
+        assertEquals("event:done\ndata:done\n\n", SseFrameEncoder.frame(0, "done", "done"));
+    }
+
+    @Test
+    void coalescer_sends_first_delta_immediately_then_merges() {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try {
+            List<String> sent = new ArrayList<>();
+            DeltaCoalescer coalescer = new DeltaCoalescer(10_000, 8, timer, sent::add);
+
+            coalescer.offer("你");
+            assertEquals(List.of("你"), sent);
+
+            coalescer.offer("好");
+            coalescer.offer("a");
+            assertEquals(1, sent.size(), "未达到字节阈值时应继续累积");
+
+            coalescer.offer("世界");
+            assertEquals(List.of("你", "好a世界"), sent);
+
+            coalescer.offer("!");
+            coalescer.flush();
+            assertEquals(List.of("你", "好a世界", "!"), sent);
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+
+    @Test
+    void slow_subscriber_does_not_block_publishers() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch unblock = new CountDownLatch(1);
+        List<String> frames = new CopyOnWriteArrayList<>();
+        SseEmitter slow = new SseEmitter() {
+            @Override
+            public void send(Set<DataWithMediaType> items) {
+                writing.countDown();
+                try {
+                    unblock.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                items.forEach(item -> frames.add(item.getData().toString()));
+            }
+        };
+        try {
+            ChatStreamRegistry registry = new ChatStreamRegistry(new SseProperties(), new SimpleMeterRegistry(), scheduler);
+            ChatStreamSession session = registry.create(1L, "s1", ChatMode.TOOLS);
+            session.attach(slow, 0);
+
+            CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> session.publish("message", "a"));
+            assertTrue(writing.await(2, TimeUnit.SECONDS));
+
+            // 写出线程阻塞在慢连接上时，其他发布者与会话查询不被阻塞
+            CompletableFuture.runAsync(() -> {
+                session.publish("message", "b");
+                session.publish("done", "done");
+                session.complete();
+                assertTrue(session.isFinished());
+            }).get(2, TimeUnit.SECONDS);
+
+            unblock.countDown();
+            writer.get(2, TimeUnit.SECONDS);
+            assertEquals(List.of(SseFrameEncoder.frame(1, "message", "a"), SseFrameEncoder.frame(2, "message", "b"),
+                    SseFrameEncoder.frame(3, "done", "done")), frames, "事件按 id 顺序全部写出后才结束");
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    void slow_reconnect_replay_does_not_block_publishers() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch unblock = new CountDownLatch(1);
+        CountDownLatch completed = new CountDownLatch(1);
+        List<String> frames = new CopyOnWriteArrayList<>();
+        SseEmitter slow = new SseEmitter() {
+            @Override
+            public void send(Set<DataWithMediaType> items) {
+                writing.countDown();
+                try {
+                    unblock.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                items.forEach(item -> frames.add(item.getData().toString()));
+            }
+
+            @Override
+            public void complete() {
+                completed.countDown();
+            }
+        };
+        try {
+            ChatStreamRegistry registry = new ChatStreamRegistry(new SseProperties(), new SimpleMeterRegistry(), scheduler);
+            ChatStreamSession session = registry.create(1L, "s1", ChatMode.TOOLS);
+            session.publish("message", "a");
+            session.publish("message", "b");
+
+            // 重连补发阻塞在慢连接上时，生成线程照常发布并结束会话
+            CompletableFuture<Boolean> attach = CompletableFuture.supplyAsync(() -> session.attach(slow, 0));
+            assertTrue(writing.await(2, TimeUnit.SECONDS));
+            CompletableFuture.runAsync(() -> {
+                session.publish("message", "c");
+                session.publish("done", "done");
+                session.complete();
+            }).get(2, TimeUnit.SECONDS);
+
+            unblock.countDown();
+            assertTrue(attach.get(2, TimeUnit.SECONDS));
+            assertTrue(completed.await(2, TimeUnit.SECONDS));
+            assertEquals(List.of(SseFrameEncoder.frame(1, "message", "a"), SseFrameEncoder.frame(2, "message", "b"),
+                    SseFrameEncoder.frame(3, "message", "c"), SseFrameEncoder.frame(4, "done", "done")), frames,
+                    "补发期间发布的事件也要按顺序送达，且只送达一次");
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    void failed_generation_ends_stream_with_error_event_not_exception() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        List<String> frames = new CopyOnWriteArrayList<>();
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        CountDownLatch completed = new CountDownLatch(1);
+        SseEmitter emitter = new SseEmitter() {
+            @Override
+            public void send(Set<DataWithMediaType> items) {
+                items.forEach(item -> frames.add(item.getData().toString()));
+            }
+
+            @Override
+            public void complete() {
+                completed.countDown();
+            }
+
+            @Override
+            public void completeWithError(Throwable ex) {
+                errors.add(ex);
+            }
+        };
+        try {
+            ChatStreamRegistry registry = new ChatStreamRegistry(new SseProperties(), new SimpleMeterRegistry(), scheduler);
+            ChatStreamSession session = registry.create(1L, "s1", ChatMode.TOOLS);
+            session.attach(emitter, 0);
+
+            String error = SseFrameEncoder.errorJson("server_error", "Stream processing failed");
+            session.publish("message", error);
+            session.fail(new RuntimeException("server_error:Stream processing failed"));
+
+            assertEquals(List.of(SseFrameEncoder.frame(1, "message", error)), frames);
+            assertEquals(0, completed.getCount(), "应正常结束连接");
+            assertTrue(errors.isEmpty(), "异常不应交给异步分派（全局异常处理器无法向 SSE 响应写入）");
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+}
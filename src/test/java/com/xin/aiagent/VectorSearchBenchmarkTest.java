@@ -0,0 +1,215 @@
+package com.xin.aiagent;
+
+import com.xin.aiagent.vector.MappedVectorStore;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.ai.vectorstore.VectorStore;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 检索基准：以 SimpleVectorStore 的全量扫描结果为标准答案，对比 MappedVectorStore（flat / hnsw 各 ef-search /
+ * int8 量化 + 精排）的 recall@k、单次查询 p50/p99 延迟与每行向量内存。默认不执行，运行方式：
+ * mvn test -Pbenchmark [-Dbench.docs=100000 -Dbench.dimensions=256 -Dbench.queries=500]
+ */
+@Tag("benchmark")
+public class VectorSearchBenchmarkTest {
+
+    private static final int DOCS = Integer.getInteger("bench.docs", 20_000);
+    private static final int DIMENSIONS = Integer.getInteger("bench.dimensions", 128);
+    private static final int QUERIES = Integer.getInteger("bench.queries", 200);
+    private static final int TOP_K = 10;
+
+    @TempDir
+    Path dir;
+
+    /**
+     * 按文本查表返回预先生成的向量，使各个向量库对同一批向量建库和查询
+     */
+    static final class FixedEmbeddingModel implements EmbeddingModel {
+        private final Map<String, float[]> vectors = new HashMap<>();
+        private final int dimensions;
+
+        FixedEmbeddingModel(int dimensions) {
+            this.dimensions = dimensions;
+        }
+
+        void put(String text, float[] vector) {
+            vectors.put(text, vector);
+        }
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (int i = 0; i < request.getInstructions().size(); i++) {
+                embeddings.add(new Embedding(vectors.get(request.getInstructions().get(i)), i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return vectors.get(document.getText());
+        }
+
+        @Override
+        public int dimensions() {
+            return dimensions;
+        }
+    }
+
+    record Row(String name, double recall, long p50Micros, long p99Micros, long buildMs) {
+        @Override
+        public String toString() {
+            return String.format("%-22s recall@%d=%.4f  p50=%6dus  p99=%6dus  build=%6dms",
+                    name, TOP_K, recall, p50Micros, p99Micros, buildMs);
+        }
+    }
+
+    @Test
+    void recall_and_latency_against_brute_force() {
+        // 文档与查询取自同一分布
+        float[][] vectors = HnswIndexTest.clustered(DOCS + QUERIES, DIMENSIONS, 11);
+        FixedEmbeddingModel embeddingModel = new FixedEmbeddingModel(DIMENSIONS);
+        List<Document> documents = new ArrayList<>(DOCS);
+        for (int i = 0; i < DOCS; i++) {
+            embeddingModel.put("doc-" + i, vectors[i]);
+            documents.add(new Document("doc-" + i, "doc-" + i, Map.of("shard", i % 4)));
+        }
+        List<String> queries = new ArrayList<>(QUERIES);
+        for (int i = 0; i < QUERIES; i++) {
+            embeddingModel.put("query-" + i, vectors[DOCS + i]);
+            queries.add("query-" + i);
+        }
+        System.out.printf("[benchmark] docs=%d dimensions=%d queries=%d topK=%d%n", DOCS, DIMENSIONS, QUERIES, TOP_K);
+
+        long start = System.nanoTime();
+        SimpleVectorStore simple = SimpleVectorStore.builder(embeddingModel).build();
+        simple.add(documents);
+        long simpleBuildMs = (System.nanoTime() - start) / 1_000_000;
+        List<Set<String>> truth = new ArrayList<>();
+        long[] simpleLatency = measure(simple, queries, truth);
+        report(new Row("simple (brute force)", 1.0, percentile(simpleLatency, .5), percentile(simpleLatency, .99),
+                simpleBuildMs));
+
+        start = System.nanoTime();
+        try (MappedVectorStore flat = MappedVectorStore.builder(embeddingModel, dir.resolve("flat")).build()) {
+            flat.add(documents);
+            long buildMs = (System.nanoTime() - start) / 1_000_000;
+            List<Set<String>> found = new ArrayList<>();
+            long[] latency = measure(flat, queries, found);
+            report(new Row("mapped flat", recall(truth, found), percentile(latency, .5), percentile(latency, .99),
+                    buildMs));
+        }
+
+        // 倍数 1 即不多取候选，反映量化本身的召回损失
+        for (int factor : new int[]{1, 4}) {
+            start = System.nanoTime();
+            try (MappedVectorStore int8 = MappedVectorStore.builder(embeddingModel, dir.resolve("int8-" + factor))
+                    .int8(factor).build()) {
+                int8.add(documents);
+                long buildMs = (System.nanoTime() - start) / 1_000_000;
+                List<Set<String>> found = new ArrayList<>();
+                long[] latency = measure(int8, queries, found);
+                double recall = recall(truth, found);
+                report(new Row("mapped flat int8 x" + factor, recall, percentile(latency, .5),
+                        percentile(latency, .99), buildMs));
+                if (factor > 1) {
+                    assertTrue(recall >= 0.95, "int8 recall@" + TOP_K + " too low: " + recall);
+                }
+            }
+        }
+        System.out.printf("[benchmark] vector bytes: float32=%dB int8=%dB per row%n",
+                DIMENSIONS * Float.BYTES, DIMENSIONS + Float.BYTES);
+
+        double bestRecall = 0;
+        for (int ef : new int[]{16, 32, 64, 128, 256}) {
+            start = System.nanoTime();
+            try (MappedVectorStore hnsw = MappedVectorStore.builder(embeddingModel, dir.resolve("hnsw-" + ef))
+                    .hnsw(16, 200, ef).build()) {
+                hnsw.add(documents);
+                long buildMs = (System.nanoTime() - start) / 1_000_000;
+                List<Set<String>> found = new ArrayList<>();
+                long[] latency = measure(hnsw, queries, found);
+                double recall = recall(truth, found);
+                bestRecall = Math.max(bestRecall, recall);
+                report(new Row("mapped hnsw ef=" + ef, recall, percentile(latency, .5), percentile(latency, .99),
+                        buildMs));
+            }
+        }
+        assertTrue(bestRecall >= 0.9, "HNSW recall@" + TOP_K + " too low: " + bestRecall);
+
+        start = System.nanoTime();
+        try (MappedVectorStore hnsw = MappedVectorStore.builder(embeddingModel, dir.resolve("hnsw-int8"))
+                .hnsw(16, 200, 64).int8(4).build()) {
+            hnsw.add(documents);
+            long buildMs = (System.nanoTime() - start) / 1_000_000;
+            List<Set<String>> found = new ArrayList<>();
+            long[] latency = measure(hnsw, queries, found);
+            report(new Row("mapped hnsw int8 x4", recall(truth, found), percentile(latency, .5),
+                    percentile(latency, .99), buildMs));
+        }
+    }
+
+    private static long[] measure(VectorStore store, List<String> queries, List<Set<String>> results) {
+        // 预热
+        for (int i = 0; i < Math.min(20, queries.size()); i++) {
+            store.similaritySearch(request(queries.get(i)));
+        }
+        long[] latency = new long[queries.size()];
+        for (int i = 0; i < queries.size(); i++) {
+            long start = System.nanoTime();
+            List<Document> hits = store.similaritySearch(request(queries.get(i)));
+            latency[i] = (System.nanoTime() - start) / 1000;
+            Set<String> ids = new HashSet<>();
+            hits.forEach(hit -> ids.add(hit.getId()));
+            results.add(ids);
+        }
+        Arrays.sort(latency);
+        return latency;
+    }
+
+    private static SearchRequest request(String query) {
+        return SearchRequest.builder().query(query).topK(TOP_K).build();
+    }
+
+    static double recall(List<Set<String>> truth, List<Set<String>> found) {
+        int hits = 0;
+        int total = 0;
+        for (int i = 0; i < truth.size(); i++) {
+            total += truth.get(i).size();
+            for (String id : found.get(i)) {
+                if (truth.get(i).contains(id)) {
+                    hits++;
+                }
+            }
+        }
+        return total == 0 ? 1 : (double) hits / total;
+    }
+
+    static long percentile(long[] sorted, double p) {
+        int rank = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(rank, sorted.length - 1))];
+    }
+
+    static void report(Row row) {
+        System.out.println("[benchmark] " + row);
+    }
+}
@@ -0,0 +1,152 @@
+package com.xin.aiagent;
+
+import com.xin.aiagent.config.VectorIngestProperties;
+import com.xin.aiagent.config.VectorStoreProperties;
+import com.xin.aiagent.config.VectorWarmupProperties;
+import com.xin.aiagent.rag.AppDocumentLoader;
+import com.xin.aiagent.rag.VectorStoreHealthIndicator;
+import com.xin.aiagent.rag.VectorStoreWarmup;
+import com.xin.aiagent.vector.MappedVectorStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 后台预热测试：启动不阻塞、预热中按配置跳过或使用部分检索、延迟建图、失败降级，以及健康检查状态。
+ */
+public class VectorStoreWarmupTest {
+
+    @TempDir
+    Path dir;
+
+    /**
+     * 每次嵌入请求耗时 30ms，可设置为始终失败
+     */
+    static final class SlowEmbeddingModel extends HashEmbeddingModel {
+        volatile boolean failing;
+
+        SlowEmbeddingModel() {
+            super(32);
+        }
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            try {
+                Thread.sleep(30);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            if (failing) {
+                throw new NonTransientAiException("401 - invalid api key");
+            }
+            return super.call(request);
+        }
+    }
+
+    /**
+     * 不读 classpath，直接返回固定分块
+     */
+    static final class FixedDocumentLoader extends AppDocumentLoader {
+        FixedDocumentLoader() {
+            super(new PathMatchingResourcePatternResolver());
+        }
+
+        @Override
+        public List<Document> loadMarkdowns() {
+            List<Document> documents = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                documents.add(new Document("恋爱问答第" + i + "条", Map.of("filename", "love.md")));
+            }
+            return documents;
+        }
+    }
+
+    private VectorStoreWarmup warmup(MappedVectorStore store, VectorWarmupProperties.WhileIndexing whileIndexing) {
+        VectorStoreProperties storeProperties = new VectorStoreProperties();
+        storeProperties.setPath(dir.toString());
+        VectorIngestProperties ingestProperties = new VectorIngestProperties();
+        // 每批 2 个分块、串行：20 个分块约 300ms
+        ingestProperties.setBatchMaxChunks(2);
+        ingestProperties.setParallelism(1);
+        ingestProperties.setMaxAttempts(1);
+        VectorWarmupProperties warmupProperties = new VectorWarmupProperties();
+        warmupProperties.setWhileIndexing(whileIndexing);
+        return new VectorStoreWarmup(store, new FixedDocumentLoader(), storeProperties, ingestProperties,
+                warmupProperties, true);
+    }
+
+    private static void await(VectorStoreWarmup warmup) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (warmup.getState() == VectorStoreWarmup.State.INDEXING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void warmup_runs_in_background_and_gates_retrieval() throws InterruptedException {
+        SlowEmbeddingModel model = new SlowEmbeddingModel();
+        try (MappedVectorStore store = MappedVectorStore.builder(model, dir).hnsw(8, 50, 32).deferIndexBuild().build()) {
+            VectorStoreWarmup warmup = warmup(store, VectorWarmupProperties.WhileIndexing.SKIP);
+            VectorStoreHealthIndicator health = new VectorStoreHealthIndicator(warmup, store);
+            assertEquals(VectorStoreWarmup.State.PENDING, warmup.getState());
+
+            long start = System.nanoTime();
+            warmup.start();
+            assertTrue(System.nanoTime() - start < 100_000_000L, "start() must not block");
+            assertFalse(warmup.isReady());
+            assertFalse(warmup.retrievalEnabled());
+            assertEquals("INDEXING", health.health().getStatus().getCode());
+
+            await(warmup);
+            assertTrue(warmup.isReady());
+            assertTrue(warmup.retrievalEnabled());
+            assertTrue(store.isIndexReady());
+            assertEquals(20, store.size());
+            Health ready = health.health();
+            assertEquals(Status.UP, ready.getStatus());
+            assertEquals("20/20", ready.getDetails().get("chunks"));
+        }
+    }
+
+    @Test
+    void partial_mode_keeps_retrieval_on_while_indexing() throws InterruptedException {
+        try (MappedVectorStore store = MappedVectorStore.builder(new SlowEmbeddingModel(), dir).build()) {
+            VectorStoreWarmup warmup = warmup(store, VectorWarmupProperties.WhileIndexing.PARTIAL);
+            warmup.start();
+            assertFalse(warmup.isReady());
+            assertTrue(warmup.retrievalEnabled());
+            await(warmup);
+        }
+    }
+
+    @Test
+    void failed_ingestion_degrades_but_keeps_retrieval() throws InterruptedException {
+        SlowEmbeddingModel model = new SlowEmbeddingModel();
+        model.failing = true;
+        try (MappedVectorStore store = MappedVectorStore.builder(model, dir).build()) {
+            VectorStoreWarmup warmup = warmup(store, VectorWarmupProperties.WhileIndexing.SKIP);
+            warmup.start();
+            await(warmup);
+
+            assertEquals(VectorStoreWarmup.State.FAILED, warmup.getState());
+            assertFalse(warmup.isReady());
+            assertTrue(warmup.retrievalEnabled());
+            Health health = new VectorStoreHealthIndicator(warmup, store).health();
+            assertEquals("DEGRADED", health.getStatus().getCode());
+            assertNotNull(health.getDetails().get("error"));
+        }
+    }
+}